@@ -7,12 +7,18 @@
  */
 package org.opendaylight.p4plugin.runtime.impl;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.opendaylight.mdsal.eos.binding.api.EntityOwnershipService;
+import org.opendaylight.p4plugin.runtime.impl.cluster.DeviceOwnership;
 import org.opendaylight.p4plugin.runtime.impl.cluster.ElectionId;
 import org.opendaylight.p4plugin.runtime.impl.cluster.ElectionIdGenerator;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.cluster.rev170808.GetElectionIdOutput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.cluster.rev170808.GetElectionIdOutputBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.cluster.rev170808.P4pluginClusterService;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.cluster.rev170808.SetElectionIdInput;
+import org.opendaylight.yangtools.yang.common.RpcError;
 import org.opendaylight.yangtools.yang.common.RpcResult;
 import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
 import org.slf4j.Logger;
@@ -23,13 +29,40 @@ import java.util.concurrent.Future;
 
 public class ClusterServiceProvider implements P4pluginClusterService {
     private static final Logger LOG = LoggerFactory.getLogger(ClusterServiceProvider.class);
+    private final EntityOwnershipService entityOwnershipService;
+
+    public ClusterServiceProvider(final EntityOwnershipService entityOwnershipService) {
+        this.entityOwnershipService = entityOwnershipService;
+    }
+
+    public void init() {
+        DeviceOwnership.getInstance().setOwnershipService(entityOwnershipService);
+        LOG.info("P4plugin cluster service provider initiated.");
+    }
+
+    public void close() {
+        DeviceOwnership.getInstance().setOwnershipService(null);
+        LOG.info("P4plugin cluster service provider closed.");
+    }
+
+    /**
+     * Completes when every connected device has answered the master arbitration.
+     * Devices owned through the entity ownership service keep the election id
+     * derived from their ownership.
+     */
     @Override
     public Future<RpcResult<java.lang.Void>> setElectionId(SetElectionIdInput input) {
         long high = input.getHigh().longValue();
         long low = input.getLow().longValue();
-        ElectionIdGenerator.getInstance().setElectionId(new ElectionId(high, low));
-        LOG.info("Set election ID RPC success, high = {}, low = {}.", high, low);
-        return RpcResultBuilder.success((Void)null).buildFuture();
+        ListenableFuture<Void> future = ElectionIdGenerator.getInstance().setElectionId(new ElectionId(high, low));
+        return Futures.catching(Futures.transform(future, v -> {
+            LOG.info("Set election ID RPC success, high = {}, low = {}.", high, low);
+            return RpcResultBuilder.success((Void)null).build();
+        }, MoreExecutors.directExecutor()), Throwable.class, t -> {
+            LOG.info("Set election ID RPC failed, high = {}, low = {}, reason = {}.", high, low, t.getMessage());
+            return RpcResultBuilder.<Void>failed()
+                    .withError(RpcError.ErrorType.APPLICATION, t.getMessage()).build();
+        }, MoreExecutors.directExecutor());
     }
 
 
@@ -7,34 +7,56 @@
  */
 package org.opendaylight.p4plugin.runtime.impl;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.protobuf.TextFormat;
 import io.grpc.ConnectivityState;
 import org.opendaylight.p4plugin.p4info.proto.P4Info;
+import org.opendaylight.p4plugin.runtime.impl.cluster.Mastership;
 import org.opendaylight.p4plugin.runtime.impl.device.DeviceManager;
+import org.opendaylight.p4plugin.runtime.impl.device.DeviceState;
 import org.opendaylight.p4plugin.runtime.impl.device.P4Device;
+import org.opendaylight.p4plugin.runtime.impl.device.ReconcileResult;
+import org.opendaylight.p4plugin.runtime.impl.stub.ChannelFactory;
+import org.opendaylight.p4plugin.runtime.impl.stub.WritePipeline;
+import org.opendaylight.p4plugin.runtime.impl.utils.LaneExecutor;
+import org.opendaylight.p4plugin.runtime.impl.utils.Utils;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.device.rev170808.*;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.device.rev170808.query.devices.output.Device;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.device.rev170808.query.devices.output.DeviceBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.field.match.type.EXACT;
+import org.opendaylight.yangtools.yang.common.RpcError;
 import org.opendaylight.yangtools.yang.common.RpcResult;
 import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 public class DeviceServiceProvider implements P4pluginDeviceService {
     private static final Logger LOG = LoggerFactory.getLogger(DeviceServiceProvider.class);
     private DeviceManager manager;
-    private ExecutorService executorService;
+    private static final int POOL_SIZE = 4;
+    private static final int MAX_LANE_DEPTH = 256;
+    /* Lane of the RPCs that are not bound to a node. */
+    private static final String GLOBAL_LANE = "";
+    private LaneExecutor laneExecutor;
 
     public void init() {
-        executorService = Executors.newFixedThreadPool(1);
+        laneExecutor = new LaneExecutor("p4plugin-device", POOL_SIZE, MAX_LANE_DEPTH);
         manager = DeviceManager.getInstance();
         LOG.info("P4plugin device service provider initiated.");
     }
 
     public void close() {
-        executorService.shutdown();
+        laneExecutor.shutdown();
+        P4Device.shutdownReconciler();
+        ChannelFactory.getInstance().shutdown();
         LOG.info("P4plugin device service provider closed.");
     }
 
@@ -50,7 +72,15 @@ public class DeviceServiceProvider implements P4pluginDeviceService {
             Long deviceId = input.getDid().longValue();
             String runtimeFile = input.getRuntimeFilePath();
             String configFile = input.getConfigFilePath();
-            manager.addDevice(nodeId, deviceId, ip, port, runtimeFile, configFile);
+            Long maxInFlightWrites = input.getMaxInFlightWrites();
+            manager.addDevice(nodeId, deviceId, ip, port, runtimeFile, configFile,
+                    maxInFlightWrites == null ? WritePipeline.DEFAULT_MAX_IN_FLIGHT : maxInFlightWrites.intValue());
+            Long packetOutRate = input.getPacketOutRate();
+            if (packetOutRate != null && packetOutRate > 0) {
+                Long packetOutBurst = input.getPacketOutBurst();
+                manager.findDevice(nodeId).ifPresent(device -> device.setPacketOutRate(packetOutRate,
+                        packetOutBurst == null ? 0 : packetOutBurst));
+            }
             LOG.info("Add device = [{}-{}-{}:{}-{}-{}] RPC success." , nodeId, deviceId, ip, port, runtimeFile, configFile);
             return rpcResultSuccess(null);
         };
@@ -64,32 +94,47 @@ public class DeviceServiceProvider implements P4pluginDeviceService {
         };
     }
 
-    private Callable<RpcResult<ConnectToDeviceOutput>> connectToDev(ConnectToDeviceInput input) {
-        return ()->{
-            try {
-                String nodeId = input.getNid();
-                Optional<P4Device> optional = manager.findDevice(nodeId);
-                optional.orElseThrow(IllegalArgumentException::new).connectToDevice();
-                boolean connectStatus = optional.get().getConnectState();
+    /**
+     * The lane of the device is only held while the stream channel is opened,
+     * the RPC completes when the target answers arbitration, so any number of
+     * devices connect at the same time.
+     */
+    private ListenableFuture<RpcResult<ConnectToDeviceOutput>> connectToDev(ConnectToDeviceInput input) {
+        String nodeId = input.getNid();
+        return Futures.dereference(laneExecutor.submit(nodeId, ()->{
+            P4Device device = manager.findDevice(nodeId).orElseThrow(IllegalArgumentException::new);
+            manager.checkOwner(nodeId);
+            return Futures.transform(device.connectToDevice(), isConnected -> {
+                boolean connectStatus = isConnected && device.getConnectState();
                 LOG.info("Connect to device = {} RPC success, connect state = {}.", nodeId, connectStatus);
                 ConnectToDeviceOutputBuilder outputBuilder = new ConnectToDeviceOutputBuilder();
                 outputBuilder.setConnectStatus(connectStatus);
                 return rpcResultSuccess(outputBuilder.build());
-            } catch (Exception e) {
-                LOG.info("ZZZZZZZZZZZZZZZZZZZZZZZZZZZZZZZZZZZZZZZZZZZZZZZZZZZZZZZ");
-                e.printStackTrace();
-                throw new RuntimeException(e);
-            }
-        };
+            }, MoreExecutors.directExecutor());
+        }));
     }
 
-    private Callable<RpcResult<java.lang.Void>> setConfig(SetPipelineConfigInput input) {
+    /**
+     * The lane of the device is held until the recorded state is replayed, so
+     * writes received after the RPC are applied on top of the replay.
+     */
+    private Callable<ListenableFuture<RpcResult<java.lang.Void>>> setConfig(SetPipelineConfigInput input) {
         return ()->{
             String nodeId = input.getNid();
             Optional<P4Device> optional = manager.findDevice(nodeId);
-            optional.orElseThrow(IllegalArgumentException::new).setPipelineConfig();
-            LOG.info("Set device = {} pipeline config RPC success.", nodeId);
-            return rpcResultSuccess(null);
+            P4Device device = optional.orElseThrow(IllegalArgumentException::new);
+            manager.checkOwner(nodeId);
+            return Futures.transform(device.setPipelineConfigAndReplay(), errors -> {
+                if (!errors.isEmpty()) {
+                    String errMsg = String.format("Replay to device = %s failed for %d updates, first error = %s.",
+                            nodeId, errors.size(), errors.get(0));
+                    LOG.info(errMsg);
+                    return RpcResultBuilder.<java.lang.Void>failed()
+                            .withError(RpcError.ErrorType.APPLICATION, errMsg).build();
+                }
+                LOG.info("Set device = {} pipeline config RPC success.", nodeId);
+                return this.<java.lang.Void>rpcResultSuccess(null);
+            }, MoreExecutors.directExecutor());
         };
     }
 
@@ -109,10 +154,46 @@ public class DeviceServiceProvider implements P4pluginDeviceService {
         };
     }
 
+    private Callable<RpcResult<ReconcileDeviceOutput>> reconcileDev(ReconcileDeviceInput input) {
+        return ()->{
+            String nodeId = input.getNid();
+            Optional<P4Device> optional = manager.findConfiguredDevice(nodeId);
+            ReconcileResult result = optional.orElseThrow(IllegalArgumentException::new).reconcile();
+            ReconcileDeviceOutputBuilder outputBuilder = new ReconcileDeviceOutputBuilder();
+            outputBuilder.setDeltaCount((long) result.getDeltaCount());
+            outputBuilder.setFailedCount((long) result.getErrors().size());
+            LOG.info("Reconcile device = {} RPC success, result = {}.", nodeId, result);
+            return rpcResultSuccess(outputBuilder.build());
+        };
+    }
+
     private Callable<RpcResult<QueryDevicesOutput>> queryDevs() {
         return ()->{
             QueryDevicesOutputBuilder outputBuilder = new QueryDevicesOutputBuilder();
-            outputBuilder.setNode(manager.queryDevices());
+            List<DeviceState> states = manager.queryDeviceStates();
+            List<String> nodes = new ArrayList<>(states.size());
+            List<Device> devices = new ArrayList<>(states.size());
+            states.forEach(state -> {
+                nodes.add(state.toString());
+                DeviceBuilder deviceBuilder = new DeviceBuilder()
+                        .setNid(state.getNodeId())
+                        .setConnectStatus(state.isConnected())
+                        .setConfigured(state.isConfigured())
+                        .setIsOwner(manager.isOwner(state.getNodeId()));
+                Mastership mastership = state.getMastership();
+                if (mastership.getRole() != Mastership.Role.UNKNOWN) {
+                    deviceBuilder.setIsMaster(mastership.isMaster());
+                }
+                if (mastership.getMasterElectionId() != null) {
+                    deviceBuilder.setMasterElectionIdHigh(
+                            Utils.toUnsignedBigInteger(mastership.getMasterElectionId().getHigh()))
+                            .setMasterElectionIdLow(
+                                    Utils.toUnsignedBigInteger(mastership.getMasterElectionId().getLow()));
+                }
+                devices.add(deviceBuilder.build());
+            });
+            outputBuilder.setNode(nodes);
+            outputBuilder.setDevice(devices);
             LOG.info("Query devices RPC success.");
             return rpcResultSuccess(outputBuilder.build());
         };
@@ -120,31 +201,36 @@ public class DeviceServiceProvider implements P4pluginDeviceService {
 
     @Override
     public Future<RpcResult<java.lang.Void>> addDevice(AddDeviceInput input) {
-        return executorService.submit(addDev(input));
+        return laneExecutor.submit(input.getNid(), addDev(input));
     }
 
     @Override
     public Future<RpcResult<java.lang.Void>> removeDevice(RemoveDeviceInput input) {
-        return executorService.submit(removeDev(input));
+        return laneExecutor.submit(input.getNid(), removeDev(input));
     }
 
     @Override
     public Future<RpcResult<ConnectToDeviceOutput>> connectToDevice(ConnectToDeviceInput input) {
-        return executorService.submit(connectToDev(input));
+        return connectToDev(input);
     }
 
     @Override
     public Future<RpcResult<java.lang.Void>> setPipelineConfig(SetPipelineConfigInput input) {
-        return executorService.submit(setConfig(input));
+        return laneExecutor.submitAsync(input.getNid(), setConfig(input));
+    }
+
+    @Override
+    public Future<RpcResult<ReconcileDeviceOutput>> reconcileDevice(ReconcileDeviceInput input) {
+        return laneExecutor.submit(input.getNid(), reconcileDev(input));
     }
 
     @Override
     public Future<RpcResult<GetPipelineConfigOutput>> getPipelineConfig(GetPipelineConfigInput input) {
-        return executorService.submit(getConfig(input));
+        return laneExecutor.submit(input.getNid(), getConfig(input));
     }
 
     @Override
     public Future<RpcResult<QueryDevicesOutput>> queryDevices() {
-        return executorService.submit(queryDevs());
+        return laneExecutor.submit(GLOBAL_LANE, queryDevs());
     }
 }
@@ -7,44 +7,84 @@
  */
 package org.opendaylight.p4plugin.runtime.impl;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.opendaylight.p4plugin.p4runtime.proto.PacketOut;
 import org.opendaylight.p4plugin.runtime.impl.device.DeviceManager;
 import org.opendaylight.p4plugin.runtime.impl.device.P4Device;
+import org.opendaylight.p4plugin.runtime.impl.packet.PacketInDispatcher;
+import org.opendaylight.p4plugin.runtime.impl.utils.LaneExecutor;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.packet.rev170808.P4TransmitPacketInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.packet.rev170808.P4TransmitPacketsInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.packet.rev170808.P4TransmitPacketsOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.packet.rev170808.P4TransmitPacketsOutputBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.packet.rev170808.P4pluginPacketService;
 import org.opendaylight.yangtools.yang.common.RpcResult;
 import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 public class PacketServiceProvider implements P4pluginPacketService {
     private static final Logger LOG = LoggerFactory.getLogger(PacketServiceProvider.class);
     private DeviceManager manager;
-    private ExecutorService executorService;
+    private static final int POOL_SIZE = 4;
+    private static final int MAX_LANE_DEPTH = 1024;
+    private LaneExecutor laneExecutor;
 
     public void init() {
-        executorService = Executors.newFixedThreadPool(1);
+        laneExecutor = new LaneExecutor("p4plugin-packet", POOL_SIZE, MAX_LANE_DEPTH);
         manager = DeviceManager.getInstance();
+        PacketInDispatcher.getInstance().start(PacketInDispatcher.DEFAULT_PUBLISHER_COUNT);
         LOG.info("P4plugin packet service provider initiated.");
     }
 
     public void close() {
-        executorService.shutdown();
+        laneExecutor.shutdown();
+        PacketInDispatcher.getInstance().shutdown();
         LOG.info("P4plugin packet service provider closed.");
     }
 
     @Override
     public Future<RpcResult<Void>> p4TransmitPacket(P4TransmitPacketInput input) {
-        return executorService.submit(()->{
-            String nodeId = input.getNid();
+        String nodeId = input.getNid();
+        return laneExecutor.submit(nodeId, ()->{
             Optional<P4Device> optional = manager.findConfiguredDevice(nodeId);
-            optional.orElseThrow(IllegalArgumentException::new).transmitPacket(input.getPayload());
-            LOG.info("Transmit packet to device = {} RPC success.", nodeId);
+            P4Device device = optional.orElseThrow(IllegalArgumentException::new);
+            if (input.getMetadata() == null || input.getMetadata().isEmpty()) {
+                device.transmitPacket(input.getPayload());
+            } else {
+                device.transmitPackets(Collections.singletonList(
+                        device.toProtoPacket(input.getPayload(), input.getMetadata())));
+            }
+            LOG.debug("Transmit packet to device = {} RPC success.", nodeId);
             return RpcResultBuilder.success((Void)null).build();
         });
     }
+
+    @Override
+    public Future<RpcResult<P4TransmitPacketsOutput>> p4TransmitPackets(P4TransmitPacketsInput input) {
+        String nodeId = input.getNid();
+        return Futures.dereference(laneExecutor.submit(nodeId, ()->{
+            Optional<P4Device> optional = manager.findConfiguredDevice(nodeId);
+            P4Device device = optional.orElseThrow(IllegalArgumentException::new);
+            List<PacketOut> packets = new ArrayList<>();
+            if (input.getPacket() != null) {
+                input.getPacket().forEach(packet ->
+                        packets.add(device.toProtoPacket(packet.getPayload(), packet.getMetadata())));
+            }
+            return Futures.transform(device.transmitPackets(packets), sent -> {
+                LOG.debug("Transmit {} packets to device = {} RPC success, sent = {}.", packets.size(), nodeId, sent);
+                P4TransmitPacketsOutputBuilder outputBuilder = new P4TransmitPacketsOutputBuilder();
+                outputBuilder.setSentCount((long) sent);
+                outputBuilder.setDroppedCount((long) (packets.size() - sent));
+                return RpcResultBuilder.success(outputBuilder.build()).build();
+            }, MoreExecutors.directExecutor());
+        }));
+    }
 }
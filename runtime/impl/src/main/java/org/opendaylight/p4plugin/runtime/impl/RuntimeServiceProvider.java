@@ -8,30 +8,41 @@
 package org.opendaylight.p4plugin.runtime.impl;
 
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import io.grpc.StatusRuntimeException;
 import org.opendaylight.controller.md.sal.binding.api.DataBroker;
 import org.opendaylight.controller.md.sal.binding.api.NotificationPublishService;
+import org.opendaylight.p4plugin.p4runtime.proto.WriteResponse;
 import org.opendaylight.p4plugin.runtime.impl.device.DeviceManager;
+import org.opendaylight.p4plugin.runtime.impl.device.P4Device;
+import org.opendaylight.p4plugin.runtime.impl.device.WriteError;
+import org.opendaylight.p4plugin.runtime.impl.utils.LaneExecutor;
 import org.opendaylight.p4plugin.runtime.impl.utils.NotificationPublisher;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.*;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.batch.write.output.FailedUpdate;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.batch.write.output.FailedUpdateBuilder;
 import org.opendaylight.yangtools.yang.common.RpcError;
 import org.opendaylight.yangtools.yang.common.RpcResult;
 import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.function.Function;
 
 public class RuntimeServiceProvider implements P4pluginRuntimeService {
     private static final Logger LOG = LoggerFactory.getLogger(RuntimeServiceProvider.class);
+    private static final int POOL_SIZE = 8;
+    private static final int MAX_LANE_DEPTH = 4096;
     private final DataBroker dataBroker;
     private final NotificationPublishService notificationPublishService;
     private DeviceManager manager;
-    private ExecutorService executorService;
+    private LaneExecutor laneExecutor;
 
     public RuntimeServiceProvider(final DataBroker dataBroker,
                                   final NotificationPublishService notificationPublishService) {
@@ -41,13 +52,13 @@ public class RuntimeServiceProvider implements P4pluginRuntimeService {
 
     public void init() {
         NotificationPublisher.getInstance().setNotificationService(notificationPublishService);
-        executorService = Executors.newFixedThreadPool(2);
+        laneExecutor = new LaneExecutor("p4plugin-runtime", POOL_SIZE, MAX_LANE_DEPTH);
         manager = DeviceManager.getInstance();
         LOG.info("P4Plugin runtime service provider initiated.");
     }
 
     public void close() {
-        executorService.shutdown();
+        laneExecutor.shutdown();
         LOG.info("P4Plugin runtime service provider closed.");
     }
 
@@ -64,201 +75,219 @@ public class RuntimeServiceProvider implements P4pluginRuntimeService {
         return RpcResultBuilder.success(value).build();
     }
 
-    private Callable<RpcResult<Void>> addEntry(AddTableEntryInput input) {
-        return ()->{
-            String nodeId = input.getNid();
-            manager.findConfiguredDevice(nodeId)
-                    .orElseThrow(IllegalArgumentException::new)
-                    .addTableEntry(input);
-            LOG.info("Add entry to device = {} RPC success.", nodeId);
-            return rpcResultSuccess(null);
-        };
+    /**
+     * Translate in the lane of the device and send the write on the async stub,
+     * the lane is held until the RPC future completes from the gRPC callback, so
+     * writes to one device are applied in the order they were received.
+     */
+    private ListenableFuture<RpcResult<Void>> writeEntity(String nodeId,
+                                                          Function<P4Device, ListenableFuture<WriteResponse>> write,
+                                                          String successMsg) {
+        return laneExecutor.submitAsync(nodeId, ()->{
+            P4Device device = manager.findConfiguredDevice(nodeId).orElseThrow(IllegalArgumentException::new);
+            return Futures.transform(write.apply(device), response -> {
+                LOG.info(successMsg, nodeId);
+                return this.<Void>rpcResultSuccess(null);
+            }, MoreExecutors.directExecutor());
+        });
     }
 
-    private Callable<RpcResult<Void>> modifyEntry(ModifyTableEntryInput input) {
+    private Callable<RpcResult<ReadTableEntryOutput>> readEntry(ReadTableEntryInput input) {
         return ()->{
             String nodeId = input.getNid();
-            manager.findConfiguredDevice(nodeId)
+            ReadTableEntryOutputBuilder outputBuilder = new ReadTableEntryOutputBuilder();
+            List<String> result = manager.findConfiguredDevice(nodeId)
                     .orElseThrow(IllegalArgumentException::new)
-                    .modifyTableEntry(input);
-            LOG.info("Modify entry to device = {} RPC success.", nodeId);
-            return rpcResultSuccess(null);
+                    .readTableEntry(input.getTableName());
+            outputBuilder.setEntry(result);
+            LOG.info("Read entry from device = {} RPC success.", nodeId);
+            return RpcResultBuilder.success(outputBuilder.build()).build();
         };
     }
 
-    private Callable<RpcResult<Void>> deleteEntry(DeleteTableEntryInput input) {
+    private Callable<RpcResult<ReadTableEntryPageOutput>> readEntryPage(ReadTableEntryPageInput input) {
         return ()->{
             String nodeId = input.getNid();
-            manager.findConfiguredDevice(nodeId)
+            ReadTableEntryPageOutput output = manager.findConfiguredDevice(nodeId)
                     .orElseThrow(IllegalArgumentException::new)
-                    .deleteTableEntry(input);
-            LOG.info("Delete entry from device = {} RPC success.", nodeId);
-            return rpcResultSuccess(null);
+                    .readTableEntryPage(input);
+            LOG.info("Read entry page from device = {} RPC success.", nodeId);
+            return RpcResultBuilder.success(output).build();
         };
     }
 
-    private Callable<RpcResult<Void>> addMember(AddActionProfileMemberInput input) {
+    private Callable<RpcResult<ReadActionProfileMemberOutput>> readMember(ReadActionProfileMemberInput input) {
         return ()->{
             String nodeId = input.getNid();
-            manager.findConfiguredDevice(nodeId)
+            ReadActionProfileMemberOutputBuilder outputBuilder = new ReadActionProfileMemberOutputBuilder();
+            List<String> result = manager.findConfiguredDevice(nodeId)
                     .orElseThrow(IllegalArgumentException::new)
-                    .addActionProfileMember(input);
-            LOG.info("Add member to device = {} RPC success.", nodeId);
-            return rpcResultSuccess(null);
+                    .readActionProfileMember(input.getActionProfileName());
+            outputBuilder.setMember(result);
+            LOG.info("Read member from device = {} RPC success.", nodeId);
+            return RpcResultBuilder.success(outputBuilder.build()).build();
         };
     }
 
-    private Callable<RpcResult<Void>> modifyMember(ModifyActionProfileMemberInput input) {
+    private Callable<RpcResult<ReadActionProfileGroupOutput>> readGroup(ReadActionProfileGroupInput input) {
         return ()->{
             String nodeId = input.getNid();
-            manager.findConfiguredDevice(nodeId)
+            ReadActionProfileGroupOutputBuilder outputBuilder = new ReadActionProfileGroupOutputBuilder();
+            List<String> result = manager.findConfiguredDevice(nodeId)
                     .orElseThrow(IllegalArgumentException::new)
-                    .modifyActionProfileMember(input);
-            LOG.info("Modify member to device = {} RPC success.", nodeId);
-            return rpcResultSuccess(null);
+                    .readActionProfileGroup(input.getActionProfileName());
+            outputBuilder.setGroup(result);
+            LOG.info("Read group from device = {} RPC success.", nodeId);
+            return RpcResultBuilder.success(outputBuilder.build()).build();
         };
     }
 
-    private Callable<RpcResult<Void>> deleteMember(DeleteActionProfileMemberInput input) {
+    private Callable<RpcResult<ReadCounterOutput>> readCounterCells(ReadCounterInput input) {
         return ()->{
             String nodeId = input.getNid();
-            manager.findConfiguredDevice(nodeId)
+            ReadCounterOutput output = manager.findConfiguredDevice(nodeId)
                     .orElseThrow(IllegalArgumentException::new)
-                    .deleteActionProfileMember(input);
-            LOG.info("Delete member from device = {} RPC success.", nodeId);
-            return rpcResultSuccess(null);
+                    .readCounter(input);
+            LOG.info("Read counter from device = {} RPC success.", nodeId);
+            return RpcResultBuilder.success(output).build();
         };
     }
 
-    private Callable<RpcResult<Void>> addGroup(AddActionProfileGroupInput input) {
+    private Callable<RpcResult<ReadMeterOutput>> readMeterCells(ReadMeterInput input) {
         return ()->{
             String nodeId = input.getNid();
-            manager.findConfiguredDevice(nodeId)
+            ReadMeterOutput output = manager.findConfiguredDevice(nodeId)
                     .orElseThrow(IllegalArgumentException::new)
-                    .addActionProfileGroup(input);
-            LOG.info("Add group to device = {} RPC success.", nodeId);
-            return rpcResultSuccess(null);
+                    .readMeter(input);
+            LOG.info("Read meter from device = {} RPC success.", nodeId);
+            return RpcResultBuilder.success(output).build();
         };
     }
 
-    private Callable<RpcResult<Void>> modifyGroup(ModifyActionProfileGroupInput input) {
+    private Callable<RpcResult<Void>> setPolling(SetCounterPollingInput input) {
         return ()->{
             String nodeId = input.getNid();
+            long intervalMs = input.getIntervalMs() == null ? 0 : input.getIntervalMs();
             manager.findConfiguredDevice(nodeId)
                     .orElseThrow(IllegalArgumentException::new)
-                    .modifyActionProfileGroup(input);
-            LOG.info("Modify group to device = {} RPC success.", nodeId);
-            return rpcResultSuccess(null);
+                    .setCounterPolling(input.getCounterName(), intervalMs);
+            LOG.info("Set counter polling of device = {} RPC success.", nodeId);
+            return this.<Void>rpcResultSuccess(null);
         };
     }
 
-    private Callable<RpcResult<Void>> deleteGroup(DeleteActionProfileGroupInput input) {
-        return ()->{
-            String nodeId = input.getNid();
-            manager.findConfiguredDevice(nodeId)
-                    .orElseThrow(IllegalArgumentException::new)
-                    .deleteActionProfileGroup(input);
-            LOG.info("Delete group from device = {} RPC success.", nodeId);
-            return rpcResultSuccess(null);
-        };
-    }
-
-    private Callable<RpcResult<ReadTableEntryOutput>> readEntry(ReadTableEntryInput input) {
-        return ()->{
-            String nodeId = input.getNid();
-            ReadTableEntryOutputBuilder outputBuilder = new ReadTableEntryOutputBuilder();
-            List<String> result = manager.findConfiguredDevice(nodeId)
-                    .orElseThrow(IllegalArgumentException::new)
-                    .readTableEntry(input.getTableName());
-            outputBuilder.setEntry(result);
-            LOG.info("Read entry from device = {} RPC success.", nodeId);
-            return RpcResultBuilder.success(outputBuilder.build()).build();
-        };
-    }
-
-    private Callable<RpcResult<ReadActionProfileMemberOutput>> readMember(ReadActionProfileMemberInput input) {
-        return ()->{
-            String nodeId = input.getNid();
-            ReadActionProfileMemberOutputBuilder outputBuilder = new ReadActionProfileMemberOutputBuilder();
-            List<String> result = manager.findConfiguredDevice(nodeId)
-                    .orElseThrow(IllegalArgumentException::new)
-                    .readActionProfileMember(input.getActionProfileName());
-            outputBuilder.setMember(result);
-            LOG.info("Read member from device = {} RPC success.", nodeId);
-            return RpcResultBuilder.success(outputBuilder.build()).build();
-        };
-    }
-
-    private Callable<RpcResult<ReadActionProfileGroupOutput>> readGroup(ReadActionProfileGroupInput input) {
-        return ()->{
-            String nodeId = input.getNid();
-            ReadActionProfileGroupOutputBuilder outputBuilder = new ReadActionProfileGroupOutputBuilder();
-            List<String> result = manager.findConfiguredDevice(nodeId)
-                    .orElseThrow(IllegalArgumentException::new)
-                    .readActionProfileGroup(input.getActionProfileName());
-            outputBuilder.setGroup(result);
-            LOG.info("Read group from device = {} RPC success.", nodeId);
-            return RpcResultBuilder.success(outputBuilder.build()).build();
-        };
+    private ListenableFuture<RpcResult<BatchWriteOutput>> batchWriteEntities(BatchWriteInput input) {
+        String nodeId = input.getNid();
+        ListenableFuture<List<WriteError>> future = laneExecutor.submitAsync(nodeId, ()->
+                manager.findConfiguredDevice(nodeId)
+                        .orElseThrow(IllegalArgumentException::new)
+                        .batchWriteAsync(input));
+
+        return Futures.transform(future, errors -> {
+            List<FailedUpdate> failedUpdates = new ArrayList<>();
+            errors.forEach(error -> failedUpdates.add(new FailedUpdateBuilder()
+                    .setIndex((long) error.getIndex())
+                    .setCode(error.getCode())
+                    .setMessage(error.getMessage())
+                    .build()));
+            BatchWriteOutputBuilder outputBuilder = new BatchWriteOutputBuilder();
+            outputBuilder.setFailedUpdate(failedUpdates);
+            LOG.info("Batch write to device = {} RPC success, failed updates = {}.", nodeId, errors.size());
+            return rpcResultSuccess(outputBuilder.build());
+        }, MoreExecutors.directExecutor());
     }
 
     @Override
     public Future<RpcResult<Void>> addTableEntry(AddTableEntryInput input) {
-        return executorService.submit(addEntry(input));
+        return writeEntity(input.getNid(), device -> device.addTableEntryAsync(input),
+                "Add entry to device = {} RPC success.");
     }
 
     @Override
     public Future<RpcResult<Void>> modifyTableEntry(ModifyTableEntryInput input) {
-        return executorService.submit(modifyEntry(input));
+        return writeEntity(input.getNid(), device -> device.modifyTableEntryAsync(input),
+                "Modify entry to device = {} RPC success.");
     }
 
     @Override
     public Future<RpcResult<Void>> deleteTableEntry(DeleteTableEntryInput input) {
-        return executorService.submit(deleteEntry(input));
+        return writeEntity(input.getNid(), device -> device.deleteTableEntryAsync(input),
+                "Delete entry from device = {} RPC success.");
     }
 
     @Override
     public Future<RpcResult<Void>> addActionProfileMember(AddActionProfileMemberInput input) {
-        return executorService.submit(addMember(input));
+        return writeEntity(input.getNid(), device -> device.addActionProfileMemberAsync(input),
+                "Add member to device = {} RPC success.");
     }
 
     @Override
     public Future<RpcResult<Void>> modifyActionProfileMember(ModifyActionProfileMemberInput input) {
-        return executorService.submit(modifyMember(input));
+        return writeEntity(input.getNid(), device -> device.modifyActionProfileMemberAsync(input),
+                "Modify member to device = {} RPC success.");
     }
 
     @Override
     public Future<RpcResult<Void>> deleteActionProfileMember(DeleteActionProfileMemberInput input) {
-        return executorService.submit(deleteMember(input));
+        return writeEntity(input.getNid(), device -> device.deleteActionProfileMemberAsync(input),
+                "Delete member from device = {} RPC success.");
     }
 
     @Override
     public Future<RpcResult<Void>> addActionProfileGroup(AddActionProfileGroupInput input) {
-        return executorService.submit(addGroup(input));
+        return writeEntity(input.getNid(), device -> device.addActionProfileGroupAsync(input),
+                "Add group to device = {} RPC success.");
     }
 
     @Override
     public Future<RpcResult<Void>> modifyActionProfileGroup(ModifyActionProfileGroupInput input) {
-        return executorService.submit(modifyGroup(input));
+        return writeEntity(input.getNid(), device -> device.modifyActionProfileGroupAsync(input),
+                "Modify group to device = {} RPC success.");
     }
 
     @Override
     public Future<RpcResult<Void>> deleteActionProfileGroup(DeleteActionProfileGroupInput input) {
-        return executorService.submit(deleteGroup(input));
+        return writeEntity(input.getNid(), device -> device.deleteActionProfileGroupAsync(input),
+                "Delete group from device = {} RPC success.");
     }
 
     @Override
     public Future<RpcResult<ReadTableEntryOutput>> readTableEntry(ReadTableEntryInput input) {
-        return executorService.submit(readEntry(input));
+        return laneExecutor.submit(input.getNid(), readEntry(input));
+    }
+
+    @Override
+    public Future<RpcResult<ReadTableEntryPageOutput>> readTableEntryPage(ReadTableEntryPageInput input) {
+        return laneExecutor.submit(input.getNid(), readEntryPage(input));
     }
 
     @Override
     public Future<RpcResult<ReadActionProfileMemberOutput>> readActionProfileMember(ReadActionProfileMemberInput input) {
-        return executorService.submit(readMember(input));
+        return laneExecutor.submit(input.getNid(), readMember(input));
     }
 
     @Override
     public Future<RpcResult<ReadActionProfileGroupOutput>> readActionProfileGroup(ReadActionProfileGroupInput input) {
-        return executorService.submit(readGroup(input));
+        return laneExecutor.submit(input.getNid(), readGroup(input));
+    }
+
+    @Override
+    public Future<RpcResult<BatchWriteOutput>> batchWrite(BatchWriteInput input) {
+        return batchWriteEntities(input);
+    }
+
+    @Override
+    public Future<RpcResult<ReadCounterOutput>> readCounter(ReadCounterInput input) {
+        return laneExecutor.submit(input.getNid(), readCounterCells(input));
+    }
+
+    @Override
+    public Future<RpcResult<Void>> setCounterPolling(SetCounterPollingInput input) {
+        return laneExecutor.submit(input.getNid(), setPolling(input));
+    }
+
+    @Override
+    public Future<RpcResult<ReadMeterOutput>> readMeter(ReadMeterInput input) {
+        return laneExecutor.submit(input.getNid(), readMeterCells(input));
     }
 }
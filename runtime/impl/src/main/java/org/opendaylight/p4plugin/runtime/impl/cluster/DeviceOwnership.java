@@ -0,0 +1,159 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.cluster;
+
+import org.opendaylight.mdsal.eos.binding.api.Entity;
+import org.opendaylight.mdsal.eos.binding.api.EntityOwnershipCandidateRegistration;
+import org.opendaylight.mdsal.eos.binding.api.EntityOwnershipChange;
+import org.opendaylight.mdsal.eos.binding.api.EntityOwnershipListener;
+import org.opendaylight.mdsal.eos.binding.api.EntityOwnershipListenerRegistration;
+import org.opendaylight.mdsal.eos.binding.api.EntityOwnershipService;
+import org.opendaylight.mdsal.eos.common.api.CandidateAlreadyRegisteredException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ownership of the devices in a cluster. Every member a device is added to
+ * is a candidate for it, the Entity Ownership Service picks one owner, which
+ * alone connects to the device.
+ *
+ * The owner arbitrates with an election id derived from the time it gained
+ * ownership, so a new owner always outranks a previous owner that is still
+ * connected; member clocks are assumed to be roughly in sync. Without an
+ * ownership service, e.g. on a single node, every device is owned locally.
+ */
+public final class DeviceOwnership implements EntityOwnershipListener {
+    private static final Logger LOG = LoggerFactory.getLogger(DeviceOwnership.class);
+    public static final String ENTITY_TYPE = "p4plugin-device";
+    /* Above the default election id, so a device follows its owner rather than a manual id. */
+    public static final long OWNER_ELECTION_ID_HIGH = 1;
+    private static final DeviceOwnership singleton = new DeviceOwnership();
+    private final Map<String, EntityOwnershipCandidateRegistration> candidates = new ConcurrentHashMap<>();
+    private final Map<Entity, String> nodeIds = new ConcurrentHashMap<>();
+    private final Set<String> owned = ConcurrentHashMap.newKeySet();
+    private final AtomicLong lastElectionTime = new AtomicLong();
+    private volatile EntityOwnershipService service;
+    private volatile Listener listener;
+    private EntityOwnershipListenerRegistration listenerRegistration;
+
+    /**
+     * Called on an ownership service thread when this member gains or loses
+     * the ownership of a device.
+     */
+    public interface Listener {
+        /**
+         * @param electionId election id to arbitrate with, null when the ownership is lost.
+         */
+        void onOwnershipChanged(String nodeId, boolean isOwner, ElectionId electionId);
+    }
+
+    public DeviceOwnership() {}
+
+    public static DeviceOwnership getInstance() {
+        return singleton;
+    }
+
+    public synchronized void setOwnershipService(EntityOwnershipService service) {
+        if (listenerRegistration != null) {
+            listenerRegistration.close();
+            listenerRegistration = null;
+        }
+        candidates.values().forEach(EntityOwnershipCandidateRegistration::close);
+        candidates.clear();
+        nodeIds.clear();
+        owned.clear();
+        this.service = service;
+        if (service != null) {
+            listenerRegistration = service.registerListener(ENTITY_TYPE, this);
+            LOG.info("Device ownership follows the entity ownership service.");
+        }
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public boolean isClustered() {
+        return service != null;
+    }
+
+    public static Entity toEntity(String nodeId) {
+        return new Entity(ENTITY_TYPE, nodeId);
+    }
+
+    /**
+     * Run for the ownership of a device.
+     */
+    public void register(String nodeId) {
+        EntityOwnershipService current = service;
+        if (current == null) {
+            return;
+        }
+        Entity entity = toEntity(nodeId);
+        nodeIds.put(entity, nodeId);
+        try {
+            candidates.put(nodeId, current.registerCandidate(entity));
+            LOG.info("Register as owner candidate of device = {}.", nodeId);
+        } catch (CandidateAlreadyRegisteredException e) {
+            LOG.info("Already owner candidate of device = {}.", nodeId);
+        }
+    }
+
+    /**
+     * Withdraw from the ownership of a device, another candidate takes it over.
+     */
+    public void unregister(String nodeId) {
+        EntityOwnershipCandidateRegistration registration = candidates.remove(nodeId);
+        if (registration != null) {
+            registration.close();
+        }
+        nodeIds.remove(toEntity(nodeId));
+        owned.remove(nodeId);
+    }
+
+    /**
+     * @return true if this member owns the device, always true without an ownership service.
+     */
+    public boolean isOwner(String nodeId) {
+        return service == null || owned.contains(nodeId);
+    }
+
+    @Override
+    public void ownershipChanged(EntityOwnershipChange change) {
+        String nodeId = nodeIds.get(change.getEntity());
+        if (nodeId == null) {
+            return;
+        }
+        if (change.inJeopardy()) {
+            LOG.info("Ownership of device = {} in jeopardy, state = {}.", nodeId, change.getState());
+        }
+        boolean isOwner = change.getState().isOwner();
+        if (isOwner ? !owned.add(nodeId) : !owned.remove(nodeId)) {
+            return;
+        }
+        ElectionId electionId = isOwner ? nextElectionId() : null;
+        LOG.info("Ownership of device = {} {}, election id = {}.", nodeId, isOwner ? "gained" : "lost", electionId);
+        Listener current = listener;
+        if (current != null) {
+            current.onOwnershipChanged(nodeId, isOwner, electionId);
+        }
+    }
+
+    /**
+     * Election ids handed out by this member only grow, even if the clock steps back.
+     */
+    private ElectionId nextElectionId() {
+        long now = System.currentTimeMillis();
+        return new ElectionId(OWNER_ELECTION_ID_HIGH, lastElectionTime.updateAndGet(last -> Math.max(last + 1, now)));
+    }
+}
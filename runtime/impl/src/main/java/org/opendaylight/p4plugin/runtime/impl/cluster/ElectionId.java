@@ -7,28 +7,52 @@
  */
 package org.opendaylight.p4plugin.runtime.impl.cluster;
 
-public class ElectionId {
-    private Long high;
-    private Long low;
+/**
+ * A 128 bit election id, immutable so it can be shared between threads.
+ * Ids are ordered as unsigned 128 bit integers, like the target orders them.
+ */
+public final class ElectionId implements Comparable<ElectionId> {
+    private final long high;
+    private final long low;
 
-    public ElectionId(Long high, Long low) {
+    public ElectionId(long high, long low) {
         this.high = high;
         this.low = low;
     }
 
-    public void setHigh(Long high) {
-        this.high = high;
+    public long getHigh() {
+        return high;
     }
 
-    public Long getHigh() {
-        return high;
+    public long getLow() {
+        return low;
     }
 
-    public void setLow(Long low) {
-        this.low = low;
+    @Override
+    public int compareTo(ElectionId other) {
+        int result = Long.compareUnsigned(high, other.high);
+        return result != 0 ? result : Long.compareUnsigned(low, other.low);
     }
 
-    public Long getLow() {
-        return low;
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ElectionId)) {
+            return false;
+        }
+        ElectionId electionId = (ElectionId) o;
+        return high == electionId.high && low == electionId.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(high) + Long.hashCode(low);
+    }
+
+    @Override
+    public String toString() {
+        return "ElectionId{high=" + high + ", low=" + low + "}";
     }
 }
@@ -7,31 +7,64 @@
  */
 package org.opendaylight.p4plugin.runtime.impl.cluster;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Holds the election id of this controller. Observers may be added and
+ * removed from any thread while an election id is being set; a new id is
+ * sent to all observers at once, without waiting for one before the next.
+ * Sets are serialized, so every observer gets concurrent ids in the order
+ * they are stored and ends with the id getElectionId returns.
+ */
 public class ElectionIdGenerator {
     private static final Logger LOG = LoggerFactory.getLogger(ElectionIdGenerator.class);
     private static ElectionIdGenerator singleton = new ElectionIdGenerator();
-    private ElectionId electionId;
-    private ArrayList<ElectionIdObserver> observers = new ArrayList<>();
+    private final AtomicReference<ElectionId> electionId = new AtomicReference<>(new ElectionId(0, 0));
+    private final Set<ElectionIdObserver> observers = ConcurrentHashMap.newKeySet();
+    /* Held while an id is stored and sent, observers only queue the id. */
+    private final Object setLock = new Object();
 
-    private ElectionIdGenerator() {
-        electionId = new ElectionId((long)0, (long)0);
-    }
+    private ElectionIdGenerator() {}
 
     public static ElectionIdGenerator getInstance() {
         return singleton;
     }
 
     public ElectionId getElectionId() {
-        return electionId;
+        return electionId.get();
     }
 
-    public void setElectionId(ElectionId electionId) {
-        this.electionId = electionId;
-        notifyObservers();
+    /**
+     * Set the election id and send it to every observer.
+     * @return future completed when all observers have applied the id, failed
+     *         if any of them failed.
+     */
+    public ListenableFuture<Void> setElectionId(ElectionId newElectionId) {
+        Objects.requireNonNull(newElectionId);
+        List<ListenableFuture<Void>> futures = new ArrayList<>(observers.size());
+        synchronized (setLock) {
+            electionId.set(newElectionId);
+            for (ElectionIdObserver observer : observers) {
+                try {
+                    futures.add(observer.updateAsync(newElectionId));
+                } catch (RuntimeException e) {
+                    futures.add(Futures.immediateFailedFuture(e));
+                }
+            }
+        }
+        LOG.info("Election id set to {}, notify {} observers.", newElectionId, futures.size());
+        return Futures.transform(Futures.allAsList(futures), results -> null, MoreExecutors.directExecutor());
     }
 
     public void addObserver(ElectionIdObserver observer) {
@@ -41,11 +74,4 @@ public class ElectionIdGenerator {
     public void deleteObserver(ElectionIdObserver observer) {
         observers.remove(observer);
     }
-
-    private void notifyObservers() {
-        observers.forEach(observer -> observer.update(electionId));
-    }
-
-
 }
-
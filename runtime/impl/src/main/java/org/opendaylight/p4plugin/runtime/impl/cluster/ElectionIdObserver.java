@@ -7,6 +7,18 @@
  */
 package org.opendaylight.p4plugin.runtime.impl.cluster;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
 public interface ElectionIdObserver {
     void update(ElectionId electionId);
+
+    /**
+     * Apply a new election id without blocking the caller.
+     * @return future completed when the election id is applied.
+     */
+    default ListenableFuture<Void> updateAsync(ElectionId electionId) {
+        update(electionId);
+        return Futures.immediateFuture(null);
+    }
 }
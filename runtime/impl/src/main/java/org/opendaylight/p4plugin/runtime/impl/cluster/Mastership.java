@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.cluster;
+
+import java.util.Objects;
+
+/**
+ * Mastership of this controller over a device, as told by the last
+ * arbitration response of the device.
+ */
+public final class Mastership {
+    public static final Mastership UNKNOWN = new Mastership(Role.UNKNOWN, null);
+    private final Role role;
+    private final ElectionId masterElectionId;
+
+    public enum Role {
+        /* No arbitration response yet, or the stream channel is closed. */
+        UNKNOWN,
+        MASTER,
+        STANDBY
+    }
+
+    public Mastership(Role role, ElectionId masterElectionId) {
+        this.role = Objects.requireNonNull(role);
+        this.masterElectionId = masterElectionId;
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+    public boolean isMaster() {
+        return role == Role.MASTER;
+    }
+
+    public boolean isStandby() {
+        return role == Role.STANDBY;
+    }
+
+    /**
+     * @return highest election id seen by the device, null if unknown.
+     */
+    public ElectionId getMasterElectionId() {
+        return masterElectionId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Mastership)) {
+            return false;
+        }
+        Mastership mastership = (Mastership) o;
+        return role == mastership.role && Objects.equals(masterElectionId, mastership.masterElectionId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(role, masterElectionId);
+    }
+
+    @Override
+    public String toString() {
+        return masterElectionId == null ? role.toString()
+                : String.format("%s(%d,%d)", role, masterElectionId.getHigh(), masterElectionId.getLow());
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.device;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the stream channel of a device open. A failed connect or a lost
+ * stream schedules a new attempt after an exponential backoff with jitter,
+ * so thousands of devices losing the controller at once do not reconnect in
+ * lockstep. Every attempt opens a new stream and re-sends master arbitration.
+ *
+ * CONNECTING -> CONNECTED -> BACKOFF -> CONNECTING ..., CLOSED is final.
+ */
+public final class ConnectionSupervisor {
+    private static final Logger LOG = LoggerFactory.getLogger(ConnectionSupervisor.class);
+    public static final long DEFAULT_INITIAL_BACKOFF_MS = 500;
+    public static final long DEFAULT_MAX_BACKOFF_MS = 30000;
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("p4plugin-reconnect-timer").setDaemon(true).build());
+    private final String nodeId;
+    private final Supplier<ListenableFuture<Boolean>> connector;
+    private final Listener listener;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private volatile State state = State.CONNECTING;
+    private int attempts;
+    private long reconnectCount;
+    private boolean wasConnected;
+    private ScheduledFuture<?> retry;
+
+    public enum State {
+        CONNECTING, CONNECTED, BACKOFF, CLOSED
+    }
+
+    /**
+     * Connection events, called on gRPC or timer threads.
+     */
+    public interface Listener {
+        /**
+         * @param isReconnect true if the device had been connected before.
+         */
+        void onConnected(boolean isReconnect);
+
+        void onDisconnected();
+    }
+
+    /**
+     * @param connector opens a stream channel, the future is true once the
+     *                  target answers master arbitration.
+     */
+    public ConnectionSupervisor(String nodeId, Supplier<ListenableFuture<Boolean>> connector, Listener listener,
+                                long initialBackoffMs, long maxBackoffMs) {
+        if (initialBackoffMs <= 0 || maxBackoffMs < initialBackoffMs) {
+            throw new IllegalArgumentException("Invalid reconnect backoff.");
+        }
+        this.nodeId = nodeId;
+        this.connector = connector;
+        this.listener = listener;
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+    }
+
+    /**
+     * Backoff before an attempt, doubled per failed attempt up to the max,
+     * then jittered to a uniform value in [backoff / 2, backoff].
+     */
+    public static long backoffMs(int attempts, long initialBackoffMs, long maxBackoffMs) {
+        long backoff = initialBackoffMs << Math.min(attempts, 30);
+        if (backoff <= 0 || backoff > maxBackoffMs) {
+            backoff = maxBackoffMs;
+        }
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff - backoff / 2 + 1);
+    }
+
+    /**
+     * Make the first attempt, the device is supervised until closed.
+     * @return future of the first attempt.
+     */
+    public ListenableFuture<Boolean> start() {
+        return attempt();
+    }
+
+    private ListenableFuture<Boolean> attempt() {
+        synchronized (this) {
+            if (state == State.CLOSED) {
+                return null;
+            }
+            state = State.CONNECTING;
+            retry = null;
+        }
+        ListenableFuture<Boolean> future = connector.get();
+        future.addListener(() -> onAttemptDone(future), MoreExecutors.directExecutor());
+        return future;
+    }
+
+    private void onAttemptDone(ListenableFuture<Boolean> future) {
+        boolean isConnected;
+        try {
+            isConnected = future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            isConnected = false;
+        }
+
+        boolean isReconnect;
+        synchronized (this) {
+            if (state != State.CONNECTING) {
+                return;
+            }
+            if (!isConnected) {
+                scheduleRetry();
+                return;
+            }
+            state = State.CONNECTED;
+            attempts = 0;
+            isReconnect = wasConnected;
+            wasConnected = true;
+            if (isReconnect) {
+                reconnectCount++;
+            }
+        }
+        if (isReconnect) {
+            LOG.info("Device = {} reconnected.", nodeId);
+        }
+        listener.onConnected(isReconnect);
+    }
+
+    /**
+     * The open stream channel failed or was closed by the target.
+     */
+    public void onStreamLost() {
+        synchronized (this) {
+            if (state != State.CONNECTED) {
+                return;
+            }
+            scheduleRetry();
+        }
+        LOG.info("Stream channel of device = {} lost, reconnecting.", nodeId);
+        listener.onDisconnected();
+    }
+
+    private void scheduleRetry() {
+        long delay = backoffMs(attempts++, initialBackoffMs, maxBackoffMs);
+        state = State.BACKOFF;
+        retry = TIMER.schedule(this::attempt, delay, TimeUnit.MILLISECONDS);
+        LOG.debug("Device = {} reconnect attempt {} in {} ms.", nodeId, attempts, delay);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public synchronized long getReconnectCount() {
+        return reconnectCount;
+    }
+
+    /**
+     * Stop supervising, a pending attempt is cancelled.
+     */
+    public synchronized void close() {
+        state = State.CLOSED;
+        if (retry != null) {
+            retry.cancel(false);
+            retry = null;
+        }
+    }
+}
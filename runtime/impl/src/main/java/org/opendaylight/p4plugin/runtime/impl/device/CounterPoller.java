@@ -0,0 +1,216 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.device;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.opendaylight.p4plugin.p4runtime.proto.CounterEntry;
+import org.opendaylight.p4plugin.p4runtime.proto.Entity;
+import org.opendaylight.p4plugin.p4runtime.proto.ReadRequest;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.P4InfoCatalog;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.CounterChanged;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.CounterChangedBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.counter.changed.Cell;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.counter.changed.CellBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Polls the counter arrays of a device in the background. Each poll is one
+ * wildcard read of all cells of a counter, sent without blocking; samples are
+ * kept in a CounterRing and the cells changed since the previous poll are
+ * published in one counter-changed notification, nothing is published for a
+ * counter that did not change.
+ *
+ * A poll is skipped while the previous read of the same counter is still
+ * running, so a slow device never has more than one read per counter
+ * outstanding.
+ */
+public final class CounterPoller implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(CounterPoller.class);
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("p4plugin-counter-timer").setDaemon(true).build());
+    private final String nodeId;
+    private final Long deviceId;
+    private final Reader reader;
+    private final Consumer<CounterChanged> publisher;
+    private final Map<Integer, PolledCounter> counters = new ConcurrentHashMap<>();
+
+    /**
+     * Non-blocking read of a device.
+     */
+    public interface Reader {
+        ListenableFuture<Void> read(ReadRequest request, Consumer<Entity> consumer);
+    }
+
+    public CounterPoller(String nodeId, Long deviceId, Reader reader, Consumer<CounterChanged> publisher) {
+        this.nodeId = nodeId;
+        this.deviceId = deviceId;
+        this.reader = reader;
+        this.publisher = publisher;
+    }
+
+    /**
+     * Poll a counter array, replacing the interval if it is already polled.
+     * @param intervalMs time between polls, 0 to stop polling.
+     */
+    public synchronized void setPolling(P4InfoCatalog.CounterInfo counter, long intervalMs) {
+        if (intervalMs < 0) {
+            throw new IllegalArgumentException("Invalid polling interval.");
+        }
+        if (counter.isDirect()) {
+            throw new IllegalArgumentException("Direct counters cannot be polled.");
+        }
+        if (counter.getSize() <= 0 || counter.getSize() > Integer.MAX_VALUE / CounterRing.DEFAULT_DEPTH) {
+            throw new IllegalArgumentException("Invalid counter size.");
+        }
+
+        PolledCounter previous = counters.remove(counter.getId());
+        if (previous != null) {
+            previous.cancel();
+        }
+        if (intervalMs > 0) {
+            PolledCounter polled = new PolledCounter(counter, intervalMs);
+            counters.put(counter.getId(), polled);
+            polled.schedule();
+            LOG.info("Poll counter = {} of device = {} every {} ms.", counter.getName(), nodeId, intervalMs);
+        }
+    }
+
+    public boolean isPolled(int counterId) {
+        return counters.containsKey(counterId);
+    }
+
+    /**
+     * @return polls skipped because the previous read was still running.
+     */
+    public long getSkippedCount(int counterId) {
+        PolledCounter polled = counters.get(counterId);
+        return polled == null ? 0 : polled.skippedCount.get();
+    }
+
+    @Override
+    public synchronized void close() {
+        counters.values().forEach(PolledCounter::cancel);
+        counters.clear();
+    }
+
+    private final class PolledCounter {
+        private final P4InfoCatalog.CounterInfo counter;
+        private final long intervalMs;
+        private final ReadRequest request;
+        private final CounterRing ring;
+        private final int[] changed;
+        private final AtomicBoolean isReading = new AtomicBoolean();
+        private final AtomicLong skippedCount = new AtomicLong();
+        private volatile boolean isCancelled;
+        private ScheduledFuture<?> task;
+
+        PolledCounter(P4InfoCatalog.CounterInfo counter, long intervalMs) {
+            this.counter = counter;
+            this.intervalMs = intervalMs;
+            this.request = ReadRequest.newBuilder()
+                    .setDeviceId(deviceId)
+                    .addEntities(Entity.newBuilder().setCounterEntry(
+                            CounterEntry.newBuilder().setCounterId(counter.getId())))
+                    .build();
+            this.ring = new CounterRing((int) counter.getSize(), CounterRing.DEFAULT_DEPTH);
+            this.changed = new int[ring.size()];
+        }
+
+        void schedule() {
+            task = TIMER.scheduleAtFixedRate(this::poll, 0, intervalMs, TimeUnit.MILLISECONDS);
+        }
+
+        void cancel() {
+            isCancelled = true;
+            task.cancel(false);
+        }
+
+        private void poll() {
+            if (!isReading.compareAndSet(false, true)) {
+                skippedCount.incrementAndGet();
+                return;
+            }
+            ListenableFuture<Void> future;
+            try {
+                ring.begin(System.nanoTime());
+                future = reader.read(request, this::onEntity);
+            } catch (RuntimeException e) {
+                LOG.debug("Cannot poll counter = {} of device = {}, {}.", counter.getName(), nodeId, e.getMessage());
+                isReading.set(false);
+                return;
+            }
+            Futures.addCallback(future, new FutureCallback<Void>() {
+                @Override
+                public void onSuccess(Void result) {
+                    try {
+                        int changedCount = ring.commit(changed);
+                        if (changedCount > 0 && !isCancelled) {
+                            publisher.accept(toNotification(changedCount));
+                        }
+                    } finally {
+                        isReading.set(false);
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    LOG.debug("Poll counter = {} of device = {} failed, {}.", counter.getName(), nodeId,
+                            t.getMessage());
+                    isReading.set(false);
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        private void onEntity(Entity entity) {
+            if (entity.hasCounterEntry() && entity.getCounterEntry().getCounterId() == counter.getId()) {
+                CounterEntry entry = entity.getCounterEntry();
+                ring.set(entry.getIndex(), entry.getData().getByteCount(), entry.getData().getPacketCount());
+            }
+        }
+
+        private CounterChanged toNotification(int changedCount) {
+            List<Cell> cells = new ArrayList<>(changedCount);
+            for (int i = 0; i < changedCount; i++) {
+                int index = changed[i];
+                cells.add(new CellBuilder()
+                        .setIndex((long) index)
+                        .setByteCount(BigInteger.valueOf(ring.getByteCount(index, 0)))
+                        .setPacketCount(BigInteger.valueOf(ring.getPacketCount(index, 0)))
+                        .setByteDelta(BigInteger.valueOf(ring.getByteDelta(index)))
+                        .setPacketDelta(BigInteger.valueOf(ring.getPacketDelta(index)))
+                        .setByteRate(BigInteger.valueOf(ring.getByteRate(index)))
+                        .setPacketRate(BigInteger.valueOf(ring.getPacketRate(index)))
+                        .build());
+            }
+            return new CounterChangedBuilder()
+                    .setNid(nodeId)
+                    .setCounterName(counter.getName())
+                    .setIntervalMs(BigInteger.valueOf(TimeUnit.NANOSECONDS.toMillis(ring.getIntervalNanos())))
+                    .setCell(cells)
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.device;
+
+/**
+ * The last samples of every cell of a counter array. A sample holds the
+ * byte and packet counts of all cells read in one poll; samples are kept in
+ * primitive arrays, slot by slot, each slot indexed by cell index, so a
+ * counter with thousands of cells costs no object per cell.
+ *
+ * A sample is filled between begin() and commit(); cells not read keep
+ * their value of the previous sample. Not thread safe, the poller of the
+ * counter runs one sample at a time.
+ */
+public final class CounterRing {
+    public static final int DEFAULT_DEPTH = 8;
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private final int size;
+    private final int depth;
+    private final long[] byteCounts;
+    private final long[] packetCounts;
+    private final long[] timestamps;
+    private int head = -1;
+    private int current;
+    private int count;
+
+    /**
+     * @param size number of cells.
+     * @param depth number of samples kept, at least 2.
+     */
+    public CounterRing(int size, int depth) {
+        if (size <= 0 || depth < 2) {
+            throw new IllegalArgumentException("Invalid counter ring size.");
+        }
+        this.size = size;
+        this.depth = depth;
+        this.byteCounts = new long[size * depth];
+        this.packetCounts = new long[size * depth];
+        this.timestamps = new long[depth];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of committed samples kept, at most the depth.
+     */
+    public int getSampleCount() {
+        return count;
+    }
+
+    /**
+     * Start a sample, a sample begun but not committed is discarded.
+     */
+    public void begin(long timestampNanos) {
+        current = (head + 1) % depth;
+        if (count > 0) {
+            System.arraycopy(byteCounts, head * size, byteCounts, current * size, size);
+            System.arraycopy(packetCounts, head * size, packetCounts, current * size, size);
+        }
+        timestamps[current] = timestampNanos;
+    }
+
+    /**
+     * Set a cell of the sample being filled.
+     * @return false if the index is out of the counter.
+     */
+    public boolean set(long index, long byteCount, long packetCount) {
+        if (index < 0 || index >= size) {
+            return false;
+        }
+        int offset = current * size + (int) index;
+        byteCounts[offset] = byteCount;
+        packetCounts[offset] = packetCount;
+        return true;
+    }
+
+    /**
+     * Complete the sample being filled.
+     * @param changed receives the indexes of the cells changed since the
+     *                previous sample, at least size() long.
+     * @return number of changed cells, 0 for the first sample.
+     */
+    public int commit(int[] changed) {
+        head = current;
+        count = Math.min(count + 1, depth);
+        if (count < 2) {
+            return 0;
+        }
+        int latest = head * size;
+        int previous = slot(1) * size;
+        int changedCount = 0;
+        for (int i = 0; i < size; i++) {
+            if (byteCounts[latest + i] != byteCounts[previous + i]
+                    || packetCounts[latest + i] != packetCounts[previous + i]) {
+                changed[changedCount++] = i;
+            }
+        }
+        return changedCount;
+    }
+
+    private int slot(int age) {
+        if (age < 0 || age >= count) {
+            throw new IllegalArgumentException("No sample of age " + age);
+        }
+        return (head - age + depth) % depth;
+    }
+
+    /**
+     * @param age 0 for the latest sample, 1 for the one before, and so on.
+     */
+    public long getByteCount(int index, int age) {
+        return byteCounts[slot(age) * size + index];
+    }
+
+    public long getPacketCount(int index, int age) {
+        return packetCounts[slot(age) * size + index];
+    }
+
+    public long getTimestamp(int age) {
+        return timestamps[slot(age)];
+    }
+
+    /**
+     * @return time between the two latest samples.
+     */
+    public long getIntervalNanos() {
+        return getTimestamp(0) - getTimestamp(1);
+    }
+
+    /**
+     * A count lower than in the previous sample means the cell was reset,
+     * the whole count is taken as the delta.
+     */
+    private static long delta(long latest, long previous) {
+        return latest >= previous ? latest - previous : latest;
+    }
+
+    public long getByteDelta(int index) {
+        return delta(getByteCount(index, 0), getByteCount(index, 1));
+    }
+
+    public long getPacketDelta(int index) {
+        return delta(getPacketCount(index, 0), getPacketCount(index, 1));
+    }
+
+    private long rate(long delta) {
+        long interval = getIntervalNanos();
+        return interval <= 0 ? 0 : (long) ((double) delta * NANOS_PER_SECOND / interval);
+    }
+
+    /**
+     * @return bytes per second between the two latest samples.
+     */
+    public long getByteRate(int index) {
+        return rate(getByteDelta(index));
+    }
+
+    /**
+     * @return packets per second between the two latest samples.
+     */
+    public long getPacketRate(int index) {
+        return rate(getPacketDelta(index));
+    }
+}
@@ -7,39 +7,41 @@
  */
 package org.opendaylight.p4plugin.runtime.impl.device;
 
-import com.google.protobuf.ByteString;
-import org.opendaylight.p4plugin.runtime.impl.utils.Utils;
-import org.opendaylight.p4plugin.p4info.proto.P4Info;
+import org.opendaylight.p4plugin.runtime.impl.cluster.DeviceOwnership;
+import org.opendaylight.p4plugin.runtime.impl.cluster.ElectionId;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.Pipeline;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.PipelineCache;
+import org.opendaylight.p4plugin.runtime.impl.stub.WritePipeline;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class DeviceManager {
     private static final Logger LOG = LoggerFactory.getLogger(DeviceManager.class);
     private static DeviceManager singleton = new DeviceManager();
-    private ConcurrentHashMap<String, P4Device> devices = new ConcurrentHashMap<>();
-    private DeviceManager() {}
+    private final ConcurrentHashMap<String, P4Device> devices = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Target, String> targets = new ConcurrentHashMap<>();
+    private final DeviceOwnership ownership = DeviceOwnership.getInstance();
+
+    private DeviceManager() {
+        ownership.setListener(this::onOwnershipChanged);
+    }
     public static DeviceManager getInstance() {
         return singleton;
     }
 
     public boolean isNodeExist(String nodeId) {
-        return devices.keySet().contains(nodeId);
+        return devices.containsKey(nodeId);
     }
 
     public boolean isTargetExist(String ip, Integer port, Long deviceId) {
-        Optional<String> keyContainer = devices.keySet()
-                .stream()
-                .filter(k -> devices.get(k).getDeviceId().equals(deviceId)
-                          && devices.get(k).getIp().equals(ip)
-                          && devices.get(k).getPort().equals(port))
-                .findFirst();
-        return keyContainer.isPresent();
+        return targets.containsKey(new Target(ip, port, deviceId));
     }
 
     public boolean isDeviceExist(String nodeId, String ip, Integer port, Long deviceId) {
@@ -52,33 +54,92 @@ public class DeviceManager {
 
     public void addDevice(String nodeId, Long deviceId, String ip, Integer port,
                           String runtimeFile, String configFile) throws IOException {
-        if (isDeviceExist(nodeId, ip, port, deviceId)) {
+        addDevice(nodeId, deviceId, ip, port, runtimeFile, configFile, WritePipeline.DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public void addDevice(String nodeId, Long deviceId, String ip, Integer port,
+                          String runtimeFile, String configFile, int maxInFlightWrites) throws IOException {
+        if (isNodeExist(nodeId) || isTargetExist(ip, port, deviceId)) {
             throw new IllegalArgumentException("Device is existed.");
         }
 
-        P4Info p4Info = Utils.parseRuntimeInfo(runtimeFile);
-        ByteString config = Utils.parseDeviceConfigInfo(configFile);
+        Pipeline pipeline = PipelineCache.getInstance().load(runtimeFile, configFile);
         P4Device.Builder builder = P4Device.newBuilder()
                 .setNodeId(nodeId)
                 .setDeviceId(deviceId)
-                .setRuntimeInfo(p4Info)
-                .setDeviceConfig(config)
+                .setPipeline(pipeline)
                 .setIp(ip)
-                .setPort(port);
-        devices.put(nodeId, builder.build());
+                .setPort(port)
+                .setMaxInFlightWrites(maxInFlightWrites);
+        addDevice(builder.build());
     }
 
-    public void removeDevice(String nodeId) {
-        Optional<P4Device> optional = findDevice(nodeId);
-        optional.ifPresent((device)->{
-            device.shutdown();
-            devices.remove(nodeId);
-            LOG.info("Device = [{}] removed.", device.getNodeId());
+    /**
+     * Add a built device. The node id and the target (ip, port, device id)
+     * are indexed together, so both must be unused.
+     */
+    public synchronized void addDevice(P4Device device) {
+        Target target = new Target(device.getIp(), device.getPort(), device.getDeviceId());
+        if (devices.containsKey(device.getNodeId()) || targets.containsKey(target)) {
+            throw new IllegalArgumentException("Device is existed.");
+        }
+        targets.put(target, device.getNodeId());
+        devices.put(device.getNodeId(), device);
+        ownership.register(device.getNodeId());
+    }
+
+    /**
+     * Only the owner of a device in the cluster connects to it, a new owner
+     * takes the device over and a previous owner closes its stream channel.
+     */
+    private void onOwnershipChanged(String nodeId, boolean isOwner, ElectionId electionId) {
+        findDevice(nodeId).ifPresent(device -> {
+            if (isOwner) {
+                LOG.info("Take over device = {} as owner.", nodeId);
+                device.takeOver(electionId);
+            } else {
+                device.release();
+            }
         });
     }
 
+    public boolean isOwner(String nodeId) {
+        return ownership.isOwner(nodeId);
+    }
+
+    /**
+     * Requests for a device owned by another cluster member are rejected
+     * before reaching the device, the owner is the only member connected.
+     */
+    public void checkOwner(String nodeId) {
+        if (!ownership.isOwner(nodeId)) {
+            throw new IllegalStateException(String.format(
+                    "Device %s is owned by another cluster member, send the request to the owner.", nodeId));
+        }
+    }
+
+    public void removeDevice(String nodeId) {
+        P4Device device;
+        synchronized (this) {
+            device = devices.remove(nodeId);
+            if (device == null) {
+                return;
+            }
+            targets.remove(new Target(device.getIp(), device.getPort(), device.getDeviceId()), nodeId);
+        }
+        ownership.unregister(nodeId);
+        device.shutdown();
+        LOG.info("Device = [{}] removed.", device.getNodeId());
+    }
+
+    /**
+     * @throws IllegalStateException if another cluster member owns the device.
+     */
     public Optional<P4Device> findConfiguredDevice(String nodeId) {
         Optional<P4Device> optional = findDevice(nodeId);
+        if (optional.isPresent()) {
+            checkOwner(nodeId);
+        }
 
         if ((optional.isPresent()) && (optional.get().isConfigured())) {
             return optional;
@@ -88,12 +149,49 @@ public class DeviceManager {
         }
     }
 
+    /**
+     * Snapshot every device without touching their channels.
+     */
+    public List<DeviceState> queryDeviceStates() {
+        List<DeviceState> result = new ArrayList<>(devices.size());
+        devices.values().forEach(device -> result.add(device.getState()));
+        return result;
+    }
+
     public List<String> queryDevices() {
-        List<String> result = new ArrayList<>();
-        devices.keySet().forEach(node->{
-            P4Device device = devices.get(node);
-            result.add(device.toString());
-        });
+        List<String> result = new ArrayList<>(devices.size());
+        queryDeviceStates().forEach(state -> result.add(state.toString()));
         return result;
     }
+
+    private static final class Target {
+        private final String ip;
+        private final Integer port;
+        private final Long deviceId;
+
+        Target(String ip, Integer port, Long deviceId) {
+            this.ip = ip;
+            this.port = port;
+            this.deviceId = deviceId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Target)) {
+                return false;
+            }
+            Target other = (Target) o;
+            return Objects.equals(ip, other.ip)
+                    && Objects.equals(port, other.port)
+                    && Objects.equals(deviceId, other.deviceId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(ip, port, deviceId);
+        }
+    }
 }
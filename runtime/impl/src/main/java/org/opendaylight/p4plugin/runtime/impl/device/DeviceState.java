@@ -0,0 +1,76 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.device;
+
+import org.opendaylight.p4plugin.runtime.impl.cluster.Mastership;
+
+/**
+ * Snapshot of a device taken without touching the channel, so querying
+ * thousands of devices never triggers a connection attempt.
+ */
+public final class DeviceState {
+    private final String nodeId;
+    private final Long deviceId;
+    private final String ip;
+    private final Integer port;
+    private final boolean isConnected;
+    private final boolean isConfigured;
+    private final Mastership mastership;
+
+    public DeviceState(String nodeId, Long deviceId, String ip, Integer port,
+                       boolean isConnected, boolean isConfigured) {
+        this(nodeId, deviceId, ip, port, isConnected, isConfigured, Mastership.UNKNOWN);
+    }
+
+    public DeviceState(String nodeId, Long deviceId, String ip, Integer port,
+                       boolean isConnected, boolean isConfigured, Mastership mastership) {
+        this.nodeId = nodeId;
+        this.deviceId = deviceId;
+        this.ip = ip;
+        this.port = port;
+        this.isConnected = isConnected;
+        this.isConfigured = isConfigured;
+        this.mastership = mastership;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public Long getDeviceId() {
+        return deviceId;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public Integer getPort() {
+        return port;
+    }
+
+    public boolean isConnected() {
+        return isConnected;
+    }
+
+    public boolean isConfigured() {
+        return isConfigured;
+    }
+
+    public Mastership getMastership() {
+        return mastership;
+    }
+
+    /**
+     * Legacy form of query-devices, mastership is reported on its own.
+     */
+    @Override
+    public String toString() {
+        return String.format("%s/%d-%s:%d/%s/%s", nodeId, deviceId, ip, port, isConnected, isConfigured);
+    }
+}
@@ -7,63 +7,136 @@
  */
 package org.opendaylight.p4plugin.runtime.impl.device;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.util.JsonFormat;
-import io.grpc.ConnectivityState;
-import org.opendaylight.p4plugin.p4info.proto.Table;
 import org.opendaylight.p4plugin.p4runtime.proto.*;
 import org.opendaylight.p4plugin.p4runtime.proto.Action;
+import org.opendaylight.p4plugin.runtime.impl.cluster.ElectionId;
+import org.opendaylight.p4plugin.runtime.impl.cluster.Mastership;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.EntryTranslator;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.P4InfoCatalog;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.PacketMetadataCodec;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.Pipeline;
+import org.opendaylight.p4plugin.runtime.impl.stub.EntityStream;
 import org.opendaylight.p4plugin.runtime.impl.stub.RuntimeStub;
+import org.opendaylight.p4plugin.runtime.impl.stub.WritePipeline;
+import org.opendaylight.p4plugin.runtime.impl.utils.NotificationPublisher;
+import org.opendaylight.p4plugin.runtime.impl.utils.TokenBucket;
 import org.opendaylight.p4plugin.runtime.impl.utils.Utils;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.device.rev170808.MastershipChangedBuilder;
 import org.opendaylight.p4plugin.p4config.proto.P4DeviceConfig;
 import org.opendaylight.p4plugin.p4info.proto.P4Info;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.packet.rev170808.packet.metadata.Metadata;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.*;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.ActionProfileGroup;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.ActionProfileMember;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.DirectMeterEntry;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.MeterConfig;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.MeterEntry;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.TableEntry;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.action.ActionParam;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.Field;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.field.MatchType;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.field.match.type.EXACT;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.field.match.type.LPM;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.field.match.type.RANGE;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.field.match.type.TERNARY;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.table.entry.ActionType;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.table.entry.action.type.ACTIONPROFILEGROUP;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.table.entry.action.type.ACTIONPROFILEMEMBER;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.table.entry.action.type.DIRECTACTION;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.read.counter.output.Cell;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.read.counter.output.CellBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.read.table.entry.page.output.Entry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 
 public class P4Device  {
     private static final Logger LOG = LoggerFactory.getLogger(P4Device.class);
-    private RuntimeStub runtimeStub;
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    /* Leave headroom under the 4MB default max inbound message size of the gRPC server. */
+    private static final int MAX_WRITE_REQUEST_BYTES = 3 * 1024 * 1024;
+    /* Reconciles after reconnect read the whole device, a few at a time. */
+    private static final ExecutorService RECONCILER = Executors.newFixedThreadPool(2,
+            new ThreadFactoryBuilder().setNameFormat("p4plugin-reconcile-%d").setDaemon(true).build());
+    private volatile RuntimeStub runtimeStub;
     private P4Info runtimeInfo;
+    private P4InfoCatalog catalog;
+    private EntryTranslator translator;
+    private PacketMetadataCodec packetCodec;
     private ByteString deviceConfig;
     private String ip;
     private Integer port;
     private Long deviceId;
     private String nodeId;
-    private boolean isConfigured;
+    private volatile boolean isConfigured;
+    /* Configured when the stream was lost, checked again on reconnect. */
+    private volatile boolean wasConfigured;
+    private volatile ConnectionSupervisor supervisor;
+    private long initialBackoffMs = ConnectionSupervisor.DEFAULT_INITIAL_BACKOFF_MS;
+    private long maxBackoffMs = ConnectionSupervisor.DEFAULT_MAX_BACKOFF_MS;
+    private int maxInFlightWrites;
+    private long writeDeadlineMs = WritePipeline.DEFAULT_DEADLINE_MS;
+    private final ReadCursors readCursors = new ReadCursors();
+    private final TokenBucket packetOutLimiter = TokenBucket.unlimited();
+    private final ShadowStore shadow;
+    private volatile boolean isShadowEnabled = true;
+    private final CounterPoller counterPoller;
+    /* Election id of this device alone, null to follow ElectionIdGenerator. */
+    private volatile ElectionId electionId;
 
     private P4Device(String ip, Integer port, Long deviceId, String nodeId,
-                     P4Info runtimeInfo, ByteString deviceConfig) {
+                     P4Info runtimeInfo, P4InfoCatalog catalog, ByteString deviceConfig,
+                     int maxInFlightWrites, boolean isShadowOffHeap) {
         this.ip = ip;
         this.port = port;
         this.deviceId = deviceId;
         this.nodeId = nodeId;
         this.runtimeInfo = runtimeInfo;
+        this.catalog = catalog;
+        this.translator = catalog == null ? null : EntryTranslator.compile(catalog);
+        this.packetCodec = catalog == null ? null : PacketMetadataCodec.compile(catalog);
         this.deviceConfig = deviceConfig;
+        this.maxInFlightWrites = maxInFlightWrites;
+        this.shadow = new ShadowStore(catalog, isShadowOffHeap);
+        this.counterPoller = new CounterPoller(nodeId, deviceId, this::readAsync,
+                NotificationPublisher.getInstance()::notify);
     }
 
     public boolean getConnectState() {
         return runtimeStub.getConnectState();
     }
 
+    /**
+     * Snapshot of the device state, cheap enough to take for every device.
+     */
+    public DeviceState getState() {
+        RuntimeStub stub = runtimeStub;
+        return new DeviceState(nodeId, deviceId, ip, port,
+                stub != null && stub.getCachedConnectState(), isConfigured,
+                stub == null ? Mastership.UNKNOWN : stub.getMastership());
+    }
+
+    public Mastership getMastership() {
+        RuntimeStub stub = runtimeStub;
+        return stub == null ? Mastership.UNKNOWN : stub.getMastership();
+    }
+
+    private void publishMastership(Mastership mastership) {
+        MastershipChangedBuilder builder = new MastershipChangedBuilder().setNid(nodeId);
+        if (mastership.getRole() != Mastership.Role.UNKNOWN) {
+            builder.setIsMaster(mastership.isMaster());
+        }
+        ElectionId masterElectionId = mastership.getMasterElectionId();
+        if (masterElectionId != null) {
+            builder.setMasterElectionIdHigh(Utils.toUnsignedBigInteger(masterElectionId.getHigh()))
+                    .setMasterElectionIdLow(Utils.toUnsignedBigInteger(masterElectionId.getLow()));
+        }
+        NotificationPublisher.getInstance().notify(builder.build());
+    }
+
     public boolean isConfigured() {
         return runtimeInfo != null && deviceConfig != null && isConfigured;
     }
@@ -84,163 +157,11 @@ public class P4Device  {
         return port;
     }
 
-    private int getTableId(String tableName) {
-        Optional<Table> optional = runtimeInfo.getTablesList()
-                .stream()
-                .filter(table -> table.getPreamble().getName().equals(tableName))
-                .findFirst();
-        return optional.orElseThrow(()-> new IllegalArgumentException("Invalid table name"))
-                .getPreamble().getId();
-    }
-
-    private String getTableName(int tableId) {
-        Optional<org.opendaylight.p4plugin.p4info.proto.Table> optional = runtimeInfo.getTablesList()
-                .stream()
-                .filter(table -> table.getPreamble().getId() == tableId)
-                .findFirst();
-        return optional.orElseThrow(()-> new IllegalArgumentException("Invalid table id"))
-                .getPreamble().getName();
-    }
-
-    private int getMatchFieldId(String tableName, String matchFieldName) {
-        Optional<org.opendaylight.p4plugin.p4info.proto.Table> tableContainer = runtimeInfo.getTablesList()
-                .stream()
-                .filter(table -> table.getPreamble().getName().equals(tableName))
-                .findFirst();
-
-        Optional<org.opendaylight.p4plugin.p4info.proto.MatchField> matchFieldContainer =
-                tableContainer.orElseThrow(()-> new IllegalArgumentException("Invalid table name"))
-                        .getMatchFieldsList()
-                        .stream()
-                        .filter(matchField -> matchField.getName().equals(matchFieldName))
-                        .findFirst();
-
-        return matchFieldContainer.orElseThrow(()-> new IllegalArgumentException("Invalid match field name"))
-                .getId();
-    }
-
-    private String getMatchFieldName(int tableId, int matchFieldId) {
-        Optional<org.opendaylight.p4plugin.p4info.proto.Table> tableContainer = runtimeInfo.getTablesList()
-                .stream()
-                .filter(table -> table.getPreamble().getId() == tableId)
-                .findFirst();
-
-        Optional<org.opendaylight.p4plugin.p4info.proto.MatchField> matchFieldContainer =
-                tableContainer.orElseThrow(()-> new IllegalArgumentException("Invalid table id"))
-                        .getMatchFieldsList()
-                        .stream()
-                        .filter(matchField -> matchField.getId() == (matchFieldId))
-                        .findFirst();
-
-        return matchFieldContainer.orElseThrow(()-> new IllegalArgumentException("Invalid match field id"))
-                .getName();
-    }
-
-    private int getMatchFieldWidth(String tableName, String matchFieldName) {
-        Optional<org.opendaylight.p4plugin.p4info.proto.Table> tableContainer = runtimeInfo.getTablesList()
-                .stream()
-                .filter(table -> table.getPreamble().getName().equals(tableName))
-                .findFirst();
-
-        Optional<org.opendaylight.p4plugin.p4info.proto.MatchField> matchFieldContainer =
-                tableContainer.orElseThrow(()-> new IllegalArgumentException("Invalid table name"))
-                        .getMatchFieldsList()
-                        .stream()
-                        .filter(matchField -> matchField.getName().equals(matchFieldName))
-                        .findFirst();
-
-        return (matchFieldContainer.orElseThrow(()-> new IllegalArgumentException("Invalid match field name"))
-                .getBitwidth() + 7 ) / 8;
-    }
-
-    private int getActionId(String actionName) {
-        Optional<org.opendaylight.p4plugin.p4info.proto.Action> optional = runtimeInfo.getActionsList()
-                .stream()
-                .filter(action -> action.getPreamble().getName().equals(actionName))
-                .findFirst();
-        return optional.orElseThrow(()-> new IllegalArgumentException("Invalid action name"))
-                .getPreamble().getId();
-    }
-
-    private String getActionName(int actionId) {
-        Optional<org.opendaylight.p4plugin.p4info.proto.Action> optional = runtimeInfo.getActionsList()
-                .stream()
-                .filter(action -> action.getPreamble().getId() == actionId)
-                .findFirst();
-        return optional.orElseThrow(()-> new IllegalArgumentException("Invalid action id"))
-                .getPreamble().getName();
-    }
-
-    private int getParamId(String actionName, String paramName) {
-        Optional<org.opendaylight.p4plugin.p4info.proto.Action> actionContainer = runtimeInfo.getActionsList()
-                .stream()
-                .filter(action -> action.getPreamble().getName().equals(actionName))
-                .findFirst();
-
-        Optional<org.opendaylight.p4plugin.p4info.proto.Action.Param> paramContainer =
-                actionContainer.orElseThrow(()-> new IllegalArgumentException("Invalid action name"))
-                        .getParamsList()
-                        .stream()
-                        .filter(param -> param.getName().equals(paramName))
-                        .findFirst();
-
-        return paramContainer.orElseThrow(()-> new IllegalArgumentException("Invalid param name"))
-                .getId();
-    }
-
-    private String getParamName(int actionId, int paramId) {
-        Optional<org.opendaylight.p4plugin.p4info.proto.Action> actionContainer = runtimeInfo.getActionsList()
-                .stream()
-                .filter(action -> action.getPreamble().getId() == actionId)
-                .findFirst();
-
-        Optional<org.opendaylight.p4plugin.p4info.proto.Action.Param> paramContainer =
-                actionContainer.orElseThrow(()-> new IllegalArgumentException("Invalid action id"))
-                        .getParamsList()
-                        .stream()
-                        .filter(param -> param.getId() == paramId)
-                        .findFirst();
-
-        return paramContainer.orElseThrow(()-> new IllegalArgumentException("Invalid param id"))
-                .getName();
-    }
-
-    private int getParamWidth(String actionName, String paramName) {
-        Optional<org.opendaylight.p4plugin.p4info.proto.Action> actionContainer = runtimeInfo.getActionsList()
-                .stream()
-                .filter(action -> action.getPreamble().getName().equals(actionName))
-                .findFirst();
-
-        Optional<org.opendaylight.p4plugin.p4info.proto.Action.Param> paramContainer =
-                actionContainer.orElseThrow(()-> new IllegalArgumentException("Invalid action name"))
-                        .getParamsList()
-                        .stream()
-                        .filter(param -> param.getName().equals(paramName))
-                        .findFirst();
-
-        return (paramContainer.orElseThrow(()-> new IllegalArgumentException("Invalid param name"))
-                .getBitwidth() + 7 ) / 8;
-    }
-
-    private int getActionProfileId(String actionProfileName) {
-        Optional<org.opendaylight.p4plugin.p4info.proto.ActionProfile> optional = runtimeInfo.getActionProfilesList()
-                .stream()
-                .filter(actionProfile -> actionProfile.getPreamble().getName().equals(actionProfileName))
-                .findFirst();
-        return optional.orElseThrow(()-> new IllegalArgumentException("Invalid action profile name"))
-                .getPreamble().getId();
+    public P4InfoCatalog getCatalog() {
+        return catalog;
     }
 
-    private String getActionProfileName(Integer actionProfileId) {
-        Optional<org.opendaylight.p4plugin.p4info.proto.ActionProfile> optional = runtimeInfo.getActionProfilesList()
-                .stream()
-                .filter(actionProfile -> actionProfile.getPreamble().getId() == actionProfileId)
-                .findFirst();
-        return optional.orElseThrow(()-> new IllegalArgumentException("Invalid action profile id"))
-                .getPreamble().getName();
-    }
-
-    public SetForwardingPipelineConfigResponse setPipelineConfig() {
+    private SetForwardingPipelineConfigRequest createPipelineConfigRequest() {
         ForwardingPipelineConfig.Builder configBuilder = ForwardingPipelineConfig.newBuilder();
         P4DeviceConfig.Builder p4DeviceConfigBuilder = P4DeviceConfig.newBuilder();
         p4DeviceConfigBuilder.setDeviceData(deviceConfig);
@@ -248,17 +169,114 @@ public class P4Device  {
 
         configBuilder.setP4DeviceConfig(p4DeviceConfigBuilder.build().toByteString());
         configBuilder.setDeviceId(deviceId);
-        SetForwardingPipelineConfigRequest request = SetForwardingPipelineConfigRequest.newBuilder()
+        return SetForwardingPipelineConfigRequest.newBuilder()
                 .setAction(SetForwardingPipelineConfigRequest.Action.VERIFY_AND_COMMIT)
                 .addConfigs(configBuilder)
                 .build();
+    }
 
+    /**
+     * Set the pipeline, the recorded state is replayed in the background and
+     * failures of the replay are logged.
+     */
+    public SetForwardingPipelineConfigResponse setPipelineConfig() {
         SetForwardingPipelineConfigResponse response;
-        response = runtimeStub.setPipelineConfig(request);
+        response = runtimeStub.setPipelineConfig(createPipelineConfigRequest());
         isConfigured = true;
+        if (isShadowEnabled && shadow.size() > 0) {
+            logReplayErrors(replay());
+        }
         return response;
     }
 
+    /**
+     * Set the pipeline and replay the recorded state.
+     * @return future of the failed updates of the replay.
+     */
+    public ListenableFuture<List<WriteError>> setPipelineConfigAndReplay() {
+        runtimeStub.setPipelineConfig(createPipelineConfigRequest());
+        isConfigured = true;
+        if (isShadowEnabled && shadow.size() > 0) {
+            return replay();
+        }
+        return Futures.immediateFuture(Collections.emptyList());
+    }
+
+    private void logReplayErrors(ListenableFuture<List<WriteError>> future) {
+        Futures.addCallback(future, new FutureCallback<List<WriteError>>() {
+            @Override
+            public void onSuccess(List<WriteError> errors) {
+                if (!errors.isEmpty()) {
+                    LOG.info("Replay to device = {} failed for {} updates, first error = {}.",
+                            nodeId, errors.size(), errors.get(0));
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                LOG.info("Replay to device = {} failed, reason = {}.", nodeId, t.getMessage());
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Record the intended state of the device from its successful writes,
+     * replayed when the pipeline is set again and reconciled on reconnect.
+     * Disabling it forgets the recorded state.
+     */
+    public void setShadowEnabled(boolean isShadowEnabled) {
+        this.isShadowEnabled = isShadowEnabled;
+        if (!isShadowEnabled) {
+            shadow.clear();
+        }
+    }
+
+    public ShadowStore getShadow() {
+        return shadow;
+    }
+
+    /**
+     * Write the whole recorded state to the device, which must have no
+     * entries, e.g. right after its pipeline was set.
+     * @return future of the failed updates.
+     */
+    public ListenableFuture<List<WriteError>> replay() {
+        List<Update> updates = shadow.replayUpdates();
+        LOG.info("Replay {} updates to device = {}.", updates.size(), nodeId);
+        return batchWriteAsync(updates, 0);
+    }
+
+    private ReadRequest createStateReadRequest() {
+        ReadRequest.Builder requestBuilder = ReadRequest.newBuilder().setDeviceId(deviceId);
+        catalog.getTables().forEach(table -> requestBuilder.addEntities(Entity.newBuilder()
+                .setTableEntry(org.opendaylight.p4plugin.p4runtime.proto.TableEntry.newBuilder()
+                        .setTableId(table.getId()))));
+        runtimeInfo.getActionProfilesList().forEach(profile -> {
+            int profileId = profile.getPreamble().getId();
+            requestBuilder.addEntities(Entity.newBuilder()
+                    .setActionProfileMember(org.opendaylight.p4plugin.p4runtime.proto.ActionProfileMember.newBuilder()
+                            .setActionProfileId(profileId)));
+            requestBuilder.addEntities(Entity.newBuilder()
+                    .setActionProfileGroup(org.opendaylight.p4plugin.p4runtime.proto.ActionProfileGroup.newBuilder()
+                            .setActionProfileId(profileId)));
+        });
+        return requestBuilder.build();
+    }
+
+    /**
+     * Read the device state in one Read RPC and write only what differs
+     * from the recorded state. Entries unknown to the controller are deleted.
+     */
+    public ReconcileResult reconcile() {
+        List<Update> delta;
+        try (EntityStream entities = readStream(createStateReadRequest())) {
+            delta = shadow.diff(entities);
+        }
+        List<WriteError> errors = delta.isEmpty() ? Collections.emptyList() : batchWrite(delta, 0);
+        LOG.info("Reconcile device = {}, {} updates written, {} failed.", nodeId, delta.size(), errors.size());
+        return new ReconcileResult(delta.size(), errors);
+    }
+
     public GetForwardingPipelineConfigResponse getPipelineConfig() {
         GetForwardingPipelineConfigRequest request = GetForwardingPipelineConfigRequest.newBuilder()
                 .addDeviceIds(deviceId)
@@ -268,45 +286,216 @@ public class P4Device  {
         return response;
     }
 
-    private WriteRequest createWriteRequest(org.opendaylight.p4plugin.p4runtime.proto.TableEntry entry,
-                                            Update.Type type) {
-        WriteRequest.Builder requestBuilder = WriteRequest.newBuilder();
+    private Update createUpdate(org.opendaylight.p4plugin.p4runtime.proto.TableEntry entry, Update.Type type) {
         Update.Builder updateBuilder = Update.newBuilder();
         Entity.Builder entityBuilder = Entity.newBuilder();
         entityBuilder.setTableEntry(entry);
         updateBuilder.setType(type);
         updateBuilder.setEntity(entityBuilder);
-        requestBuilder.setDeviceId(deviceId);
-        requestBuilder.addUpdates(updateBuilder);
-        return requestBuilder.build();
+        return updateBuilder.build();
     }
 
-    private WriteRequest createWriteRequest(org.opendaylight.p4plugin.p4runtime.proto.ActionProfileGroup group,
-                                            Update.Type type) {
-        WriteRequest.Builder requestBuilder = WriteRequest.newBuilder();
+    private Update createUpdate(org.opendaylight.p4plugin.p4runtime.proto.ActionProfileGroup group, Update.Type type) {
         Update.Builder updateBuilder = Update.newBuilder();
         Entity.Builder entityBuilder = Entity.newBuilder();
         entityBuilder.setActionProfileGroup(group);
         updateBuilder.setEntity(entityBuilder);
         updateBuilder.setType(type);
-        requestBuilder.setDeviceId(deviceId);
-        requestBuilder.addUpdates(updateBuilder);
-        return requestBuilder.build();
+        return updateBuilder.build();
     }
 
-    private WriteRequest createWriteRequest(org.opendaylight.p4plugin.p4runtime.proto.ActionProfileMember member,
-                                            Update.Type type) {
-        WriteRequest.Builder requestBuilder = WriteRequest.newBuilder();
+    private Update createUpdate(org.opendaylight.p4plugin.p4runtime.proto.ActionProfileMember member, Update.Type type) {
         Update.Builder updateBuilder = Update.newBuilder();
         Entity.Builder entityBuilder = Entity.newBuilder();
         entityBuilder.setActionProfileMember(member);
         updateBuilder.setType(type);
         updateBuilder.setEntity(entityBuilder);
+        return updateBuilder.build();
+    }
+
+    private Update createUpdate(org.opendaylight.p4plugin.p4runtime.proto.MeterEntry meter, Update.Type type) {
+        return Update.newBuilder()
+                .setType(type)
+                .setEntity(Entity.newBuilder().setMeterEntry(meter))
+                .build();
+    }
+
+    private Update createUpdate(org.opendaylight.p4plugin.p4runtime.proto.DirectMeterEntry meter, Update.Type type) {
+        return Update.newBuilder()
+                .setType(type)
+                .setEntity(Entity.newBuilder().setDirectMeterEntry(meter))
+                .build();
+    }
+
+    private WriteRequest createWriteRequest(Update update) {
+        WriteRequest.Builder requestBuilder = WriteRequest.newBuilder();
         requestBuilder.setDeviceId(deviceId);
-        requestBuilder.addUpdates(updateBuilder);
+        requestBuilder.addUpdates(update);
         return requestBuilder.build();
     }
 
+    private WriteRequest createWriteRequest(org.opendaylight.p4plugin.p4runtime.proto.TableEntry entry,
+                                            Update.Type type) {
+        return createWriteRequest(createUpdate(entry, type));
+    }
+
+    private WriteRequest createWriteRequest(org.opendaylight.p4plugin.p4runtime.proto.ActionProfileGroup group,
+                                            Update.Type type) {
+        return createWriteRequest(createUpdate(group, type));
+    }
+
+    private WriteRequest createWriteRequest(org.opendaylight.p4plugin.p4runtime.proto.ActionProfileMember member,
+                                            Update.Type type) {
+        return createWriteRequest(createUpdate(member, type));
+    }
+
+    /**
+     * Pack updates into WriteRequests, a request is closed when it holds
+     * maxBatchSize updates or would exceed MAX_WRITE_REQUEST_BYTES.
+     */
+    private List<WriteRequest> createWriteRequests(List<Update> updates, int maxBatchSize) {
+        List<WriteRequest> requests = new ArrayList<>();
+        WriteRequest.Builder requestBuilder = WriteRequest.newBuilder().setDeviceId(deviceId);
+        int requestBytes = 0;
+
+        for (Update update : updates) {
+            int updateBytes = update.getSerializedSize();
+            if (requestBuilder.getUpdatesCount() > 0
+                    && (requestBuilder.getUpdatesCount() >= maxBatchSize
+                    || requestBytes + updateBytes > MAX_WRITE_REQUEST_BYTES)) {
+                requests.add(requestBuilder.build());
+                requestBuilder = WriteRequest.newBuilder().setDeviceId(deviceId);
+                requestBytes = 0;
+            }
+            requestBuilder.addUpdates(update);
+            requestBytes += updateBytes;
+        }
+
+        if (requestBuilder.getUpdatesCount() > 0) {
+            requests.add(requestBuilder.build());
+        }
+        return requests;
+    }
+
+    private Update toProtoUpdate(
+            org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.batch.write.input.Update update) {
+        if (update.getType() == null) {
+            throw new IllegalArgumentException("Update type is null");
+        }
+
+        Update.Type type = Update.Type.valueOf(update.getType().name());
+        boolean isDelete = type == Update.Type.DELETE;
+        org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.batch.write.input.update.Entity entity =
+                update.getEntity();
+
+        if (entity instanceof org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808
+                .batch.write.input.update.entity.TABLEENTRY) {
+            TableEntry entry = ((org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808
+                    .batch.write.input.update.entity.TABLEENTRY) entity).getTableEntry();
+            return createUpdate(isDelete ? toProtoEntry((TableEntryKey) entry) : toProtoEntry(entry), type);
+        } else if (entity instanceof org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808
+                .batch.write.input.update.entity.ACTIONPROFILEMEMBER) {
+            ActionProfileMember member = ((org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808
+                    .batch.write.input.update.entity.ACTIONPROFILEMEMBER) entity).getActionProfileMember();
+            return createUpdate(isDelete ? toProtoMember((ActionProfileMemberKey) member) : toProtoMember(member), type);
+        } else if (entity instanceof org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808
+                .batch.write.input.update.entity.ACTIONPROFILEGROUP) {
+            ActionProfileGroup group = ((org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808
+                    .batch.write.input.update.entity.ACTIONPROFILEGROUP) entity).getActionProfileGroup();
+            return createUpdate(isDelete ? toProtoGroup((ActionProfileGroupKey) group) : toProtoGroup(group), type);
+        } else if (entity instanceof org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808
+                .batch.write.input.update.entity.METERENTRY) {
+            return createUpdate(toProtoMeter(((org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime
+                    .rev170808.batch.write.input.update.entity.METERENTRY) entity).getMeterEntry()), type);
+        } else if (entity instanceof org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808
+                .batch.write.input.update.entity.DIRECTMETERENTRY) {
+            return createUpdate(toProtoDirectMeter(((org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime
+                    .rev170808.batch.write.input.update.entity.DIRECTMETERENTRY) entity).getDirectMeterEntry()), type);
+        } else {
+            throw new IllegalArgumentException("Invalid entity type");
+        }
+    }
+
+    /**
+     * Write updates in as few Write RPCs as possible. Every request is sent even
+     * if a previous one failed, the target does not roll back a failed batch.
+     * @param updates updates in the order they must be applied.
+     * @param maxBatchSize max number of updates in one request, 0 for default.
+     * @return failed updates, empty if all updates succeeded.
+     */
+    public List<WriteError> batchWrite(List<Update> updates, int maxBatchSize) {
+        List<WriteError> errors = new ArrayList<>();
+        int batchSize = maxBatchSize > 0 ? maxBatchSize : DEFAULT_BATCH_SIZE;
+        int offset = 0;
+
+        for (WriteRequest request : createWriteRequests(updates, batchSize)) {
+            try {
+                write(request);
+            } catch (RuntimeException e) {
+                errors.addAll(WriteError.decode(e, offset, request.getUpdatesCount()));
+            }
+            offset += request.getUpdatesCount();
+        }
+
+        if (!errors.isEmpty()) {
+            LOG.info("Batch write to device = {}, {} of {} updates failed.", nodeId, errors.size(), updates.size());
+        }
+        return errors;
+    }
+
+    private List<Update> toProtoUpdates(BatchWriteInput input) {
+        List<Update> updates = new ArrayList<>();
+        if (input.getUpdate() != null) {
+            input.getUpdate().forEach(update -> updates.add(toProtoUpdate(update)));
+        }
+        return updates;
+    }
+
+    private static int getMaxBatchSize(BatchWriteInput input) {
+        Long maxBatchSize = input.getMaxBatchSize();
+        return maxBatchSize == null ? 0 : maxBatchSize.intValue();
+    }
+
+    public List<WriteError> batchWrite(BatchWriteInput input) {
+        return batchWrite(toProtoUpdates(input), getMaxBatchSize(input));
+    }
+
+    /**
+     * Non-blocking batch write. A request is sent when the previous one has
+     * completed, so the update order is kept across requests; no thread waits
+     * on the RPCs.
+     * @param updates updates in the order they must be applied.
+     * @param maxBatchSize max number of updates in one request, 0 for default.
+     * @return future of the failed updates, empty if all updates succeeded.
+     */
+    public ListenableFuture<List<WriteError>> batchWriteAsync(List<Update> updates, int maxBatchSize) {
+        List<WriteError> errors = new ArrayList<>();
+        int batchSize = maxBatchSize > 0 ? maxBatchSize : DEFAULT_BATCH_SIZE;
+        ListenableFuture<Integer> offsetFuture = Futures.immediateFuture(0);
+
+        for (WriteRequest request : createWriteRequests(updates, batchSize)) {
+            int count = request.getUpdatesCount();
+            offsetFuture = Futures.transformAsync(offsetFuture, offset -> Futures.catching(
+                    Futures.transform(writeAsync(request), response -> offset + count, MoreExecutors.directExecutor()),
+                    Throwable.class,
+                    t -> {
+                        errors.addAll(WriteError.decode(t, offset, count));
+                        return offset + count;
+                    }, MoreExecutors.directExecutor()), MoreExecutors.directExecutor());
+        }
+
+        return Futures.transform(offsetFuture, total -> {
+            if (!errors.isEmpty()) {
+                LOG.info("Batch write to device = {}, {} of {} updates failed.", nodeId, errors.size(), total);
+            }
+            return errors;
+        }, MoreExecutors.directExecutor());
+    }
+
+    public ListenableFuture<List<WriteError>> batchWriteAsync(BatchWriteInput input) {
+        return batchWriteAsync(toProtoUpdates(input), getMaxBatchSize(input));
+    }
+
     public WriteResponse addTableEntry(TableEntry inputEntry) {
         WriteResponse response;
         WriteRequest request = createWriteRequest(toProtoEntry(inputEntry), Update.Type.INSERT);
@@ -314,6 +503,18 @@ public class P4Device  {
         return response;
     }
 
+    public ListenableFuture<WriteResponse> addTableEntryAsync(TableEntry inputEntry) {
+        return writeAsync(createWriteRequest(toProtoEntry(inputEntry), Update.Type.INSERT));
+    }
+
+    public ListenableFuture<WriteResponse> modifyTableEntryAsync(TableEntry inputEntry) {
+        return writeAsync(createWriteRequest(toProtoEntry(inputEntry), Update.Type.MODIFY));
+    }
+
+    public ListenableFuture<WriteResponse> deleteTableEntryAsync(TableEntryKey inputEntryKey) {
+        return writeAsync(createWriteRequest(toProtoEntry(inputEntryKey), Update.Type.DELETE));
+    }
+
     public WriteResponse modifyTableEntry(TableEntry inputEntry) {
         WriteResponse response;
         WriteRequest request = createWriteRequest(toProtoEntry(inputEntry), Update.Type.MODIFY);
@@ -328,32 +529,65 @@ public class P4Device  {
         return response;
     }
 
-    public List<String> readTableEntry(String tableName) {
-        ReadRequest.Builder request = ReadRequest.newBuilder();
-        Entity.Builder entityBuilder = Entity.newBuilder();
+    private ReadRequest createTableReadRequest(String tableName) {
         org.opendaylight.p4plugin.p4runtime.proto.TableEntry.Builder entryBuilder =
                 org.opendaylight.p4plugin.p4runtime.proto.TableEntry.newBuilder();
-        entryBuilder.setTableId(getTableId(tableName));
-        entityBuilder.setTableEntry(entryBuilder);
-        request.addEntities(entityBuilder);
-        request.setDeviceId(deviceId);
-
-        Iterator<ReadResponse> responses = read(request.build());
-        List<java.lang.String> result = new ArrayList<>();
-
-        while (responses.hasNext()) {
-            ReadResponse response = responses.next();
-            List<Entity> entityList = response.getEntitiesList();
-            boolean isCompleted = response.getComplete();
-            entityList.forEach(entity-> {
-                String str = toStringEntry(entity.getTableEntry());
-                result.add(str);
-            });
-            if (isCompleted) break;
+        entryBuilder.setTableId(catalog.getTableId(tableName));
+        return ReadRequest.newBuilder()
+                .setDeviceId(deviceId)
+                .addEntities(Entity.newBuilder().setTableEntry(entryBuilder))
+                .build();
+    }
+
+    public List<String> readTableEntry(String tableName) {
+        List<String> result = new ArrayList<>();
+        try (EntityStream entities = readStream(createTableReadRequest(tableName))) {
+            entities.forEachRemaining(entity -> result.add(toStringEntry(entity.getTableEntry())));
         }
         return result;
     }
 
+    /**
+     * Stream a table to a consumer, entries are read and decoded one at a time.
+     * @param tableName table name.
+     * @param consumer consumer of the name resolved entries.
+     */
+    public void readTableEntry(String tableName, Consumer<Entry> consumer) {
+        try (EntityStream entities = readStream(createTableReadRequest(tableName))) {
+            entities.forEachRemaining(entity -> consumer.accept(translator.toYangEntry(entity.getTableEntry())));
+        }
+    }
+
+    /**
+     * Read one page of a table, the returned continuation token continues the
+     * same read at the next entry. The read is not a snapshot, entries written
+     * between pages may or may not be seen.
+     */
+    public ReadTableEntryPageOutput readTableEntryPage(ReadTableEntryPageInput input) {
+        String tableName = input.getTableName();
+        /* page-size is a uint32, larger than any int. */
+        int pageSize = input.getPageSize() == null
+                ? DEFAULT_BATCH_SIZE : (int) Math.min(input.getPageSize(), Integer.MAX_VALUE);
+        String token = input.getContinuationToken();
+        EntityStream entities = token == null || token.isEmpty()
+                ? readStream(createTableReadRequest(tableName)) : readCursors.resume(tableName, token);
+
+        List<Entry> page = new ArrayList<>(Math.min(pageSize, DEFAULT_BATCH_SIZE));
+        ReadTableEntryPageOutputBuilder outputBuilder = new ReadTableEntryPageOutputBuilder();
+        try {
+            while (page.size() < pageSize && entities.hasNext()) {
+                page.add(translator.toYangEntry(entities.next().getTableEntry()));
+            }
+            if (entities.hasNext()) {
+                outputBuilder.setContinuationToken(readCursors.park(tableName, entities));
+            }
+        } catch (RuntimeException e) {
+            entities.close();
+            throw e;
+        }
+        return outputBuilder.setEntry(page).build();
+    }
+
     public WriteResponse addActionProfileMember(ActionProfileMember inputMember) {
         WriteResponse response;
         WriteRequest request = createWriteRequest(toProtoMember(inputMember), Update.Type.INSERT);
@@ -361,6 +595,18 @@ public class P4Device  {
         return response;
     }
 
+    public ListenableFuture<WriteResponse> addActionProfileMemberAsync(ActionProfileMember inputMember) {
+        return writeAsync(createWriteRequest(toProtoMember(inputMember), Update.Type.INSERT));
+    }
+
+    public ListenableFuture<WriteResponse> modifyActionProfileMemberAsync(ActionProfileMember inputMember) {
+        return writeAsync(createWriteRequest(toProtoMember(inputMember), Update.Type.MODIFY));
+    }
+
+    public ListenableFuture<WriteResponse> deleteActionProfileMemberAsync(ActionProfileMemberKey inputMemberKey) {
+        return writeAsync(createWriteRequest(toProtoMember(inputMemberKey), Update.Type.DELETE));
+    }
+
     public WriteResponse modifyActionProfileMember(ActionProfileMember inputMember) {
         WriteResponse response;
         WriteRequest request = createWriteRequest(toProtoMember(inputMember), Update.Type.MODIFY);
@@ -380,23 +626,14 @@ public class P4Device  {
         Entity.Builder entityBuilder = Entity.newBuilder();
         org.opendaylight.p4plugin.p4runtime.proto.ActionProfileMember.Builder memberBuilder =
                 org.opendaylight.p4plugin.p4runtime.proto.ActionProfileMember.newBuilder();
-        memberBuilder.setActionProfileId(getActionProfileId(actionProfileName));
+        memberBuilder.setActionProfileId(catalog.getActionProfileId(actionProfileName));
         entityBuilder.setActionProfileMember(memberBuilder);
         requestBuilder.setDeviceId(deviceId);
         requestBuilder.addEntities(entityBuilder);
 
-        Iterator<ReadResponse> responses = read(requestBuilder.build());
         List<String> result = new ArrayList<>();
-
-        while (responses.hasNext()) {
-            ReadResponse response = responses.next();
-            List<Entity> entityList = response.getEntitiesList();
-            boolean isCompleted = response.getComplete();
-            entityList.forEach(entity-> {
-                String str = toStringMember(entity.getActionProfileMember());
-                result.add(str);
-            });
-            if (isCompleted) break;
+        try (EntityStream entities = readStream(requestBuilder.build())) {
+            entities.forEachRemaining(entity -> result.add(toStringMember(entity.getActionProfileMember())));
         }
         return result;
     }
@@ -408,6 +645,18 @@ public class P4Device  {
         return response;
     }
 
+    public ListenableFuture<WriteResponse> addActionProfileGroupAsync(ActionProfileGroup inputGroup) {
+        return writeAsync(createWriteRequest(toProtoGroup(inputGroup), Update.Type.INSERT));
+    }
+
+    public ListenableFuture<WriteResponse> modifyActionProfileGroupAsync(ActionProfileGroup inputGroup) {
+        return writeAsync(createWriteRequest(toProtoGroup(inputGroup), Update.Type.MODIFY));
+    }
+
+    public ListenableFuture<WriteResponse> deleteActionProfileGroupAsync(ActionProfileGroupKey inputGroupKey) {
+        return writeAsync(createWriteRequest(toProtoGroup(inputGroupKey), Update.Type.DELETE));
+    }
+
     public WriteResponse modifyActionProfileGroup(ActionProfileGroup inputGroup) {
         WriteResponse response;
         WriteRequest request = createWriteRequest(toProtoGroup(inputGroup), Update.Type.MODIFY);
@@ -427,217 +676,469 @@ public class P4Device  {
         Entity.Builder entityBuilder = Entity.newBuilder();
         org.opendaylight.p4plugin.p4runtime.proto.ActionProfileGroup.Builder groupBuilder =
                 org.opendaylight.p4plugin.p4runtime.proto.ActionProfileGroup.newBuilder();
-        groupBuilder.setActionProfileId(getActionProfileId(actionProfileName));
+        groupBuilder.setActionProfileId(catalog.getActionProfileId(actionProfileName));
         entityBuilder.setActionProfileGroup(groupBuilder);
         requestBuilder.setDeviceId(deviceId);
         requestBuilder.addEntities(entityBuilder);
 
-        Iterator<ReadResponse> responses = read(requestBuilder.build());
         List<String> result = new ArrayList<>();
+        try (EntityStream entities = readStream(requestBuilder.build())) {
+            entities.forEachRemaining(entity -> result.add(toStringGroup(entity.getActionProfileGroup())));
+        }
+        return result;
+    }
+
+    /**
+     * Read the cells of a counter array, or every cell of a direct counter.
+     */
+    public ReadCounterOutput readCounter(ReadCounterInput input) {
+        P4InfoCatalog.CounterInfo counter = catalog.getCounter(input.getCounterName());
+        Long index = counter.isDirect() ? null : input.getIndex();
+        if (index != null && (index < 0 || index >= counter.getSize())) {
+            throw new IllegalArgumentException("Invalid counter index");
+        }
+
+        Entity.Builder entityBuilder = Entity.newBuilder();
+        if (counter.isDirect()) {
+            entityBuilder.setDirectCounterEntry(DirectCounterEntry.newBuilder()
+                    .setCounterId(counter.getId())
+                    .setTableEntry(org.opendaylight.p4plugin.p4runtime.proto.TableEntry.newBuilder()
+                            .setTableId(counter.getDirectTableId())));
+        } else {
+            /* Index 0 reads every cell, the wanted cell is picked from the result. */
+            entityBuilder.setCounterEntry(CounterEntry.newBuilder()
+                    .setCounterId(counter.getId())
+                    .setIndex(index == null ? 0 : index));
+        }
+        ReadRequest request = ReadRequest.newBuilder()
+                .setDeviceId(deviceId)
+                .addEntities(entityBuilder)
+                .build();
 
-        while (responses.hasNext()) {
-            ReadResponse response = responses.next();
-            List<Entity> entityList = response.getEntitiesList();
-            boolean isCompleted = response.getComplete();
-            entityList.forEach(entity-> {
-                String str = toStringGroup(entity.getActionProfileGroup());
-                result.add(str);
+        List<Cell> cells = new ArrayList<>();
+        try (EntityStream entities = readStream(request)) {
+            entities.forEachRemaining(entity -> {
+                if (entity.hasCounterEntry()) {
+                    CounterEntry entry = entity.getCounterEntry();
+                    if (index == null || entry.getIndex() == index) {
+                        cells.add(new CellBuilder()
+                                .setIndex(entry.getIndex())
+                                .setByteCount(BigInteger.valueOf(entry.getData().getByteCount()))
+                                .setPacketCount(BigInteger.valueOf(entry.getData().getPacketCount()))
+                                .build());
+                    }
+                } else if (entity.hasDirectCounterEntry()) {
+                    DirectCounterEntry entry = entity.getDirectCounterEntry();
+                    cells.add(new CellBuilder()
+                            .setEntry(new org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808
+                                    .read.counter.output.cell.EntryBuilder(
+                                            translator.toYangEntry(entry.getTableEntry())).build())
+                            .setByteCount(BigInteger.valueOf(entry.getData().getByteCount()))
+                            .setPacketCount(BigInteger.valueOf(entry.getData().getPacketCount()))
+                            .build());
+                }
             });
-            if (isCompleted) break;
         }
-        return result;
+        return new ReadCounterOutputBuilder().setCell(cells).build();
+    }
+
+    /**
+     * Read the configuration of the cells of a meter array, or every cell of a direct meter.
+     */
+    public ReadMeterOutput readMeter(ReadMeterInput input) {
+        P4InfoCatalog.MeterInfo meter = catalog.getMeter(input.getMeterName());
+        Long index = meter.isDirect() ? null : input.getIndex();
+        if (index != null && (index < 0 || index >= meter.getSize())) {
+            throw new IllegalArgumentException("Invalid meter index");
+        }
+
+        Entity.Builder entityBuilder = Entity.newBuilder();
+        if (meter.isDirect()) {
+            entityBuilder.setDirectMeterEntry(org.opendaylight.p4plugin.p4runtime.proto.DirectMeterEntry.newBuilder()
+                    .setMeterId(meter.getId())
+                    .setTableEntry(org.opendaylight.p4plugin.p4runtime.proto.TableEntry.newBuilder()
+                            .setTableId(meter.getDirectTableId())));
+        } else {
+            /* Index 0 reads every cell, the wanted cell is picked from the result. */
+            entityBuilder.setMeterEntry(org.opendaylight.p4plugin.p4runtime.proto.MeterEntry.newBuilder()
+                    .setMeterId(meter.getId())
+                    .setIndex(index == null ? 0 : index));
+        }
+        ReadRequest request = ReadRequest.newBuilder()
+                .setDeviceId(deviceId)
+                .addEntities(entityBuilder)
+                .build();
+
+        List<org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.read.meter.output.Cell> cells =
+                new ArrayList<>();
+        try (EntityStream entities = readStream(request)) {
+            entities.forEachRemaining(entity -> {
+                if (entity.hasMeterEntry()) {
+                    org.opendaylight.p4plugin.p4runtime.proto.MeterEntry entry = entity.getMeterEntry();
+                    if (index == null || entry.getIndex() == index) {
+                        cells.add(toYangMeterCell(entry.getConfig())
+                                .setIndex(entry.getIndex())
+                                .build());
+                    }
+                } else if (entity.hasDirectMeterEntry()) {
+                    org.opendaylight.p4plugin.p4runtime.proto.DirectMeterEntry entry = entity.getDirectMeterEntry();
+                    cells.add(toYangMeterCell(entry.getConfig())
+                            .setEntry(new org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808
+                                    .read.meter.output.cell.EntryBuilder(
+                                            translator.toYangEntry(entry.getTableEntry())).build())
+                            .build());
+                }
+            });
+        }
+        return new ReadMeterOutputBuilder().setCell(cells).build();
+    }
+
+    private static org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.read.meter.output
+            .CellBuilder toYangMeterCell(org.opendaylight.p4plugin.p4runtime.proto.MeterConfig config) {
+        return new org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.read.meter.output
+                .CellBuilder()
+                .setCir(config.getCir())
+                .setCburst(config.getCburst())
+                .setPir(config.getPir())
+                .setPburst(config.getPburst());
+    }
+
+    /**
+     * Poll a counter array in the background, see CounterPoller.
+     * @param intervalMs time between polls, 0 to stop polling.
+     */
+    public void setCounterPolling(String counterName, long intervalMs) {
+        counterPoller.setPolling(catalog.getCounter(counterName), intervalMs);
+    }
+
+    public CounterPoller getCounterPoller() {
+        return counterPoller;
+    }
+
+    private void record(WriteRequest request, Throwable t) {
+        if (!isShadowEnabled) {
+            return;
+        }
+        if (t == null) {
+            request.getUpdatesList().forEach(shadow::apply);
+        } else {
+            shadow.apply(request.getUpdatesList(), WriteError.decode(t, 0, request.getUpdatesCount()));
+        }
     }
 
     public WriteResponse write(WriteRequest request) {
-        WriteResponse response = runtimeStub.write(request);
+        WriteResponse response;
+        try {
+            response = runtimeStub.write(request);
+        } catch (RuntimeException e) {
+            record(request, e);
+            throw e;
+        }
+        record(request, null);
         return response;
     }
 
+    public ListenableFuture<WriteResponse> writeAsync(WriteRequest request) {
+        ListenableFuture<WriteResponse> future = runtimeStub.writeAsync(request);
+        Futures.addCallback(future, new FutureCallback<WriteResponse>() {
+            @Override
+            public void onSuccess(WriteResponse response) {
+                record(request, null);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                record(request, t);
+            }
+        }, MoreExecutors.directExecutor());
+        return future;
+    }
+
     public Iterator<ReadResponse> read(ReadRequest request) {
         Iterator<ReadResponse> responses;
         responses = runtimeStub.read(request);
         return responses;
     }
 
+    public EntityStream readStream(ReadRequest request) {
+        return runtimeStub.readStream(request);
+    }
+
+    public ListenableFuture<Void> readAsync(ReadRequest request, Consumer<Entity> consumer) {
+        return runtimeStub.readAsync(request, consumer);
+    }
+
     public void transmitPacket(byte[] payload) {
         runtimeStub.transmitPacket(payload);
     }
 
-    public void connectToDevice() {
+    /**
+     * Queue packet-outs, see RuntimeStub.transmitPackets.
+     * @return future of the number of packets sent, the others were dropped.
+     */
+    public ListenableFuture<Integer> transmitPackets(List<PacketOut> packets) {
+        return runtimeStub.transmitPackets(packets);
+    }
+
+    public PacketOut toProtoPacket(byte[] payload, List<Metadata> metadata) {
+        return packetCodec.toProtoPacket(payload, metadata);
+    }
+
+    /**
+     * Limit the packet-outs sent to the device, kept across reconnects.
+     * @param rate packets per second, 0 for unlimited.
+     * @param burst max packets sent back to back, the rate if 0.
+     */
+    public void setPacketOutRate(long rate, long burst) {
+        packetOutLimiter.setRate(rate, burst == 0 ? rate : burst);
+    }
+
+    /**
+     * Open the stream channel without waiting for the target.
+     * @return future set to true once the target answers master arbitration,
+     *         false when the channel fails or the connect times out.
+     */
+    public ListenableFuture<Boolean> connectToDevice() {
+        if (supervisor != null) {
+            supervisor.close();
+        }
         if (runtimeStub != null) {
             runtimeStub.shutdown();
         }
-        runtimeStub = new RuntimeStub(ip, port, deviceId, nodeId);
-        runtimeStub.notifyWhenStateChanged(ConnectivityState.READY, ()->isConfigured = false);
-        runtimeStub.streamChannel();
+        RuntimeStub stub = new RuntimeStub(ip, port, deviceId, nodeId, maxInFlightWrites, writeDeadlineMs);
+        stub.setPacketOutRateLimiter(packetOutLimiter);
+        stub.setPacketMetadataCodec(packetCodec);
+        if (electionId != null) {
+            stub.setElectionId(electionId);
+        }
+        ConnectionSupervisor current = new ConnectionSupervisor(nodeId, stub::streamChannel,
+                new ConnectionSupervisor.Listener() {
+                    @Override
+                    public void onConnected(boolean isReconnect) {
+                        if (isReconnect && wasConfigured) {
+                            restoreConfigured(stub);
+                        }
+                    }
+
+                    @Override
+                    public void onDisconnected() {
+                        wasConfigured = isConfigured;
+                        isConfigured = false;
+                    }
+                }, initialBackoffMs, maxBackoffMs);
+        stub.setOnStreamLost(current::onStreamLost);
+        stub.setOnMastershipChanged(this::publishMastership);
+        runtimeStub = stub;
+        supervisor = current;
+        return current.start();
     }
 
-    public void shutdown() {
-        runtimeStub.shutdown();
+    /**
+     * Arbitrate with an election id of this device alone, instead of the one
+     * of ElectionIdGenerator.
+     */
+    public void setElectionId(ElectionId electionId) {
+        this.electionId = electionId;
+        RuntimeStub stub = runtimeStub;
+        if (stub != null && electionId != null) {
+            stub.setElectionId(electionId);
+        }
     }
 
-    private TableAction directActionParse(DIRECTACTION action) {
-        TableAction.Builder tableActionBuilder = TableAction.newBuilder();
-        Action.Builder actionBuilder = Action.newBuilder();
-        List<ActionParam> params = action.getActionParam();
-        String actionName = action.getActionName();
-        actionBuilder.setActionId(getActionId(actionName));
-
-        params.forEach(p->{
-            Action.Param.Builder paramBuilder = Action.Param.newBuilder();
-            String paramName = p.getParamName();
-            int paramId = getParamId(actionName, paramName);
-            int paramWidth = getParamWidth(actionName, paramName);
-            paramBuilder.setParamId(paramId);
-            String valueStr = p.getParamValue();
-            byte[] valueBytes = Utils.strToByteArray(valueStr, paramWidth);
-            paramBuilder.setValue(ByteString.copyFrom(valueBytes));
-            actionBuilder.addParams(paramBuilder);
-        });
+    /**
+     * Connect as the new owner of the device. The device is configured
+     * without reprogramming it if it still runs the pipeline, e.g. set by
+     * the previous owner.
+     */
+    public ListenableFuture<Boolean> takeOver(ElectionId ownerElectionId) {
+        this.electionId = ownerElectionId;
+        ListenableFuture<Boolean> future = connectToDevice();
+        RuntimeStub stub = runtimeStub;
+        return Futures.transform(future, isConnected -> {
+            if (isConnected) {
+                restoreConfigured(stub);
+            }
+            return isConnected;
+        }, MoreExecutors.directExecutor());
+    }
 
-        return tableActionBuilder.setAction(actionBuilder).build();
+    /**
+     * Close the stream channel when another cluster member owns the device,
+     * the device is kept so this member can take it over again.
+     */
+    public void release() {
+        counterPoller.close();
+        ConnectionSupervisor current = supervisor;
+        if (current != null) {
+            current.close();
+        }
+        RuntimeStub stub = runtimeStub;
+        if (stub != null) {
+            stub.shutdown();
+        }
+        isConfigured = false;
+        wasConfigured = false;
+        LOG.info("Device = {} released to another cluster member.", nodeId);
     }
 
-    private TableAction memberActionParse(ACTIONPROFILEMEMBER memberAction) {
-        TableAction.Builder builder = TableAction.newBuilder();
-        builder.setActionProfileMemberId(memberAction.getMemberId().intValue());
-        return builder.build();
+    /**
+     * After a reconnect the device is configured again without reprogramming
+     * it, if the target still runs the pipeline set before the stream was lost.
+     */
+    private void restoreConfigured(RuntimeStub stub) {
+        GetForwardingPipelineConfigRequest request = GetForwardingPipelineConfigRequest.newBuilder()
+                .addDeviceIds(deviceId)
+                .build();
+        Futures.addCallback(stub.getPipelineConfigAsync(request),
+                new FutureCallback<GetForwardingPipelineConfigResponse>() {
+            @Override
+            public void onSuccess(GetForwardingPipelineConfigResponse response) {
+                if (response.getConfigsCount() > 0 && runtimeInfo.equals(response.getConfigs(0).getP4Info())) {
+                    isConfigured = true;
+                    LOG.info("Device = {} still runs its pipeline, configured state restored.", nodeId);
+                    if (isShadowEnabled && shadow.size() > 0) {
+                        try {
+                            RECONCILER.execute(P4Device.this::reconcileQuietly);
+                        } catch (RejectedExecutionException e) {
+                            LOG.info("Reconciler is shut down, device = {} is not reconciled.", nodeId);
+                        }
+                    }
+                } else {
+                    LOG.info("Device = {} lost its pipeline, set pipeline config is required.", nodeId);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                LOG.info("Get pipeline config of device = {} failed after reconnect, reason = {}.",
+                        nodeId, t.getMessage());
+            }
+        }, MoreExecutors.directExecutor());
     }
 
-    private TableAction groupActionParse(ACTIONPROFILEGROUP groupAction) {
-        TableAction.Builder builder = TableAction.newBuilder();
-        builder.setActionProfileGroupId(groupAction.getGroupId().intValue());
-        return builder.build();
+    /**
+     * Stop the reconciles after reconnect, called when the plugin is closed.
+     */
+    public static void shutdownReconciler() {
+        RECONCILER.shutdownNow();
     }
 
-    private TableAction buildTableAction(ActionType actionType) {
-        if (actionType instanceof DIRECTACTION) {
-            return directActionParse((DIRECTACTION)actionType);
-        } else if (actionType instanceof ACTIONPROFILEMEMBER) {
-            return memberActionParse((ACTIONPROFILEMEMBER)actionType);
-        } else if (actionType instanceof ACTIONPROFILEGROUP) {
-            return groupActionParse(((ACTIONPROFILEGROUP) actionType));
-        } else {
-            throw new IllegalArgumentException("Invalid action type");
-        }
-    }
-
-    private FieldMatch exactMatchParse(EXACT exact, String tableName, String fieldName) {
-        FieldMatch.Builder fieldMatchBuilder = FieldMatch.newBuilder();
-        FieldMatch.Exact.Builder exactBuilder = FieldMatch.Exact.newBuilder();
-        Integer matchFieldWidth = getMatchFieldWidth(tableName, fieldName);
-        Integer matchFieldId = getMatchFieldId(tableName, fieldName);
-        String valueStr = exact.getExactValue().getValue();
-        byte[] valeBytes = Utils.strToByteArray(valueStr, matchFieldWidth);
-        exactBuilder.setValue(ByteString.copyFrom(valeBytes, 0, matchFieldWidth));
-        fieldMatchBuilder.setExact(exactBuilder);
-        fieldMatchBuilder.setFieldId(matchFieldId);
-        return fieldMatchBuilder.build();
-    }
-
-    private FieldMatch lpmMatchParse(LPM lpm, String tableName, String fieldName) {
-        FieldMatch.Builder fieldMatchBuilder = FieldMatch.newBuilder();
-        FieldMatch.LPM.Builder lpmBuilder = FieldMatch.LPM.newBuilder();
-        Integer matchFieldWidth = getMatchFieldWidth(tableName, fieldName);
-        Integer matchFieldId = getMatchFieldId(tableName, fieldName);
-        String valueStr = lpm.getLpmValue().getValue();
-        byte[] valeBytes = Utils.strToByteArray(valueStr, matchFieldWidth);
-        lpmBuilder.setValue(ByteString.copyFrom(valeBytes, 0, matchFieldWidth));
-        lpmBuilder.setPrefixLen(lpm.getPrefixLen().intValue());
-        fieldMatchBuilder.setLpm(lpmBuilder);
-        fieldMatchBuilder.setFieldId(matchFieldId);
-        return fieldMatchBuilder.build();
-    }
-
-    private byte[] getMask(Short mask) {
-        StringBuffer buffer = new StringBuffer(128);
-        for (int i = 0; i < 128; i++) {
-            if (i < mask) {
-                buffer.append('1');
-            } else {
-                buffer.append('0');
-            }
+    private void reconcileQuietly() {
+        try {
+            reconcile();
+        } catch (RuntimeException e) {
+            LOG.info("Reconcile device = {} failed, reason = {}.", nodeId, e.getMessage());
         }
+    }
 
-        byte[] result = new byte[16];
-        for (int i = 0; i < 16; i++) {
-            result[i] = (byte)Integer.parseInt(buffer.substring(i * 8, i * 8 + 8),2);
+    /**
+     * Deadline of the Write RPCs once they are sent, applied on the next connect.
+     */
+    public void setWriteDeadline(long writeDeadlineMs) {
+        if (writeDeadlineMs <= 0) {
+            throw new IllegalArgumentException("Invalid write deadline.");
         }
-        return result;
+        this.writeDeadlineMs = writeDeadlineMs;
     }
 
-    private FieldMatch ternaryMatchParse(TERNARY ternary, String tableName, String fieldName) {
-        FieldMatch.Builder fieldMatchBuilder = FieldMatch.newBuilder();
-        FieldMatch.Ternary.Builder ternaryBuilder = FieldMatch.Ternary.newBuilder();
-        String valueStr = new String(ternary.getTernaryValue().getValue());
-        Short mask = ternary.getMask();
-        Integer matchFieldWidth = getMatchFieldWidth(tableName, fieldName);
-        Integer matchFieldId = getMatchFieldId(tableName, fieldName);
-        byte[] valueBytes = Utils.strToByteArray(valueStr, matchFieldWidth);
-        byte[] maskBytes = getMask(mask);
-        ternaryBuilder.setValue(ByteString.copyFrom(valueBytes, 0, matchFieldWidth));
-        ternaryBuilder.setMask(ByteString.copyFrom(maskBytes, 0, matchFieldWidth));
-        fieldMatchBuilder.setTernary(ternaryBuilder);
-        fieldMatchBuilder.setFieldId(matchFieldId);
-        return fieldMatchBuilder.build();
-    }
-
-    private FieldMatch rangeMatchParse(RANGE range, String tableName, String fieldName) {
-        FieldMatch.Builder fieldMatchBuilder = FieldMatch.newBuilder();
-        FieldMatch.Range.Builder rangeBuilder = FieldMatch.Range.newBuilder();
-        BigInteger high = range.getRangeValueHigh();
-        BigInteger low = range.getRangeValueLow();
-        Integer matchFieldWidth = getMatchFieldWidth(tableName, fieldName);
-        Integer matchFieldId = getMatchFieldId(tableName, fieldName);
-        rangeBuilder.setHigh(ByteString.copyFrom(high.toByteArray(), 0, matchFieldWidth));
-        rangeBuilder.setLow(ByteString.copyFrom(low.toByteArray(), 0, matchFieldWidth));
-        fieldMatchBuilder.setFieldId(matchFieldId);
-        fieldMatchBuilder.setRange(rangeBuilder);
-        return fieldMatchBuilder.build();
-    }
-
-    private FieldMatch buildFieldMatch(Field fields, String tableName) {
-        MatchType matchType = fields.getMatchType();
-        String fieldName = fields.getFieldName();
-
-        if (matchType instanceof EXACT) {
-            return exactMatchParse((EXACT)matchType, tableName, fieldName);
-        } else if (matchType instanceof LPM) {
-            return lpmMatchParse((LPM)matchType, tableName, fieldName);
-        } else if (matchType instanceof TERNARY) {
-            return ternaryMatchParse((TERNARY)matchType, tableName, fieldName);
-        } else if (matchType instanceof RANGE) {
-            return rangeMatchParse((RANGE) matchType, tableName, fieldName);
-        } else {
-            throw new IllegalArgumentException("Invalid match type");
+    /**
+     * Backoff between reconnect attempts, applied on the next connect.
+     */
+    public void setReconnectBackoff(long initialBackoffMs, long maxBackoffMs) {
+        if (initialBackoffMs <= 0 || maxBackoffMs < initialBackoffMs) {
+            throw new IllegalArgumentException("Invalid reconnect backoff.");
+        }
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+    }
+
+    /**
+     * @return state of the connection, null if never connected.
+     */
+    public ConnectionSupervisor.State getConnectionState() {
+        ConnectionSupervisor current = supervisor;
+        return current == null ? null : current.getState();
+    }
+
+    public long getReconnectCount() {
+        ConnectionSupervisor current = supervisor;
+        return current == null ? 0 : current.getReconnectCount();
+    }
+
+    public void shutdown() {
+        readCursors.closeAll();
+        counterPoller.close();
+        if (supervisor != null) {
+            supervisor.close();
         }
+        runtimeStub.shutdown();
     }
 
     public org.opendaylight.p4plugin.p4runtime.proto.TableEntry toProtoEntry(TableEntry entry) {
-        String tableName = entry.getTableName();
-        int tableId = getTableId(tableName);
-        org.opendaylight.p4plugin.p4runtime.proto.TableEntry.Builder tableEntryBuilder =
-                org.opendaylight.p4plugin.p4runtime.proto.TableEntry.newBuilder();
-        List<Field> fields = entry.getField();
-        fields.forEach(field -> tableEntryBuilder.addMatch(buildFieldMatch(field, tableName)));
-        ActionType actionType = entry.getActionType();
-        org.opendaylight.p4plugin.p4runtime.proto.TableAction tableAction = buildTableAction(actionType);
-        tableEntryBuilder.setPriority(entry.getPriority());
-        tableEntryBuilder.setControllerMetadata(entry.getControllerMetadata().longValue());
-        tableEntryBuilder.setTableId(tableId);
-        tableEntryBuilder.setAction(tableAction);
-        return tableEntryBuilder.build();
+        return translator.toProtoEntry(entry);
     }
 
     public org.opendaylight.p4plugin.p4runtime.proto.TableEntry toProtoEntry(TableEntryKey entryKey) {
-        String tableName = entryKey.getTableName();
-        int tableId = getTableId(tableName);
-        org.opendaylight.p4plugin.p4runtime.proto.TableEntry.Builder tableEntryBuilder =
-                org.opendaylight.p4plugin.p4runtime.proto.TableEntry.newBuilder();
-        List<Field> fields = entryKey.getField();
-        fields.forEach(field -> tableEntryBuilder.addMatch(buildFieldMatch(field, tableName)));
-        tableEntryBuilder.setTableId(tableId);
-        return tableEntryBuilder.build();
+        return translator.toProtoEntry(entryKey);
+    }
+
+    private static org.opendaylight.p4plugin.p4runtime.proto.MeterConfig toProtoMeterConfig(MeterConfig config) {
+        org.opendaylight.p4plugin.p4runtime.proto.MeterConfig.Builder configBuilder =
+                org.opendaylight.p4plugin.p4runtime.proto.MeterConfig.newBuilder();
+        if (config.getCir() != null) {
+            configBuilder.setCir(config.getCir());
+        }
+        if (config.getCburst() != null) {
+            configBuilder.setCburst(config.getCburst());
+        }
+        if (config.getPir() != null) {
+            configBuilder.setPir(config.getPir());
+        }
+        if (config.getPburst() != null) {
+            configBuilder.setPburst(config.getPburst());
+        }
+        return configBuilder.build();
+    }
+
+    /**
+     * Resolve a meter array cell, the meter must not be a direct meter.
+     */
+    public org.opendaylight.p4plugin.p4runtime.proto.MeterEntry toProtoMeter(MeterEntry meter) {
+        P4InfoCatalog.MeterInfo info = catalog.getMeter(meter.getMeterName());
+        if (info.isDirect()) {
+            throw new IllegalArgumentException("Direct meter needs a table entry");
+        }
+        if (meter.getIndex() == null || meter.getIndex() < 0 || meter.getIndex() >= info.getSize()) {
+            throw new IllegalArgumentException("Invalid meter index");
+        }
+        return org.opendaylight.p4plugin.p4runtime.proto.MeterEntry.newBuilder()
+                .setMeterId(info.getId())
+                .setIndex(meter.getIndex())
+                .setConfig(toProtoMeterConfig(meter))
+                .build();
+    }
+
+    /**
+     * Resolve the direct meter cell of a table entry, the entry must be in
+     * the table the meter is attached to.
+     */
+    public org.opendaylight.p4plugin.p4runtime.proto.DirectMeterEntry toProtoDirectMeter(DirectMeterEntry meter) {
+        P4InfoCatalog.MeterInfo info = catalog.getMeter(meter.getMeterName());
+        if (!info.isDirect()) {
+            throw new IllegalArgumentException("Meter is not a direct meter");
+        }
+        if (meter.getTableEntry() == null) {
+            throw new IllegalArgumentException("Direct meter needs a table entry");
+        }
+        org.opendaylight.p4plugin.p4runtime.proto.TableEntry entry = toProtoEntry(meter.getTableEntry());
+        if (entry.getTableId() != info.getDirectTableId()) {
+            throw new IllegalArgumentException("Meter is not attached to the table");
+        }
+        return org.opendaylight.p4plugin.p4runtime.proto.DirectMeterEntry.newBuilder()
+                .setMeterId(info.getId())
+                .setTableEntry(entry)
+                .setConfig(toProtoMeterConfig(meter))
+                .build();
     }
 
     public org.opendaylight.p4plugin.p4runtime.proto.ActionProfileMember toProtoMember(ActionProfileMember member) {
@@ -646,25 +1147,8 @@ public class P4Device  {
         String actionProfile = member.getActionProfileName();
         org.opendaylight.p4plugin.p4runtime.proto.ActionProfileMember.Builder memberBuilder =
                 org.opendaylight.p4plugin.p4runtime.proto.ActionProfileMember.newBuilder();
-        org.opendaylight.p4plugin.p4runtime.proto.Action.Builder actionBuilder =
-                org.opendaylight.p4plugin.p4runtime.proto.Action.newBuilder();
-        actionBuilder.setActionId(getActionId(actionName));
-
-        member.getActionParam().forEach(actionParam -> {
-            org.opendaylight.p4plugin.p4runtime.proto.Action.Param.Builder paramBuilder =
-                    org.opendaylight.p4plugin.p4runtime.proto.Action.Param.newBuilder();
-            String paramName = actionParam.getParamName();
-            int paramId = getParamId(actionName, paramName);
-            int paramWidth = getParamWidth(actionName, paramName);
-            String valueStr = actionParam.getParamValue();
-            byte[] valueBytes = Utils.strToByteArray(valueStr, paramWidth);
-            paramBuilder.setValue(ByteString.copyFrom(valueBytes));
-            paramBuilder.setParamId(paramId);
-            actionBuilder.addParams(paramBuilder);
-        });
-
-        memberBuilder.setAction(actionBuilder);
-        memberBuilder.setActionProfileId(getActionProfileId(actionProfile));
+        memberBuilder.setAction(translator.toProtoAction(actionName, member.getActionParam()));
+        memberBuilder.setActionProfileId(catalog.getActionProfileId(actionProfile));
         memberBuilder.setMemberId(memberId.intValue());
         return memberBuilder.build();
     }
@@ -674,7 +1158,7 @@ public class P4Device  {
         String actionProfile = memberKey.getActionProfileName();
         org.opendaylight.p4plugin.p4runtime.proto.ActionProfileMember.Builder memberBuilder =
                 org.opendaylight.p4plugin.p4runtime.proto.ActionProfileMember.newBuilder();
-        memberBuilder.setActionProfileId(getActionProfileId(actionProfile));
+        memberBuilder.setActionProfileId(catalog.getActionProfileId(actionProfile));
         memberBuilder.setMemberId(memberId.intValue());
         return memberBuilder.build();
     }
@@ -686,7 +1170,7 @@ public class P4Device  {
 
         org.opendaylight.p4plugin.p4runtime.proto.ActionProfileGroup.Builder groupBuilder =
                 org.opendaylight.p4plugin.p4runtime.proto.ActionProfileGroup.newBuilder();
-        groupBuilder.setActionProfileId(getActionProfileId(actionProfile));
+        groupBuilder.setActionProfileId(catalog.getActionProfileId(actionProfile));
         groupBuilder.setGroupId(groupId.intValue());
         groupBuilder.setMaxSize(maxSize);
 
@@ -707,7 +1191,7 @@ public class P4Device  {
         String actionProfile = groupKey.getActionProfileName();
         org.opendaylight.p4plugin.p4runtime.proto.ActionProfileGroup.Builder groupBuilder =
                 org.opendaylight.p4plugin.p4runtime.proto.ActionProfileGroup.newBuilder();
-        groupBuilder.setActionProfileId(getActionProfileId(actionProfile));
+        groupBuilder.setActionProfileId(catalog.getActionProfileId(actionProfile));
         groupBuilder.setGroupId(groupId.intValue());
         return groupBuilder.build();
     }
@@ -751,11 +1235,14 @@ public class P4Device  {
 
     public static final class Builder {
         private P4Info runtimeInfo_;
+        private P4InfoCatalog catalog_;
         private ByteString deviceConfig_;
         private Long deviceId_;
         private String nodeId_;
         private String ip_;
         private Integer port_;
+        private int maxInFlightWrites_ = WritePipeline.DEFAULT_MAX_IN_FLIGHT;
+        private boolean isShadowOffHeap_;
 
         public Builder setIp(String ip) {
             this.ip_ = ip;
@@ -772,6 +1259,25 @@ public class P4Device  {
             return this;
         }
 
+        /**
+         * Share an already indexed runtime info, otherwise build() indexes
+         * the runtime info itself.
+         */
+        public Builder setCatalog(P4InfoCatalog catalog) {
+            this.catalog_ = catalog;
+            return this;
+        }
+
+        /**
+         * Share the runtime info, its index and the device config of a cached pipeline.
+         */
+        public Builder setPipeline(Pipeline pipeline) {
+            this.runtimeInfo_ = pipeline.getRuntimeInfo();
+            this.catalog_ = pipeline.getCatalog();
+            this.deviceConfig_ = pipeline.getDeviceConfig();
+            return this;
+        }
+
         public Builder setDeviceConfig(ByteString config) {
             this.deviceConfig_ = config;
             return this;
@@ -782,20 +1288,39 @@ public class P4Device  {
             return this;
         }
 
+        /**
+         * Max number of Write RPCs outstanding on the device at the same time.
+         */
+        public Builder setMaxInFlightWrites(int maxInFlightWrites) {
+            this.maxInFlightWrites_ = maxInFlightWrites;
+            return this;
+        }
+
+        /**
+         * Pack the shadowed table entries in direct buffers, out of the heap.
+         */
+        public Builder setShadowOffHeap(boolean isShadowOffHeap) {
+            this.isShadowOffHeap_ = isShadowOffHeap;
+            return this;
+        }
+
         public Builder setNodeId(String nodeId) {
             this.nodeId_ = nodeId;
             return this;
         }
 
         public P4Device build() {
-            P4Device device = new P4Device(ip_,port_,deviceId_, nodeId_, runtimeInfo_,deviceConfig_);
+            if (catalog_ == null && runtimeInfo_ != null) {
+                catalog_ = P4InfoCatalog.of(runtimeInfo_);
+            }
+            P4Device device = new P4Device(ip_,port_,deviceId_, nodeId_, runtimeInfo_, catalog_, deviceConfig_,
+                    maxInFlightWrites_, isShadowOffHeap_);
             return device;
         }
     }
 
     @Override
     public String toString() {
-        return String.format("%s/%d-%s:%d/%s/%s", nodeId, deviceId, ip, port,
-                getConnectState(), isConfigured);
+        return getState().toString();
     }
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.device;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.opendaylight.p4plugin.runtime.impl.stub.EntityStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Open streaming reads of a device that are continued page by page, keyed by
+ * an opaque continuation token. A read that is not continued within the idle
+ * timeout is closed, which cancels its RPC on the target. Expiry also runs
+ * periodically, so an abandoned read is closed even if no other page is read.
+ */
+public class ReadCursors {
+    private static final Logger LOG = LoggerFactory.getLogger(ReadCursors.class);
+    private static final long IDLE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final long EXPIRY_PERIOD_SECONDS = 10;
+    private static final int MAX_CURSORS = 16;
+    private static final ScheduledThreadPoolExecutor EXPIRY = new ScheduledThreadPoolExecutor(1,
+            new ThreadFactoryBuilder().setNameFormat("p4plugin-read-cursors-%d").setDaemon(true).build());
+    static {
+        EXPIRY.setRemoveOnCancelPolicy(true);
+    }
+    private final Map<String, Cursor> cursors = new ConcurrentHashMap<>();
+    private ScheduledFuture<?> expiryTask;
+
+    /**
+     * Keep an unfinished stream for a later page.
+     * @return continuation token of the stream.
+     */
+    public String park(String tableName, EntityStream stream) {
+        expire();
+        if (cursors.size() >= MAX_CURSORS) {
+            stream.close();
+            throw new IllegalStateException("Too many paged reads in progress.");
+        }
+        String token = UUID.randomUUID().toString();
+        cursors.put(token, new Cursor(tableName, stream));
+        scheduleExpiry();
+        return token;
+    }
+
+    private synchronized void scheduleExpiry() {
+        if (expiryTask == null) {
+            expiryTask = EXPIRY.scheduleWithFixedDelay(this::expireQuietly,
+                    EXPIRY_PERIOD_SECONDS, EXPIRY_PERIOD_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Take back the stream of a continuation token, the caller owns it until it is parked again.
+     */
+    public EntityStream resume(String tableName, String token) {
+        expire();
+        Cursor cursor = cursors.remove(token);
+        if (cursor == null) {
+            throw new IllegalArgumentException("Invalid or expired continuation token.");
+        }
+        if (!cursor.tableName.equals(tableName)) {
+            cursor.stream.close();
+            throw new IllegalArgumentException("Continuation token does not belong to table " + tableName + ".");
+        }
+        return cursor.stream;
+    }
+
+    public int size() {
+        return cursors.size();
+    }
+
+    public void closeAll() {
+        synchronized (this) {
+            if (expiryTask != null) {
+                expiryTask.cancel(false);
+                expiryTask = null;
+            }
+        }
+        cursors.values().forEach(cursor -> cursor.stream.close());
+        cursors.clear();
+    }
+
+    private void expire() {
+        long now = System.nanoTime();
+        cursors.forEach((token, cursor) -> {
+            /* Only close a stream that was not taken back by resume meanwhile. */
+            if (now - cursor.parkedAt > IDLE_TIMEOUT_NANOS && cursors.remove(token, cursor)) {
+                cursor.stream.close();
+            }
+        });
+    }
+
+    /* An exception would cancel the periodic expiry. */
+    private void expireQuietly() {
+        try {
+            expire();
+        } catch (RuntimeException e) {
+            LOG.info("Expire paged reads failed, reason = {}.", e.getMessage());
+        }
+    }
+
+    private static class Cursor {
+        private final String tableName;
+        private final EntityStream stream;
+        private final long parkedAt = System.nanoTime();
+
+        Cursor(String tableName, EntityStream stream) {
+            this.tableName = tableName;
+            this.stream = stream;
+        }
+    }
+}
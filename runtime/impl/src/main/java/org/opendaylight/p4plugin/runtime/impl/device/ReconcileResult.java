@@ -0,0 +1,42 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.device;
+
+import java.util.List;
+
+/**
+ * Outcome of reconciling a device with its shadow store.
+ */
+public final class ReconcileResult {
+    private final int deltaCount;
+    private final List<WriteError> errors;
+
+    public ReconcileResult(int deltaCount, List<WriteError> errors) {
+        this.deltaCount = deltaCount;
+        this.errors = errors;
+    }
+
+    /**
+     * @return number of updates written to the target.
+     */
+    public int getDeltaCount() {
+        return deltaCount;
+    }
+
+    /**
+     * @return failed updates, empty if the target now holds the recorded state.
+     */
+    public List<WriteError> getErrors() {
+        return errors;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d/%d", deltaCount, errors.size());
+    }
+}
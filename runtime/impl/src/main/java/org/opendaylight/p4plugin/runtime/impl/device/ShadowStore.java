@@ -0,0 +1,383 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.device;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.opendaylight.p4plugin.p4runtime.proto.ActionProfileGroup;
+import org.opendaylight.p4plugin.p4runtime.proto.ActionProfileMember;
+import org.opendaylight.p4plugin.p4runtime.proto.Entity;
+import org.opendaylight.p4plugin.p4runtime.proto.FieldMatch;
+import org.opendaylight.p4plugin.p4runtime.proto.TableEntry;
+import org.opendaylight.p4plugin.p4runtime.proto.Update;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.EntryLayout;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.P4InfoCatalog;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.PackedEntryTable;
+import org.opendaylight.p4plugin.runtime.impl.utils.IntObjectMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The table entries, action profile members and groups the controller
+ * intends a device to hold, recorded from the successful writes. Table
+ * entries are packed in one PackedEntryTable per table, a fixed size record
+ * each, optionally off heap. Entries that do not fit the packed layout, or
+ * all of them when the pipeline is unknown, are keyed by the encoded table
+ * id, priority and match and kept as serialized bytes.
+ *
+ * Messages are canonical before they are encoded: match fields sorted by
+ * field id and group members by member id, so an entry read back from the
+ * target encodes to the same bytes as the one written.
+ */
+public final class ShadowStore {
+    private static final Comparator<FieldMatch> BY_FIELD_ID = Comparator.comparingInt(FieldMatch::getFieldId);
+    private static final Comparator<ActionProfileGroup.Member> BY_MEMBER_ID =
+            Comparator.comparingInt(ActionProfileGroup.Member::getMemberId);
+    private final P4InfoCatalog catalog;
+    private final boolean isOffHeap;
+    private IntObjectMap<PackedEntryTable> packedTables = new IntObjectMap<>();
+    private final List<PackedEntryTable> packedTableList = new ArrayList<>();
+    private final Map<ByteString, byte[]> tableEntries = new HashMap<>();
+    private final Map<Long, byte[]> members = new HashMap<>();
+    private final Map<Long, byte[]> groups = new HashMap<>();
+
+    /**
+     * @param catalog pipeline of the device, null to keep every entry serialized.
+     * @param isOffHeap pack the table entries in direct buffers.
+     */
+    public ShadowStore(P4InfoCatalog catalog, boolean isOffHeap) {
+        this.catalog = catalog;
+        this.isOffHeap = isOffHeap;
+    }
+
+    public ShadowStore() {
+        this(null, false);
+    }
+
+    private PackedEntryTable packedTable(int tableId) {
+        if (catalog == null) {
+            return null;
+        }
+        PackedEntryTable table = packedTables.get(tableId);
+        if (table == null) {
+            P4InfoCatalog.TableInfo tableInfo;
+            try {
+                tableInfo = catalog.getTable(tableId);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+            table = new PackedEntryTable(EntryLayout.of(catalog, tableInfo), isOffHeap);
+            packedTables.put(tableId, table);
+            packedTableList.add(table);
+        }
+        return table;
+    }
+
+    private static TableEntry canonical(TableEntry entry) {
+        List<FieldMatch> matches = entry.getMatchList();
+        for (int i = 1; i < matches.size(); i++) {
+            if (matches.get(i - 1).getFieldId() > matches.get(i).getFieldId()) {
+                List<FieldMatch> sorted = new ArrayList<>(matches);
+                sorted.sort(BY_FIELD_ID);
+                return entry.toBuilder().clearMatch().addAllMatch(sorted).build();
+            }
+        }
+        return entry;
+    }
+
+    private static ActionProfileGroup canonical(ActionProfileGroup group) {
+        List<ActionProfileGroup.Member> groupMembers = group.getMembersList();
+        for (int i = 1; i < groupMembers.size(); i++) {
+            if (groupMembers.get(i - 1).getMemberId() > groupMembers.get(i).getMemberId()) {
+                List<ActionProfileGroup.Member> sorted = new ArrayList<>(groupMembers);
+                sorted.sort(BY_MEMBER_ID);
+                return group.toBuilder().clearMembers().addAllMembers(sorted).build();
+            }
+        }
+        return group;
+    }
+
+    private static ByteString keyOf(TableEntry canonicalEntry) {
+        return TableEntry.newBuilder()
+                .setTableId(canonicalEntry.getTableId())
+                .setPriority(canonicalEntry.getPriority())
+                .addAllMatch(canonicalEntry.getMatchList())
+                .build()
+                .toByteString();
+    }
+
+    private static long keyOf(int actionProfileId, int id) {
+        return ((long) actionProfileId << 32) | (id & 0xFFFFFFFFL);
+    }
+
+    private static Update update(Entity.Builder entity, Update.Type type) {
+        return Update.newBuilder().setType(type).setEntity(entity).build();
+    }
+
+    private static TableEntry parseEntry(byte[] bytes) {
+        try {
+            return TableEntry.parseFrom(bytes);
+        } catch (InvalidProtocolBufferException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static ActionProfileMember parseMember(byte[] bytes) {
+        try {
+            return ActionProfileMember.parseFrom(bytes);
+        } catch (InvalidProtocolBufferException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static ActionProfileGroup parseGroup(byte[] bytes) {
+        try {
+            return ActionProfileGroup.parseFrom(bytes);
+        } catch (InvalidProtocolBufferException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Record an update the target accepted.
+     */
+    public synchronized void apply(Update update) {
+        boolean isDelete = update.getType() == Update.Type.DELETE;
+        Entity entity = update.getEntity();
+        switch (entity.getEntityCase()) {
+            case TABLE_ENTRY: {
+                TableEntry entry = canonical(entity.getTableEntry());
+                PackedEntryTable table = packedTable(entry.getTableId());
+                if (isDelete) {
+                    if (table == null || !table.remove(entry)) {
+                        tableEntries.remove(keyOf(entry));
+                    }
+                } else if (table != null && table.put(entry)) {
+                    if (!tableEntries.isEmpty()) {
+                        tableEntries.remove(keyOf(entry));
+                    }
+                } else {
+                    if (table != null) {
+                        table.remove(entry);
+                    }
+                    tableEntries.put(keyOf(entry), entry.toByteArray());
+                }
+                break;
+            }
+            case ACTION_PROFILE_MEMBER: {
+                ActionProfileMember member = entity.getActionProfileMember();
+                long key = keyOf(member.getActionProfileId(), member.getMemberId());
+                if (isDelete) {
+                    members.remove(key);
+                } else {
+                    members.put(key, member.toByteArray());
+                }
+                break;
+            }
+            case ACTION_PROFILE_GROUP: {
+                ActionProfileGroup group = canonical(entity.getActionProfileGroup());
+                long key = keyOf(group.getActionProfileId(), group.getGroupId());
+                if (isDelete) {
+                    groups.remove(key);
+                } else {
+                    groups.put(key, group.toByteArray());
+                }
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Record the updates of a write, except the failed ones.
+     * @param errors failed updates, indexed from the first of the list.
+     */
+    public synchronized void apply(List<Update> updates, List<WriteError> errors) {
+        Set<Integer> failed = new HashSet<>();
+        errors.forEach(error -> failed.add(error.getIndex()));
+        for (int i = 0; i < updates.size(); i++) {
+            if (!failed.contains(i)) {
+                apply(updates.get(i));
+            }
+        }
+    }
+
+    /**
+     * Inserts rebuilding the recorded state on an empty target: members,
+     * then groups, then table entries, so every reference is already
+     * installed when it is used.
+     */
+    public synchronized List<Update> replayUpdates() {
+        List<Update> updates = new ArrayList<>(size());
+        members.values().forEach(bytes -> updates.add(update(Entity.newBuilder()
+                .setActionProfileMember(parseMember(bytes)), Update.Type.INSERT)));
+        groups.values().forEach(bytes -> updates.add(update(Entity.newBuilder()
+                .setActionProfileGroup(parseGroup(bytes)), Update.Type.INSERT)));
+        packedTableList.forEach(table -> table.forEach(entry -> updates.add(update(Entity.newBuilder()
+                .setTableEntry(entry), Update.Type.INSERT))));
+        tableEntries.values().forEach(bytes -> updates.add(update(Entity.newBuilder()
+                .setTableEntry(parseEntry(bytes)), Update.Type.INSERT)));
+        return updates;
+    }
+
+    /**
+     * Updates turning the state read from the target into the recorded
+     * state, in an order that never leaves a dangling reference: stale
+     * entries and groups are deleted, members then groups written, stale
+     * members deleted, entries written last.
+     */
+    public synchronized List<Update> diff(Iterator<Entity> targetState) {
+        List<Update> deleteEntries = new ArrayList<>();
+        List<Update> deleteGroups = new ArrayList<>();
+        List<Update> deleteMembers = new ArrayList<>();
+        List<Update> writeMembers = new ArrayList<>();
+        List<Update> writeGroups = new ArrayList<>();
+        List<Update> writeEntries = new ArrayList<>();
+        Set<ByteString> seenEntries = new HashSet<>();
+        Map<PackedEntryTable, BitSet> seenSlots = new IdentityHashMap<>();
+        Set<Long> seenMembers = new HashSet<>();
+        Set<Long> seenGroups = new HashSet<>();
+
+        while (targetState.hasNext()) {
+            Entity entity = targetState.next();
+            switch (entity.getEntityCase()) {
+                case TABLE_ENTRY: {
+                    TableEntry entry = canonical(entity.getTableEntry());
+                    PackedEntryTable table = packedTable(entry.getTableId());
+                    int slot = table == null ? -1 : table.find(entry);
+                    if (slot >= 0) {
+                        seenSlots.computeIfAbsent(table, key -> new BitSet()).set(slot);
+                        if (!table.valueEquals(slot, entry)) {
+                            writeEntries.add(update(Entity.newBuilder().setTableEntry(table.get(slot)),
+                                    Update.Type.MODIFY));
+                        }
+                        break;
+                    }
+                    ByteString key = keyOf(entry);
+                    seenEntries.add(key);
+                    byte[] intended = tableEntries.get(key);
+                    if (intended == null) {
+                        deleteEntries.add(update(Entity.newBuilder().setTableEntry(entry), Update.Type.DELETE));
+                    } else if (!Arrays.equals(intended, entry.toByteArray())) {
+                        writeEntries.add(update(Entity.newBuilder().setTableEntry(parseEntry(intended)),
+                                Update.Type.MODIFY));
+                    }
+                    break;
+                }
+                case ACTION_PROFILE_MEMBER: {
+                    ActionProfileMember member = entity.getActionProfileMember();
+                    long key = keyOf(member.getActionProfileId(), member.getMemberId());
+                    seenMembers.add(key);
+                    byte[] intended = members.get(key);
+                    if (intended == null) {
+                        deleteMembers.add(update(Entity.newBuilder().setActionProfileMember(member),
+                                Update.Type.DELETE));
+                    } else if (!Arrays.equals(intended, member.toByteArray())) {
+                        writeMembers.add(update(Entity.newBuilder().setActionProfileMember(parseMember(intended)),
+                                Update.Type.MODIFY));
+                    }
+                    break;
+                }
+                case ACTION_PROFILE_GROUP: {
+                    ActionProfileGroup group = canonical(entity.getActionProfileGroup());
+                    long key = keyOf(group.getActionProfileId(), group.getGroupId());
+                    seenGroups.add(key);
+                    byte[] intended = groups.get(key);
+                    if (intended == null) {
+                        deleteGroups.add(update(Entity.newBuilder().setActionProfileGroup(group),
+                                Update.Type.DELETE));
+                    } else if (!Arrays.equals(intended, group.toByteArray())) {
+                        writeGroups.add(update(Entity.newBuilder().setActionProfileGroup(parseGroup(intended)),
+                                Update.Type.MODIFY));
+                    }
+                    break;
+                }
+                default:
+                    break;
+            }
+        }
+
+        members.forEach((key, bytes) -> {
+            if (!seenMembers.contains(key)) {
+                writeMembers.add(update(Entity.newBuilder().setActionProfileMember(parseMember(bytes)),
+                        Update.Type.INSERT));
+            }
+        });
+        groups.forEach((key, bytes) -> {
+            if (!seenGroups.contains(key)) {
+                writeGroups.add(update(Entity.newBuilder().setActionProfileGroup(parseGroup(bytes)),
+                        Update.Type.INSERT));
+            }
+        });
+        packedTableList.forEach(table -> {
+            BitSet seen = seenSlots.getOrDefault(table, new BitSet());
+            for (int slot = seen.nextClearBit(0); slot < table.size(); slot = seen.nextClearBit(slot + 1)) {
+                writeEntries.add(update(Entity.newBuilder().setTableEntry(table.get(slot)), Update.Type.INSERT));
+            }
+        });
+        tableEntries.forEach((key, bytes) -> {
+            if (!seenEntries.contains(key)) {
+                writeEntries.add(update(Entity.newBuilder().setTableEntry(parseEntry(bytes)), Update.Type.INSERT));
+            }
+        });
+
+        List<Update> updates = new ArrayList<>(deleteEntries);
+        updates.addAll(deleteGroups);
+        updates.addAll(writeMembers);
+        updates.addAll(writeGroups);
+        updates.addAll(deleteMembers);
+        updates.addAll(writeEntries);
+        return updates;
+    }
+
+    private int getPackedEntryCount() {
+        return packedTableList.stream().mapToInt(PackedEntryTable::size).sum();
+    }
+
+    public synchronized int getTableEntryCount() {
+        return getPackedEntryCount() + tableEntries.size();
+    }
+
+    /**
+     * @return bytes held by the packed tables, on or off heap.
+     */
+    public synchronized long getPackedMemoryBytes() {
+        return packedTableList.stream().mapToLong(PackedEntryTable::getMemoryBytes).sum();
+    }
+
+    public synchronized int getMemberCount() {
+        return members.size();
+    }
+
+    public synchronized int getGroupCount() {
+        return groups.size();
+    }
+
+    public synchronized int size() {
+        return getPackedEntryCount() + tableEntries.size() + members.size() + groups.size();
+    }
+
+    public synchronized void clear() {
+        packedTables = new IntObjectMap<>();
+        packedTableList.clear();
+        tableEntries.clear();
+        members.clear();
+        groups.clear();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.device;
+
+import com.google.protobuf.Any;
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.grpc.Status;
+import io.grpc.protobuf.StatusProto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A failed update of a batch write. The target reports one google.rpc.Status
+ * per update in the details of the Write RPC status, in request order.
+ */
+public class WriteError {
+    private final int index;
+    private final int code;
+    private final String message;
+
+    public WriteError(int index, int code, String message) {
+        this.index = index;
+        this.code = code;
+        this.message = message;
+    }
+
+    /**
+     * Position of the failed update in the batch.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Canonical gRPC status code.
+     */
+    public int getCode() {
+        return code;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Decode the per update errors of a failed Write RPC.
+     * @param t exception thrown by the write.
+     * @param offset index of the first update of the request in the batch.
+     * @param count number of updates in the request.
+     * @return failed updates, all updates of the request if the target did not
+     *         report per update details.
+     */
+    public static List<WriteError> decode(Throwable t, int offset, int count) {
+        List<WriteError> result = new ArrayList<>();
+        com.google.rpc.Status status = StatusProto.fromThrowable(t);
+        if (status != null && status.getDetailsCount() == count) {
+            for (int i = 0; i < count; i++) {
+                Any detail = status.getDetails(i);
+                if (!detail.is(com.google.rpc.Status.class)) {
+                    result.add(new WriteError(offset + i, status.getCode(), status.getMessage()));
+                    continue;
+                }
+
+                try {
+                    com.google.rpc.Status updateStatus = detail.unpack(com.google.rpc.Status.class);
+                    if (updateStatus.getCode() != Status.Code.OK.value()) {
+                        result.add(new WriteError(offset + i, updateStatus.getCode(), updateStatus.getMessage()));
+                    }
+                } catch (InvalidProtocolBufferException e) {
+                    result.add(new WriteError(offset + i, status.getCode(), status.getMessage()));
+                }
+            }
+            return result;
+        }
+
+        Status grpcStatus = Status.fromThrowable(t);
+        for (int i = 0; i < count; i++) {
+            result.add(new WriteError(offset + i, grpcStatus.getCode().value(), grpcStatus.getDescription()));
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d/%d/%s", index, code, message);
+    }
+}
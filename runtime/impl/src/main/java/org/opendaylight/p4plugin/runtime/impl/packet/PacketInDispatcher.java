@@ -0,0 +1,251 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.packet;
+
+import org.opendaylight.p4plugin.p4runtime.proto.PacketIn;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.PacketMetadataCodec;
+import org.opendaylight.p4plugin.runtime.impl.utils.NotificationPublisher;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.packet.rev170808.P4PacketReceivedBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Moves packet-ins off the gRPC callback threads. Every device has a bounded
+ * ring, each ring is drained by one of a few publisher threads, so packets of
+ * a device are published in order and a slow consumer only costs drops on
+ * the devices that overflow, never a stalled stream channel.
+ *
+ * A publisher thread first routes a packet to the matching subscriptions,
+ * then hands it to the listener, which by default publishes the
+ * p4-packet-received notification.
+ */
+public class PacketInDispatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(PacketInDispatcher.class);
+    private static final PacketInDispatcher singleton = new PacketInDispatcher();
+    public static final int DEFAULT_RING_CAPACITY = 4096;
+    public static final int DEFAULT_PUBLISHER_COUNT = 2;
+    public static final int DEFAULT_SUBSCRIPTION_CAPACITY = 1024;
+    /* Max packets taken from a ring before moving to the next one. */
+    private static final int DRAIN_BATCH = 64;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private final Map<String, PacketInRing> rings = new ConcurrentHashMap<>();
+    private final PacketInRouter router = new PacketInRouter();
+    private volatile PacketInListener listener = this::publish;
+    private volatile int ringCapacity = DEFAULT_RING_CAPACITY;
+    private volatile Publisher[] publishers;
+
+    private PacketInDispatcher() {}
+
+    public static PacketInDispatcher getInstance() {
+        return singleton;
+    }
+
+    /**
+     * Receives the packet-ins on a publisher thread.
+     */
+    @FunctionalInterface
+    public interface PacketInListener {
+        void onPacketIn(String nodeId, PacketIn packet);
+    }
+
+    /**
+     * Publish a packet-in notification with its metadata decoded against the
+     * pipeline of the device.
+     */
+    private void publish(String nodeId, PacketIn packet) {
+        P4PacketReceivedBuilder builder = new P4PacketReceivedBuilder();
+        builder.setNid(nodeId);
+        builder.setPayload(packet.getPayload().toByteArray());
+        PacketInRing ring = rings.get(nodeId);
+        PacketMetadataCodec codec = ring == null ? null : ring.getCodec();
+        if (codec != null && packet.getMetadataCount() > 0) {
+            builder.setMetadata(codec.toYangMetadata(packet));
+        }
+        NotificationPublisher.getInstance().notify(builder.build());
+    }
+
+    /**
+     * Replace the consumer of the packet-ins, null restores notification publishing.
+     */
+    public void setListener(PacketInListener listener) {
+        this.listener = listener == null ? this::publish : listener;
+    }
+
+    /**
+     * Receive the packet-ins matching a filter on a queue of the caller,
+     * until the subscription is closed.
+     * @param name name of the subscriber, for logging.
+     * @param capacity max packets queued, further packets are dropped.
+     */
+    public PacketInSubscription subscribe(String name, PacketInFilter filter, int capacity) {
+        PacketInSubscription subscription = router.subscribe(name, filter, capacity);
+        LOG.info("Packet-in subscription {} added.", name);
+        return subscription;
+    }
+
+    public PacketInSubscription subscribe(String name, PacketInFilter filter) {
+        return subscribe(name, filter, DEFAULT_SUBSCRIPTION_CAPACITY);
+    }
+
+    /**
+     * Capacity of the rings registered from now on.
+     */
+    public void setRingCapacity(int ringCapacity) {
+        if (ringCapacity <= 0) {
+            throw new IllegalArgumentException("Ring capacity must be positive.");
+        }
+        this.ringCapacity = ringCapacity;
+    }
+
+    public synchronized void start(int publisherCount) {
+        if (publishers != null) {
+            return;
+        }
+        publishers = new Publisher[publisherCount];
+        for (int i = 0; i < publisherCount; i++) {
+            publishers[i] = new Publisher("p4plugin-packet-in-" + i);
+        }
+        rings.values().forEach(ring -> publisherOf(ring.getNodeId()).rings.add(ring));
+        for (Publisher publisher : publishers) {
+            publisher.start();
+        }
+        LOG.info("Packet-in dispatcher started, publishers = {}.", publisherCount);
+    }
+
+    public synchronized void shutdown() {
+        if (publishers == null) {
+            return;
+        }
+        for (Publisher publisher : publishers) {
+            publisher.isRunning = false;
+            LockSupport.unpark(publisher);
+        }
+        publishers = null;
+        LOG.info("Packet-in dispatcher shut down.");
+    }
+
+    private Publisher publisherOf(String nodeId) {
+        return publishers[Math.floorMod(nodeId.hashCode(), publishers.length)];
+    }
+
+    /**
+     * Create the ring of a device, replacing any previous one.
+     */
+    public synchronized PacketInRing register(String nodeId) {
+        if (publishers == null) {
+            start(DEFAULT_PUBLISHER_COUNT);
+        }
+        PacketInRing ring = new PacketInRing(nodeId, ringCapacity);
+        PacketInRing previous = rings.put(nodeId, ring);
+        if (previous != null) {
+            publisherOf(nodeId).rings.remove(previous);
+        }
+        publisherOf(nodeId).rings.add(ring);
+        return ring;
+    }
+
+    /**
+     * Remove the ring of a device unless it has been replaced already,
+     * packets still queued are discarded.
+     */
+    public synchronized void unregister(PacketInRing ring) {
+        String nodeId = ring.getNodeId();
+        if (rings.remove(nodeId, ring) && publishers != null) {
+            publisherOf(nodeId).rings.remove(ring);
+        }
+    }
+
+    /**
+     * Called on the gRPC callback thread, never blocks.
+     */
+    public void dispatch(PacketInRing ring, PacketIn packet) {
+        if (!ring.offer(packet)) {
+            long dropped = ring.getDroppedCount();
+            if (Long.bitCount(dropped) == 1) {
+                LOG.info("Packet-in ring of device = {} is full, {} packets dropped.", ring.getNodeId(), dropped);
+            }
+            return;
+        }
+        Publisher[] current = publishers;
+        if (current != null) {
+            Publisher publisher = current[Math.floorMod(ring.getNodeId().hashCode(), current.length)];
+            if (publisher.isIdle) {
+                LockSupport.unpark(publisher);
+            }
+        }
+    }
+
+    public long getDroppedCount(String nodeId) {
+        PacketInRing ring = rings.get(nodeId);
+        return ring == null ? 0 : ring.getDroppedCount();
+    }
+
+    public long getReceivedCount(String nodeId) {
+        PacketInRing ring = rings.get(nodeId);
+        return ring == null ? 0 : ring.getReceivedCount();
+    }
+
+    public long getPublishedCount(String nodeId) {
+        PacketInRing ring = rings.get(nodeId);
+        return ring == null ? 0 : ring.getPublishedCount();
+    }
+
+    private final class Publisher extends Thread {
+        private final List<PacketInRing> rings = new CopyOnWriteArrayList<>();
+        private volatile boolean isRunning = true;
+        private volatile boolean isIdle;
+
+        Publisher(String name) {
+            super(name);
+            setDaemon(true);
+        }
+
+        private void deliver(PacketInRing ring, PacketIn packet) {
+            String nodeId = ring.getNodeId();
+            try {
+                router.route(nodeId, packet, ring.getCodec());
+                listener.onPacketIn(nodeId, packet);
+            } catch (RuntimeException e) {
+                LOG.info("Packet-in listener failed, device = {}, reason = {}.", nodeId, e.getMessage());
+            }
+        }
+
+        private boolean hasPending() {
+            for (PacketInRing ring : rings) {
+                if (!ring.isEmpty()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void run() {
+            while (isRunning) {
+                int drained = 0;
+                for (PacketInRing ring : rings) {
+                    drained += ring.drain(packet -> deliver(ring, packet), DRAIN_BATCH);
+                }
+                if (drained == 0) {
+                    isIdle = true;
+                    if (!hasPending() && isRunning) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                    isIdle = false;
+                }
+            }
+        }
+    }
+}
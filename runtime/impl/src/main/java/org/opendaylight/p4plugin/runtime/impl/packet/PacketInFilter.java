@@ -0,0 +1,166 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.packet;
+
+import com.google.protobuf.ByteString;
+
+import java.util.Arrays;
+
+/**
+ * Packet-ins wanted by a subscriber. Every condition that is set must match,
+ * a filter without conditions matches every packet-in. The node id and the
+ * EtherType are indexed by the router, the other conditions are checked only
+ * on the packets that pass them.
+ */
+public final class PacketInFilter {
+    public static final String INGRESS_PORT = "ingress_port";
+    private final String nodeId;
+    private final Integer etherType;
+    private final String metadataName;
+    private final long metadataValue;
+    private final int offset;
+    private final byte[] value;
+    private final byte[] mask;
+
+    private PacketInFilter(Builder builder) {
+        this.nodeId = builder.nodeId_;
+        this.etherType = builder.etherType_;
+        this.metadataName = builder.metadataName_;
+        this.metadataValue = builder.metadataValue_;
+        this.offset = builder.offset_;
+        this.value = builder.value_;
+        this.mask = builder.mask_;
+    }
+
+    /**
+     * @return node id matched, null for any node.
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * @return EtherType matched, null for any EtherType.
+     */
+    public Integer getEtherType() {
+        return etherType;
+    }
+
+    /**
+     * EtherType of an Ethernet frame, looking through one VLAN tag.
+     * @return the EtherType, -1 if the frame is too short.
+     */
+    public static int etherTypeOf(ByteString payload) {
+        if (payload.size() < 14) {
+            return -1;
+        }
+        int etherType = ((payload.byteAt(12) & 0xFF) << 8) | (payload.byteAt(13) & 0xFF);
+        if ((etherType == 0x8100 || etherType == 0x88A8) && payload.size() >= 18) {
+            etherType = ((payload.byteAt(16) & 0xFF) << 8) | (payload.byteAt(17) & 0xFF);
+        }
+        return etherType;
+    }
+
+    private static long toLong(ByteString value) {
+        long result = 0;
+        for (int i = 0; i < value.size(); i++) {
+            result = (result << 8) | (value.byteAt(i) & 0xFF);
+        }
+        return result;
+    }
+
+    /**
+     * Check the conditions that are not indexed by the router.
+     */
+    boolean matchesRest(ReceivedPacket packet) {
+        if (metadataName != null) {
+            ByteString metadata = packet.getMetadataValue(metadataName);
+            if (metadata == null || metadata.size() > 8 || toLong(metadata) != metadataValue) {
+                return false;
+            }
+        }
+
+        if (value != null) {
+            ByteString payload = packet.getPayload();
+            if (payload.size() < offset + value.length) {
+                return false;
+            }
+            for (int i = 0; i < value.length; i++) {
+                int m = mask == null ? 0xFF : mask[i] & 0xFF;
+                if ((payload.byteAt(offset + i) & m) != (value[i] & m)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private String nodeId_;
+        private Integer etherType_;
+        private String metadataName_;
+        private long metadataValue_;
+        private int offset_;
+        private byte[] value_;
+        private byte[] mask_;
+
+        public Builder setNodeId(String nodeId) {
+            this.nodeId_ = nodeId;
+            return this;
+        }
+
+        public Builder setEtherType(int etherType) {
+            if (etherType < 0 || etherType > 0xFFFF) {
+                throw new IllegalArgumentException("Invalid EtherType.");
+            }
+            this.etherType_ = etherType;
+            return this;
+        }
+
+        /**
+         * Match the ingress_port packet_in metadata.
+         */
+        public Builder setIngressPort(long port) {
+            return setMetadata(INGRESS_PORT, port);
+        }
+
+        /**
+         * Match a packet_in metadata field, as named in the P4Info, against a value.
+         */
+        public Builder setMetadata(String metadataName, long value) {
+            this.metadataName_ = metadataName;
+            this.metadataValue_ = value;
+            return this;
+        }
+
+        /**
+         * Match payload bytes at an offset.
+         * @param mask bits of the bytes to compare, null to compare all bits.
+         */
+        public Builder setPayloadMatch(int offset, byte[] value, byte[] mask) {
+            if (offset < 0 || value == null || value.length == 0) {
+                throw new IllegalArgumentException("Invalid payload match.");
+            }
+            if (mask != null && mask.length != value.length) {
+                throw new IllegalArgumentException("Payload match mask and value differ in length.");
+            }
+            this.offset_ = offset;
+            this.value_ = Arrays.copyOf(value, value.length);
+            this.mask_ = mask == null ? null : Arrays.copyOf(mask, mask.length);
+            return this;
+        }
+
+        public PacketInFilter build() {
+            return new PacketInFilter(this);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.packet;
+
+import org.opendaylight.p4plugin.p4runtime.proto.PacketIn;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.PacketMetadataCodec;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Bounded ring of the packet-ins of one device. It is filled by the gRPC
+ * stream callback and drained by exactly one publisher thread; a packet
+ * offered to a full ring is dropped and counted rather than blocking the
+ * stream. Packets are handed over as received, the payload is not copied.
+ */
+public final class PacketInRing {
+    private final String nodeId;
+    private final AtomicReferenceArray<PacketIn> slots;
+    private final int mask;
+    /* Next slot to read, only written by the consumer. */
+    private final AtomicLong head = new AtomicLong();
+    /* Next slot to write, only written by producers holding the ring lock. */
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong publishedCount = new AtomicLong();
+    private volatile PacketMetadataCodec codec;
+
+    /**
+     * @param capacity max number of queued packets, rounded up to a power of two.
+     */
+    public PacketInRing(String nodeId, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Ring capacity must be positive.");
+        }
+        int size = Integer.highestOneBit(capacity);
+        size = size < capacity ? size << 1 : size;
+        this.nodeId = nodeId;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Codec of the packet_in metadata of the device pipeline, null if unknown.
+     */
+    public PacketMetadataCodec getCodec() {
+        return codec;
+    }
+
+    public void setCodec(PacketMetadataCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * @return false if the ring is full and the packet was dropped.
+     */
+    public boolean offer(PacketIn packet) {
+        receivedCount.incrementAndGet();
+        synchronized (this) {
+            long t = tail.get();
+            if (t - head.get() > mask) {
+                droppedCount.incrementAndGet();
+                return false;
+            }
+            slots.lazySet((int) t & mask, packet);
+            tail.lazySet(t + 1);
+        }
+        return true;
+    }
+
+    /**
+     * Hand at most max queued packets to the consumer, must only be called
+     * by the publisher thread of the ring.
+     * @return number of packets drained.
+     */
+    public int drain(Consumer<PacketIn> consumer, int max) {
+        long h = head.get();
+        long available = Math.min(tail.get() - h, max);
+        for (int i = 0; i < available; i++) {
+            int index = (int) (h + i) & mask;
+            PacketIn packet = slots.get(index);
+            slots.lazySet(index, null);
+            head.lazySet(h + i + 1);
+            consumer.accept(packet);
+        }
+        publishedCount.addAndGet(available);
+        return (int) available;
+    }
+
+    public boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getPublishedCount() {
+        return publishedCount.get();
+    }
+}
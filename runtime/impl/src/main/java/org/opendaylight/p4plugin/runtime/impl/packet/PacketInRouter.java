@@ -0,0 +1,156 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.packet;
+
+import org.opendaylight.p4plugin.p4runtime.proto.PacketIn;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.PacketMetadataCodec;
+import org.opendaylight.p4plugin.runtime.impl.utils.IntObjectMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Routes packet-ins to the subscriptions whose filter matches. The filters
+ * are compiled into a two level decision: node id, then EtherType, each with
+ * a wildcard branch. A packet is looked up once per level and only the
+ * subscriptions in the reached leaves check their remaining conditions, so
+ * the cost per packet does not grow with unrelated subscriptions.
+ *
+ * The decision is immutable and rebuilt when a subscription is added or
+ * removed; routing never takes a lock.
+ */
+public final class PacketInRouter {
+    private final Set<PacketInSubscription> subscriptions = new LinkedHashSet<>();
+    private volatile Decision decision = Decision.EMPTY;
+
+    /**
+     * Add a subscription, closing it removes it from the router.
+     * @param capacity max packets queued for the subscriber.
+     */
+    public synchronized PacketInSubscription subscribe(String name, PacketInFilter filter, int capacity) {
+        PacketInSubscription subscription = new PacketInSubscription(name, filter, capacity, this::remove);
+        subscriptions.add(subscription);
+        decision = Decision.compile(subscriptions);
+        return subscription;
+    }
+
+    private synchronized void remove(PacketInSubscription subscription) {
+        if (subscriptions.remove(subscription)) {
+            decision = Decision.compile(subscriptions);
+        }
+    }
+
+    public boolean isEmpty() {
+        return decision == Decision.EMPTY;
+    }
+
+    /**
+     * Queue a packet-in to every matching subscription.
+     * @return number of subscriptions that matched.
+     */
+    public int route(String nodeId, PacketIn packet, PacketMetadataCodec codec) {
+        Decision current = decision;
+        if (current == Decision.EMPTY) {
+            return 0;
+        }
+        int etherType = PacketInFilter.etherTypeOf(packet.getPayload());
+        ReceivedPacket received = new ReceivedPacket(nodeId, packet, codec);
+        int matched = 0;
+        Branch branch = current.byNode.get(nodeId);
+        if (branch != null) {
+            matched += branch.route(etherType, received);
+        }
+        if (current.anyNode != null) {
+            matched += current.anyNode.route(etherType, received);
+        }
+        return matched;
+    }
+
+    private static final class Decision {
+        private static final Decision EMPTY = new Decision(new HashMap<>(), null);
+        private final Map<String, Branch> byNode;
+        private final Branch anyNode;
+
+        private Decision(Map<String, Branch> byNode, Branch anyNode) {
+            this.byNode = byNode;
+            this.anyNode = anyNode;
+        }
+
+        static Decision compile(Iterable<PacketInSubscription> subscriptions) {
+            Map<String, List<PacketInSubscription>> byNode = new HashMap<>();
+            List<PacketInSubscription> anyNode = new ArrayList<>();
+            for (PacketInSubscription subscription : subscriptions) {
+                String nodeId = subscription.getFilter().getNodeId();
+                if (nodeId == null) {
+                    anyNode.add(subscription);
+                } else {
+                    byNode.computeIfAbsent(nodeId, key -> new ArrayList<>()).add(subscription);
+                }
+            }
+
+            if (byNode.isEmpty() && anyNode.isEmpty()) {
+                return EMPTY;
+            }
+            Map<String, Branch> branches = new HashMap<>(byNode.size() * 2);
+            byNode.forEach((nodeId, list) -> branches.put(nodeId, Branch.compile(list)));
+            return new Decision(branches, anyNode.isEmpty() ? null : Branch.compile(anyNode));
+        }
+    }
+
+    private static final class Branch {
+        private static final PacketInSubscription[] NONE = new PacketInSubscription[0];
+        private final IntObjectMap<PacketInSubscription[]> byEtherType;
+        private final PacketInSubscription[] anyEtherType;
+
+        private Branch(IntObjectMap<PacketInSubscription[]> byEtherType, PacketInSubscription[] anyEtherType) {
+            this.byEtherType = byEtherType;
+            this.anyEtherType = anyEtherType;
+        }
+
+        static Branch compile(List<PacketInSubscription> subscriptions) {
+            Map<Integer, List<PacketInSubscription>> byEtherType = new HashMap<>();
+            List<PacketInSubscription> anyEtherType = new ArrayList<>();
+            for (PacketInSubscription subscription : subscriptions) {
+                Integer etherType = subscription.getFilter().getEtherType();
+                if (etherType == null) {
+                    anyEtherType.add(subscription);
+                } else {
+                    byEtherType.computeIfAbsent(etherType, key -> new ArrayList<>()).add(subscription);
+                }
+            }
+
+            IntObjectMap<PacketInSubscription[]> index = new IntObjectMap<>(byEtherType.size());
+            byEtherType.forEach((etherType, list) -> index.put(etherType, list.toArray(NONE)));
+            return new Branch(index, anyEtherType.toArray(NONE));
+        }
+
+        int route(int etherType, ReceivedPacket packet) {
+            int matched = 0;
+            PacketInSubscription[] exact = etherType < 0 ? null : byEtherType.get(etherType);
+            if (exact != null) {
+                matched += offer(exact, packet);
+            }
+            return matched + offer(anyEtherType, packet);
+        }
+
+        private static int offer(PacketInSubscription[] subscriptions, ReceivedPacket packet) {
+            int matched = 0;
+            for (PacketInSubscription subscription : subscriptions) {
+                if (subscription.getFilter().matchesRest(packet)) {
+                    subscription.offer(packet);
+                    matched++;
+                }
+            }
+            return matched;
+        }
+    }
+}
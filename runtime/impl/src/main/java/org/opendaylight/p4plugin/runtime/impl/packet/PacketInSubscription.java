@@ -0,0 +1,106 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.packet;
+
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * The packet-ins matching the filter of one application, queued in a bounded
+ * queue owned by the application. When the application falls behind, new
+ * packets are dropped and counted; other subscribers are not affected.
+ */
+public final class PacketInSubscription implements AutoCloseable {
+    private final String name;
+    private final PacketInFilter filter;
+    private final BlockingQueue<ReceivedPacket> queue;
+    private final Consumer<PacketInSubscription> onClose;
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private volatile boolean isClosed;
+
+    PacketInSubscription(String name, PacketInFilter filter, int capacity, Consumer<PacketInSubscription> onClose) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Subscription capacity must be positive.");
+        }
+        this.name = name;
+        this.filter = filter;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.onClose = onClose;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public PacketInFilter getFilter() {
+        return filter;
+    }
+
+    boolean offer(ReceivedPacket packet) {
+        if (queue.offer(packet)) {
+            deliveredCount.incrementAndGet();
+            return true;
+        }
+        droppedCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @return next packet, null if none is queued.
+     */
+    public ReceivedPacket poll() {
+        return queue.poll();
+    }
+
+    /**
+     * @return next packet, null if none arrived in time.
+     */
+    public ReceivedPacket poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.poll(timeout, unit);
+    }
+
+    /**
+     * Move at most max queued packets to a collection.
+     * @return number of packets moved.
+     */
+    public int drainTo(Collection<? super ReceivedPacket> packets, int max) {
+        return queue.drainTo(packets, max);
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public boolean isClosed() {
+        return isClosed;
+    }
+
+    /**
+     * Stop receiving packets, queued packets can still be polled.
+     */
+    @Override
+    public void close() {
+        if (!isClosed) {
+            isClosed = true;
+            onClose.accept(this);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.packet;
+
+import com.google.protobuf.ByteString;
+import org.opendaylight.p4plugin.p4runtime.proto.PacketIn;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.P4InfoCatalog;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.PacketMetadataCodec;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.packet.rev170808.packet.metadata.Metadata;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A packet-in delivered to a subscriber. The payload is shared with the
+ * received message, metadata is decoded on first use.
+ */
+public final class ReceivedPacket {
+    private final String nodeId;
+    private final PacketIn packet;
+    private final PacketMetadataCodec codec;
+    private volatile List<Metadata> metadata;
+
+    ReceivedPacket(String nodeId, PacketIn packet, PacketMetadataCodec codec) {
+        this.nodeId = nodeId;
+        this.packet = packet;
+        this.codec = codec;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public PacketIn getPacket() {
+        return packet;
+    }
+
+    public ByteString getPayload() {
+        return packet.getPayload();
+    }
+
+    /**
+     * Metadata decoded against the pipeline of the device, empty if the
+     * pipeline is unknown.
+     */
+    public List<Metadata> getMetadata() {
+        if (metadata == null) {
+            metadata = codec == null ? Collections.emptyList() : codec.toYangMetadata(packet);
+        }
+        return metadata;
+    }
+
+    /**
+     * Get the raw value of a packet_in metadata field.
+     * @return the value, null if the field is unknown or not carried by the packet.
+     */
+    public ByteString getMetadataValue(String metadataName) {
+        if (codec == null) {
+            return null;
+        }
+        P4InfoCatalog.FieldInfo field;
+        try {
+            field = codec.getPacketInMetadata(metadataName);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return PacketMetadataCodec.getMetadataValue(packet, field.getId());
+    }
+}
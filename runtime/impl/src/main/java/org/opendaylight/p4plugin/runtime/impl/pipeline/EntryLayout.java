@@ -0,0 +1,363 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.pipeline;
+
+import com.google.protobuf.ByteString;
+import org.opendaylight.p4plugin.p4info.proto.MatchField;
+import org.opendaylight.p4plugin.p4runtime.proto.Action;
+import org.opendaylight.p4plugin.p4runtime.proto.FieldMatch;
+import org.opendaylight.p4plugin.p4runtime.proto.TableAction;
+import org.opendaylight.p4plugin.p4runtime.proto.TableEntry;
+import org.opendaylight.p4plugin.runtime.impl.utils.IntObjectMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Fixed size record of the entries of one table, offsets derived from the
+ * P4Info bit widths. The key region holds a presence bit per match field,
+ * the priority, then every match field in id order:
+ *
+ *   EXACT value | LPM value, prefix length (2) | TERNARY value, mask |
+ *   RANGE low, high | VALID flag (1)
+ *
+ * The value region holds the action type (1), the action, member or group
+ * id (4), the controller metadata (8), then the params of the action in id
+ * order, zero padded to the widest action of the table.
+ *
+ * An entry fits the layout when its values are exactly as wide as the P4Info
+ * says, as the EntryTranslator encodes them, and its match fields and params
+ * are in id order. Entries that do not fit are rejected, never truncated.
+ */
+public final class EntryLayout {
+    private static final byte TYPE_NONE = 0;
+    private static final byte TYPE_ACTION = 1;
+    private static final byte TYPE_MEMBER = 2;
+    private static final byte TYPE_GROUP = 3;
+    private final int tableId;
+    private final int[] fieldIds;
+    private final MatchField.MatchType[] matchTypes;
+    private final int[] fieldWidths;
+    private final int[] fieldOffsets;
+    private final int priorityOffset;
+    private final int keySize;
+    private final IntObjectMap<ActionLayout> actions;
+    private final int valueSize;
+
+    private static final class ActionLayout {
+        private final int[] paramIds;
+        private final int[] paramWidths;
+
+        private ActionLayout(P4InfoCatalog.ActionInfo action) {
+            List<P4InfoCatalog.FieldInfo> params = new ArrayList<>(action.getParams());
+            params.sort(Comparator.comparingInt(P4InfoCatalog.FieldInfo::getId));
+            paramIds = params.stream().mapToInt(P4InfoCatalog.FieldInfo::getId).toArray();
+            paramWidths = params.stream().mapToInt(P4InfoCatalog.FieldInfo::getByteWidth).toArray();
+        }
+
+        private int size() {
+            return Arrays.stream(paramWidths).sum();
+        }
+    }
+
+    private EntryLayout(P4InfoCatalog catalog, P4InfoCatalog.TableInfo table) {
+        tableId = table.getId();
+        List<P4InfoCatalog.FieldInfo> fields = new ArrayList<>(table.getMatchFields());
+        fields.sort(Comparator.comparingInt(P4InfoCatalog.FieldInfo::getId));
+        int count = fields.size();
+        fieldIds = new int[count];
+        matchTypes = new MatchField.MatchType[count];
+        fieldWidths = new int[count];
+        fieldOffsets = new int[count];
+        priorityOffset = (count + 7) / 8;
+        int offset = priorityOffset + 4;
+        for (int i = 0; i < count; i++) {
+            P4InfoCatalog.FieldInfo field = fields.get(i);
+            fieldIds[i] = field.getId();
+            matchTypes[i] = field.getMatchType();
+            fieldWidths[i] = field.getByteWidth();
+            fieldOffsets[i] = offset;
+            offset += sizeOf(field.getMatchType(), field.getByteWidth());
+        }
+        keySize = offset;
+
+        int[] actionIds = table.getActionIds();
+        Collection<P4InfoCatalog.ActionInfo> tableActions = new ArrayList<>();
+        if (actionIds.length == 0) {
+            tableActions.addAll(catalog.getActions());
+        } else {
+            for (int actionId : actionIds) {
+                tableActions.add(catalog.getAction(actionId));
+            }
+        }
+        actions = new IntObjectMap<>(tableActions.size());
+        int paramsSize = 0;
+        for (P4InfoCatalog.ActionInfo action : tableActions) {
+            ActionLayout layout = new ActionLayout(action);
+            actions.put(action.getId(), layout);
+            paramsSize = Math.max(paramsSize, layout.size());
+        }
+        valueSize = 1 + 4 + 8 + paramsSize;
+    }
+
+    public static EntryLayout of(P4InfoCatalog catalog, P4InfoCatalog.TableInfo table) {
+        return new EntryLayout(catalog, table);
+    }
+
+    private static int sizeOf(MatchField.MatchType matchType, int width) {
+        switch (matchType) {
+            case EXACT:
+                return width;
+            case LPM:
+                return width + 2;
+            case TERNARY:
+            case RANGE:
+                return 2 * width;
+            case VALID:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int getKeySize() {
+        return keySize;
+    }
+
+    public int getValueSize() {
+        return valueSize;
+    }
+
+    public int getRecordSize() {
+        return keySize + valueSize;
+    }
+
+    private static boolean copy(ByteString value, int width, byte[] out, int offset) {
+        if (value.size() != width) {
+            return false;
+        }
+        value.copyTo(out, 0, offset, width);
+        return true;
+    }
+
+    private static void writeInt(byte[] out, int offset, int value) {
+        out[offset] = (byte) (value >>> 24);
+        out[offset + 1] = (byte) (value >>> 16);
+        out[offset + 2] = (byte) (value >>> 8);
+        out[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] in, int offset) {
+        return ((in[offset] & 0xFF) << 24) | ((in[offset + 1] & 0xFF) << 16)
+                | ((in[offset + 2] & 0xFF) << 8) | (in[offset + 3] & 0xFF);
+    }
+
+    private static void writeLong(byte[] out, int offset, long value) {
+        writeInt(out, offset, (int) (value >>> 32));
+        writeInt(out, offset + 4, (int) value);
+    }
+
+    private static long readLong(byte[] in, int offset) {
+        return ((long) readInt(in, offset) << 32) | (readInt(in, offset + 4) & 0xFFFFFFFFL);
+    }
+
+    private int fieldIndex(int fieldId, int from) {
+        for (int i = from; i < fieldIds.length; i++) {
+            if (fieldIds[i] == fieldId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean packField(int i, FieldMatch match, byte[] out) {
+        int offset = fieldOffsets[i];
+        int width = fieldWidths[i];
+        switch (match.getFieldMatchTypeCase()) {
+            case EXACT:
+                return matchTypes[i] == MatchField.MatchType.EXACT
+                        && copy(match.getExact().getValue(), width, out, offset);
+            case LPM: {
+                int prefixLen = match.getLpm().getPrefixLen();
+                if (matchTypes[i] != MatchField.MatchType.LPM || prefixLen < 0 || prefixLen > 0xFFFF
+                        || !copy(match.getLpm().getValue(), width, out, offset)) {
+                    return false;
+                }
+                out[offset + width] = (byte) (prefixLen >>> 8);
+                out[offset + width + 1] = (byte) prefixLen;
+                return true;
+            }
+            case TERNARY:
+                return matchTypes[i] == MatchField.MatchType.TERNARY
+                        && copy(match.getTernary().getValue(), width, out, offset)
+                        && copy(match.getTernary().getMask(), width, out, offset + width);
+            case RANGE:
+                return matchTypes[i] == MatchField.MatchType.RANGE
+                        && copy(match.getRange().getLow(), width, out, offset)
+                        && copy(match.getRange().getHigh(), width, out, offset + width);
+            case VALID:
+                if (matchTypes[i] != MatchField.MatchType.VALID) {
+                    return false;
+                }
+                out[offset] = (byte) (match.getValid().getValue() ? 1 : 0);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Pack the key of an entry into out[0, keySize).
+     * @return false if the entry does not fit the layout.
+     */
+    public boolean packKey(TableEntry entry, byte[] out) {
+        if (entry.getTableId() != tableId) {
+            return false;
+        }
+        Arrays.fill(out, 0, keySize, (byte) 0);
+        writeInt(out, priorityOffset, entry.getPriority());
+        int next = 0;
+        for (FieldMatch match : entry.getMatchList()) {
+            int i = fieldIndex(match.getFieldId(), next);
+            if (i < 0 || !packField(i, match, out)) {
+                return false;
+            }
+            out[i >> 3] |= (byte) (1 << (i & 7));
+            next = i + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Pack the action and metadata of an entry into out[keySize, keySize + valueSize).
+     * @return false if the entry does not fit the layout.
+     */
+    public boolean packValue(TableEntry entry, byte[] out) {
+        int offset = keySize;
+        Arrays.fill(out, offset, offset + valueSize, (byte) 0);
+        TableAction action = entry.getAction();
+        switch (action.getTypeCase()) {
+            case ACTION: {
+                Action directAction = action.getAction();
+                ActionLayout layout = actions.get(directAction.getActionId());
+                if (layout == null || directAction.getParamsCount() != layout.paramIds.length) {
+                    return false;
+                }
+                out[offset] = TYPE_ACTION;
+                writeInt(out, offset + 1, directAction.getActionId());
+                int paramOffset = offset + 13;
+                for (int j = 0; j < layout.paramIds.length; j++) {
+                    Action.Param param = directAction.getParams(j);
+                    if (param.getParamId() != layout.paramIds[j]
+                            || !copy(param.getValue(), layout.paramWidths[j], out, paramOffset)) {
+                        return false;
+                    }
+                    paramOffset += layout.paramWidths[j];
+                }
+                break;
+            }
+            case ACTION_PROFILE_MEMBER_ID:
+                out[offset] = TYPE_MEMBER;
+                writeInt(out, offset + 1, action.getActionProfileMemberId());
+                break;
+            case ACTION_PROFILE_GROUP_ID:
+                out[offset] = TYPE_GROUP;
+                writeInt(out, offset + 1, action.getActionProfileGroupId());
+                break;
+            default:
+                if (entry.hasAction()) {
+                    return false;
+                }
+                out[offset] = TYPE_NONE;
+                break;
+        }
+        writeLong(out, offset + 5, entry.getControllerMetadata());
+        return true;
+    }
+
+    private FieldMatch unpackField(int i, byte[] in) {
+        int offset = fieldOffsets[i];
+        int width = fieldWidths[i];
+        FieldMatch.Builder match = FieldMatch.newBuilder().setFieldId(fieldIds[i]);
+        switch (matchTypes[i]) {
+            case EXACT:
+                match.setExact(FieldMatch.Exact.newBuilder()
+                        .setValue(ByteString.copyFrom(in, offset, width)));
+                break;
+            case LPM:
+                match.setLpm(FieldMatch.LPM.newBuilder()
+                        .setValue(ByteString.copyFrom(in, offset, width))
+                        .setPrefixLen(((in[offset + width] & 0xFF) << 8) | (in[offset + width + 1] & 0xFF)));
+                break;
+            case TERNARY:
+                match.setTernary(FieldMatch.Ternary.newBuilder()
+                        .setValue(ByteString.copyFrom(in, offset, width))
+                        .setMask(ByteString.copyFrom(in, offset + width, width)));
+                break;
+            case RANGE:
+                match.setRange(FieldMatch.Range.newBuilder()
+                        .setLow(ByteString.copyFrom(in, offset, width))
+                        .setHigh(ByteString.copyFrom(in, offset + width, width)));
+                break;
+            case VALID:
+                match.setValid(FieldMatch.Valid.newBuilder().setValue(in[offset] != 0));
+                break;
+            default:
+                break;
+        }
+        return match.build();
+    }
+
+    /**
+     * Rebuild the entry of a packed record, equal to the packed entry.
+     */
+    public TableEntry unpack(byte[] in) {
+        TableEntry.Builder entry = TableEntry.newBuilder()
+                .setTableId(tableId)
+                .setPriority(readInt(in, priorityOffset));
+        for (int i = 0; i < fieldIds.length; i++) {
+            if ((in[i >> 3] & (1 << (i & 7))) != 0) {
+                entry.addMatch(unpackField(i, in));
+            }
+        }
+
+        int offset = keySize;
+        switch (in[offset]) {
+            case TYPE_ACTION: {
+                int actionId = readInt(in, offset + 1);
+                ActionLayout layout = actions.get(actionId);
+                Action.Builder action = Action.newBuilder().setActionId(actionId);
+                int paramOffset = offset + 13;
+                for (int j = 0; j < layout.paramIds.length; j++) {
+                    action.addParams(Action.Param.newBuilder()
+                            .setParamId(layout.paramIds[j])
+                            .setValue(ByteString.copyFrom(in, paramOffset, layout.paramWidths[j])));
+                    paramOffset += layout.paramWidths[j];
+                }
+                entry.setAction(TableAction.newBuilder().setAction(action));
+                break;
+            }
+            case TYPE_MEMBER:
+                entry.setAction(TableAction.newBuilder().setActionProfileMemberId(readInt(in, offset + 1)));
+                break;
+            case TYPE_GROUP:
+                entry.setAction(TableAction.newBuilder().setActionProfileGroupId(readInt(in, offset + 1)));
+                break;
+            default:
+                break;
+        }
+        return entry.setControllerMetadata(readLong(in, offset + 5)).build();
+    }
+}
@@ -0,0 +1,516 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.pipeline;
+
+import com.google.protobuf.ByteString;
+import org.opendaylight.p4plugin.p4info.proto.MatchField;
+import org.opendaylight.p4plugin.p4runtime.proto.Action;
+import org.opendaylight.p4plugin.p4runtime.proto.FieldMatch;
+import org.opendaylight.p4plugin.p4runtime.proto.TableAction;
+import org.opendaylight.p4plugin.runtime.impl.utils.IntObjectMap;
+import org.opendaylight.p4plugin.runtime.impl.utils.ValueEncoder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.TableEntry;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.TableEntryKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.action.ActionParam;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.action.ActionParamBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.Field;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.FieldBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.field.MatchType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.field.match.type.EXACT;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.field.match.type.EXACTBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.field.match.type.LPM;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.field.match.type.LPMBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.field.match.type.RANGE;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.field.match.type.RANGEBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.field.match.type.TERNARY;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.field.match.type.TERNARYBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.read.table.entry.page.output.Entry;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.read.table.entry.page.output.EntryBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.table.entry.ActionType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.table.entry.action.type.ACTIONPROFILEGROUP;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.table.entry.action.type.ACTIONPROFILEGROUPBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.table.entry.action.type.ACTIONPROFILEMEMBER;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.table.entry.action.type.ACTIONPROFILEMEMBERBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.table.entry.action.type.DIRECTACTION;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.table.entry.action.type.DIRECTACTIONBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.types.rev170808.Value;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Translates YANG table entries into P4Runtime table entries with encoders
+ * compiled from a catalog when the pipeline is loaded. Every table and action
+ * gets its own encoder holding the resolved ids, widths, match kinds and
+ * prefix masks, so an entry is converted with a single hash probe per table,
+ * field and parameter name, the only keys the YANG model carries, and no
+ * catalog walk or match type dispatch. Entries read from the target are
+ * decoded back by id into name resolved YANG entries, values are given as
+ * 0x prefixed hexadecimal numbers of the field width.
+ */
+public final class EntryTranslator {
+    private final Map<String, TableEncoder> tables;
+    private final IntObjectMap<TableEncoder> tablesById;
+    private final Map<String, ActionEncoder> actions;
+    private final IntObjectMap<ActionEncoder> actionsById;
+
+    private EntryTranslator(Map<String, TableEncoder> tables, Map<String, ActionEncoder> actions) {
+        this.tables = tables;
+        this.actions = actions;
+        this.tablesById = new IntObjectMap<>(tables.size());
+        tables.values().forEach(table -> tablesById.put(table.tableId, table));
+        this.actionsById = new IntObjectMap<>(actions.size());
+        actions.values().forEach(action -> actionsById.put(action.actionId, action));
+    }
+
+    /**
+     * Compile the encoders of all tables and actions of a catalog.
+     * @param catalog catalog of the pipeline.
+     * @return translator of the pipeline.
+     */
+    public static EntryTranslator compile(P4InfoCatalog catalog) {
+        Map<String, ActionEncoder> actions = new HashMap<>(catalog.getActions().size() * 2);
+        catalog.getActions().forEach(action -> actions.put(action.getName(), new ActionEncoder(action)));
+        Map<String, TableEncoder> tables = new HashMap<>(catalog.getTables().size() * 2);
+        catalog.getTables().forEach(table ->
+                tables.put(table.getName(), new TableEncoder(table, catalog.getPrefixMasks())));
+        return new EntryTranslator(tables, actions);
+    }
+
+    private TableEncoder getTable(String tableName) {
+        TableEncoder table = tables.get(tableName);
+        if (table == null) {
+            throw new IllegalArgumentException("Invalid table name");
+        }
+        return table;
+    }
+
+    private TableEncoder getTable(int tableId) {
+        TableEncoder table = tablesById.get(tableId);
+        if (table == null) {
+            throw new IllegalArgumentException("Invalid table id");
+        }
+        return table;
+    }
+
+    private ActionEncoder getAction(int actionId) {
+        ActionEncoder action = actionsById.get(actionId);
+        if (action == null) {
+            throw new IllegalArgumentException("Invalid action id");
+        }
+        return action;
+    }
+
+    private ActionEncoder getAction(String actionName) {
+        ActionEncoder action = actions.get(actionName);
+        if (action == null) {
+            throw new IllegalArgumentException("Invalid action name");
+        }
+        return action;
+    }
+
+    public org.opendaylight.p4plugin.p4runtime.proto.TableEntry toProtoEntry(TableEntry entry) {
+        org.opendaylight.p4plugin.p4runtime.proto.TableEntry.Builder builder =
+                getTable(entry.getTableName()).encodeKey(entry);
+        builder.setAction(toProtoAction(entry.getActionType()));
+        if (entry.getPriority() != null) {
+            builder.setPriority(entry.getPriority());
+        }
+        if (entry.getControllerMetadata() != null) {
+            builder.setControllerMetadata(entry.getControllerMetadata().longValue());
+        }
+        return builder.build();
+    }
+
+    public org.opendaylight.p4plugin.p4runtime.proto.TableEntry toProtoEntry(TableEntryKey entryKey) {
+        return getTable(entryKey.getTableName()).encodeKey(entryKey).build();
+    }
+
+    /**
+     * Decode a table entry read from the target, ids are resolved to names.
+     */
+    public Entry toYangEntry(org.opendaylight.p4plugin.p4runtime.proto.TableEntry entry) {
+        TableEncoder table = getTable(entry.getTableId());
+        List<Field> fields = new ArrayList<>(entry.getMatchCount());
+        for (int i = 0; i < entry.getMatchCount(); i++) {
+            fields.add(table.getField(entry.getMatch(i).getFieldId()).decode(entry.getMatch(i)));
+        }
+
+        EntryBuilder builder = new EntryBuilder()
+                .setTableName(table.tableName)
+                .setField(fields)
+                .setPriority(entry.getPriority())
+                .setControllerMetadata(new BigInteger(Long.toUnsignedString(entry.getControllerMetadata())));
+
+        TableAction action = entry.getAction();
+        switch (action.getTypeCase()) {
+            case ACTION:
+                builder.setActionType(getAction(action.getAction().getActionId()).decode(action.getAction()));
+                break;
+            case ACTION_PROFILE_MEMBER_ID:
+                builder.setActionType(new ACTIONPROFILEMEMBERBuilder()
+                        .setMemberId(Integer.toUnsignedLong(action.getActionProfileMemberId())).build());
+                break;
+            case ACTION_PROFILE_GROUP_ID:
+                builder.setActionType(new ACTIONPROFILEGROUPBuilder()
+                        .setGroupId(Integer.toUnsignedLong(action.getActionProfileGroupId())).build());
+                break;
+            default:
+                break;
+        }
+        return builder.build();
+    }
+
+    /**
+     * Encode an action and its parameters, used by direct actions and action profile members.
+     */
+    public Action toProtoAction(String actionName, List<ActionParam> params) {
+        return getAction(actionName).encode(params);
+    }
+
+    private TableAction toProtoAction(ActionType actionType) {
+        TableAction.Builder builder = TableAction.newBuilder();
+        if (actionType instanceof DIRECTACTION) {
+            DIRECTACTION action = (DIRECTACTION) actionType;
+            builder.setAction(toProtoAction(action.getActionName(), action.getActionParam()));
+        } else if (actionType instanceof ACTIONPROFILEMEMBER) {
+            builder.setActionProfileMemberId(((ACTIONPROFILEMEMBER) actionType).getMemberId().intValue());
+        } else if (actionType instanceof ACTIONPROFILEGROUP) {
+            builder.setActionProfileGroupId(((ACTIONPROFILEGROUP) actionType).getGroupId().intValue());
+        } else {
+            throw new IllegalArgumentException("Invalid action type");
+        }
+        return builder.build();
+    }
+
+    private static final class TableEncoder {
+        private final int tableId;
+        private final String tableName;
+        private final Map<String, FieldEncoder> fields;
+        private final IntObjectMap<FieldEncoder> fieldsById;
+
+        TableEncoder(P4InfoCatalog.TableInfo table, PrefixMaskTable prefixMasks) {
+            this.tableId = table.getId();
+            this.tableName = table.getName();
+            this.fields = new HashMap<>(table.getMatchFieldCount() * 2);
+            this.fieldsById = new IntObjectMap<>(table.getMatchFieldCount());
+            table.getMatchFields().forEach(field -> {
+                FieldEncoder encoder = compile(field, prefixMasks);
+                fields.put(encoder.fieldName, encoder);
+                fieldsById.put(encoder.fieldId, encoder);
+            });
+        }
+
+        FieldEncoder getField(int fieldId) {
+            FieldEncoder field = fieldsById.get(fieldId);
+            if (field == null) {
+                throw new IllegalArgumentException("Invalid match field id");
+            }
+            return field;
+        }
+
+        org.opendaylight.p4plugin.p4runtime.proto.TableEntry.Builder encodeKey(TableEntryKey entryKey) {
+            org.opendaylight.p4plugin.p4runtime.proto.TableEntry.Builder builder =
+                    org.opendaylight.p4plugin.p4runtime.proto.TableEntry.newBuilder().setTableId(tableId);
+            List<Field> matchFields = entryKey.getField();
+            if (matchFields != null) {
+                for (int i = 0; i < matchFields.size(); i++) {
+                    Field field = matchFields.get(i);
+                    FieldEncoder encoder = fields.get(field.getFieldName());
+                    if (encoder == null) {
+                        throw new IllegalArgumentException("Invalid match field name");
+                    }
+                    builder.addMatch(encoder.encode(field.getMatchType()));
+                }
+            }
+            return builder;
+        }
+    }
+
+    private static FieldEncoder compile(P4InfoCatalog.FieldInfo field, PrefixMaskTable prefixMasks) {
+        switch (field.getMatchType()) {
+            case EXACT:
+                return new ExactEncoder(field);
+            case LPM:
+                return new LpmEncoder(field, prefixMasks);
+            case TERNARY:
+                return new TernaryEncoder(field, prefixMasks);
+            case RANGE:
+                return new RangeEncoder(field);
+            default:
+                return new AnyEncoder(field, prefixMasks);
+        }
+    }
+
+    /**
+     * Encoder of one match field, bound to the match kind declared in the P4Info.
+     */
+    private abstract static class FieldEncoder {
+        final int fieldId;
+        final String fieldName;
+        final int bitWidth;
+        final int byteWidth;
+
+        FieldEncoder(P4InfoCatalog.FieldInfo field) {
+            this.fieldId = field.getId();
+            this.fieldName = field.getName();
+            this.bitWidth = field.getBitWidth();
+            this.byteWidth = field.getByteWidth();
+        }
+
+        abstract FieldMatch encode(MatchType matchType);
+
+        Field decode(FieldMatch match) {
+            MatchType matchType;
+            switch (match.getFieldMatchTypeCase()) {
+                case EXACT:
+                    matchType = new EXACTBuilder()
+                            .setExactValue(new Value(ValueEncoder.toHexString(match.getExact().getValue())))
+                            .build();
+                    break;
+                case LPM:
+                    matchType = new LPMBuilder()
+                            .setLpmValue(new Value(ValueEncoder.toHexString(match.getLpm().getValue())))
+                            .setPrefixLen((long) match.getLpm().getPrefixLen())
+                            .build();
+                    break;
+                case TERNARY:
+                    TERNARYBuilder ternaryBuilder = new TERNARYBuilder()
+                            .setTernaryValue(new Value(ValueEncoder.toHexString(match.getTernary().getValue())));
+                    int prefixLen = toPrefixLen(match.getTernary().getMask());
+                    if (prefixLen > 0) {
+                        ternaryBuilder.setMask((short) prefixLen);
+                    }
+                    matchType = ternaryBuilder.build();
+                    break;
+                case RANGE:
+                    matchType = new RANGEBuilder()
+                            .setRangeValueHigh(new BigInteger(1, match.getRange().getHigh().toByteArray()))
+                            .setRangeValueLow(new BigInteger(1, match.getRange().getLow().toByteArray()))
+                            .build();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Invalid match type");
+            }
+            return new FieldBuilder().setFieldName(fieldName).setMatchType(matchType).build();
+        }
+
+        /**
+         * Prefix length of a ternary mask, 0 if the mask is not a prefix.
+         */
+        int toPrefixLen(ByteString mask) {
+            int padding = mask.size() * 8 - bitWidth;
+            int prefixLen = 0;
+            boolean isEnded = false;
+            for (int i = 0; i < mask.size() * 8; i++) {
+                boolean isSet = (mask.byteAt(i / 8) & (0x80 >>> (i % 8))) != 0;
+                if (i < padding || isEnded) {
+                    if (isSet) {
+                        return 0;
+                    }
+                } else if (isSet) {
+                    prefixLen++;
+                } else {
+                    isEnded = true;
+                }
+            }
+            return prefixLen;
+        }
+
+        <T extends MatchType> T expect(MatchType matchType, Class<T> type, MatchField.MatchType kind) {
+            if (!type.isInstance(matchType)) {
+                throw new IllegalArgumentException(
+                        String.format("Match field %s expects %s match.", fieldName, kind));
+            }
+            return type.cast(matchType);
+        }
+
+        FieldMatch exact(EXACT exact) {
+            return FieldMatch.newBuilder()
+                    .setFieldId(fieldId)
+                    .setExact(FieldMatch.Exact.newBuilder()
+                            .setValue(ValueEncoder.encode(exact.getExactValue().getValue(), byteWidth)))
+                    .build();
+        }
+
+        FieldMatch lpm(LPM lpm, PrefixMaskTable prefixMasks) {
+            int prefixLen = lpm.getPrefixLen().intValue();
+            return FieldMatch.newBuilder()
+                    .setFieldId(fieldId)
+                    .setLpm(FieldMatch.LPM.newBuilder()
+                            .setValue(prefixMasks.encode(lpm.getLpmValue().getValue(), bitWidth, prefixLen))
+                            .setPrefixLen(prefixLen))
+                    .build();
+        }
+
+        FieldMatch ternary(TERNARY ternary, PrefixMaskTable prefixMasks) {
+            int prefixLen = ternary.getMask();
+            return FieldMatch.newBuilder()
+                    .setFieldId(fieldId)
+                    .setTernary(FieldMatch.Ternary.newBuilder()
+                            .setValue(prefixMasks.encode(ternary.getTernaryValue().getValue(), bitWidth, prefixLen))
+                            .setMask(prefixMasks.getMask(bitWidth, prefixLen)))
+                    .build();
+        }
+
+        FieldMatch range(RANGE range) {
+            BigInteger high = range.getRangeValueHigh();
+            BigInteger low = range.getRangeValueLow();
+            return FieldMatch.newBuilder()
+                    .setFieldId(fieldId)
+                    .setRange(FieldMatch.Range.newBuilder()
+                            .setHigh(ValueEncoder.encode(high, byteWidth))
+                            .setLow(ValueEncoder.encode(low, byteWidth)))
+                    .build();
+        }
+    }
+
+    private static final class ExactEncoder extends FieldEncoder {
+        ExactEncoder(P4InfoCatalog.FieldInfo field) {
+            super(field);
+        }
+
+        @Override
+        FieldMatch encode(MatchType matchType) {
+            return exact(expect(matchType, EXACT.class, MatchField.MatchType.EXACT));
+        }
+    }
+
+    private static final class LpmEncoder extends FieldEncoder {
+        private final PrefixMaskTable prefixMasks;
+
+        LpmEncoder(P4InfoCatalog.FieldInfo field, PrefixMaskTable prefixMasks) {
+            super(field);
+            this.prefixMasks = prefixMasks;
+        }
+
+        @Override
+        FieldMatch encode(MatchType matchType) {
+            return lpm(expect(matchType, LPM.class, MatchField.MatchType.LPM), prefixMasks);
+        }
+    }
+
+    private static final class TernaryEncoder extends FieldEncoder {
+        private final PrefixMaskTable prefixMasks;
+
+        TernaryEncoder(P4InfoCatalog.FieldInfo field, PrefixMaskTable prefixMasks) {
+            super(field);
+            this.prefixMasks = prefixMasks;
+        }
+
+        @Override
+        FieldMatch encode(MatchType matchType) {
+            return ternary(expect(matchType, TERNARY.class, MatchField.MatchType.TERNARY), prefixMasks);
+        }
+    }
+
+    private static final class RangeEncoder extends FieldEncoder {
+        RangeEncoder(P4InfoCatalog.FieldInfo field) {
+            super(field);
+        }
+
+        @Override
+        FieldMatch encode(MatchType matchType) {
+            return range(expect(matchType, RANGE.class, MatchField.MatchType.RANGE));
+        }
+    }
+
+    /**
+     * Fields without a supported match kind in the P4Info accept any match type.
+     */
+    private static final class AnyEncoder extends FieldEncoder {
+        private final PrefixMaskTable prefixMasks;
+
+        AnyEncoder(P4InfoCatalog.FieldInfo field, PrefixMaskTable prefixMasks) {
+            super(field);
+            this.prefixMasks = prefixMasks;
+        }
+
+        @Override
+        FieldMatch encode(MatchType matchType) {
+            if (matchType instanceof EXACT) {
+                return exact((EXACT) matchType);
+            } else if (matchType instanceof LPM) {
+                return lpm((LPM) matchType, prefixMasks);
+            } else if (matchType instanceof TERNARY) {
+                return ternary((TERNARY) matchType, prefixMasks);
+            } else if (matchType instanceof RANGE) {
+                return range((RANGE) matchType);
+            } else {
+                throw new IllegalArgumentException("Invalid match type");
+            }
+        }
+    }
+
+    private static final class ActionEncoder {
+        private final int actionId;
+        private final String actionName;
+        private final Map<String, ParamSlot> params;
+        private final IntObjectMap<ParamSlot> paramsById;
+
+        ActionEncoder(P4InfoCatalog.ActionInfo action) {
+            this.actionId = action.getId();
+            this.actionName = action.getName();
+            this.params = new HashMap<>(action.getParamCount() * 2);
+            this.paramsById = new IntObjectMap<>(action.getParamCount());
+            action.getParams().forEach(param -> {
+                ParamSlot slot = new ParamSlot(param);
+                params.put(slot.paramName, slot);
+                paramsById.put(slot.paramId, slot);
+            });
+        }
+
+        DIRECTACTION decode(Action action) {
+            List<ActionParam> actionParams = new ArrayList<>(action.getParamsCount());
+            for (int i = 0; i < action.getParamsCount(); i++) {
+                Action.Param param = action.getParams(i);
+                ParamSlot slot = paramsById.get(param.getParamId());
+                if (slot == null) {
+                    throw new IllegalArgumentException("Invalid param id");
+                }
+                actionParams.add(new ActionParamBuilder()
+                        .setParamName(slot.paramName)
+                        .setParamValue(ValueEncoder.toHexString(param.getValue()))
+                        .build());
+            }
+            return new DIRECTACTIONBuilder().setActionName(actionName).setActionParam(actionParams).build();
+        }
+
+        Action encode(List<ActionParam> actionParams) {
+            Action.Builder builder = Action.newBuilder().setActionId(actionId);
+            if (actionParams != null) {
+                for (int i = 0; i < actionParams.size(); i++) {
+                    ActionParam actionParam = actionParams.get(i);
+                    ParamSlot slot = params.get(actionParam.getParamName());
+                    if (slot == null) {
+                        throw new IllegalArgumentException("Invalid param name");
+                    }
+                    builder.addParams(Action.Param.newBuilder()
+                            .setParamId(slot.paramId)
+                            .setValue(ValueEncoder.encode(actionParam.getParamValue(), slot.byteWidth)));
+                }
+            }
+            return builder.build();
+        }
+    }
+
+    private static final class ParamSlot {
+        private final int paramId;
+        private final String paramName;
+        private final int byteWidth;
+
+        ParamSlot(P4InfoCatalog.FieldInfo param) {
+            this.paramId = param.getId();
+            this.paramName = param.getName();
+            this.byteWidth = param.getByteWidth();
+        }
+    }
+}
@@ -0,0 +1,592 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.pipeline;
+
+import org.opendaylight.p4plugin.p4info.proto.Action;
+import org.opendaylight.p4plugin.p4info.proto.ActionProfile;
+import org.opendaylight.p4plugin.p4info.proto.ActionRef;
+import org.opendaylight.p4plugin.p4info.proto.ControllerPacketMetadata;
+import org.opendaylight.p4plugin.p4info.proto.Counter;
+import org.opendaylight.p4plugin.p4info.proto.CounterSpec;
+import org.opendaylight.p4plugin.p4info.proto.DirectCounter;
+import org.opendaylight.p4plugin.p4info.proto.DirectMeter;
+import org.opendaylight.p4plugin.p4info.proto.MatchField;
+import org.opendaylight.p4plugin.p4info.proto.Meter;
+import org.opendaylight.p4plugin.p4info.proto.MeterSpec;
+import org.opendaylight.p4plugin.p4info.proto.P4Info;
+import org.opendaylight.p4plugin.p4info.proto.Preamble;
+import org.opendaylight.p4plugin.p4info.proto.Table;
+import org.opendaylight.p4plugin.runtime.impl.utils.IntObjectMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable index over a P4Info, built once when the pipeline is loaded.
+ * All name to id, id to name and bit width lookups are O(1), the catalog
+ * can be shared by any number of devices running the same program.
+ */
+public final class P4InfoCatalog {
+    private final P4Info p4Info;
+    private final Map<String, TableInfo> tablesByName;
+    private final IntObjectMap<TableInfo> tablesById;
+    private final Map<String, ActionInfo> actionsByName;
+    private final IntObjectMap<ActionInfo> actionsById;
+    private final Map<String, EntityInfo> actionProfilesByName;
+    private final IntObjectMap<EntityInfo> actionProfilesById;
+    private final Map<String, PacketMetadataInfo> packetMetadataByName;
+    private final Map<String, CounterInfo> countersByName;
+    private final IntObjectMap<CounterInfo> countersById;
+    private final Map<String, MeterInfo> metersByName;
+    private final IntObjectMap<MeterInfo> metersById;
+    private final PrefixMaskTable prefixMasks;
+
+    private P4InfoCatalog(P4Info p4Info) {
+        this.p4Info = p4Info;
+        List<Action> actions = p4Info.getActionsList();
+        actionsByName = new HashMap<>(actions.size() * 2);
+        actionsById = new IntObjectMap<>(actions.size());
+        actions.forEach(action -> {
+            ActionInfo info = new ActionInfo(action);
+            actionsByName.put(info.getName(), info);
+            actionsById.put(info.getId(), info);
+        });
+
+        List<Table> tables = p4Info.getTablesList();
+        tablesByName = new HashMap<>(tables.size() * 2);
+        tablesById = new IntObjectMap<>(tables.size());
+        tables.forEach(table -> {
+            TableInfo info = new TableInfo(table);
+            tablesByName.put(info.getName(), info);
+            tablesById.put(info.getId(), info);
+        });
+
+        List<ActionProfile> actionProfiles = p4Info.getActionProfilesList();
+        actionProfilesByName = new HashMap<>(actionProfiles.size() * 2);
+        actionProfilesById = new IntObjectMap<>(actionProfiles.size());
+        actionProfiles.forEach(actionProfile -> {
+            EntityInfo info = new EntityInfo(actionProfile.getPreamble());
+            actionProfilesByName.put(info.getName(), info);
+            actionProfilesById.put(info.getId(), info);
+        });
+
+        List<ControllerPacketMetadata> packetMetadata = p4Info.getControllerPacketMetadataList();
+        packetMetadataByName = new HashMap<>(packetMetadata.size() * 2);
+        packetMetadata.forEach(header -> {
+            PacketMetadataInfo info = new PacketMetadataInfo(header);
+            packetMetadataByName.put(info.getName(), info);
+        });
+
+        List<Counter> counters = p4Info.getCountersList();
+        List<DirectCounter> directCounters = p4Info.getDirectCountersList();
+        int counterCount = counters.size() + directCounters.size();
+        countersByName = new HashMap<>(counterCount * 2);
+        countersById = new IntObjectMap<>(counterCount);
+        counters.forEach(counter -> {
+            CounterInfo info = new CounterInfo(counter.getPreamble(), counter.getSpec().getUnit(),
+                    counter.getSize(), 0);
+            countersByName.put(info.getName(), info);
+            countersById.put(info.getId(), info);
+        });
+        directCounters.forEach(counter -> {
+            CounterInfo info = new CounterInfo(counter.getPreamble(), counter.getSpec().getUnit(),
+                    0, counter.getDirectTableId());
+            countersByName.put(info.getName(), info);
+            countersById.put(info.getId(), info);
+        });
+
+        List<Meter> meters = p4Info.getMetersList();
+        List<DirectMeter> directMeters = p4Info.getDirectMetersList();
+        int meterCount = meters.size() + directMeters.size();
+        metersByName = new HashMap<>(meterCount * 2);
+        metersById = new IntObjectMap<>(meterCount);
+        meters.forEach(meter -> {
+            MeterInfo info = new MeterInfo(meter.getPreamble(), meter.getSpec(), meter.getSize(), 0);
+            metersByName.put(info.getName(), info);
+            metersById.put(info.getId(), info);
+        });
+        directMeters.forEach(meter -> {
+            MeterInfo info = new MeterInfo(meter.getPreamble(), meter.getSpec(), 0, meter.getDirectTableId());
+            metersByName.put(info.getName(), info);
+            metersById.put(info.getId(), info);
+        });
+
+        prefixMasks = PrefixMaskTable.of(tablesByName.values());
+    }
+
+    /**
+     * Index a P4Info.
+     * @param p4Info runtime info generated by the compiler.
+     * @return catalog of the runtime info.
+     */
+    public static P4InfoCatalog of(P4Info p4Info) {
+        if (p4Info == null) {
+            throw new NullPointerException("P4Info is null.");
+        }
+        return new P4InfoCatalog(p4Info);
+    }
+
+    public P4Info getP4Info() {
+        return p4Info;
+    }
+
+    public TableInfo getTable(String tableName) {
+        TableInfo table = tablesByName.get(tableName);
+        if (table == null) {
+            throw new IllegalArgumentException("Invalid table name");
+        }
+        return table;
+    }
+
+    public TableInfo getTable(int tableId) {
+        TableInfo table = tablesById.get(tableId);
+        if (table == null) {
+            throw new IllegalArgumentException("Invalid table id");
+        }
+        return table;
+    }
+
+    public PrefixMaskTable getPrefixMasks() {
+        return prefixMasks;
+    }
+
+    public Collection<TableInfo> getTables() {
+        return Collections.unmodifiableCollection(tablesByName.values());
+    }
+
+    public ActionInfo getAction(String actionName) {
+        ActionInfo action = actionsByName.get(actionName);
+        if (action == null) {
+            throw new IllegalArgumentException("Invalid action name");
+        }
+        return action;
+    }
+
+    public ActionInfo getAction(int actionId) {
+        ActionInfo action = actionsById.get(actionId);
+        if (action == null) {
+            throw new IllegalArgumentException("Invalid action id");
+        }
+        return action;
+    }
+
+    public Collection<ActionInfo> getActions() {
+        return Collections.unmodifiableCollection(actionsByName.values());
+    }
+
+    public int getTableId(String tableName) {
+        return getTable(tableName).getId();
+    }
+
+    public String getTableName(int tableId) {
+        return getTable(tableId).getName();
+    }
+
+    public int getMatchFieldId(String tableName, String matchFieldName) {
+        return getTable(tableName).getMatchField(matchFieldName).getId();
+    }
+
+    public String getMatchFieldName(int tableId, int matchFieldId) {
+        return getTable(tableId).getMatchField(matchFieldId).getName();
+    }
+
+    /**
+     * Get the width of a match field in bytes.
+     */
+    public int getMatchFieldWidth(String tableName, String matchFieldName) {
+        return getTable(tableName).getMatchField(matchFieldName).getByteWidth();
+    }
+
+    public int getActionId(String actionName) {
+        return getAction(actionName).getId();
+    }
+
+    public String getActionName(int actionId) {
+        return getAction(actionId).getName();
+    }
+
+    public int getParamId(String actionName, String paramName) {
+        return getAction(actionName).getParam(paramName).getId();
+    }
+
+    public String getParamName(int actionId, int paramId) {
+        return getAction(actionId).getParam(paramId).getName();
+    }
+
+    /**
+     * Get the width of an action parameter in bytes.
+     */
+    public int getParamWidth(String actionName, String paramName) {
+        return getAction(actionName).getParam(paramName).getByteWidth();
+    }
+
+    public int getActionProfileId(String actionProfileName) {
+        EntityInfo actionProfile = actionProfilesByName.get(actionProfileName);
+        if (actionProfile == null) {
+            throw new IllegalArgumentException("Invalid action profile name");
+        }
+        return actionProfile.getId();
+    }
+
+    public String getActionProfileName(int actionProfileId) {
+        EntityInfo actionProfile = actionProfilesById.get(actionProfileId);
+        if (actionProfile == null) {
+            throw new IllegalArgumentException("Invalid action profile id");
+        }
+        return actionProfile.getName();
+    }
+
+    /**
+     * Get the controller packet metadata header, "packet_in" or "packet_out".
+     */
+    public PacketMetadataInfo getPacketMetadata(String headerName) {
+        PacketMetadataInfo header = packetMetadataByName.get(headerName);
+        if (header == null) {
+            throw new IllegalArgumentException("Invalid controller packet metadata name");
+        }
+        return header;
+    }
+
+    public boolean hasPacketMetadata(String headerName) {
+        return packetMetadataByName.containsKey(headerName);
+    }
+
+    /**
+     * Get a counter or a direct counter.
+     */
+    public CounterInfo getCounter(String counterName) {
+        CounterInfo counter = countersByName.get(counterName);
+        if (counter == null) {
+            throw new IllegalArgumentException("Invalid counter name");
+        }
+        return counter;
+    }
+
+    public CounterInfo getCounter(int counterId) {
+        CounterInfo counter = countersById.get(counterId);
+        if (counter == null) {
+            throw new IllegalArgumentException("Invalid counter id");
+        }
+        return counter;
+    }
+
+    public Collection<CounterInfo> getCounters() {
+        return Collections.unmodifiableCollection(countersByName.values());
+    }
+
+    /**
+     * Get a meter or a direct meter.
+     */
+    public MeterInfo getMeter(String meterName) {
+        MeterInfo meter = metersByName.get(meterName);
+        if (meter == null) {
+            throw new IllegalArgumentException("Invalid meter name");
+        }
+        return meter;
+    }
+
+    public MeterInfo getMeter(int meterId) {
+        MeterInfo meter = metersById.get(meterId);
+        if (meter == null) {
+            throw new IllegalArgumentException("Invalid meter id");
+        }
+        return meter;
+    }
+
+    public Collection<MeterInfo> getMeters() {
+        return Collections.unmodifiableCollection(metersByName.values());
+    }
+
+    private static int toByteWidth(int bitWidth) {
+        return (bitWidth + 7) / 8;
+    }
+
+    /**
+     * Id and name of a P4 object, taken from its preamble.
+     */
+    public static class EntityInfo {
+        private final int id;
+        private final String name;
+
+        EntityInfo(Preamble preamble) {
+            this.id = preamble.getId();
+            this.name = preamble.getName();
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * A match field or an action parameter, both have an id, a name and a bit width.
+     */
+    public static final class FieldInfo {
+        private final int id;
+        private final String name;
+        private final int bitWidth;
+        private final int byteWidth;
+        private final MatchField.MatchType matchType;
+
+        FieldInfo(int id, String name, int bitWidth, MatchField.MatchType matchType) {
+            this.id = id;
+            this.name = name;
+            this.bitWidth = bitWidth;
+            this.byteWidth = toByteWidth(bitWidth);
+            this.matchType = matchType;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getBitWidth() {
+            return bitWidth;
+        }
+
+        public int getByteWidth() {
+            return byteWidth;
+        }
+
+        /**
+         * Match type of a match field, UNSPECIFIED for action parameters.
+         */
+        public MatchField.MatchType getMatchType() {
+            return matchType;
+        }
+    }
+
+    public static final class TableInfo extends EntityInfo {
+        private final Map<String, FieldInfo> fieldsByName;
+        private final IntObjectMap<FieldInfo> fieldsById;
+        private final List<MatchField> matchFields;
+        private final int[] actionIds;
+
+        TableInfo(Table table) {
+            super(table.getPreamble());
+            matchFields = table.getMatchFieldsList();
+            actionIds = table.getActionRefsList().stream().mapToInt(ActionRef::getId).toArray();
+            fieldsByName = new HashMap<>(matchFields.size() * 2);
+            fieldsById = new IntObjectMap<>(matchFields.size());
+            matchFields.forEach(matchField -> {
+                FieldInfo info = new FieldInfo(matchField.getId(), matchField.getName(),
+                        matchField.getBitwidth(), matchField.getMatchType());
+                fieldsByName.put(info.getName(), info);
+                fieldsById.put(info.getId(), info);
+            });
+        }
+
+        public FieldInfo getMatchField(String matchFieldName) {
+            FieldInfo field = fieldsByName.get(matchFieldName);
+            if (field == null) {
+                throw new IllegalArgumentException("Invalid match field name");
+            }
+            return field;
+        }
+
+        public FieldInfo getMatchField(int matchFieldId) {
+            FieldInfo field = fieldsById.get(matchFieldId);
+            if (field == null) {
+                throw new IllegalArgumentException("Invalid match field id");
+            }
+            return field;
+        }
+
+        public Collection<FieldInfo> getMatchFields() {
+            return Collections.unmodifiableCollection(fieldsByName.values());
+        }
+
+        public int getMatchFieldCount() {
+            return matchFields.size();
+        }
+
+        /**
+         * @return ids of the actions the table may use, empty if the P4Info does not list them.
+         */
+        public int[] getActionIds() {
+            return actionIds.clone();
+        }
+    }
+
+    public static final class ActionInfo extends EntityInfo {
+        private final Map<String, FieldInfo> paramsByName;
+        private final IntObjectMap<FieldInfo> paramsById;
+
+        ActionInfo(Action action) {
+            super(action.getPreamble());
+            List<Action.Param> params = action.getParamsList();
+            paramsByName = new HashMap<>(params.size() * 2);
+            paramsById = new IntObjectMap<>(params.size());
+            params.forEach(param -> {
+                FieldInfo info = new FieldInfo(param.getId(), param.getName(),
+                        param.getBitwidth(), MatchField.MatchType.UNSPECIFIED);
+                paramsByName.put(info.getName(), info);
+                paramsById.put(info.getId(), info);
+            });
+        }
+
+        public FieldInfo getParam(String paramName) {
+            FieldInfo param = paramsByName.get(paramName);
+            if (param == null) {
+                throw new IllegalArgumentException("Invalid param name");
+            }
+            return param;
+        }
+
+        public FieldInfo getParam(int paramId) {
+            FieldInfo param = paramsById.get(paramId);
+            if (param == null) {
+                throw new IllegalArgumentException("Invalid param id");
+            }
+            return param;
+        }
+
+        public Collection<FieldInfo> getParams() {
+            return Collections.unmodifiableCollection(paramsByName.values());
+        }
+
+        public int getParamCount() {
+            return paramsById.size();
+        }
+    }
+
+    /**
+     * A counter array, or a direct counter holding one cell per entry of its table.
+     */
+    public static final class CounterInfo extends EntityInfo {
+        private final CounterSpec.Unit unit;
+        private final long size;
+        private final int directTableId;
+
+        CounterInfo(Preamble preamble, CounterSpec.Unit unit, long size, int directTableId) {
+            super(preamble);
+            this.unit = unit;
+            this.size = size;
+            this.directTableId = directTableId;
+        }
+
+        public CounterSpec.Unit getUnit() {
+            return unit;
+        }
+
+        /**
+         * @return number of cells, 0 for a direct counter.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        public boolean isDirect() {
+            return directTableId != 0;
+        }
+
+        /**
+         * @return id of the table a direct counter is attached to, 0 for a counter array.
+         */
+        public int getDirectTableId() {
+            return directTableId;
+        }
+    }
+
+    /**
+     * A meter array, or a direct meter holding one cell per entry of its table.
+     */
+    public static final class MeterInfo extends EntityInfo {
+        private final MeterSpec spec;
+        private final long size;
+        private final int directTableId;
+
+        MeterInfo(Preamble preamble, MeterSpec spec, long size, int directTableId) {
+            super(preamble);
+            this.spec = spec;
+            this.size = size;
+            this.directTableId = directTableId;
+        }
+
+        public MeterSpec.Unit getUnit() {
+            return spec.getUnit();
+        }
+
+        public MeterSpec.Type getType() {
+            return spec.getType();
+        }
+
+        /**
+         * @return number of cells, 0 for a direct meter.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        public boolean isDirect() {
+            return directTableId != 0;
+        }
+
+        /**
+         * @return id of the table a direct meter is attached to, 0 for a meter array.
+         */
+        public int getDirectTableId() {
+            return directTableId;
+        }
+    }
+
+    /**
+     * A controller packet metadata header, its fields are kept in header layout order.
+     */
+    public static final class PacketMetadataInfo extends EntityInfo {
+        private final Map<String, FieldInfo> metadataByName;
+        private final IntObjectMap<FieldInfo> metadataById;
+        private final List<FieldInfo> metadata;
+
+        PacketMetadataInfo(ControllerPacketMetadata header) {
+            super(header.getPreamble());
+            List<ControllerPacketMetadata.Metadata> fields = header.getMetadataList();
+            metadataByName = new HashMap<>(fields.size() * 2);
+            metadataById = new IntObjectMap<>(fields.size());
+            metadata = new ArrayList<>(fields.size());
+            fields.forEach(field -> {
+                FieldInfo info = new FieldInfo(field.getId(), field.getName(),
+                        field.getBitwidth(), MatchField.MatchType.UNSPECIFIED);
+                metadataByName.put(info.getName(), info);
+                metadataById.put(info.getId(), info);
+                metadata.add(info);
+            });
+        }
+
+        public FieldInfo getMetadata(String metadataName) {
+            FieldInfo field = metadataByName.get(metadataName);
+            if (field == null) {
+                throw new IllegalArgumentException("Invalid packet metadata name");
+            }
+            return field;
+        }
+
+        /**
+         * @return the metadata field, null if the id is unknown.
+         */
+        public FieldInfo findMetadata(int metadataId) {
+            return metadataById.get(metadataId);
+        }
+
+        public List<FieldInfo> getMetadata() {
+            return Collections.unmodifiableList(metadata);
+        }
+    }
+}
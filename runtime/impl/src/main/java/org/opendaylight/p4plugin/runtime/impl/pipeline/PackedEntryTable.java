@@ -0,0 +1,263 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.pipeline;
+
+import org.opendaylight.p4plugin.p4runtime.proto.TableEntry;
+
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * The entries of one table packed back to back in a single slab, one fixed
+ * size record each (see EntryLayout), optionally off heap in a direct
+ * ByteBuffer. An open addressing index of ints over the key region finds a
+ * record; removing a record moves the last one into its place, so the slab
+ * stays dense. Per entry cost is the record, plus 12 bytes of index and hash.
+ *
+ * Not thread safe.
+ */
+public final class PackedEntryTable {
+    private static final int INITIAL_CAPACITY = 16;
+    private final EntryLayout layout;
+    private final int keySize;
+    private final int recordSize;
+    private final boolean isDirect;
+    private final byte[] record;
+    private final byte[] scratch;
+    private ByteBuffer slab;
+    private int capacity;
+    private int size;
+    /* Hash of the key of every record, by slot. */
+    private int[] hashes;
+    /* Slot + 1 of the records, by hash, 0 for a free cell. */
+    private int[] index;
+    private int mask;
+
+    public PackedEntryTable(EntryLayout layout, boolean isDirect) {
+        this.layout = layout;
+        this.keySize = layout.getKeySize();
+        this.recordSize = layout.getRecordSize();
+        this.isDirect = isDirect;
+        this.record = new byte[recordSize];
+        this.scratch = new byte[recordSize];
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int newCapacity) {
+        ByteBuffer newSlab = isDirect ? ByteBuffer.allocateDirect(newCapacity * recordSize)
+                : ByteBuffer.allocate(newCapacity * recordSize);
+        int[] newHashes = new int[newCapacity];
+        if (slab != null) {
+            slab.position(0).limit(size * recordSize);
+            newSlab.put(slab);
+            System.arraycopy(hashes, 0, newHashes, 0, size);
+        }
+        slab = newSlab;
+        hashes = newHashes;
+        capacity = newCapacity;
+        index = new int[newCapacity * 2];
+        mask = index.length - 1;
+        for (int slot = 0; slot < size; slot++) {
+            int cell = hashes[slot] & mask;
+            while (index[cell] != 0) {
+                cell = (cell + 1) & mask;
+            }
+            index[cell] = slot + 1;
+        }
+    }
+
+    private static int hash(byte[] key, int length) {
+        int h = 0x811C9DC5;
+        for (int i = 0; i < length; i++) {
+            h = (h ^ (key[i] & 0xFF)) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    private boolean keyEquals(int slot, byte[] key) {
+        int base = slot * recordSize;
+        for (int i = 0; i < keySize; i++) {
+            if (slab.get(base + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the cell of the key, or ~cell of the free cell it would take.
+     */
+    private int probe(byte[] key, int h) {
+        int cell = h & mask;
+        while (index[cell] != 0) {
+            int slot = index[cell] - 1;
+            if (hashes[slot] == h && keyEquals(slot, key)) {
+                return cell;
+            }
+            cell = (cell + 1) & mask;
+        }
+        return ~cell;
+    }
+
+    private void write(int slot, byte[] bytes) {
+        slab.limit(slab.capacity()).position(slot * recordSize);
+        slab.put(bytes, 0, recordSize);
+    }
+
+    private void read(int slot, byte[] bytes) {
+        slab.limit(slab.capacity()).position(slot * recordSize);
+        slab.get(bytes, 0, recordSize);
+    }
+
+    /**
+     * Insert or replace an entry.
+     * @return false if the entry does not fit the layout or the slab is full.
+     */
+    public boolean put(TableEntry entry) {
+        if (!layout.packKey(entry, record) || !layout.packValue(entry, record)) {
+            return false;
+        }
+        int h = hash(record, keySize);
+        int cell = probe(record, h);
+        if (cell >= 0) {
+            write(index[cell] - 1, record);
+            return true;
+        }
+
+        if (size == capacity) {
+            if ((long) capacity * 2 * recordSize > Integer.MAX_VALUE) {
+                return false;
+            }
+            allocate(capacity * 2);
+            cell = probe(record, h);
+        }
+        write(size, record);
+        hashes[size] = h;
+        index[~cell] = ++size;
+        return true;
+    }
+
+    /**
+     * @return slot of the entry with the same key, -1 if none.
+     */
+    public int find(TableEntry entry) {
+        if (!layout.packKey(entry, record)) {
+            return -1;
+        }
+        int cell = probe(record, hash(record, keySize));
+        return cell >= 0 ? index[cell] - 1 : -1;
+    }
+
+    /**
+     * @return true if the record in the slot holds the same action and metadata as the entry.
+     */
+    public boolean valueEquals(int slot, TableEntry entry) {
+        if (!layout.packValue(entry, record)) {
+            return false;
+        }
+        int base = slot * recordSize;
+        for (int i = keySize; i < recordSize; i++) {
+            if (slab.get(base + i) != record[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public TableEntry get(int slot) {
+        if (slot < 0 || slot >= size) {
+            throw new IndexOutOfBoundsException("Invalid slot " + slot);
+        }
+        read(slot, scratch);
+        return layout.unpack(scratch);
+    }
+
+    /**
+     * Remove the entry with the same key, the last record takes its slot.
+     * @return false if there is none.
+     */
+    public boolean remove(TableEntry entry) {
+        if (!layout.packKey(entry, record)) {
+            return false;
+        }
+        int cell = probe(record, hash(record, keySize));
+        if (cell < 0) {
+            return false;
+        }
+        int slot = index[cell] - 1;
+        deleteCell(cell);
+        int last = --size;
+        if (slot != last) {
+            read(last, scratch);
+            write(slot, scratch);
+            hashes[slot] = hashes[last];
+            int moved = hashes[slot] & mask;
+            while (index[moved] != last + 1) {
+                moved = (moved + 1) & mask;
+            }
+            index[moved] = slot + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Free a cell, shifting back the cells of the same probe run so every
+     * key stays reachable from its home cell.
+     */
+    private void deleteCell(int cell) {
+        int free = cell;
+        int next = cell;
+        while (true) {
+            next = (next + 1) & mask;
+            if (index[next] == 0) {
+                break;
+            }
+            int home = hashes[index[next] - 1] & mask;
+            boolean isReachable = free <= next ? (free < home && home <= next) : (free < home || home <= next);
+            if (!isReachable) {
+                index[free] = index[next];
+                free = next;
+            }
+        }
+        index[free] = 0;
+    }
+
+    public void forEach(Consumer<TableEntry> consumer) {
+        for (int slot = 0; slot < size; slot++) {
+            consumer.accept(get(slot));
+        }
+    }
+
+    public EntryLayout getLayout() {
+        return layout;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isDirect() {
+        return isDirect;
+    }
+
+    /**
+     * @return bytes held by the slab, the index and the hashes.
+     */
+    public long getMemoryBytes() {
+        return (long) slab.capacity() + 4L * index.length + 4L * hashes.length;
+    }
+
+    public void clear() {
+        size = 0;
+        slab = null;
+        allocate(INITIAL_CAPACITY);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.pipeline;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import org.opendaylight.p4plugin.p4runtime.proto.PacketIn;
+import org.opendaylight.p4plugin.p4runtime.proto.PacketMetadata;
+import org.opendaylight.p4plugin.p4runtime.proto.PacketOut;
+import org.opendaylight.p4plugin.runtime.impl.utils.ValueEncoder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.packet.rev170808.packet.metadata.Metadata;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.packet.rev170808.packet.metadata.MetadataBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.types.rev170808.Value;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Encodes packet-outs and decodes packet-ins with the controller packet
+ * metadata headers of a P4Info. Built once per pipeline, metadata name and
+ * id lookups are O(1).
+ */
+public final class PacketMetadataCodec {
+    public static final String PACKET_OUT = "packet_out";
+    public static final String PACKET_IN = "packet_in";
+    private final P4InfoCatalog.PacketMetadataInfo packetOut;
+    private final P4InfoCatalog.PacketMetadataInfo packetIn;
+
+    private PacketMetadataCodec(P4InfoCatalog catalog) {
+        this.packetOut = catalog.hasPacketMetadata(PACKET_OUT) ? catalog.getPacketMetadata(PACKET_OUT) : null;
+        this.packetIn = catalog.hasPacketMetadata(PACKET_IN) ? catalog.getPacketMetadata(PACKET_IN) : null;
+    }
+
+    public static PacketMetadataCodec compile(P4InfoCatalog catalog) {
+        return new PacketMetadataCodec(catalog);
+    }
+
+    /**
+     * Build a packet-out. The payload array is wrapped, not copied, the
+     * caller must not modify it afterwards.
+     */
+    public PacketOut toProtoPacket(byte[] payload, List<Metadata> metadata) {
+        PacketOut.Builder builder = PacketOut.newBuilder();
+        if (payload != null) {
+            builder.setPayload(UnsafeByteOperations.unsafeWrap(payload));
+        }
+        if (metadata != null && !metadata.isEmpty()) {
+            if (packetOut == null) {
+                throw new IllegalArgumentException("Pipeline has no packet_out controller header");
+            }
+            for (Metadata field : metadata) {
+                P4InfoCatalog.FieldInfo info = packetOut.getMetadata(field.getMetadataName());
+                if (field.getMetadataValue() == null) {
+                    throw new IllegalArgumentException("Packet metadata value is null");
+                }
+                ByteString value = ValueEncoder.encode(field.getMetadataValue().getValue(), info.getByteWidth());
+                builder.addMetadata(PacketMetadata.newBuilder().setMetadataId(info.getId()).setValue(value));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Get a packet_in metadata field by name.
+     */
+    public P4InfoCatalog.FieldInfo getPacketInMetadata(String metadataName) {
+        if (packetIn == null) {
+            throw new IllegalArgumentException("Pipeline has no packet_in controller header");
+        }
+        return packetIn.getMetadata(metadataName);
+    }
+
+    /**
+     * Get the raw value of a packet_in metadata field.
+     * @return the value, null if the packet does not carry the field.
+     */
+    public static ByteString getMetadataValue(PacketIn packet, int metadataId) {
+        for (int i = 0; i < packet.getMetadataCount(); i++) {
+            PacketMetadata metadata = packet.getMetadata(i);
+            if (metadata.getMetadataId() == metadataId) {
+                return metadata.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decode the metadata of a packet-in into named hexadecimal values, fields
+     * with an id unknown to the P4Info are skipped.
+     */
+    public List<Metadata> toYangMetadata(PacketIn packet) {
+        if (packetIn == null || packet.getMetadataCount() == 0) {
+            return Collections.emptyList();
+        }
+        List<Metadata> result = new ArrayList<>(packet.getMetadataCount());
+        for (PacketMetadata metadata : packet.getMetadataList()) {
+            P4InfoCatalog.FieldInfo info = packetIn.findMetadata(metadata.getMetadataId());
+            if (info != null) {
+                result.add(new MetadataBuilder()
+                        .setMetadataName(info.getName())
+                        .setMetadataValue(new Value(ValueEncoder.toHexString(metadata.getValue())))
+                        .build());
+            }
+        }
+        return result;
+    }
+}
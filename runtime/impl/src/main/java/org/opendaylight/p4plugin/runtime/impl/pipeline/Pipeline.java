@@ -0,0 +1,48 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.pipeline;
+
+import com.google.protobuf.ByteString;
+import org.opendaylight.p4plugin.p4info.proto.P4Info;
+
+/**
+ * A compiled P4 program: the runtime info, its index and the device config.
+ * Immutable, one instance is shared by every device running the program.
+ */
+public final class Pipeline {
+    private final String key;
+    private final P4Info runtimeInfo;
+    private final P4InfoCatalog catalog;
+    private final ByteString deviceConfig;
+
+    Pipeline(String key, P4Info runtimeInfo, ByteString deviceConfig) {
+        this.key = key;
+        this.runtimeInfo = runtimeInfo;
+        this.catalog = P4InfoCatalog.of(runtimeInfo);
+        this.deviceConfig = deviceConfig;
+    }
+
+    /**
+     * @return hash of the runtime and config file contents.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    public P4Info getRuntimeInfo() {
+        return runtimeInfo;
+    }
+
+    public P4InfoCatalog getCatalog() {
+        return catalog;
+    }
+
+    public ByteString getDeviceConfig() {
+        return deviceConfig;
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.pipeline;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.TextFormat;
+import com.google.protobuf.UnsafeByteOperations;
+import org.opendaylight.p4plugin.p4info.proto.P4Info;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pipelines keyed by the SHA-256 of their runtime and config file contents.
+ * Each distinct pair of files is parsed once; the result is shared by every
+ * device in memory and stored in binary form in a cache directory, where a
+ * later load, e.g. after a controller restart, maps it instead of parsing
+ * the text runtime file again.
+ *
+ * The cache directory is set by the p4plugin.pipeline.cache.dir system
+ * property, by default p4plugin/pipeline-cache under the Karaf data directory.
+ */
+public final class PipelineCache {
+    private static final Logger LOG = LoggerFactory.getLogger(PipelineCache.class);
+    public static final String DIRECTORY_PROPERTY = "p4plugin.pipeline.cache.dir";
+    private static final int MAGIC = 0x50345043;
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".pipeline";
+    private static final PipelineCache singleton = new PipelineCache(defaultDirectory());
+    private final Path directory;
+    private final ConcurrentHashMap<String, Pipeline> pipelines = new ConcurrentHashMap<>();
+    /* Content hash of the files already read, as long as they are unchanged. */
+    private final ConcurrentHashMap<FileStamp, String> hashes = new ConcurrentHashMap<>();
+    private final AtomicLong parsedCount = new AtomicLong();
+    private final AtomicLong mappedCount = new AtomicLong();
+
+    public PipelineCache(Path directory) {
+        this.directory = Objects.requireNonNull(directory);
+    }
+
+    public static PipelineCache getInstance() {
+        return singleton;
+    }
+
+    private static Path defaultDirectory() {
+        String directory = System.getProperty(DIRECTORY_PROPERTY);
+        if (directory != null) {
+            return Paths.get(directory);
+        }
+        String base = System.getProperty("karaf.data", System.getProperty("java.io.tmpdir"));
+        return Paths.get(base, "p4plugin", "pipeline-cache");
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Get the pipeline of a runtime file and a config file, the same
+     * instance for files with the same contents.
+     * @param runtimeFile text P4Info file generated by the compiler.
+     * @param configFile device config file generated by the compiler.
+     * @throws IOException if a file cannot be read or the runtime file cannot be parsed.
+     */
+    public Pipeline load(String runtimeFile, String configFile) throws IOException {
+        if (runtimeFile == null || configFile == null) {
+            throw new NullPointerException("Runtime file or config file is null.");
+        }
+        Path runtimePath = Paths.get(runtimeFile);
+        Path configPath = Paths.get(configFile);
+        FileStamp runtimeStamp = FileStamp.of(runtimePath);
+        FileStamp configStamp = FileStamp.of(configPath);
+        String runtimeHash = hashes.get(runtimeStamp);
+        String configHash = hashes.get(configStamp);
+        if (runtimeHash != null && configHash != null) {
+            Pipeline pipeline = pipelines.get(runtimeHash + "-" + configHash);
+            if (pipeline != null) {
+                return pipeline;
+            }
+        }
+
+        byte[] runtime = Files.readAllBytes(runtimePath);
+        byte[] config = Files.readAllBytes(configPath);
+        runtimeHash = sha256(runtime);
+        configHash = sha256(config);
+        hashes.put(runtimeStamp, runtimeHash);
+        hashes.put(configStamp, configHash);
+        try {
+            return pipelines.computeIfAbsent(runtimeHash + "-" + configHash, key -> {
+                try {
+                    return create(key, runtime, config);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Pipeline create(String key, byte[] runtime, byte[] config) throws IOException {
+        Path file = directory.resolve(key + SUFFIX);
+        if (Files.isRegularFile(file)) {
+            try {
+                Pipeline pipeline = map(key, file);
+                mappedCount.incrementAndGet();
+                return pipeline;
+            } catch (IOException e) {
+                LOG.info("Discard pipeline cache file {}, {}.", file, e.getMessage());
+                Files.deleteIfExists(file);
+            }
+        }
+
+        P4Info.Builder runtimeInfo = P4Info.newBuilder();
+        TextFormat.merge(new String(runtime, StandardCharsets.UTF_8), runtimeInfo);
+        Pipeline pipeline = new Pipeline(key, runtimeInfo.build(), UnsafeByteOperations.unsafeWrap(config));
+        parsedCount.incrementAndGet();
+        try {
+            store(file, pipeline);
+        } catch (IOException e) {
+            LOG.info("Cannot write pipeline cache file {}, {}.", file, e.getMessage());
+        }
+        return pipeline;
+    }
+
+    /**
+     * Write to a temporary file then rename, so a reader never sees a partial file.
+     */
+    private void store(Path file, Pipeline pipeline) throws IOException {
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, pipeline.getKey(), ".tmp");
+        try {
+            try (OutputStream stream = Files.newOutputStream(temp);
+                 DataOutputStream output = new DataOutputStream(stream)) {
+                byte[] runtimeInfo = pipeline.getRuntimeInfo().toByteArray();
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeInt(runtimeInfo.length);
+                output.write(runtimeInfo);
+                output.writeInt(pipeline.getDeviceConfig().size());
+                pipeline.getDeviceConfig().writeTo(output);
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Map a cache file, the device config stays backed by the mapping.
+     */
+    private static Pipeline map(String key, Path file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.remaining() < 12 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Unknown format");
+        }
+        P4Info runtimeInfo = P4Info.parseFrom(slice(buffer));
+        ByteString config = UnsafeByteOperations.unsafeWrap(slice(buffer));
+        if (buffer.hasRemaining()) {
+            throw new IOException("Trailing bytes");
+        }
+        return new Pipeline(key, runtimeInfo, config);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer) throws IOException {
+        int length = buffer.remaining() < 4 ? -1 : buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Truncated");
+        }
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length);
+        buffer.position(buffer.position() + length);
+        return slice.asReadOnlyBuffer();
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            StringBuilder builder = new StringBuilder(64);
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(content)) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return number of pipelines parsed from the text runtime file.
+     */
+    public long getParsedCount() {
+        return parsedCount.get();
+    }
+
+    /**
+     * @return number of pipelines mapped from the cache directory.
+     */
+    public long getMappedCount() {
+        return mappedCount.get();
+    }
+
+    public int size() {
+        return pipelines.size();
+    }
+
+    /**
+     * Forget the pipelines held in memory, the cache files are kept.
+     */
+    public void clear() {
+        pipelines.clear();
+        hashes.clear();
+    }
+
+    private static final class FileStamp {
+        private final Path path;
+        private final long size;
+        private final long lastModified;
+
+        private FileStamp(Path path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        static FileStamp of(Path path) throws IOException {
+            Path absolute = path.toAbsolutePath().normalize();
+            return new FileStamp(absolute, Files.size(absolute), Files.getLastModifiedTime(absolute).toMillis());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof FileStamp)) {
+                return false;
+            }
+            FileStamp stamp = (FileStamp) o;
+            return size == stamp.size && lastModified == stamp.lastModified && path.equals(stamp.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, size, lastModified);
+        }
+    }
+}
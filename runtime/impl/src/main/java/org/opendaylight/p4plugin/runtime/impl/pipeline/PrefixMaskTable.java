@@ -0,0 +1,104 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.pipeline;
+
+import com.google.protobuf.ByteString;
+import org.opendaylight.p4plugin.p4info.proto.MatchField;
+import org.opendaylight.p4plugin.runtime.impl.utils.IntObjectMap;
+import org.opendaylight.p4plugin.runtime.impl.utils.ValueEncoder;
+
+import java.util.Collection;
+
+/**
+ * Immutable prefix masks of every LPM and ternary match field bit width of a
+ * P4Info, built once with the catalog. A mask is as wide as the byte padded
+ * field and its prefix starts at the most significant bit of the field, not of
+ * the padding, e.g. a 9-bit field with prefix 3 has mask 0x01 0xC0.
+ */
+public final class PrefixMaskTable {
+    private final IntObjectMap<ByteString[]> masks;
+
+    private PrefixMaskTable(IntObjectMap<ByteString[]> masks) {
+        this.masks = masks;
+    }
+
+    /**
+     * Precompute the masks of all LPM and ternary fields of the given tables.
+     */
+    static PrefixMaskTable of(Collection<P4InfoCatalog.TableInfo> tables) {
+        IntObjectMap<ByteString[]> masks = new IntObjectMap<>();
+        tables.forEach(table -> table.getMatchFields().forEach(field -> {
+            MatchField.MatchType matchType = field.getMatchType();
+            if ((matchType == MatchField.MatchType.LPM || matchType == MatchField.MatchType.TERNARY)
+                    && !masks.containsKey(field.getBitWidth())) {
+                masks.put(field.getBitWidth(), createMasks(field.getBitWidth()));
+            }
+        }));
+        return new PrefixMaskTable(masks);
+    }
+
+    private static ByteString[] createMasks(int bitWidth) {
+        int byteWidth = (bitWidth + 7) / 8;
+        int padding = byteWidth * 8 - bitWidth;
+        ByteString[] result = new ByteString[bitWidth + 1];
+        byte[] mask = new byte[byteWidth];
+        result[0] = ByteString.copyFrom(mask);
+        for (int prefixLen = 1; prefixLen <= bitWidth; prefixLen++) {
+            int bit = padding + prefixLen - 1;
+            mask[bit / 8] |= 0x80 >>> (bit % 8);
+            result[prefixLen] = ByteString.copyFrom(mask);
+        }
+        return result;
+    }
+
+    /**
+     * Get the mask of a prefix.
+     * @param bitWidth bit width of the match field.
+     * @param prefixLen prefix length, 0 to bitWidth.
+     * @return mask, (bitWidth + 7) / 8 bytes long.
+     */
+    public ByteString getMask(int bitWidth, int prefixLen) {
+        if (prefixLen < 0 || prefixLen > bitWidth) {
+            throw new IllegalArgumentException(
+                    String.format("Prefix length %d exceeds the field width of %d bits.", prefixLen, bitWidth));
+        }
+
+        ByteString[] result = masks.get(bitWidth);
+        if (result == null) {
+            throw new IllegalArgumentException(
+                    String.format("No LPM or ternary field is %d bits wide.", bitWidth));
+        }
+        return result[prefixLen];
+    }
+
+    /**
+     * Encode a value and zero the bits outside of the prefix, so the target
+     * never rejects an LPM or ternary entry because of non-zero host bits.
+     * @param str value string.
+     * @param bitWidth bit width of the match field.
+     * @param prefixLen prefix length, 0 to bitWidth.
+     * @return canonical value, (bitWidth + 7) / 8 bytes long.
+     */
+    public ByteString encode(String str, int bitWidth, int prefixLen) {
+        ByteString mask = getMask(bitWidth, prefixLen);
+        int byteWidth = mask.size();
+        byte[] buffer = ValueEncoder.getScratch(byteWidth);
+        ValueEncoder.encode(str, buffer, 0, byteWidth);
+
+        int padding = byteWidth * 8 - bitWidth;
+        if (padding > 0 && (buffer[0] & (0xFF << (8 - padding))) != 0) {
+            throw new IllegalArgumentException(
+                    String.format("Value %s exceeds the field width of %d bits.", str, bitWidth));
+        }
+
+        for (int i = 0; i < byteWidth; i++) {
+            buffer[i] &= mask.byteAt(i);
+        }
+        return ByteString.copyFrom(buffer, 0, byteWidth);
+    }
+}
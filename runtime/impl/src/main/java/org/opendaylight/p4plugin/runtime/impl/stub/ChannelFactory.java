@@ -0,0 +1,227 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.stub;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.netty.NettyChannelBuilder;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Creates the gRPC channels of all runtime stubs. Every channel shares one
+ * bounded Netty event loop group and one callback executor, so the thread
+ * count does not grow with the number of devices. Devices hosted by the same
+ * gRPC server (same ip:port, different device ids) share one channel, which
+ * is shut down when the last of them releases it.
+ *
+ * By default a plaintext Netty channel to ip:port, tests replace the builder
+ * to reach in-process servers.
+ */
+public class ChannelFactory {
+    private static final Logger LOG = LoggerFactory.getLogger(ChannelFactory.class);
+    private static final ChannelFactory singleton = new ChannelFactory();
+    public static final int DEFAULT_EVENT_LOOP_THREADS = 4;
+    public static final int DEFAULT_CALLBACK_THREADS = 8;
+    public static final long DEFAULT_KEEPALIVE_TIME_MS = 30000;
+    public static final long DEFAULT_KEEPALIVE_TIMEOUT_MS = 10000;
+    /* Large enough for pipeline configs and paged reads. */
+    public static final int DEFAULT_MAX_INBOUND_MESSAGE_SIZE = 64 * 1024 * 1024;
+    public static final int DEFAULT_FLOW_CONTROL_WINDOW = 1024 * 1024;
+    private final BiFunction<String, Integer, ManagedChannelBuilder<?>> defaultBuilder = this::newNettyChannelBuilder;
+    private volatile BiFunction<String, Integer, ManagedChannelBuilder<?>> channelBuilder = defaultBuilder;
+    private final Map<String, SharedChannel> channels = new HashMap<>();
+    private final Map<ManagedChannel, SharedChannel> owners = new IdentityHashMap<>();
+    private int eventLoopThreads = DEFAULT_EVENT_LOOP_THREADS;
+    private int callbackThreads = DEFAULT_CALLBACK_THREADS;
+    private volatile long keepAliveTimeMs = DEFAULT_KEEPALIVE_TIME_MS;
+    private volatile long keepAliveTimeoutMs = DEFAULT_KEEPALIVE_TIMEOUT_MS;
+    private volatile int maxInboundMessageSize = DEFAULT_MAX_INBOUND_MESSAGE_SIZE;
+    private volatile int flowControlWindow = DEFAULT_FLOW_CONTROL_WINDOW;
+    private EventLoopGroup eventLoopGroup;
+    private ExecutorService callbackExecutor;
+
+    private ChannelFactory() {}
+
+    public static ChannelFactory getInstance() {
+        return singleton;
+    }
+
+    private static String keyOf(String ip, Integer port) {
+        return ip + ":" + port;
+    }
+
+    private synchronized EventLoopGroup eventLoopGroup() {
+        if (eventLoopGroup == null) {
+            eventLoopGroup = new NioEventLoopGroup(eventLoopThreads, new ThreadFactoryBuilder()
+                    .setNameFormat("p4plugin-grpc-event-loop-%d").setDaemon(true).build());
+        }
+        return eventLoopGroup;
+    }
+
+    private synchronized ExecutorService callbackExecutor() {
+        if (callbackExecutor == null) {
+            callbackExecutor = Executors.newFixedThreadPool(callbackThreads, new ThreadFactoryBuilder()
+                    .setNameFormat("p4plugin-grpc-callback-%d").setDaemon(true).build());
+        }
+        return callbackExecutor;
+    }
+
+    private ManagedChannelBuilder<?> newNettyChannelBuilder(String ip, Integer port) {
+        NettyChannelBuilder builder = NettyChannelBuilder.forAddress(ip, port)
+                .usePlaintext(true)
+                .eventLoopGroup(eventLoopGroup())
+                .channelType(NioSocketChannel.class)
+                .flowControlWindow(flowControlWindow);
+        if (keepAliveTimeMs > 0) {
+            builder.keepAliveTime(keepAliveTimeMs, TimeUnit.MILLISECONDS)
+                   .keepAliveTimeout(keepAliveTimeoutMs, TimeUnit.MILLISECONDS);
+        }
+        return builder;
+    }
+
+    /**
+     * A builder with the shared executor and the inbound message size set,
+     * for a channel that is not shared.
+     */
+    public ManagedChannelBuilder<?> newChannelBuilder(String ip, Integer port) {
+        return channelBuilder.apply(ip, port)
+                .executor(callbackExecutor())
+                .maxInboundMessageSize(maxInboundMessageSize);
+    }
+
+    /**
+     * Get the channel to ip:port, opening it if no device uses it yet.
+     * Every acquire must be paired with a release.
+     */
+    public synchronized ManagedChannel acquire(String ip, Integer port) {
+        String key = keyOf(ip, port);
+        SharedChannel shared = channels.get(key);
+        if (shared == null || shared.channel.isShutdown()) {
+            shared = new SharedChannel(key, newChannelBuilder(ip, port).build());
+            channels.put(key, shared);
+            owners.put(shared.channel, shared);
+            LOG.info("Channel to {} opened.", key);
+        }
+        shared.references++;
+        return shared.channel;
+    }
+
+    /**
+     * Give back an acquired channel, it is shut down with its last user.
+     * A channel that was not acquired here is shut down at once.
+     */
+    public synchronized void release(ManagedChannel channel) {
+        SharedChannel shared = owners.get(channel);
+        if (shared == null) {
+            channel.shutdown();
+            return;
+        }
+        if (--shared.references == 0) {
+            owners.remove(channel);
+            channels.remove(shared.key, shared);
+            channel.shutdown();
+            LOG.info("Channel to {} closed.", shared.key);
+        }
+    }
+
+    /**
+     * Number of devices sharing the channel to ip:port.
+     */
+    public synchronized int getReferenceCount(String ip, Integer port) {
+        SharedChannel shared = channels.get(keyOf(ip, port));
+        return shared == null ? 0 : shared.references;
+    }
+
+    /**
+     * Replace the channel builder, null restores the default.
+     */
+    public void setChannelBuilder(BiFunction<String, Integer, ManagedChannelBuilder<?>> channelBuilder) {
+        this.channelBuilder = channelBuilder == null ? defaultBuilder : channelBuilder;
+    }
+
+    /**
+     * Keepalive pings of the channels opened from now on.
+     * @param timeMs interval between pings, 0 to disable keepalive.
+     * @param timeoutMs time to wait for the ack before closing the connection.
+     */
+    public void setKeepAlive(long timeMs, long timeoutMs) {
+        if (timeMs < 0 || timeoutMs <= 0) {
+            throw new IllegalArgumentException("Invalid keepalive.");
+        }
+        this.keepAliveTimeMs = timeMs;
+        this.keepAliveTimeoutMs = timeoutMs;
+    }
+
+    public void setMaxInboundMessageSize(int maxInboundMessageSize) {
+        if (maxInboundMessageSize <= 0) {
+            throw new IllegalArgumentException("Max inbound message size must be positive.");
+        }
+        this.maxInboundMessageSize = maxInboundMessageSize;
+    }
+
+    public void setFlowControlWindow(int flowControlWindow) {
+        if (flowControlWindow <= 0) {
+            throw new IllegalArgumentException("Flow control window must be positive.");
+        }
+        this.flowControlWindow = flowControlWindow;
+    }
+
+    /**
+     * Threads shared by all channels, only effective before the first
+     * channel is opened or after shutdown.
+     */
+    public synchronized void setThreads(int eventLoopThreads, int callbackThreads) {
+        if (eventLoopThreads <= 0 || callbackThreads <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive.");
+        }
+        this.eventLoopThreads = eventLoopThreads;
+        this.callbackThreads = callbackThreads;
+    }
+
+    /**
+     * Release the shared threads, channels still open are shut down.
+     */
+    public synchronized void shutdown() {
+        owners.keySet().forEach(ManagedChannel::shutdown);
+        owners.clear();
+        channels.clear();
+        if (eventLoopGroup != null) {
+            eventLoopGroup.shutdownGracefully();
+            eventLoopGroup = null;
+        }
+        if (callbackExecutor != null) {
+            callbackExecutor.shutdown();
+            callbackExecutor = null;
+        }
+        LOG.info("Channel factory shut down.");
+    }
+
+    private static final class SharedChannel {
+        private final String key;
+        private final ManagedChannel channel;
+        private int references;
+
+        private SharedChannel(String key, ManagedChannel channel) {
+            this.key = key;
+            this.channel = channel;
+        }
+    }
+}
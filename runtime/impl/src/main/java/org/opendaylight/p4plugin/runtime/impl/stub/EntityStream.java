@@ -0,0 +1,94 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.stub;
+
+import io.grpc.Context;
+import io.grpc.StatusRuntimeException;
+import org.opendaylight.p4plugin.p4runtime.proto.Entity;
+import org.opendaylight.p4plugin.p4runtime.proto.P4RuntimeGrpc;
+import org.opendaylight.p4plugin.p4runtime.proto.ReadRequest;
+import org.opendaylight.p4plugin.p4runtime.proto.ReadResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazy iterator over the entities of a Read RPC. ReadResponses are pulled
+ * from the server stream only when the entities of the previous one have been
+ * consumed, so a table of any size is read with one response in memory. The
+ * stream must be closed when it is abandoned before the end, which cancels
+ * the RPC on the target; it closes itself when the last entity is consumed.
+ */
+public class EntityStream implements Iterator<Entity>, AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(EntityStream.class);
+    private final Context.CancellableContext context;
+    private final Iterator<ReadResponse> responses;
+    private Iterator<Entity> entities = Collections.emptyIterator();
+    private boolean isCompleted;
+    private boolean isClosed;
+
+    EntityStream(P4RuntimeGrpc.P4RuntimeBlockingStub blockingStub, ReadRequest request) {
+        this.context = Context.current().withCancellation();
+        Context previous = context.attach();
+        try {
+            this.responses = blockingStub.read(request);
+        } finally {
+            context.detach(previous);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!entities.hasNext()) {
+            if (isClosed || isCompleted) {
+                close();
+                return false;
+            }
+
+            try {
+                if (!responses.hasNext()) {
+                    close();
+                    return false;
+                }
+                ReadResponse response = responses.next();
+                entities = response.getEntitiesList().iterator();
+                isCompleted = response.getComplete();
+            } catch (StatusRuntimeException e) {
+                LOG.info(String.format("Read RPC exception, Status = %s, Reason = %s",
+                        e.getStatus(), e.getMessage()));
+                close();
+                throw new RuntimeException(e);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Entity next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return entities.next();
+    }
+
+    public boolean isClosed() {
+        return isClosed;
+    }
+
+    @Override
+    public void close() {
+        if (!isClosed) {
+            isClosed = true;
+            entities = Collections.emptyIterator();
+            context.cancel(null);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.stub;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.stub.ClientCallStreamObserver;
+import org.opendaylight.p4plugin.p4runtime.proto.PacketOut;
+import org.opendaylight.p4plugin.p4runtime.proto.StreamMessageRequest;
+import org.opendaylight.p4plugin.runtime.impl.utils.TokenBucket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packet-outs of one device on its stream channel. Packets wait in a bounded
+ * queue and are written to the stream only while the transport is ready and
+ * the token bucket of the device has tokens; the queue is drained again from
+ * the on-ready callback of the stream or, when rate limited, from a timer.
+ * A packet that does not fit in the queue is dropped and counted.
+ *
+ * All messages of the stream, arbitration included, go through this class,
+ * so the stream observer is never called by two threads at the same time.
+ */
+public class PacketOutPipeline {
+    private static final Logger LOG = LoggerFactory.getLogger(PacketOutPipeline.class);
+    public static final int DEFAULT_MAX_PENDING = 4096;
+    private static final ScheduledExecutorService DRAIN_TIMER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("p4plugin-packet-out-timer").setDaemon(true).build());
+    private final String nodeId;
+    private final int maxPending;
+    private final Queue<PendingPacket> pending = new ArrayDeque<>();
+    private volatile TokenBucket rateLimiter = TokenBucket.unlimited();
+    private ClientCallStreamObserver<StreamMessageRequest> stream;
+    private boolean isDrainScheduled;
+    private long sentCount;
+    private long droppedCount;
+
+    public PacketOutPipeline(String nodeId, int maxPending) {
+        if (maxPending <= 0) {
+            throw new IllegalArgumentException("Max pending packets must be positive.");
+        }
+        this.nodeId = nodeId;
+        this.maxPending = maxPending;
+    }
+
+    public void setRateLimiter(TokenBucket rateLimiter) {
+        this.rateLimiter = rateLimiter == null ? TokenBucket.unlimited() : rateLimiter;
+    }
+
+    /**
+     * Start sending on a new stream.
+     */
+    public void attach(ClientCallStreamObserver<StreamMessageRequest> stream) {
+        synchronized (this) {
+            this.stream = stream;
+        }
+        drain();
+    }
+
+    /**
+     * The stream is gone, every queued packet is dropped.
+     */
+    public void detach() {
+        List<Batch> done = new ArrayList<>();
+        synchronized (this) {
+            stream = null;
+            PendingPacket packet;
+            while ((packet = pending.poll()) != null) {
+                droppedCount++;
+                if (packet.batch.onDropped()) {
+                    done.add(packet.batch);
+                }
+            }
+        }
+        done.forEach(Batch::complete);
+    }
+
+    public synchronized boolean isAttached() {
+        return stream != null;
+    }
+
+    /**
+     * Send a control message ahead of the queued packets, ignoring the rate limit.
+     * @return false if there is no stream.
+     */
+    public synchronized boolean send(StreamMessageRequest request) {
+        if (stream == null) {
+            return false;
+        }
+        stream.onNext(request);
+        return true;
+    }
+
+    /**
+     * Queue packets for transmission.
+     * @return future of the number of packets written to the stream, the
+     *         others were dropped because the queue was full or the stream closed.
+     */
+    public ListenableFuture<Integer> transmit(List<PacketOut> packets) {
+        Batch batch = new Batch(packets.size());
+        boolean isDone = false;
+        synchronized (this) {
+            if (stream == null) {
+                throw new IllegalStateException(String.format("Stream channel of device = %s is not open.", nodeId));
+            }
+            for (PacketOut packet : packets) {
+                if (pending.size() >= maxPending) {
+                    droppedCount++;
+                    isDone = batch.onDropped();
+                } else {
+                    pending.add(new PendingPacket(packet, batch));
+                }
+            }
+        }
+
+        if (isDone || packets.isEmpty()) {
+            batch.complete();
+        }
+        drain();
+        return batch.result;
+    }
+
+    /**
+     * Write as many queued packets as the transport and the rate limiter allow.
+     */
+    void drain() {
+        List<Batch> done = new ArrayList<>();
+        long delay = 0;
+        synchronized (this) {
+            TokenBucket limiter = rateLimiter;
+            while (stream != null && !pending.isEmpty() && stream.isReady()) {
+                if (!limiter.tryAcquire()) {
+                    delay = Math.max(1, limiter.nanosToNextToken());
+                    break;
+                }
+                PendingPacket packet = pending.poll();
+                stream.onNext(StreamMessageRequest.newBuilder().setPacket(packet.packet).build());
+                sentCount++;
+                if (packet.batch.onSent()) {
+                    done.add(packet.batch);
+                }
+            }
+
+            if (delay > 0 && !isDrainScheduled) {
+                isDrainScheduled = true;
+            } else {
+                delay = 0;
+            }
+        }
+
+        done.forEach(Batch::complete);
+        if (delay > 0) {
+            LOG.debug("Packet-out of device = {} rate limited, next drain in {} ns.", nodeId, delay);
+            DRAIN_TIMER.schedule(() -> {
+                synchronized (this) {
+                    isDrainScheduled = false;
+                }
+                drain();
+            }, delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public synchronized int getPending() {
+        return pending.size();
+    }
+
+    public synchronized long getSentCount() {
+        return sentCount;
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    private static class PendingPacket {
+        private final PacketOut packet;
+        private final Batch batch;
+
+        PendingPacket(PacketOut packet, Batch batch) {
+            this.packet = packet;
+            this.batch = batch;
+        }
+    }
+
+    /**
+     * Packets of one transmit call, only updated under the pipeline lock.
+     */
+    private final class Batch {
+        private final SettableFuture<Integer> result = SettableFuture.create();
+        private int remaining;
+        private int sent;
+
+        Batch(int size) {
+            this.remaining = size;
+        }
+
+        boolean onSent() {
+            sent++;
+            return --remaining == 0;
+        }
+
+        boolean onDropped() {
+            return --remaining == 0;
+        }
+
+        void complete() {
+            int count;
+            synchronized (PacketOutPipeline.this) {
+                count = sent;
+            }
+            result.set(count);
+        }
+    }
+}
@@ -7,45 +7,93 @@
  */
 package org.opendaylight.p4plugin.runtime.impl.stub;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.ByteString;
 import io.grpc.*;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import io.grpc.stub.StreamObserver;
 import org.opendaylight.p4plugin.p4runtime.proto.*;
 import org.opendaylight.p4plugin.runtime.impl.cluster.ElectionId;
 import org.opendaylight.p4plugin.runtime.impl.cluster.ElectionIdGenerator;
 import org.opendaylight.p4plugin.runtime.impl.cluster.ElectionIdObserver;
-import org.opendaylight.p4plugin.runtime.impl.utils.NotificationPublisher;
+import org.opendaylight.p4plugin.runtime.impl.cluster.Mastership;
+import org.opendaylight.p4plugin.runtime.impl.packet.PacketInDispatcher;
+import org.opendaylight.p4plugin.runtime.impl.packet.PacketInRing;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.PacketMetadataCodec;
+import org.opendaylight.p4plugin.runtime.impl.utils.TokenBucket;
 import org.opendaylight.p4plugin.runtime.impl.utils.Utils;
-import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.packet.rev170808.P4PacketReceivedBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 public class RuntimeStub implements ElectionIdObserver {
     private static final Logger LOG = LoggerFactory.getLogger(RuntimeStub.class);
+    public static final long DEFAULT_CONNECT_TIMEOUT_MS = 5000;
+    private static final ScheduledExecutorService CONNECT_TIMER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("p4plugin-connect-timer").setDaemon(true).build());
     private ManagedChannel channel;
     private P4RuntimeGrpc.P4RuntimeBlockingStub blockingStub;
     private P4RuntimeGrpc.P4RuntimeStub asyncStub;
+    private P4RuntimeGrpc.P4RuntimeFutureStub futureStub;
     private String nodeId;
     private Long deviceId;
-    private StreamObserver<StreamMessageRequest> requestStreamObserver;
-    private ElectionId electionId;
+    private volatile StreamObserver<StreamMessageRequest> requestStreamObserver;
+    private volatile Runnable onStreamLost;
+    private volatile boolean isShutdown;
+    private volatile ElectionId electionId;
+    /* Arbitrations sent and not answered yet, by election id. */
+    private final Map<ElectionId, SettableFuture<Void>> pendingArbitrations = new ConcurrentHashMap<>();
+    private volatile Mastership mastership = Mastership.UNKNOWN;
+    private volatile Consumer<Mastership> onMastershipChanged;
+    private WritePipeline writePipeline;
+    private PacketInRing packetInRing;
+    private PacketOutPipeline packetOutPipeline;
+    private volatile SettableFuture<Boolean> connectFuture = SettableFuture.create();
 
     public RuntimeStub(String ip, Integer port, Long deviceId, String nodeId) {
-        this(ManagedChannelBuilder.forAddress(ip, port).usePlaintext(true), deviceId, nodeId);
+        this(ip, port, deviceId, nodeId, WritePipeline.DEFAULT_MAX_IN_FLIGHT);
     }
 
-    private RuntimeStub(ManagedChannelBuilder<?> channelBuilder, Long deviceId, String nodeId) {
-        this.channel = channelBuilder.build();
+    public RuntimeStub(String ip, Integer port, Long deviceId, String nodeId, int maxInFlightWrites) {
+        this(ip, port, deviceId, nodeId, maxInFlightWrites, WritePipeline.DEFAULT_DEADLINE_MS);
+    }
+
+    public RuntimeStub(String ip, Integer port, Long deviceId, String nodeId,
+                       int maxInFlightWrites, long writeDeadlineMs) {
+        this(ChannelFactory.getInstance().acquire(ip, port), deviceId, nodeId, maxInFlightWrites, writeDeadlineMs);
+    }
+
+    private RuntimeStub(ManagedChannel channel, Long deviceId, String nodeId,
+                        int maxInFlightWrites, long writeDeadlineMs) {
+        this.channel = channel;
         this.nodeId = nodeId;
         this.deviceId = deviceId;
-        initStub();
+        initStub(maxInFlightWrites, writeDeadlineMs);
         initElectionId();
+        this.packetInRing = PacketInDispatcher.getInstance().register(nodeId);
     }
 
-    private void initStub() {
+    private void initStub(int maxInFlightWrites, long writeDeadlineMs) {
         this.blockingStub = P4RuntimeGrpc.newBlockingStub(channel);
         this.asyncStub = P4RuntimeGrpc.newStub(channel);
+        this.futureStub = P4RuntimeGrpc.newFutureStub(channel);
+        this.writePipeline = new WritePipeline(asyncStub, nodeId, maxInFlightWrites, writeDeadlineMs);
+        this.packetOutPipeline = new PacketOutPipeline(nodeId, PacketOutPipeline.DEFAULT_MAX_PENDING);
     }
 
     private void initElectionId() {
@@ -63,13 +111,97 @@ public class RuntimeStub implements ElectionIdObserver {
                 && requestStreamObserver != null;
     }
 
+    /**
+     * Same as getConnectState, but never asks an idle channel to connect.
+     */
+    public boolean getCachedConnectState() {
+        return channel.getState(false) == ConnectivityState.READY
+                && requestStreamObserver != null;
+    }
+
+    /**
+     * Called on a gRPC thread when an open stream channel fails or is closed
+     * by the target, not when the stub is shut down.
+     */
+    public void setOnStreamLost(Runnable onStreamLost) {
+        this.onStreamLost = onStreamLost;
+    }
+
+    /**
+     * Called on a gRPC thread when the mastership of this controller over
+     * the device changes.
+     */
+    public void setOnMastershipChanged(Consumer<Mastership> onMastershipChanged) {
+        this.onMastershipChanged = onMastershipChanged;
+    }
+
+    public Mastership getMastership() {
+        return mastership;
+    }
+
+    private void setMastership(Mastership newMastership) {
+        synchronized (this) {
+            if (mastership.equals(newMastership)) {
+                return;
+            }
+            mastership = newMastership;
+        }
+        LOG.info("Mastership of device = {} changed to {}.", nodeId, newMastership);
+        Consumer<Mastership> callback = onMastershipChanged;
+        if (!isShutdown && callback != null) {
+            callback.accept(newMastership);
+        }
+    }
+
+    /**
+     * Writes from a standby controller are rejected by the device, they fail
+     * here without a round trip. Writes are sent while the mastership is unknown.
+     */
+    private StatusRuntimeException checkMaster() {
+        Mastership current = mastership;
+        if (!current.isStandby()) {
+            return null;
+        }
+        return Status.PERMISSION_DENIED
+                .withDescription(String.format("Not master of device %s, master is %s.", nodeId, current))
+                .asRuntimeException();
+    }
+
     public void shutdown() {
+        if (isShutdown) {
+            return;
+        }
+        isShutdown = true;
         ElectionIdGenerator.getInstance().deleteObserver(this);
-        channel.shutdown();
+        PacketInDispatcher.getInstance().unregister(packetInRing);
+        /* The channel may be shared with other devices, close the stream of this one only. */
+        closeStreamChannel();
+        ChannelFactory.getInstance().release(channel);
+    }
+
+    private void closeStreamChannel() {
+        packetOutPipeline.detach();
+        StreamObserver<StreamMessageRequest> stream;
+        synchronized (this) {
+            stream = requestStreamObserver;
+            requestStreamObserver = null;
+        }
+        if (stream != null) {
+            try {
+                stream.onCompleted();
+            } catch (IllegalStateException e) {
+                LOG.debug("Stream channel already closed, node = {}.", nodeId);
+            }
+            setMastership(Mastership.UNKNOWN);
+        }
     }
 
     public SetForwardingPipelineConfigResponse setPipelineConfig(SetForwardingPipelineConfigRequest request) {
         SetForwardingPipelineConfigResponse response;
+        StatusRuntimeException notMaster = checkMaster();
+        if (notMaster != null) {
+            throw new RuntimeException(notMaster);
+        }
         try {
             response = blockingStub.setForwardingPipelineConfig(request);
             return response;
@@ -80,6 +212,11 @@ public class RuntimeStub implements ElectionIdObserver {
         }
     }
 
+    public ListenableFuture<GetForwardingPipelineConfigResponse> getPipelineConfigAsync(
+            GetForwardingPipelineConfigRequest request) {
+        return futureStub.getForwardingPipelineConfig(request);
+    }
+
     public GetForwardingPipelineConfigResponse getPipelineConfig(GetForwardingPipelineConfigRequest request) {
         GetForwardingPipelineConfigResponse response;
         try {
@@ -92,8 +229,34 @@ public class RuntimeStub implements ElectionIdObserver {
         }
     }
 
-    public void streamChannel() {
-        StreamObserver<StreamMessageResponse> responseStreamObserver = new StreamObserver<StreamMessageResponse>() {
+    /**
+     * Open the stream channel and send master arbitration without blocking.
+     * @return future set to true when the first arbitration response arrives,
+     *         or to false when the stream fails or no response arrives in time.
+     */
+    public ListenableFuture<Boolean> streamChannel() {
+        return streamChannel(DEFAULT_CONNECT_TIMEOUT_MS);
+    }
+
+    /**
+     * Open a new stream channel, closing the previous one if any. Callbacks
+     * of a previous stream are ignored.
+     */
+    public ListenableFuture<Boolean> streamChannel(long timeoutMs) {
+        closeStreamChannel();
+        SettableFuture<Boolean> future = SettableFuture.create();
+        connectFuture = future;
+        ClientResponseObserver<StreamMessageRequest, StreamMessageResponse> responseStreamObserver =
+                new ClientResponseObserver<StreamMessageRequest, StreamMessageResponse>() {
+            private ClientCallStreamObserver<StreamMessageRequest> stream;
+
+            @Override
+            public void beforeStart(ClientCallStreamObserver<StreamMessageRequest> requestStream) {
+                stream = requestStream;
+                requestStreamObserver = requestStream;
+                requestStream.setOnReadyHandler(packetOutPipeline::drain);
+            }
+
             @Override
             public void onNext(StreamMessageResponse value) {
                 onPacketReceived(value);
@@ -101,36 +264,71 @@ public class RuntimeStub implements ElectionIdObserver {
 
             @Override
             public void onError(Throwable t) {
-                onStreamChannelError(t);
+                onStreamChannelError(stream, t);
             }
 
             @Override
             public void onCompleted() {
-                onStreamChannelComplete();
+                onStreamChannelComplete(stream);
             }
         };
 
-        requestStreamObserver = asyncStub.streamChannel(responseStreamObserver);
+        ClientCallStreamObserver<StreamMessageRequest> stream =
+                (ClientCallStreamObserver<StreamMessageRequest>) asyncStub.streamChannel(responseStreamObserver);
+        packetOutPipeline.attach(stream);
         sendMasterArbitration(electionId);
-        awaitConnection(5000);
+        ScheduledFuture<?> timeout = CONNECT_TIMER.schedule(() -> {
+            if (future.set(false)) {
+                LOG.info("No arbitration response in {} ms, device = {}.", timeoutMs, nodeId);
+            }
+        }, timeoutMs, TimeUnit.MILLISECONDS);
+        future.addListener(() -> timeout.cancel(false), MoreExecutors.directExecutor());
+        return future;
     }
 
     public void transmitPacket(byte[] payload) {
-        StreamMessageRequest.Builder requestBuilder = StreamMessageRequest.newBuilder();
         PacketOut.Builder packetOutBuilder = PacketOut.newBuilder();
         packetOutBuilder.setPayload(ByteString.copyFrom(payload));
-        requestBuilder.setPacket(packetOutBuilder);
-        if (requestStreamObserver != null) {
-            requestStreamObserver.onNext(requestBuilder.build());
-            //For debug
-            LOG.info("Transmit packet = {} to device = {}.", Utils.bytesToHexString(payload), nodeId);
+        if (packetOutPipeline.isAttached()) {
+            transmitPackets(Collections.singletonList(packetOutBuilder.build()));
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("Transmit packet = {} to device = {}.", Utils.bytesToHexString(payload), nodeId);
+            }
         } else {
             LOG.info("Stream channel haven't been initialized, device = [{}].", nodeId);
         }
     }
 
+    /**
+     * Queue packet-outs on the stream channel, subject to flow control and
+     * the packet-out rate limit of the device.
+     * @return future of the number of packets sent, the others were dropped.
+     */
+    public ListenableFuture<Integer> transmitPackets(List<PacketOut> packets) {
+        return packetOutPipeline.transmit(packets);
+    }
+
+    /**
+     * Decode the packet_in metadata of published packet-ins with the codec.
+     */
+    public void setPacketMetadataCodec(PacketMetadataCodec codec) {
+        packetInRing.setCodec(codec);
+    }
+
+    public void setPacketOutRateLimiter(TokenBucket rateLimiter) {
+        packetOutPipeline.setRateLimiter(rateLimiter);
+    }
+
+    public long getPacketOutDroppedCount() {
+        return packetOutPipeline.getDroppedCount();
+    }
+
     public WriteResponse write(WriteRequest request) {
         WriteResponse response;
+        StatusRuntimeException notMaster = checkMaster();
+        if (notMaster != null) {
+            throw new RuntimeException(notMaster);
+        }
         try {
             response = blockingStub.write(request);
             return response;
@@ -141,6 +339,17 @@ public class RuntimeStub implements ElectionIdObserver {
         }
     }
 
+    /**
+     * Non-blocking write, the future completes on the gRPC callback thread.
+     */
+    public ListenableFuture<WriteResponse> writeAsync(WriteRequest request) {
+        StatusRuntimeException notMaster = checkMaster();
+        if (notMaster != null) {
+            return Futures.immediateFailedFuture(notMaster);
+        }
+        return writePipeline.write(request);
+    }
+
     public Iterator<ReadResponse> read(ReadRequest request) {
         Iterator<ReadResponse> responses;
         try {
@@ -153,7 +362,50 @@ public class RuntimeStub implements ElectionIdObserver {
         }
     }
 
-    public void sendMasterArbitration(ElectionId electionId) {
+    /**
+     * Streaming read, entities are pulled from the target while iterating.
+     */
+    public EntityStream readStream(ReadRequest request) {
+        return new EntityStream(blockingStub, request);
+    }
+
+    /**
+     * Non-blocking read, entities are passed to the consumer on the gRPC
+     * callback thread as the responses arrive.
+     * @return future completed when the read ends.
+     */
+    public ListenableFuture<Void> readAsync(ReadRequest request, Consumer<Entity> consumer) {
+        SettableFuture<Void> future = SettableFuture.create();
+        asyncStub.read(request, new StreamObserver<ReadResponse>() {
+            @Override
+            public void onNext(ReadResponse response) {
+                if (future.isDone()) {
+                    return;
+                }
+                try {
+                    response.getEntitiesList().forEach(consumer);
+                } catch (RuntimeException e) {
+                    future.setException(e);
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                future.setException(t);
+            }
+
+            @Override
+            public void onCompleted() {
+                future.set(null);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * @return false if the stream channel is not open.
+     */
+    public boolean sendMasterArbitration(ElectionId electionId) {
         StreamMessageRequest.Builder requestBuilder = StreamMessageRequest.newBuilder();
         MasterArbitrationUpdate.Builder masterArbitrationBuilder = MasterArbitrationUpdate.newBuilder();
         Uint128.Builder electionIdBuilder = Uint128.newBuilder();
@@ -162,58 +414,126 @@ public class RuntimeStub implements ElectionIdObserver {
         masterArbitrationBuilder.setDeviceId(deviceId);
         masterArbitrationBuilder.setElectionId(electionIdBuilder);
         requestBuilder.setArbitration(masterArbitrationBuilder);
-        if (requestStreamObserver != null) {
-            requestStreamObserver.onNext(requestBuilder.build());
+        if (packetOutPipeline.send(requestBuilder.build())) {
             LOG.info("Send MasterArbitrationUpdate to device = {}.", nodeId);
+            return true;
         } else {
             LOG.info("Stream channel haven't been initialized, device = [{}].", nodeId);
+            return false;
         }
     }
 
     private void onPacketReceived(StreamMessageResponse response) {
         switch(response.getUpdateCase()) {
             case PACKET: {
-                P4PacketReceivedBuilder builder = new P4PacketReceivedBuilder();
-                byte[] payload = response.getPacket().getPayload().toByteArray();
-                builder.setNid(nodeId);
-                builder.setPayload(payload);
-                NotificationPublisher.getInstance().notify(builder.build());
-                //For debug
-                LOG.info("Receive packet from node = {}, body = {}.", nodeId, Utils.bytesToHexString(payload));
+                PacketInDispatcher.getInstance().dispatch(packetInRing, response.getPacket());
+                break;
+            }
+            case ARBITRATION: {
+                MasterArbitrationUpdate arbitration = response.getArbitration();
+                setMastership(new Mastership(arbitration.getStatus().getCode() == Status.Code.OK.value()
+                        ? Mastership.Role.MASTER : Mastership.Role.STANDBY,
+                        new ElectionId(arbitration.getElectionId().getHigh(), arbitration.getElectionId().getLow())));
+                if (connectFuture.set(true)) {
+                    LOG.info("Receive arbitration response from device = {}.", nodeId);
+                }
+                completeArbitrations(new ElectionId(arbitration.getElectionId().getHigh(),
+                        arbitration.getElectionId().getLow()));
                 break;
             }
-            case ARBITRATION:break;
             case UPDATE_NOT_SET:break;
             default:break;
         }
     }
 
-    private void onStreamChannelError(Throwable t) {
-        requestStreamObserver = null;
-        LOG.info("Stream channel on error, reason = {}, node = {}.", t.getMessage(), nodeId);
+    private void onStreamChannelError(StreamObserver<StreamMessageRequest> stream, Throwable t) {
+        if (onStreamLost(stream)) {
+            LOG.info("Stream channel on error, reason = {}, node = {}.", t.getMessage(), nodeId);
+        }
     }
 
-    private void onStreamChannelComplete() {
-        requestStreamObserver = null;
-        LOG.info("Stream channel on complete, node = {}.", nodeId);
+    private void onStreamChannelComplete(StreamObserver<StreamMessageRequest> stream) {
+        if (onStreamLost(stream)) {
+            LOG.info("Stream channel on complete, node = {}.", nodeId);
+        }
+    }
+
+    /**
+     * @return false if the stream was already replaced or closed by this side.
+     */
+    private boolean onStreamLost(StreamObserver<StreamMessageRequest> stream) {
+        synchronized (this) {
+            if (stream == null || requestStreamObserver != stream) {
+                return false;
+            }
+            requestStreamObserver = null;
+        }
+        packetOutPipeline.detach();
+        connectFuture.set(false);
+        setMastership(Mastership.UNKNOWN);
+        Runnable callback = onStreamLost;
+        if (!isShutdown && callback != null) {
+            callback.run();
+        }
+        return true;
+    }
+
+    /**
+     * The response carries the election id of the master. It answers the
+     * arbitration of that id, and settles the arbitrations of lower ids as
+     * standby; arbitrations of higher ids are still waiting for their answer.
+     */
+    private void completeArbitrations(ElectionId masterElectionId) {
+        pendingArbitrations.forEach((pendingId, future) -> {
+            if (pendingId.compareTo(masterElectionId) <= 0) {
+                future.set(null);
+            }
+        });
     }
 
     @Override
     public void update(ElectionId electionId) {
+        updateAsync(electionId);
+    }
+
+    /**
+     * Send master arbitration with the new election id.
+     * @return future completed when the arbitration response arrives, at once
+     *         if the stream channel is not open, the id is then sent when the
+     *         channel is opened; failed if no response arrives in time.
+     *         Overlapping updates each wait for the response to their own id.
+     */
+    @Override
+    public ListenableFuture<Void> updateAsync(ElectionId electionId) {
         this.electionId = electionId;
-        sendMasterArbitration(electionId);
+        SettableFuture<Void> created = SettableFuture.create();
+        SettableFuture<Void> future = pendingArbitrations.putIfAbsent(electionId, created);
+        if (future == null) {
+            future = created;
+            ScheduledFuture<?> timeout = CONNECT_TIMER.schedule(() -> {
+                created.setException(new TimeoutException("No arbitration response from device " + nodeId));
+            }, DEFAULT_CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            created.addListener(() -> {
+                timeout.cancel(false);
+                pendingArbitrations.remove(electionId, created);
+            }, MoreExecutors.directExecutor());
+        }
+        if (!sendMasterArbitration(electionId)) {
+            future.set(null);
+        }
+        return future;
     }
 
-    public ElectionId getElectionId() {
-        return electionId;
+    /**
+     * Use an election id for this stub alone, the stub no longer follows
+     * ElectionIdGenerator.
+     */
+    public ListenableFuture<Void> setElectionId(ElectionId electionId) {
+        ElectionIdGenerator.getInstance().deleteObserver(this);
+        return updateAsync(electionId);
     }
 
-    private void awaitConnection(long milliseconds) {
-        try {
-            Thread.sleep(milliseconds);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new RuntimeException(e);
-        }
+    public ElectionId getElectionId() {
+        return electionId;
     }
 }
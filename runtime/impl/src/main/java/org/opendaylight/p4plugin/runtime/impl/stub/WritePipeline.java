@@ -0,0 +1,156 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.stub;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import org.opendaylight.p4plugin.p4runtime.proto.P4RuntimeGrpc;
+import org.opendaylight.p4plugin.p4runtime.proto.WriteRequest;
+import org.opendaylight.p4plugin.p4runtime.proto.WriteResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking Write RPCs on the async stub. At most maxInFlight requests are
+ * outstanding on the channel, further requests wait in a bounded queue and are
+ * sent from the gRPC callback of a completed request. When the queue is full
+ * the write fails immediately with RESOURCE_EXHAUSTED, so the caller sees
+ * backpressure instead of an unbounded backlog. Every request has a deadline
+ * counted from when it is sent, so a hung Write RPC fails with
+ * DEADLINE_EXCEEDED instead of holding its slot forever.
+ *
+ * Requests are sent in submission order, but the target may process requests
+ * that are in flight at the same time in any order; updates that depend on each
+ * other must be sent in one request, or with maxInFlight set to 1.
+ */
+public class WritePipeline {
+    private static final Logger LOG = LoggerFactory.getLogger(WritePipeline.class);
+    public static final int DEFAULT_MAX_IN_FLIGHT = 16;
+    public static final long DEFAULT_DEADLINE_MS = 30000;
+    private final P4RuntimeGrpc.P4RuntimeStub asyncStub;
+    private final String nodeId;
+    private final int maxInFlight;
+    private final int maxPending;
+    private final long deadlineMs;
+    private final Queue<PendingWrite> pending = new ArrayDeque<>();
+    private int inFlight;
+    private long rejected;
+
+    public WritePipeline(P4RuntimeGrpc.P4RuntimeStub asyncStub, String nodeId, int maxInFlight) {
+        this(asyncStub, nodeId, maxInFlight, DEFAULT_DEADLINE_MS);
+    }
+
+    /**
+     * @param deadlineMs time a Write RPC may take once it is sent.
+     */
+    public WritePipeline(P4RuntimeGrpc.P4RuntimeStub asyncStub, String nodeId, int maxInFlight, long deadlineMs) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("Max in flight writes must be positive.");
+        }
+        if (deadlineMs <= 0) {
+            throw new IllegalArgumentException("Write deadline must be positive.");
+        }
+        this.asyncStub = asyncStub;
+        this.nodeId = nodeId;
+        this.maxInFlight = maxInFlight;
+        this.maxPending = maxInFlight * 64;
+        this.deadlineMs = deadlineMs;
+    }
+
+    public ListenableFuture<WriteResponse> write(WriteRequest request) {
+        SettableFuture<WriteResponse> result = SettableFuture.create();
+        synchronized (this) {
+            if (inFlight >= maxInFlight) {
+                if (pending.size() >= maxPending) {
+                    rejected++;
+                    result.setException(Status.RESOURCE_EXHAUSTED
+                            .withDescription(String.format("Too many pending writes to device = %s.", nodeId))
+                            .asRuntimeException());
+                } else {
+                    pending.add(new PendingWrite(request, result));
+                }
+                return result;
+            }
+            inFlight++;
+        }
+        send(request, result);
+        return result;
+    }
+
+    private void send(WriteRequest request, SettableFuture<WriteResponse> result) {
+        try {
+            asyncStub.withDeadlineAfter(deadlineMs, TimeUnit.MILLISECONDS).write(request,
+                    new StreamObserver<WriteResponse>() {
+                private WriteResponse response;
+
+                @Override
+                public void onNext(WriteResponse value) {
+                    response = value;
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    LOG.info("Write RPC exception, Status = {}, device = {}.", Status.fromThrowable(t), nodeId);
+                    result.setException(t);
+                    onDone();
+                }
+
+                @Override
+                public void onCompleted() {
+                    result.set(response);
+                    onDone();
+                }
+            });
+        } catch (RuntimeException e) {
+            result.setException(e);
+            onDone();
+        }
+    }
+
+    private void onDone() {
+        PendingWrite next;
+        synchronized (this) {
+            next = pending.poll();
+            if (next == null) {
+                inFlight--;
+            }
+        }
+
+        if (next != null) {
+            send(next.request, next.result);
+        }
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getPending() {
+        return pending.size();
+    }
+
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    private static class PendingWrite {
+        private final WriteRequest request;
+        private final SettableFuture<WriteResponse> result;
+
+        PendingWrite(WriteRequest request, SettableFuture<WriteResponse> result) {
+            this.request = request;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A small open addressing hash map keyed by primitive int, used for P4Info
+ * id lookups without boxing the key. It is populated once and then only read,
+ * so it is not synchronized; publish it through a final field.
+ * @param <V> value type, null values are not allowed.
+ */
+public final class IntObjectMap<V> {
+    private int[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+
+    public IntObjectMap() {
+        this(8);
+    }
+
+    public IntObjectMap(int expectedSize) {
+        int capacity = 4;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int slot(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    public V put(int key, V value) {
+        Objects.requireNonNull(value, "Null value is not allowed.");
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length << 1);
+        }
+
+        int i = slot(key, mask);
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                @SuppressWarnings("unchecked")
+                V old = (V) values[i];
+                values[i] = value;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int i = slot(key, mask);
+        Object value;
+        while ((value = values[i]) != null) {
+            if (keys[i] == key) {
+                return (V) value;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public Collection<V> values() {
+        List<V> result = new ArrayList<>(size);
+        for (Object value : values) {
+            if (value != null) {
+                result.add((V) value);
+            }
+        }
+        return result;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        for (int j = 0; j < oldValues.length; j++) {
+            if (oldValues[j] != null) {
+                int i = slot(oldKeys[j], mask);
+                while (values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.utils;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs tasks in one serial lane per key (node id) over a shared worker pool.
+ * Tasks of the same lane run one at a time in FIFO order, different lanes run
+ * in parallel, so a slow device only delays its own lane. Every lane has a
+ * bounded queue, a task submitted to a full lane is rejected and counted.
+ * A task submitted with submitAsync keeps its lane until the future it returns
+ * completes, without holding a worker thread meanwhile. A lane is removed as
+ * soon as it is idle and empty, so removed devices do not leave lanes behind.
+ */
+public class LaneExecutor {
+    private static final Logger LOG = LoggerFactory.getLogger(LaneExecutor.class);
+    /* Max tasks run by a lane before it yields its worker to other lanes. */
+    private static final int MAX_TASKS_PER_RUN = 16;
+    private final ExecutorService workers;
+    private final int maxQueueDepth;
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * @param name thread name prefix.
+     * @param poolSize number of worker threads shared by all lanes.
+     * @param maxQueueDepth max number of tasks waiting in one lane.
+     */
+    public LaneExecutor(String name, int poolSize, int maxQueueDepth) {
+        this.workers = Executors.newFixedThreadPool(poolSize,
+                new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build());
+        this.maxQueueDepth = maxQueueDepth;
+    }
+
+    public <T> ListenableFuture<T> submit(String key, Callable<T> task) {
+        ListenableFutureTask<T> futureTask = ListenableFutureTask.create(task);
+        return offer(key, futureTask, futureTask);
+    }
+
+    /**
+     * Runs an asynchronous task in the lane of key, the next task of the lane
+     * starts only after the future returned by the task completes.
+     */
+    public <T> ListenableFuture<T> submitAsync(String key, Callable<ListenableFuture<T>> task) {
+        AsyncTask<T> asyncTask = new AsyncTask<>(task);
+        return offer(key, asyncTask, asyncTask.result);
+    }
+
+    private <T> ListenableFuture<T> offer(String key, Runnable task, ListenableFuture<T> result) {
+        Offer offer;
+        do {
+            offer = lanes.computeIfAbsent(key, Lane::new).offer(task);
+        } while (offer == Offer.RETIRED);
+        if (offer == Offer.FULL) {
+            rejectedCount.incrementAndGet();
+            LOG.info("Lane of {} is full, task rejected, queue depth = {}.", key, maxQueueDepth);
+            return Futures.immediateFailedFuture(
+                    new RejectedExecutionException(String.format("Too many pending requests for %s.", key)));
+        }
+        return result;
+    }
+
+    public int getQueueDepth(String key) {
+        Lane lane = lanes.get(key);
+        return lane == null ? 0 : lane.depth.get();
+    }
+
+    /**
+     * Tasks rejected by all lanes, lanes do not keep their own count since
+     * an idle lane is removed.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public void shutdown() {
+        workers.shutdown();
+    }
+
+    public int getLaneCount() {
+        return lanes.size();
+    }
+
+    private enum Offer {
+        ACCEPTED, FULL, RETIRED
+    }
+
+    private static final class AsyncTask<T> implements Runnable {
+        private final Callable<ListenableFuture<T>> callable;
+        private final SettableFuture<T> result = SettableFuture.create();
+
+        AsyncTask(Callable<ListenableFuture<T>> callable) {
+            this.callable = callable;
+        }
+
+        @Override
+        public void run() {
+            try {
+                result.setFuture(callable.call());
+            } catch (Exception e) {
+                result.setException(e);
+            }
+        }
+    }
+
+    private final class Lane implements Runnable {
+        private final String key;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger depth = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        /* Set under the lane lock once the lane is removed from the map. */
+        private boolean retired;
+
+        Lane(String key) {
+            this.key = key;
+        }
+
+        synchronized Offer offer(Runnable task) {
+            if (retired) {
+                return Offer.RETIRED;
+            }
+            if (depth.incrementAndGet() > maxQueueDepth) {
+                depth.decrementAndGet();
+                return Offer.FULL;
+            }
+            tasks.add(task);
+            schedule();
+            return Offer.ACCEPTED;
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    workers.execute(this);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                    throw e;
+                }
+            }
+        }
+
+        private void resume() {
+            try {
+                workers.execute(this);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            Runnable task;
+            int count = 0;
+            while (count < MAX_TASKS_PER_RUN && (task = tasks.poll()) != null) {
+                depth.decrementAndGet();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOG.info("Task of lane {} failed, reason = {}.", key, e.getMessage());
+                }
+                count++;
+                if (task instanceof AsyncTask && !((AsyncTask<?>) task).result.isDone()) {
+                    /* Keep the lane scheduled, resume it when the async task completes. */
+                    ((AsyncTask<?>) task).result.addListener(this::resume, MoreExecutors.directExecutor());
+                    return;
+                }
+            }
+
+            synchronized (this) {
+                scheduled.set(false);
+                if (tasks.isEmpty()) {
+                    retired = true;
+                    lanes.remove(key, this);
+                    return;
+                }
+                schedule();
+            }
+        }
+    }
+}
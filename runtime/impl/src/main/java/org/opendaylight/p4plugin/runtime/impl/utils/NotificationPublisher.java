@@ -28,7 +28,7 @@ public class NotificationPublisher {
 
     public <T extends Notification> void notify(T notification) {
         if (null != notificationService) {
-            LOG.info("Notification publish!");
+            LOG.debug("Notification publish!");
             notificationService.offerNotification(notification);
         }
     }
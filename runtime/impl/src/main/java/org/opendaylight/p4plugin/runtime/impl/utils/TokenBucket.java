@@ -0,0 +1,105 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket rate limiter. Tokens are added at a fixed rate up to the burst
+ * size, every permit takes one token. A rate of 0 means unlimited. Callers
+ * never block, they ask how long to wait for the next token instead.
+ */
+public final class TokenBucket {
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private final LongSupplier clock;
+    private long rate;
+    private long burst;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param rate tokens per second, 0 for unlimited.
+     * @param burst max tokens held, at least 1 when rate limited.
+     */
+    public TokenBucket(long rate, long burst) {
+        this(rate, burst, System::nanoTime);
+    }
+
+    public TokenBucket(long rate, long burst, LongSupplier clock) {
+        this.clock = clock;
+        setRate(rate, burst);
+    }
+
+    public static TokenBucket unlimited() {
+        return new TokenBucket(0, 0);
+    }
+
+    public synchronized void setRate(long rate, long burst) {
+        if (rate < 0 || burst < 0) {
+            throw new IllegalArgumentException("Rate and burst must not be negative.");
+        }
+        this.rate = rate;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.lastRefill = clock.getAsLong();
+    }
+
+    public synchronized long getRate() {
+        return rate;
+    }
+
+    public synchronized long getBurst() {
+        return burst;
+    }
+
+    public synchronized boolean isUnlimited() {
+        return rate == 0;
+    }
+
+    private void refill() {
+        long now = clock.getAsLong();
+        long elapsed = now - lastRefill;
+        if (elapsed > 0) {
+            tokens = Math.min(burst, tokens + (double) elapsed * rate / NANOS_PER_SECOND);
+            lastRefill = now;
+        }
+    }
+
+    public synchronized boolean tryAcquire() {
+        return tryAcquire(1) == 1;
+    }
+
+    /**
+     * Take up to permits tokens.
+     * @return number of tokens taken.
+     */
+    public synchronized int tryAcquire(int permits) {
+        if (rate == 0) {
+            return permits;
+        }
+        refill();
+        int granted = (int) Math.min(permits, (long) tokens);
+        tokens -= granted;
+        return granted;
+    }
+
+    /**
+     * @return nanoseconds until the next token is available, 0 if one is available now.
+     */
+    public synchronized long nanosToNextToken() {
+        if (rate == 0) {
+            return 0;
+        }
+        refill();
+        if (tokens >= 1) {
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) * NANOS_PER_SECOND / rate);
+    }
+}
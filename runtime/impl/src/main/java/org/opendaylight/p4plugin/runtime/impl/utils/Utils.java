@@ -11,6 +11,7 @@ import com.google.protobuf.ByteString;
 import com.google.protobuf.TextFormat;
 import org.opendaylight.p4plugin.p4info.proto.*;
 import java.io.*;
+import java.math.BigInteger;
 
 public abstract class Utils {
     /**
@@ -50,19 +51,19 @@ public abstract class Utils {
             throw new NullPointerException("config file is null.");
         }
 
-        InputStream input = new FileInputStream(new File(file));
-        return ByteString.readFrom(input);
+        try (InputStream input = new FileInputStream(new File(file))) {
+            return ByteString.readFrom(input);
+        }
     }
 
-    /**
-     * Only support ipv4 address, mac address and integer value.
-     */
     /**
      * Convert a string value to byte array.
      * @param str input string, only support ipv4 address, mac address and integer value now.
      * @param len output array length.
      * @return byte array.
+     * @deprecated values wider than 32 bits are truncated, use {@link ValueEncoder}.
      */
+    @Deprecated
     public static byte[] strToByteArray(String str, int len) {
         String[] strArray = null;
         byte[] byteArray = null;
@@ -135,4 +136,11 @@ public abstract class Utils {
         }
         return stringBuilder.toString();
     }
-}
\ No newline at end of file
+
+    /**
+     * Convert a uint64 carried in a long to the BigInteger of a yang uint64.
+     */
+    public static BigInteger toUnsignedBigInteger(long value) {
+        return new BigInteger(Long.toUnsignedString(value));
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.p4plugin.runtime.impl.utils;
+
+import com.google.protobuf.ByteString;
+
+import java.math.BigInteger;
+
+/**
+ * Single pass encoder of match field and action parameter values into big
+ * endian byte strings of the P4Info width. Supported formats are IPv4 address,
+ * IPv6 address, MAC address, decimal number of any size and 0x prefixed
+ * hexadecimal number of any size. A value that does not fit in the width is
+ * rejected instead of being truncated.
+ */
+public final class ValueEncoder {
+    private static final int MAX_LONG_DIGITS = 18;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[16]);
+
+    private ValueEncoder() {}
+
+    /**
+     * Encode a value into a byte string.
+     * @param str value string.
+     * @param width field width in bytes.
+     * @return encoded value, exactly width bytes long.
+     */
+    public static ByteString encode(String str, int width) {
+        byte[] buffer = getScratch(width);
+        encode(str, buffer, 0, width);
+        return ByteString.copyFrom(buffer, 0, width);
+    }
+
+    public static ByteString encode(BigInteger value, int width) {
+        byte[] buffer = getScratch(width);
+        encode(value, buffer, 0, width);
+        return ByteString.copyFrom(buffer, 0, width);
+    }
+
+    /**
+     * Per thread buffer of at least width bytes. The content is only valid
+     * until the next call on the same thread.
+     */
+    public static byte[] getScratch(int width) {
+        byte[] buffer = SCRATCH.get();
+        if (buffer.length < width) {
+            buffer = new byte[Math.max(width, buffer.length * 2)];
+            SCRATCH.set(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * Encode a value into dst[offset, offset + width).
+     * @param str value string.
+     * @param dst destination buffer.
+     * @param offset first byte of the field in dst.
+     * @param width field width in bytes.
+     */
+    public static void encode(String str, byte[] dst, int offset, int width) {
+        if (str == null || str.isEmpty()) {
+            throw new IllegalArgumentException("Value is empty.");
+        }
+
+        for (int i = 0; i < width; i++) {
+            dst[offset + i] = 0;
+        }
+
+        int length = str.length();
+        if (length > 2 && str.charAt(0) == '0' && (str.charAt(1) == 'x' || str.charAt(1) == 'X')) {
+            encodeHex(str, dst, offset, width);
+            return;
+        }
+
+        for (int i = 0; i < length; i++) {
+            char c = str.charAt(i);
+            if (c == ':') {
+                if (isMac(str)) {
+                    encodeMac(str, dst, offset, width);
+                } else {
+                    encodeIpv6(str, dst, offset, width);
+                }
+                return;
+            } else if (c == '.') {
+                encodeIpv4(str, 0, length, dst, offset, width, 0);
+                return;
+            }
+        }
+
+        if (length <= MAX_LONG_DIGITS) {
+            encodeLong(parseDecimal(str), dst, offset, width);
+        } else {
+            try {
+                encode(new BigInteger(str), dst, offset, width);
+            } catch (NumberFormatException e) {
+                throw invalid(str);
+            }
+        }
+    }
+
+    public static void encode(BigInteger value, byte[] dst, int offset, int width) {
+        if (value.signum() < 0) {
+            throw new IllegalArgumentException("Negative value " + value + ".");
+        }
+
+        for (int i = 0; i < width; i++) {
+            dst[offset + i] = 0;
+        }
+
+        byte[] bytes = value.toByteArray();
+        for (int i = 0; i < bytes.length; i++) {
+            putByte(dst, offset, width, bytes.length - 1 - i, bytes[i], value);
+        }
+    }
+
+    /**
+     * Write the byte at position index counted from the least significant byte,
+     * a non-zero byte beyond the field width means the value does not fit.
+     */
+    private static void putByte(byte[] dst, int offset, int width, int index, int value, Object str) {
+        if (index >= width) {
+            if ((value & 0xFF) != 0) {
+                throw new IllegalArgumentException(
+                        String.format("Value %s exceeds the field width of %d bytes.", str, width));
+            }
+            return;
+        }
+        dst[offset + width - 1 - index] = (byte) value;
+    }
+
+    private static void encodeLong(long value, byte[] dst, int offset, int width) {
+        for (int i = 0; i < 8; i++) {
+            putByte(dst, offset, width, i, (int) (value >>> (i * 8)), value);
+        }
+    }
+
+    private static long parseDecimal(String str) {
+        long value = 0;
+        for (int i = 0; i < str.length(); i++) {
+            int digit = str.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw invalid(str);
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static int hexDigit(char c, String str) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        throw invalid(str);
+    }
+
+    private static void encodeHex(String str, byte[] dst, int offset, int width) {
+        int index = 0;
+        for (int i = str.length() - 1; i >= 2; i -= 2) {
+            int low = hexDigit(str.charAt(i), str);
+            int high = i - 1 >= 2 ? hexDigit(str.charAt(i - 1), str) : 0;
+            putByte(dst, offset, width, index++, (high << 4) | low, str);
+        }
+    }
+
+    private static boolean isMac(String str) {
+        int groups = 1;
+        int digits = 0;
+        for (int i = 0; i < str.length(); i++) {
+            if (str.charAt(i) == ':') {
+                if (digits == 0 || digits > 2) {
+                    return false;
+                }
+                groups++;
+                digits = 0;
+            } else {
+                digits++;
+            }
+        }
+        return groups == 6 && digits > 0 && digits <= 2;
+    }
+
+    private static void encodeMac(String str, byte[] dst, int offset, int width) {
+        int group = 0;
+        int value = 0;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c == ':') {
+                putByte(dst, offset, width, 5 - group++, value, str);
+                value = 0;
+            } else {
+                value = (value << 4) | hexDigit(c, str);
+            }
+        }
+        putByte(dst, offset, width, 5 - group, value, str);
+    }
+
+    /**
+     * Encode a dotted quad found in str[start, end), index is the position of
+     * its last byte counted from the least significant byte of the field.
+     */
+    private static void encodeIpv4(String str, int start, int end, byte[] dst, int offset, int width, int index) {
+        int octets = 0;
+        int value = 0;
+        int digits = 0;
+        for (int i = start; i < end; i++) {
+            char c = str.charAt(i);
+            if (c == '.') {
+                if (digits == 0 || octets == 3) {
+                    throw invalid(str);
+                }
+                putByte(dst, offset, width, index + 3 - octets++, value, str);
+                value = 0;
+                digits = 0;
+            } else if (c >= '0' && c <= '9' && digits < 3) {
+                value = value * 10 + (c - '0');
+                if (value > 255) {
+                    throw invalid(str);
+                }
+                digits++;
+            } else {
+                throw invalid(str);
+            }
+        }
+
+        if (digits == 0 || octets != 3) {
+            throw invalid(str);
+        }
+        putByte(dst, offset, width, index, value, str);
+    }
+
+    private static void encodeIpv6(String str, byte[] dst, int offset, int width) {
+        /* Groups before "::" are kept in head, the others in tail, each as a 128-bit high/low pair. */
+        long headHigh = 0;
+        long headLow = 0;
+        long tailHigh = 0;
+        long tailLow = 0;
+        int headGroups = -1;
+        int groups = 0;
+        int value = 0;
+        int digits = 0;
+        int groupStart = 0;
+        int length = str.length();
+
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? str.charAt(i) : ':';
+            if (c == '.') {
+                /* Embedded IPv4 address, it takes the last two groups. */
+                if (groups > 6) {
+                    throw invalid(str);
+                }
+                byte[] buffer = new byte[4];
+                encodeIpv4(str, groupStart, length, buffer, 0, 4, 0);
+                int address = ((buffer[0] & 0xFF) << 24) | ((buffer[1] & 0xFF) << 16)
+                        | ((buffer[2] & 0xFF) << 8) | (buffer[3] & 0xFF);
+                tailHigh = (tailHigh << 32) | (tailLow >>> 32);
+                tailLow = (tailLow << 32) | (address & 0xFFFFFFFFL);
+                groups += 2;
+                digits = 0;
+                break;
+            } else if (c == ':') {
+                if (digits == 0) {
+                    boolean isGap = i + 1 < length && str.charAt(i + 1) == ':' && headGroups < 0;
+                    if (i == 0 && isGap) {
+                        continue;
+                    } else if (i > 0 && i < length && str.charAt(i - 1) == ':' && headGroups < 0) {
+                        headGroups = groups;
+                        headHigh = tailHigh;
+                        headLow = tailLow;
+                        tailHigh = 0;
+                        tailLow = 0;
+                        groupStart = i + 1;
+                        continue;
+                    } else if (i == length && i > 0 && str.charAt(i - 1) == ':' && headGroups == groups) {
+                        break;
+                    }
+                    throw invalid(str);
+                }
+                if (groups == 8) {
+                    throw invalid(str);
+                }
+                tailHigh = (tailHigh << 16) | (tailLow >>> 48);
+                tailLow = (tailLow << 16) | value;
+                groups++;
+                value = 0;
+                digits = 0;
+                groupStart = i + 1;
+            } else {
+                if (++digits > 4) {
+                    throw invalid(str);
+                }
+                value = (value << 4) | hexDigit(c, str);
+            }
+        }
+
+        if (groups > 8 || (headGroups < 0 && groups != 8) || (headGroups >= 0 && groups == 8)) {
+            throw invalid(str);
+        }
+
+        if (headGroups >= 0) {
+            /* Move the head groups above the zero groups of the gap. */
+            int shift = (8 - headGroups) * 16;
+            long high;
+            long low;
+            if (shift >= 128) {
+                high = 0;
+                low = 0;
+            } else if (shift >= 64) {
+                high = headLow << (shift - 64);
+                low = 0;
+            } else if (shift == 0) {
+                high = headHigh;
+                low = headLow;
+            } else {
+                high = (headHigh << shift) | (headLow >>> (64 - shift));
+                low = headLow << shift;
+            }
+            tailHigh |= high;
+            tailLow |= low;
+        }
+
+        for (int i = 0; i < 8; i++) {
+            putByte(dst, offset, width, i, (int) (tailLow >>> (i * 8)), str);
+            putByte(dst, offset, width, i + 8, (int) (tailHigh >>> (i * 8)), str);
+        }
+    }
+
+    /**
+     * Format a value as a 0x prefixed hexadecimal number of its full width,
+     * the format is accepted back by encode.
+     */
+    public static String toHexString(ByteString value) {
+        char[] chars = new char[2 + Math.max(1, value.size() * 2)];
+        chars[0] = '0';
+        chars[1] = 'x';
+        chars[2] = '0';
+        for (int i = 0; i < value.size(); i++) {
+            int b = value.byteAt(i) & 0xFF;
+            chars[2 + i * 2] = HEX_DIGITS[b >>> 4];
+            chars[3 + i * 2] = HEX_DIGITS[b & 0x0F];
+        }
+        return new String(chars);
+    }
+
+    private static IllegalArgumentException invalid(String str) {
+        return new IllegalArgumentException(String.format("Invalid value %s.", str));
+    }
+}
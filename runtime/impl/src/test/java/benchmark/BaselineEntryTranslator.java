@@ -0,0 +1,283 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package benchmark;
+
+import com.google.protobuf.ByteString;
+import org.opendaylight.p4plugin.p4info.proto.Table;
+import org.opendaylight.p4plugin.p4runtime.proto.*;
+import org.opendaylight.p4plugin.p4runtime.proto.Action;
+import org.opendaylight.p4plugin.runtime.impl.utils.Utils;
+import org.opendaylight.p4plugin.p4info.proto.P4Info;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.TableEntry;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.action.ActionParam;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.Field;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.field.MatchType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.field.match.type.EXACT;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.field.match.type.LPM;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.field.match.type.RANGE;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.field.match.type.TERNARY;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.table.entry.ActionType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.table.entry.action.type.ACTIONPROFILEGROUP;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.table.entry.action.type.ACTIONPROFILEMEMBER;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.table.entry.action.type.DIRECTACTION;
+
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * The table entry translation of P4Device before the P4Info catalog and the
+ * EntryTranslator, copied verbatim from the baseline as the reference of
+ * EntryTranslatorBenchmark.
+ */
+@SuppressWarnings("deprecation")
+class BaselineEntryTranslator {
+    private final P4Info runtimeInfo;
+
+    BaselineEntryTranslator(P4Info runtimeInfo) {
+        this.runtimeInfo = runtimeInfo;
+    }
+
+    private int getTableId(String tableName) {
+        Optional<Table> optional = runtimeInfo.getTablesList()
+                .stream()
+                .filter(table -> table.getPreamble().getName().equals(tableName))
+                .findFirst();
+        return optional.orElseThrow(()-> new IllegalArgumentException("Invalid table name"))
+                .getPreamble().getId();
+    }
+
+    private int getMatchFieldId(String tableName, String matchFieldName) {
+        Optional<org.opendaylight.p4plugin.p4info.proto.Table> tableContainer = runtimeInfo.getTablesList()
+                .stream()
+                .filter(table -> table.getPreamble().getName().equals(tableName))
+                .findFirst();
+
+        Optional<org.opendaylight.p4plugin.p4info.proto.MatchField> matchFieldContainer =
+                tableContainer.orElseThrow(()-> new IllegalArgumentException("Invalid table name"))
+                        .getMatchFieldsList()
+                        .stream()
+                        .filter(matchField -> matchField.getName().equals(matchFieldName))
+                        .findFirst();
+
+        return matchFieldContainer.orElseThrow(()-> new IllegalArgumentException("Invalid match field name"))
+                .getId();
+    }
+
+    private int getMatchFieldWidth(String tableName, String matchFieldName) {
+        Optional<org.opendaylight.p4plugin.p4info.proto.Table> tableContainer = runtimeInfo.getTablesList()
+                .stream()
+                .filter(table -> table.getPreamble().getName().equals(tableName))
+                .findFirst();
+
+        Optional<org.opendaylight.p4plugin.p4info.proto.MatchField> matchFieldContainer =
+                tableContainer.orElseThrow(()-> new IllegalArgumentException("Invalid table name"))
+                        .getMatchFieldsList()
+                        .stream()
+                        .filter(matchField -> matchField.getName().equals(matchFieldName))
+                        .findFirst();
+
+        return (matchFieldContainer.orElseThrow(()-> new IllegalArgumentException("Invalid match field name"))
+                .getBitwidth() + 7 ) / 8;
+    }
+
+    private int getActionId(String actionName) {
+        Optional<org.opendaylight.p4plugin.p4info.proto.Action> optional = runtimeInfo.getActionsList()
+                .stream()
+                .filter(action -> action.getPreamble().getName().equals(actionName))
+                .findFirst();
+        return optional.orElseThrow(()-> new IllegalArgumentException("Invalid action name"))
+                .getPreamble().getId();
+    }
+
+    private int getParamId(String actionName, String paramName) {
+        Optional<org.opendaylight.p4plugin.p4info.proto.Action> actionContainer = runtimeInfo.getActionsList()
+                .stream()
+                .filter(action -> action.getPreamble().getName().equals(actionName))
+                .findFirst();
+
+        Optional<org.opendaylight.p4plugin.p4info.proto.Action.Param> paramContainer =
+                actionContainer.orElseThrow(()-> new IllegalArgumentException("Invalid action name"))
+                        .getParamsList()
+                        .stream()
+                        .filter(param -> param.getName().equals(paramName))
+                        .findFirst();
+
+        return paramContainer.orElseThrow(()-> new IllegalArgumentException("Invalid param name"))
+                .getId();
+    }
+
+    private int getParamWidth(String actionName, String paramName) {
+        Optional<org.opendaylight.p4plugin.p4info.proto.Action> actionContainer = runtimeInfo.getActionsList()
+                .stream()
+                .filter(action -> action.getPreamble().getName().equals(actionName))
+                .findFirst();
+
+        Optional<org.opendaylight.p4plugin.p4info.proto.Action.Param> paramContainer =
+                actionContainer.orElseThrow(()-> new IllegalArgumentException("Invalid action name"))
+                        .getParamsList()
+                        .stream()
+                        .filter(param -> param.getName().equals(paramName))
+                        .findFirst();
+
+        return (paramContainer.orElseThrow(()-> new IllegalArgumentException("Invalid param name"))
+                .getBitwidth() + 7 ) / 8;
+    }
+
+    private TableAction directActionParse(DIRECTACTION action) {
+        TableAction.Builder tableActionBuilder = TableAction.newBuilder();
+        Action.Builder actionBuilder = Action.newBuilder();
+        List<ActionParam> params = action.getActionParam();
+        String actionName = action.getActionName();
+        actionBuilder.setActionId(getActionId(actionName));
+
+        params.forEach(p->{
+            Action.Param.Builder paramBuilder = Action.Param.newBuilder();
+            String paramName = p.getParamName();
+            int paramId = getParamId(actionName, paramName);
+            int paramWidth = getParamWidth(actionName, paramName);
+            paramBuilder.setParamId(paramId);
+            String valueStr = p.getParamValue();
+            byte[] valueBytes = Utils.strToByteArray(valueStr, paramWidth);
+            paramBuilder.setValue(ByteString.copyFrom(valueBytes));
+            actionBuilder.addParams(paramBuilder);
+        });
+
+        return tableActionBuilder.setAction(actionBuilder).build();
+    }
+
+    private TableAction memberActionParse(ACTIONPROFILEMEMBER memberAction) {
+        TableAction.Builder builder = TableAction.newBuilder();
+        builder.setActionProfileMemberId(memberAction.getMemberId().intValue());
+        return builder.build();
+    }
+
+    private TableAction groupActionParse(ACTIONPROFILEGROUP groupAction) {
+        TableAction.Builder builder = TableAction.newBuilder();
+        builder.setActionProfileGroupId(groupAction.getGroupId().intValue());
+        return builder.build();
+    }
+
+    private TableAction buildTableAction(ActionType actionType) {
+        if (actionType instanceof DIRECTACTION) {
+            return directActionParse((DIRECTACTION)actionType);
+        } else if (actionType instanceof ACTIONPROFILEMEMBER) {
+            return memberActionParse((ACTIONPROFILEMEMBER)actionType);
+        } else if (actionType instanceof ACTIONPROFILEGROUP) {
+            return groupActionParse(((ACTIONPROFILEGROUP) actionType));
+        } else {
+            throw new IllegalArgumentException("Invalid action type");
+        }
+    }
+
+    private FieldMatch exactMatchParse(EXACT exact, String tableName, String fieldName) {
+        FieldMatch.Builder fieldMatchBuilder = FieldMatch.newBuilder();
+        FieldMatch.Exact.Builder exactBuilder = FieldMatch.Exact.newBuilder();
+        Integer matchFieldWidth = getMatchFieldWidth(tableName, fieldName);
+        Integer matchFieldId = getMatchFieldId(tableName, fieldName);
+        String valueStr = exact.getExactValue().getValue();
+        byte[] valeBytes = Utils.strToByteArray(valueStr, matchFieldWidth);
+        exactBuilder.setValue(ByteString.copyFrom(valeBytes, 0, matchFieldWidth));
+        fieldMatchBuilder.setExact(exactBuilder);
+        fieldMatchBuilder.setFieldId(matchFieldId);
+        return fieldMatchBuilder.build();
+    }
+
+    private FieldMatch lpmMatchParse(LPM lpm, String tableName, String fieldName) {
+        FieldMatch.Builder fieldMatchBuilder = FieldMatch.newBuilder();
+        FieldMatch.LPM.Builder lpmBuilder = FieldMatch.LPM.newBuilder();
+        Integer matchFieldWidth = getMatchFieldWidth(tableName, fieldName);
+        Integer matchFieldId = getMatchFieldId(tableName, fieldName);
+        String valueStr = lpm.getLpmValue().getValue();
+        byte[] valeBytes = Utils.strToByteArray(valueStr, matchFieldWidth);
+        lpmBuilder.setValue(ByteString.copyFrom(valeBytes, 0, matchFieldWidth));
+        lpmBuilder.setPrefixLen(lpm.getPrefixLen().intValue());
+        fieldMatchBuilder.setLpm(lpmBuilder);
+        fieldMatchBuilder.setFieldId(matchFieldId);
+        return fieldMatchBuilder.build();
+    }
+
+    private byte[] getMask(Short mask) {
+        StringBuffer buffer = new StringBuffer(128);
+        for (int i = 0; i < 128; i++) {
+            if (i < mask) {
+                buffer.append('1');
+            } else {
+                buffer.append('0');
+            }
+        }
+
+        byte[] result = new byte[16];
+        for (int i = 0; i < 16; i++) {
+            result[i] = (byte)Integer.parseInt(buffer.substring(i * 8, i * 8 + 8),2);
+        }
+        return result;
+    }
+
+    private FieldMatch ternaryMatchParse(TERNARY ternary, String tableName, String fieldName) {
+        FieldMatch.Builder fieldMatchBuilder = FieldMatch.newBuilder();
+        FieldMatch.Ternary.Builder ternaryBuilder = FieldMatch.Ternary.newBuilder();
+        String valueStr = new String(ternary.getTernaryValue().getValue());
+        Short mask = ternary.getMask();
+        Integer matchFieldWidth = getMatchFieldWidth(tableName, fieldName);
+        Integer matchFieldId = getMatchFieldId(tableName, fieldName);
+        byte[] valueBytes = Utils.strToByteArray(valueStr, matchFieldWidth);
+        byte[] maskBytes = getMask(mask);
+        ternaryBuilder.setValue(ByteString.copyFrom(valueBytes, 0, matchFieldWidth));
+        ternaryBuilder.setMask(ByteString.copyFrom(maskBytes, 0, matchFieldWidth));
+        fieldMatchBuilder.setTernary(ternaryBuilder);
+        fieldMatchBuilder.setFieldId(matchFieldId);
+        return fieldMatchBuilder.build();
+    }
+
+    private FieldMatch rangeMatchParse(RANGE range, String tableName, String fieldName) {
+        FieldMatch.Builder fieldMatchBuilder = FieldMatch.newBuilder();
+        FieldMatch.Range.Builder rangeBuilder = FieldMatch.Range.newBuilder();
+        BigInteger high = range.getRangeValueHigh();
+        BigInteger low = range.getRangeValueLow();
+        Integer matchFieldWidth = getMatchFieldWidth(tableName, fieldName);
+        Integer matchFieldId = getMatchFieldId(tableName, fieldName);
+        rangeBuilder.setHigh(ByteString.copyFrom(high.toByteArray(), 0, matchFieldWidth));
+        rangeBuilder.setLow(ByteString.copyFrom(low.toByteArray(), 0, matchFieldWidth));
+        fieldMatchBuilder.setFieldId(matchFieldId);
+        fieldMatchBuilder.setRange(rangeBuilder);
+        return fieldMatchBuilder.build();
+    }
+
+    private FieldMatch buildFieldMatch(Field fields, String tableName) {
+        MatchType matchType = fields.getMatchType();
+        String fieldName = fields.getFieldName();
+
+        if (matchType instanceof EXACT) {
+            return exactMatchParse((EXACT)matchType, tableName, fieldName);
+        } else if (matchType instanceof LPM) {
+            return lpmMatchParse((LPM)matchType, tableName, fieldName);
+        } else if (matchType instanceof TERNARY) {
+            return ternaryMatchParse((TERNARY)matchType, tableName, fieldName);
+        } else if (matchType instanceof RANGE) {
+            return rangeMatchParse((RANGE) matchType, tableName, fieldName);
+        } else {
+            throw new IllegalArgumentException("Invalid match type");
+        }
+    }
+
+    public org.opendaylight.p4plugin.p4runtime.proto.TableEntry toProtoEntry(TableEntry entry) {
+        String tableName = entry.getTableName();
+        int tableId = getTableId(tableName);
+        org.opendaylight.p4plugin.p4runtime.proto.TableEntry.Builder tableEntryBuilder =
+                org.opendaylight.p4plugin.p4runtime.proto.TableEntry.newBuilder();
+        List<Field> fields = entry.getField();
+        fields.forEach(field -> tableEntryBuilder.addMatch(buildFieldMatch(field, tableName)));
+        ActionType actionType = entry.getActionType();
+        org.opendaylight.p4plugin.p4runtime.proto.TableAction tableAction = buildTableAction(actionType);
+        tableEntryBuilder.setPriority(entry.getPriority());
+        tableEntryBuilder.setControllerMetadata(entry.getControllerMetadata().longValue());
+        tableEntryBuilder.setTableId(tableId);
+        tableEntryBuilder.setAction(tableAction);
+        return tableEntryBuilder.build();
+    }
+}
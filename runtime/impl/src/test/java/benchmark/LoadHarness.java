@@ -0,0 +1,302 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package benchmark;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.JdkFutureAdapters;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.TextFormat;
+import fake.FakeP4RuntimeSwitch;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import org.opendaylight.p4plugin.p4info.proto.Action;
+import org.opendaylight.p4plugin.p4info.proto.MatchField;
+import org.opendaylight.p4plugin.p4info.proto.P4Info;
+import org.opendaylight.p4plugin.p4info.proto.Preamble;
+import org.opendaylight.p4plugin.p4info.proto.Table;
+import org.opendaylight.p4plugin.runtime.impl.DeviceServiceProvider;
+import org.opendaylight.p4plugin.runtime.impl.PacketServiceProvider;
+import org.opendaylight.p4plugin.runtime.impl.RuntimeServiceProvider;
+import org.opendaylight.p4plugin.runtime.impl.stub.ChannelFactory;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev130715.Ipv4Address;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev130715.PortNumber;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.device.rev170808.AddDeviceInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.device.rev170808.ConnectToDeviceInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.device.rev170808.RemoveDeviceInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.device.rev170808.SetPipelineConfigInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.packet.rev170808.P4TransmitPacketInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.AddTableEntryInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.ReadTableEntryPageInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.ReadTableEntryPageOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.action.ActionParamBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.FieldBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.field.match.type.EXACTBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.table.entry.action.type.DIRECTACTIONBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.types.rev170808.Value;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * End to end load run against in-process fake switches. Drives the device,
+ * runtime and packet service providers the way RESTCONF would, then prints
+ * ops/sec and p50/p99 latency per RPC type.
+ *
+ * Usage: LoadHarness [devices] [entries per device] [packets per device] [switch latency us]
+ */
+public class LoadHarness {
+    private static final int MAX_OUTSTANDING = 1024;
+    private static final int PORT = 50051;
+    private final int devices;
+    private final int entries;
+    private final int packets;
+    private final long latencyMicros;
+    private final List<FakeP4RuntimeSwitch> switches = new ArrayList<>();
+    private final Map<String, Recorder> recorders = new LinkedHashMap<>();
+    private DeviceServiceProvider deviceService;
+    private RuntimeServiceProvider runtimeService;
+    private PacketServiceProvider packetService;
+
+    public LoadHarness(int devices, int entries, int packets, long latencyMicros) {
+        this.devices = devices;
+        this.entries = entries;
+        this.packets = packets;
+        this.latencyMicros = latencyMicros;
+    }
+
+    private static String nodeId(int device) {
+        return "node" + device;
+    }
+
+    private static String ip(int device) {
+        return String.format("10.%d.%d.%d", (device >> 16) & 0xFF, (device >> 8) & 0xFF, device & 0xFF);
+    }
+
+    private void setUp() throws IOException {
+        ChannelFactory.getInstance().setChannelBuilder((ip, port) -> InProcessChannelBuilder.forName(ip + ":" + port));
+        for (int i = 0; i < devices; i++) {
+            FakeP4RuntimeSwitch fakeSwitch = new FakeP4RuntimeSwitch(ip(i) + ":" + PORT).start();
+            fakeSwitch.setLatency(latencyMicros, TimeUnit.MICROSECONDS);
+            switches.add(fakeSwitch);
+        }
+
+        deviceService = new DeviceServiceProvider();
+        deviceService.init();
+        runtimeService = new RuntimeServiceProvider(null, null);
+        runtimeService.init();
+        packetService = new PacketServiceProvider();
+        packetService.init();
+    }
+
+    private void tearDown() {
+        for (int i = 0; i < devices; i++) {
+            String nodeId = nodeId(i);
+            await(deviceService.removeDevice(new RemoveDeviceInputBuilder().setNid(nodeId).build()));
+        }
+        packetService.close();
+        runtimeService.close();
+        deviceService.close();
+        switches.forEach(FakeP4RuntimeSwitch::close);
+        ChannelFactory.getInstance().setChannelBuilder(null);
+    }
+
+    private static void await(Future<?> future) {
+        try {
+            future.get(60, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static P4Info createP4Info() {
+        return P4Info.newBuilder()
+                .addTables(Table.newBuilder()
+                        .setPreamble(Preamble.newBuilder().setId(33554433).setName("acl"))
+                        .addMatchFields(MatchField.newBuilder().setId(1).setName("hdr.ipv4.dstAddr")
+                                .setBitwidth(32).setMatchType(MatchField.MatchType.EXACT)))
+                .addActions(Action.newBuilder()
+                        .setPreamble(Preamble.newBuilder().setId(16777217).setName("forward"))
+                        .addParams(Action.Param.newBuilder().setId(1).setName("port").setBitwidth(9)))
+                .build();
+    }
+
+    /**
+     * Run count calls of an RPC with at most MAX_OUTSTANDING in flight.
+     */
+    private void run(String rpc, int count, IntFunction<Future<? extends RpcResult<?>>> call) {
+        Recorder recorder = recorders.computeIfAbsent(rpc, Recorder::new);
+        Semaphore outstanding = new Semaphore(MAX_OUTSTANDING);
+        CountDownLatch done = new CountDownLatch(count);
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            outstanding.acquireUninterruptibly();
+            long sent = System.nanoTime();
+            Futures.addCallback(JdkFutureAdapters.listenInPoolThread(call.apply(i)),
+                    new FutureCallback<RpcResult<?>>() {
+                        @Override
+                        public void onSuccess(RpcResult<?> result) {
+                            recorder.record(System.nanoTime() - sent, result != null && result.isSuccessful());
+                            outstanding.release();
+                            done.countDown();
+                        }
+
+                        @Override
+                        public void onFailure(Throwable t) {
+                            recorder.record(System.nanoTime() - sent, false);
+                            outstanding.release();
+                            done.countDown();
+                        }
+                    }, MoreExecutors.directExecutor());
+        }
+
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        recorder.addElapsed(System.nanoTime() - start);
+    }
+
+    public void execute() throws IOException {
+        File runtimeFile = File.createTempFile("load", ".proto.txt");
+        File configFile = File.createTempFile("load", ".json");
+        runtimeFile.deleteOnExit();
+        configFile.deleteOnExit();
+        Files.write(runtimeFile.toPath(), TextFormat.printToString(createP4Info()).getBytes(StandardCharsets.UTF_8));
+        Files.write(configFile.toPath(), "{}".getBytes(StandardCharsets.UTF_8));
+
+        setUp();
+        try {
+            run("add-device", devices, i -> deviceService.addDevice(new AddDeviceInputBuilder()
+                    .setNid(nodeId(i))
+                    .setDid(BigInteger.ZERO)
+                    .setIp(new Ipv4Address(ip(i)))
+                    .setPort(new PortNumber(PORT))
+                    .setRuntimeFilePath(runtimeFile.getPath())
+                    .setConfigFilePath(configFile.getPath())
+                    .build()));
+            run("connect-to-device", devices, i -> deviceService.connectToDevice(
+                    new ConnectToDeviceInputBuilder().setNid(nodeId(i)).build()));
+            run("set-pipeline-config", devices, i -> deviceService.setPipelineConfig(
+                    new SetPipelineConfigInputBuilder().setNid(nodeId(i)).build()));
+            run("add-table-entry", devices * entries, i -> runtimeService.addTableEntry(new AddTableEntryInputBuilder()
+                    .setNid(nodeId(i % devices))
+                    .setTableName("acl")
+                    .setField(Collections.singletonList(new FieldBuilder()
+                            .setFieldName("hdr.ipv4.dstAddr")
+                            .setMatchType(new EXACTBuilder().setExactValue(new Value(String.valueOf(i))).build())
+                            .build()))
+                    .setActionType(new DIRECTACTIONBuilder()
+                            .setActionName("forward")
+                            .setActionParam(Collections.singletonList(
+                                    new ActionParamBuilder().setParamName("port").setParamValue("1").build()))
+                            .build())
+                    .setPriority(0)
+                    .setControllerMetadata(BigInteger.ZERO)
+                    .build()));
+            AtomicLong readEntries = new AtomicLong();
+            run("read-table-entry-page", devices, i -> {
+                String token = null;
+                Future<RpcResult<ReadTableEntryPageOutput>> future;
+                do {
+                    future = runtimeService.readTableEntryPage(new ReadTableEntryPageInputBuilder()
+                            .setNid(nodeId(i)).setTableName("acl").setPageSize(1000L)
+                            .setContinuationToken(token).build());
+                    try {
+                        ReadTableEntryPageOutput output = future.get(60, TimeUnit.SECONDS).getResult();
+                        readEntries.addAndGet(output.getEntry().size());
+                        token = output.getContinuationToken();
+                    } catch (Exception e) {
+                        break;
+                    }
+                } while (token != null);
+                return future;
+            });
+            byte[] payload = new byte[64];
+            run("p4-transmit-packet", devices * packets, i -> packetService.p4TransmitPacket(
+                    new P4TransmitPacketInputBuilder().setNid(nodeId(i % devices)).setPayload(payload).build()));
+
+            report();
+            System.out.printf("Entries written = %d, entries read = %d, packets out = %d.%n",
+                    switches.stream().mapToLong(FakeP4RuntimeSwitch::getTableEntryCount).sum(),
+                    readEntries.get(),
+                    switches.stream().mapToLong(FakeP4RuntimeSwitch::getPacketOutCount).sum());
+        } finally {
+            tearDown();
+        }
+    }
+
+    private void report() {
+        System.out.printf("%-24s %10s %8s %12s %12s %12s%n", "rpc", "calls", "failed", "ops/sec", "p50(us)", "p99(us)");
+        recorders.values().forEach(Recorder::print);
+    }
+
+    private static class Recorder {
+        private final String rpc;
+        private long[] latencies = new long[1024];
+        private int count;
+        private int failed;
+        private long elapsed;
+
+        Recorder(String rpc) {
+            this.rpc = rpc;
+        }
+
+        synchronized void record(long latency, boolean isSuccessful) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = latency;
+            if (!isSuccessful) {
+                failed++;
+            }
+        }
+
+        synchronized void addElapsed(long nanos) {
+            elapsed += nanos;
+        }
+
+        private long percentile(long[] sorted, double percentile) {
+            return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, sorted.length * percentile)];
+        }
+
+        synchronized void print() {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            double opsPerSec = elapsed == 0 ? 0 : count * 1e9 / elapsed;
+            System.out.printf("%-24s %10d %8d %12.0f %12d %12d%n", rpc, count, failed, opsPerSec,
+                    TimeUnit.NANOSECONDS.toMicros(percentile(sorted, 0.5)),
+                    TimeUnit.NANOSECONDS.toMicros(percentile(sorted, 0.99)));
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int devices = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int entries = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int packets = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        long latency = args.length > 3 ? Long.parseLong(args[3]) : 0;
+        new LoadHarness(devices, entries, packets, latency).execute();
+        System.exit(0);
+    }
+}
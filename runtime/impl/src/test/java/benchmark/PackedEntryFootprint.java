@@ -0,0 +1,138 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package benchmark;
+
+import com.google.protobuf.ByteString;
+import org.opendaylight.p4plugin.p4info.proto.Action;
+import org.opendaylight.p4plugin.p4info.proto.ActionRef;
+import org.opendaylight.p4plugin.p4info.proto.MatchField;
+import org.opendaylight.p4plugin.p4info.proto.P4Info;
+import org.opendaylight.p4plugin.p4info.proto.Preamble;
+import org.opendaylight.p4plugin.p4info.proto.Table;
+import org.opendaylight.p4plugin.p4runtime.proto.FieldMatch;
+import org.opendaylight.p4plugin.p4runtime.proto.TableAction;
+import org.opendaylight.p4plugin.p4runtime.proto.TableEntry;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.EntryLayout;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.P4InfoCatalog;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.PackedEntryTable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Memory held per shadowed table entry: protobuf entries keyed by their match
+ * bytes, as the shadow store kept them before, against the packed table on
+ * heap and off heap. Run with a large heap, e.g. -Xmx16g, and compare the
+ * bytes per entry.
+ *
+ * Usage: PackedEntryFootprint [entries...], default 1000000 10000000
+ */
+public class PackedEntryFootprint {
+    private static final int TABLE_ID = 33554433;
+    private static final int ACTION_ID = 16777217;
+
+    private static EntryLayout layout() {
+        P4Info p4Info = P4Info.newBuilder()
+                .addTables(Table.newBuilder()
+                        .setPreamble(Preamble.newBuilder().setId(TABLE_ID).setName("ipv4_lpm"))
+                        .addMatchFields(MatchField.newBuilder().setId(1).setName("hdr.ethernet.etherType")
+                                .setBitwidth(16).setMatchType(MatchField.MatchType.EXACT))
+                        .addMatchFields(MatchField.newBuilder().setId(2).setName("hdr.ipv4.dstAddr")
+                                .setBitwidth(32).setMatchType(MatchField.MatchType.LPM))
+                        .addActionRefs(ActionRef.newBuilder().setId(ACTION_ID)))
+                .addActions(Action.newBuilder()
+                        .setPreamble(Preamble.newBuilder().setId(ACTION_ID).setName("ipv4_forward"))
+                        .addParams(Action.Param.newBuilder().setId(1).setName("dstAddr").setBitwidth(48))
+                        .addParams(Action.Param.newBuilder().setId(2).setName("port").setBitwidth(9)))
+                .build();
+        P4InfoCatalog catalog = P4InfoCatalog.of(p4Info);
+        return EntryLayout.of(catalog, catalog.getTable(TABLE_ID));
+    }
+
+    private static TableEntry entry(int i) {
+        return TableEntry.newBuilder()
+                .setTableId(TABLE_ID)
+                .addMatch(FieldMatch.newBuilder().setFieldId(1)
+                        .setExact(FieldMatch.Exact.newBuilder().setValue(ByteString.copyFrom(new byte[] {8, 0}))))
+                .addMatch(FieldMatch.newBuilder().setFieldId(2)
+                        .setLpm(FieldMatch.LPM.newBuilder().setPrefixLen(32).setValue(ByteString.copyFrom(
+                                new byte[] {(byte) (i >> 24), (byte) (i >> 16), (byte) (i >> 8), (byte) i}))))
+                .setAction(TableAction.newBuilder().setAction(
+                        org.opendaylight.p4plugin.p4runtime.proto.Action.newBuilder()
+                                .setActionId(ACTION_ID)
+                                .addParams(org.opendaylight.p4plugin.p4runtime.proto.Action.Param.newBuilder()
+                                        .setParamId(1).setValue(ByteString.copyFrom(
+                                                new byte[] {0, 0, 0, 0, (byte) (i >> 8), (byte) i})))
+                                .addParams(org.opendaylight.p4plugin.p4runtime.proto.Action.Param.newBuilder()
+                                        .setParamId(2).setValue(ByteString.copyFrom(
+                                                new byte[] {(byte) ((i >> 8) & 1), (byte) i})))))
+                .build();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void report(String name, int entries, long bytes) {
+        System.out.printf("%-12s %,12d entries %,16d bytes %8.1f bytes/entry%n",
+                name, entries, bytes, (double) bytes / entries);
+    }
+
+    private static void protobuf(int entries) {
+        long before = usedHeap();
+        Map<ByteString, TableEntry> map = new HashMap<>();
+        try {
+            for (int i = 0; i < entries; i++) {
+                TableEntry entry = entry(i);
+                map.put(entry.toBuilder().clearAction().build().toByteString(), entry);
+            }
+        } catch (OutOfMemoryError e) {
+            System.out.printf("%-12s out of memory after %,d entries%n", "protobuf", map.size());
+            return;
+        }
+        report("protobuf", map.size(), usedHeap() - before);
+    }
+
+    private static void packed(EntryLayout layout, int entries, boolean isDirect) {
+        String name = isDirect ? "packed-direct" : "packed-heap";
+        long before = usedHeap();
+        PackedEntryTable table = new PackedEntryTable(layout, isDirect);
+        try {
+            for (int i = 0; i < entries; i++) {
+                if (!table.put(entry(i))) {
+                    System.out.printf("%-12s full after %,d entries%n", name, table.size());
+                    return;
+                }
+            }
+        } catch (OutOfMemoryError e) {
+            System.out.printf("%-12s out of memory after %,d entries%n", name, table.size());
+            return;
+        }
+        /* Direct slabs are not seen by the heap, count what the table holds instead. */
+        report(name, table.size(), isDirect ? table.getMemoryBytes() : usedHeap() - before);
+    }
+
+    public static void main(String[] args) {
+        int[] sizes = args.length == 0 ? new int[] {1000000, 10000000} : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+        EntryLayout layout = layout();
+        System.out.printf("record size %d bytes (key %d, value %d)%n",
+                layout.getRecordSize(), layout.getKeySize(), layout.getValueSize());
+        for (int entries : sizes) {
+            protobuf(entries);
+            packed(layout, entries, false);
+            packed(layout, entries, true);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package benchmark;
+
+import com.google.protobuf.ByteString;
+import org.opendaylight.p4plugin.runtime.impl.utils.Utils;
+import org.opendaylight.p4plugin.runtime.impl.utils.ValueEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding cost of one value, regex based Utils.strToByteArray against
+ * ValueEncoder. Run with main() from the test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValueEncoderBenchmark {
+    @Param({"10.0.0.1", "aa:bb:cc:dd:ee:ff", "0xabcd", "65535"})
+    private String value;
+    private int width;
+
+    @Setup
+    public void setup() {
+        width = value.indexOf(':') > 0 ? 6 : 4;
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public ByteString regex() {
+        return ByteString.copyFrom(Utils.strToByteArray(value, width), 0, width);
+    }
+
+    @Benchmark
+    public ByteString encoder() {
+        return ValueEncoder.encode(value, width);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ValueEncoderBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package cluster;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.opendaylight.mdsal.eos.binding.api.EntityOwnershipCandidateRegistration;
+import org.opendaylight.mdsal.eos.binding.api.EntityOwnershipChange;
+import org.opendaylight.mdsal.eos.binding.api.EntityOwnershipListenerRegistration;
+import org.opendaylight.mdsal.eos.binding.api.EntityOwnershipService;
+import org.opendaylight.mdsal.eos.common.api.EntityOwnershipChangeState;
+import org.opendaylight.p4plugin.runtime.impl.cluster.DeviceOwnership;
+import org.opendaylight.p4plugin.runtime.impl.cluster.ElectionId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class DeviceOwnershipTest {
+    private EntityOwnershipService service;
+    private EntityOwnershipCandidateRegistration registration;
+    private DeviceOwnership ownership;
+    private final List<ElectionId> electionIds = new ArrayList<>();
+    private final List<Boolean> changes = new ArrayList<>();
+
+    @Before
+    public void before() throws Exception {
+        service = Mockito.mock(EntityOwnershipService.class);
+        registration = Mockito.mock(EntityOwnershipCandidateRegistration.class);
+        Mockito.doReturn(Mockito.mock(EntityOwnershipListenerRegistration.class))
+                .when(service).registerListener(Mockito.eq(DeviceOwnership.ENTITY_TYPE), Mockito.any());
+        Mockito.doReturn(registration).when(service).registerCandidate(Mockito.any());
+        ownership = new DeviceOwnership();
+        ownership.setOwnershipService(service);
+        ownership.setListener((nodeId, isOwner, electionId) -> {
+            changes.add(isOwner);
+            electionIds.add(electionId);
+        });
+    }
+
+    private void change(String nodeId, EntityOwnershipChangeState state) {
+        ownership.ownershipChanged(new EntityOwnershipChange(DeviceOwnership.toEntity(nodeId), state));
+    }
+
+    @Test
+    public void testStandalone() {
+        DeviceOwnership standalone = new DeviceOwnership();
+        standalone.register("node0");
+        Assert.assertFalse(standalone.isClustered());
+        Assert.assertTrue(standalone.isOwner("node0"));
+    }
+
+    @Test
+    public void testOwnershipChanges() throws Exception {
+        ownership.register("node0");
+        Mockito.verify(service).registerCandidate(DeviceOwnership.toEntity("node0"));
+        Assert.assertFalse(ownership.isOwner("node0"));
+
+        change("node0", EntityOwnershipChangeState.LOCAL_OWNERSHIP_GRANTED);
+        change("node0", EntityOwnershipChangeState.LOCAL_OWNERSHIP_RETAINED_WITH_NO_CHANGE);
+        Assert.assertTrue(ownership.isOwner("node0"));
+        change("node0", EntityOwnershipChangeState.LOCAL_OWNERSHIP_LOST_NEW_OWNER);
+        Assert.assertFalse(ownership.isOwner("node0"));
+        change("node0", EntityOwnershipChangeState.LOCAL_OWNERSHIP_GRANTED);
+
+        Assert.assertEquals(3, changes.size());
+        Assert.assertEquals(Boolean.TRUE, changes.get(0));
+        Assert.assertEquals(Boolean.FALSE, changes.get(1));
+        Assert.assertNull(electionIds.get(1));
+        Assert.assertEquals(DeviceOwnership.OWNER_ELECTION_ID_HIGH, electionIds.get(0).getHigh());
+        Assert.assertTrue(electionIds.get(2).getLow() > electionIds.get(0).getLow());
+    }
+
+    @Test
+    public void testUnregister() {
+        ownership.register("node0");
+        change("node0", EntityOwnershipChangeState.LOCAL_OWNERSHIP_GRANTED);
+        ownership.unregister("node0");
+        Mockito.verify(registration).close();
+        Assert.assertFalse(ownership.isOwner("node0"));
+
+        change("node0", EntityOwnershipChangeState.LOCAL_OWNERSHIP_GRANTED);
+        Assert.assertEquals(1, changes.size());
+    }
+}
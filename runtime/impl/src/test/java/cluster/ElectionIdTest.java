@@ -15,8 +15,17 @@ import org.opendaylight.p4plugin.runtime.impl.cluster.ElectionId;
 import org.opendaylight.p4plugin.runtime.impl.cluster.ElectionIdGenerator;
 import org.opendaylight.p4plugin.runtime.impl.cluster.ElectionIdObserver;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class ElectionIdTest {
 
@@ -45,6 +54,114 @@ public class ElectionIdTest {
         Assert.assertFalse(list.contains(electionId2));
     }
 
+    @Test
+    public void testAggregateFuture() throws Exception {
+        SettableFuture<Void> first = SettableFuture.create();
+        SettableFuture<Void> second = SettableFuture.create();
+        ElectionIdObserver observer1 = asyncObserver(first);
+        ElectionIdObserver observer2 = asyncObserver(second);
+        ElectionIdGenerator.getInstance().addObserver(observer1);
+        ElectionIdGenerator.getInstance().addObserver(observer2);
+        try {
+            ListenableFuture<Void> future = ElectionIdGenerator.getInstance().setElectionId(new ElectionId(5, 6));
+            Assert.assertEquals(new ElectionId(5, 6), ElectionIdGenerator.getInstance().getElectionId());
+            first.set(null);
+            Assert.assertFalse(future.isDone());
+            second.setException(new IllegalStateException("No response"));
+            try {
+                future.get(1, TimeUnit.SECONDS);
+                Assert.fail();
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        } finally {
+            ElectionIdGenerator.getInstance().deleteObserver(observer1);
+            ElectionIdGenerator.getInstance().deleteObserver(observer2);
+        }
+    }
+
+    @Test
+    public void testConcurrentObservers() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                long high = i;
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 1000; j++) {
+                        ElectionIdObserver observer = electionId -> { };
+                        ElectionIdGenerator.getInstance().addObserver(observer);
+                        ElectionIdGenerator.getInstance().setElectionId(new ElectionId(high, j));
+                        ElectionIdGenerator.getInstance().deleteObserver(observer);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+            ElectionIdGenerator.getInstance().setElectionId(new ElectionId(0, 0));
+        }
+    }
+
+    @Test
+    public void testConcurrentSetsRace() throws Exception {
+        List<RecordingObserver> observers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            RecordingObserver observer = new RecordingObserver();
+            observers.add(observer);
+            ElectionIdGenerator.getInstance().addObserver(observer);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int j = 0; j < 1000; j++) {
+                CountDownLatch start = new CountDownLatch(1);
+                long low = j;
+                Future<?> first = executor.submit(() -> {
+                    start.await();
+                    return ElectionIdGenerator.getInstance().setElectionId(new ElectionId(1, low));
+                });
+                Future<?> second = executor.submit(() -> {
+                    start.await();
+                    return ElectionIdGenerator.getInstance().setElectionId(new ElectionId(2, low));
+                });
+                start.countDown();
+                first.get(10, TimeUnit.SECONDS);
+                second.get(10, TimeUnit.SECONDS);
+                ElectionId stored = ElectionIdGenerator.getInstance().getElectionId();
+                for (RecordingObserver observer : observers) {
+                    Assert.assertEquals(stored, observer.last);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            observers.forEach(ElectionIdGenerator.getInstance()::deleteObserver);
+            ElectionIdGenerator.getInstance().setElectionId(new ElectionId(0, 0));
+        }
+    }
+
+    private static class RecordingObserver implements ElectionIdObserver {
+        private volatile ElectionId last;
+
+        @Override
+        public void update(ElectionId electionId) {
+            last = electionId;
+        }
+    }
+
+    private static ElectionIdObserver asyncObserver(ListenableFuture<Void> future) {
+        return new ElectionIdObserver() {
+            @Override
+            public void update(ElectionId electionId) {}
+
+            @Override
+            public ListenableFuture<Void> updateAsync(ElectionId electionId) {
+                return future;
+            }
+        };
+    }
+
     @After
     public void after() {}
 }
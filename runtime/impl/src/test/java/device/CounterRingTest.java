@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package device;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opendaylight.p4plugin.runtime.impl.device.CounterRing;
+
+import java.util.concurrent.TimeUnit;
+
+public class CounterRingTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testDeltaAndRate() {
+        CounterRing ring = new CounterRing(4, 3);
+        int[] changed = new int[ring.size()];
+        ring.begin(0);
+        ring.set(1, 1000, 10);
+        ring.set(2, 500, 5);
+        Assert.assertEquals(0, ring.commit(changed));
+
+        ring.begin(2 * SECOND);
+        ring.set(1, 3000, 30);
+        Assert.assertFalse(ring.set(4, 1, 1));
+        Assert.assertEquals(1, ring.commit(changed));
+        Assert.assertEquals(1, changed[0]);
+        Assert.assertEquals(2000, ring.getByteDelta(1));
+        Assert.assertEquals(20, ring.getPacketDelta(1));
+        Assert.assertEquals(1000, ring.getByteRate(1));
+        Assert.assertEquals(10, ring.getPacketRate(1));
+        Assert.assertEquals(500, ring.getByteCount(2, 0));
+        Assert.assertEquals(0, ring.getByteDelta(2));
+        Assert.assertEquals(2 * SECOND, ring.getIntervalNanos());
+    }
+
+    @Test
+    public void testReset() {
+        CounterRing ring = new CounterRing(1, 2);
+        int[] changed = new int[1];
+        ring.begin(0);
+        ring.set(0, 1000, 10);
+        ring.commit(changed);
+        ring.begin(SECOND);
+        ring.set(0, 100, 1);
+        Assert.assertEquals(1, ring.commit(changed));
+        Assert.assertEquals(100, ring.getByteDelta(0));
+        Assert.assertEquals(1, ring.getPacketDelta(0));
+    }
+
+    @Test
+    public void testWrap() {
+        CounterRing ring = new CounterRing(2, 3);
+        int[] changed = new int[2];
+        for (int i = 0; i < 10; i++) {
+            ring.begin(i * SECOND);
+            ring.set(0, i * 100, i);
+            ring.commit(changed);
+        }
+        Assert.assertEquals(3, ring.getSampleCount());
+        Assert.assertEquals(900, ring.getByteCount(0, 0));
+        Assert.assertEquals(700, ring.getByteCount(0, 2));
+        Assert.assertEquals(7 * SECOND, ring.getTimestamp(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoSample() {
+        CounterRing ring = new CounterRing(2, 3);
+        ring.getByteCount(0, 0);
+    }
+
+    @Test
+    public void testDiscardUncommitted() {
+        CounterRing ring = new CounterRing(1, 2);
+        int[] changed = new int[1];
+        ring.begin(0);
+        ring.set(0, 100, 1);
+        ring.commit(changed);
+        ring.begin(SECOND);
+        ring.set(0, 999, 9);
+        ring.begin(2 * SECOND);
+        Assert.assertEquals(0, ring.commit(changed));
+        Assert.assertEquals(100, ring.getByteCount(0, 0));
+    }
+}
@@ -9,76 +9,58 @@ package device;
 
 import org.junit.After;
 import org.junit.Assert;
-import org.junit.Before;
 import org.junit.Test;
-import org.mockito.*;
+import org.mockito.Mockito;
 import org.opendaylight.p4plugin.runtime.impl.device.DeviceManager;
+import org.opendaylight.p4plugin.runtime.impl.device.DeviceState;
 import org.opendaylight.p4plugin.runtime.impl.device.P4Device;
 
 import java.io.IOException;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.List;
 
 public class DeviceManagerTest {
-    @InjectMocks
-    DeviceManager manager = DeviceManager.getInstance();
+    private DeviceManager manager = DeviceManager.getInstance();
 
-    @Spy
-    private ConcurrentHashMap<String, P4Device> devices;
-
-    @Before
-    public void before() {
-        MockitoAnnotations.initMocks(this);
+    private static P4Device mockDevice(String nodeId, String ip, Integer port, Long deviceId) {
+        P4Device device = Mockito.mock(P4Device.class);
+        Mockito.doReturn(nodeId).when(device).getNodeId();
+        Mockito.doReturn(deviceId).when(device).getDeviceId();
+        Mockito.doReturn(port).when(device).getPort();
+        Mockito.doReturn(ip).when(device).getIp();
+        Mockito.doReturn(new DeviceState(nodeId, deviceId, ip, port, false, false)).when(device).getState();
+        return device;
     }
 
     @Test
     public void testIsNodeExist() {
         Assert.assertFalse(manager.isNodeExist("zte"));
-        P4Device device = Mockito.mock(P4Device.class);
-        devices.put("zte", device);
+        manager.addDevice(mockDevice("zte", "127.0.0.1", 50051, (long)0));
         Assert.assertTrue(manager.isNodeExist("zte"));
     }
 
     @Test
     public void testIsTargetExist() {
         Assert.assertFalse(manager.isTargetExist("127.0.0.1", 50051, (long)0));
-        P4Device device = Mockito.mock(P4Device.class);
-        devices.put("zte", device);
-        Mockito.doReturn((long)0).when(device).getDeviceId();
-        Mockito.doReturn(50051).when(device).getPort();
-        Mockito.doReturn("127.0.0.1").when(device).getIp();
+        manager.addDevice(mockDevice("zte", "127.0.0.1", 50051, (long)0));
+        Assert.assertTrue(manager.isTargetExist("127.0.0.1", 50051, (long)0));
+        Assert.assertFalse(manager.isTargetExist("127.0.0.1", 50052, (long)0));
+        Assert.assertFalse(manager.isTargetExist("127.0.0.1", 50051, (long)1));
         Assert.assertTrue(manager.isTargetExist("127.0.0.1", 50051, (long)0));
-        Mockito.verify(device, Mockito.times(1)).getIp();
-        Mockito.verify(device, Mockito.times(1)).getPort();
-        Mockito.verify(device, Mockito.times(1)).getDeviceId();
     }
 
     @Test
     public void testIsDeviceExist() {
         Assert.assertFalse(manager.isDeviceExist("zte", "127.0.0.1", 50051, (long)0));
-        P4Device device = Mockito.mock(P4Device.class);
-        devices.put("zte", device);
-        Mockito.doReturn((long)0).when(device).getDeviceId();
-        Mockito.doReturn(50051).when(device).getPort();
-        Mockito.doReturn("127.0.0.1").when(device).getIp();
+        manager.addDevice(mockDevice("zte", "127.0.0.1", 50051, (long)0));
         Assert.assertFalse(manager.isDeviceExist("hw", "127.0.0.1", 50051, (long)0));
         Assert.assertTrue(manager.isDeviceExist("zte", "127.0.0.1", 50051, (long)0));
-        Mockito.verify(device, Mockito.times(1)).getIp();
-        Mockito.verify(device, Mockito.times(1)).getPort();
-        Mockito.verify(device, Mockito.times(1)).getDeviceId();
     }
 
     @Test
     public void testFindDevice() {
         Assert.assertFalse(manager.findDevice("zte").isPresent());
-        P4Device device = Mockito.mock(P4Device.class);
-        devices.put("zte", device);
-        Mockito.doReturn((long)0).when(device).getDeviceId();
-        Mockito.doReturn(50051).when(device).getPort();
-        Mockito.doReturn("127.0.0.1").when(device).getIp();
+        manager.addDevice(mockDevice("zte", "127.0.0.1", 50051, (long)0));
         Assert.assertTrue(manager.findDevice("zte").isPresent());
-        Mockito.verify(device, Mockito.times(1)).getIp();
-        Mockito.verify(device, Mockito.times(1)).getPort();
-        Mockito.verify(device, Mockito.times(1)).getDeviceId();
     }
 
     @Test(expected = IOException.class)
@@ -88,35 +70,36 @@ public class DeviceManagerTest {
 
     @Test(expected = IllegalArgumentException.class)
     public void testAddDevice2() throws IOException {
-        P4Device device = Mockito.mock(P4Device.class);
-        devices.put("zte", device);
-        Mockito.doReturn((long)0).when(device).getDeviceId();
-        Mockito.doReturn(50051).when(device).getPort();
-        Mockito.doReturn("127.0.0.1").when(device).getIp();
+        manager.addDevice(mockDevice("zte", "127.0.0.1", 50051, (long)0));
         manager.addDevice("zte", (long)0, "127.0.0.1", 50051, "config-file-path", "runtime-file-path");
-        Mockito.verify(device, Mockito.times(1)).getIp();
-        Mockito.verify(device, Mockito.times(1)).getPort();
-        Mockito.verify(device, Mockito.times(1)).getDeviceId();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddDevice3() {
+        manager.addDevice(mockDevice("zte", "127.0.0.1", 50051, (long)0));
+        manager.addDevice(mockDevice("hw", "127.0.0.1", 50051, (long)0));
     }
 
     @Test
     public void testRemoveDevice() {
-        P4Device device = Mockito.mock(P4Device.class);
-        devices.put("zte", device);
-        Mockito.doReturn("zte").when(device).getNodeId();
+        P4Device device = mockDevice("zte", "127.0.0.1", 50051, (long)0);
+        manager.addDevice(device);
         Assert.assertTrue(manager.findDevice("zte").isPresent());
         manager.removeDevice("zte");
         Assert.assertFalse(manager.findDevice("zte").isPresent());
-        Mockito.verify(device, Mockito.times(1)).getNodeId();
-    }
+        Assert.assertFalse(manager.isTargetExist("127.0.0.1", 50051, (long)0));
+        Mockito.verify(device, Mockito.times(1)).shutdown();
 
+        manager.addDevice(mockDevice("hw", "127.0.0.1", 50051, (long)0));
+        Assert.assertTrue(manager.isDeviceExist("hw", "127.0.0.1", 50051, (long)0));
+    }
 
     @Test
     public void testFindConfiguredDevice() {
-        P4Device device1 = Mockito.mock(P4Device.class);
-        P4Device device2 = Mockito.mock(P4Device.class);
-        devices.put("zte", device1);
-        devices.put("hw", device2);
+        P4Device device1 = mockDevice("zte", "127.0.0.1", 50051, (long)0);
+        P4Device device2 = mockDevice("hw", "127.0.0.1", 50052, (long)0);
+        manager.addDevice(device1);
+        manager.addDevice(device2);
         Mockito.doReturn(true).when(device1).isConfigured();
         Mockito.doReturn(false).when(device2).isConfigured();
         Assert.assertTrue(manager.findConfiguredDevice("zte").isPresent());
@@ -125,18 +108,22 @@ public class DeviceManagerTest {
         Mockito.verify(device2, Mockito.times(1)).isConfigured();
     }
 
-
     @Test
     public void testQueryDevices() {
-        P4Device device1 = Mockito.mock(P4Device.class);
-        P4Device device2 = Mockito.mock(P4Device.class);
-        devices.put("zte", device1);
-        devices.put("hw", device2);
-        Assert.assertEquals(2, manager.queryDevices().size());
+        P4Device device1 = mockDevice("zte", "127.0.0.1", 50051, (long)0);
+        P4Device device2 = mockDevice("hw", "127.0.0.1", 50052, (long)0);
+        manager.addDevice(device1);
+        manager.addDevice(device2);
+        List<String> devices = manager.queryDevices();
+        Assert.assertEquals(2, devices.size());
+        Assert.assertTrue(devices.contains("zte/0-127.0.0.1:50051/false/false"));
+        Mockito.verify(device1, Mockito.never()).getConnectState();
+        Mockito.verify(device2, Mockito.never()).getConnectState();
     }
 
     @After
     public void after() {
-        devices.clear();
+        manager.removeDevice("zte");
+        manager.removeDevice("hw");
     }
 }
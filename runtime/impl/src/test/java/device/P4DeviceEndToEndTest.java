@@ -0,0 +1,519 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package device;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.ByteString;
+import fake.FakeP4RuntimeSwitch;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.opendaylight.controller.md.sal.binding.api.NotificationPublishService;
+import org.opendaylight.p4plugin.p4info.proto.Action;
+import org.opendaylight.p4plugin.p4info.proto.ControllerPacketMetadata;
+import org.opendaylight.p4plugin.p4info.proto.Counter;
+import org.opendaylight.p4plugin.p4info.proto.CounterSpec;
+import org.opendaylight.p4plugin.p4info.proto.DirectCounter;
+import org.opendaylight.p4plugin.p4info.proto.DirectMeter;
+import org.opendaylight.p4plugin.p4info.proto.MatchField;
+import org.opendaylight.p4plugin.p4info.proto.Meter;
+import org.opendaylight.p4plugin.p4info.proto.MeterSpec;
+import org.opendaylight.p4plugin.p4info.proto.P4Info;
+import org.opendaylight.p4plugin.p4info.proto.Preamble;
+import org.opendaylight.p4plugin.p4info.proto.Table;
+import org.opendaylight.p4plugin.p4runtime.proto.DirectMeterEntry;
+import org.opendaylight.p4plugin.p4runtime.proto.Entity;
+import org.opendaylight.p4plugin.p4runtime.proto.FieldMatch;
+import org.opendaylight.p4plugin.p4runtime.proto.MeterConfig;
+import org.opendaylight.p4plugin.p4runtime.proto.MeterEntry;
+import org.opendaylight.p4plugin.p4runtime.proto.PacketIn;
+import org.opendaylight.p4plugin.p4runtime.proto.PacketOut;
+import org.opendaylight.p4plugin.p4runtime.proto.TableAction;
+import org.opendaylight.p4plugin.p4runtime.proto.TableEntry;
+import org.opendaylight.p4plugin.p4runtime.proto.Update;
+import org.opendaylight.p4plugin.runtime.impl.cluster.ElectionId;
+import org.opendaylight.p4plugin.runtime.impl.cluster.ElectionIdGenerator;
+import org.opendaylight.p4plugin.runtime.impl.cluster.Mastership;
+import org.opendaylight.p4plugin.runtime.impl.device.ConnectionSupervisor;
+import org.opendaylight.p4plugin.runtime.impl.device.P4Device;
+import org.opendaylight.p4plugin.runtime.impl.device.ReconcileResult;
+import org.opendaylight.p4plugin.runtime.impl.device.WriteError;
+import org.opendaylight.p4plugin.runtime.impl.packet.PacketInDispatcher;
+import org.opendaylight.p4plugin.runtime.impl.stub.ChannelFactory;
+import org.opendaylight.p4plugin.runtime.impl.stub.RuntimeStub;
+import org.opendaylight.p4plugin.runtime.impl.utils.NotificationPublisher;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.device.rev170808.MastershipChanged;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.packet.rev170808.packet.metadata.MetadataBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.CounterChanged;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.ReadCounterInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.ReadCounterOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.ReadMeterInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.ReadMeterOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.ReadTableEntryPageInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.ReadTableEntryPageOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.types.rev170808.Value;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+public class P4DeviceEndToEndTest {
+    private static final int TABLE_ID = 33554433;
+    private static final int ACTION_ID = 16777217;
+    private static final int COUNTER_ID = 302000001;
+    private static final int DIRECT_COUNTER_ID = 302000002;
+    private static final int METER_ID = 335544321;
+    private static final int DIRECT_METER_ID = 335544322;
+    private FakeP4RuntimeSwitch fakeSwitch;
+    private P4Device device;
+
+    private static P4Info createP4Info() {
+        return P4Info.newBuilder()
+                .addTables(Table.newBuilder()
+                        .setPreamble(Preamble.newBuilder().setId(TABLE_ID).setName("acl"))
+                        .addMatchFields(MatchField.newBuilder().setId(1).setName("hdr.ipv4.dstAddr")
+                                .setBitwidth(32).setMatchType(MatchField.MatchType.EXACT)))
+                .addActions(Action.newBuilder()
+                        .setPreamble(Preamble.newBuilder().setId(ACTION_ID).setName("forward"))
+                        .addParams(Action.Param.newBuilder().setId(1).setName("port").setBitwidth(9)))
+                .addCounters(Counter.newBuilder()
+                        .setPreamble(Preamble.newBuilder().setId(COUNTER_ID).setName("port_counter"))
+                        .setSpec(CounterSpec.newBuilder().setUnit(CounterSpec.Unit.BOTH))
+                        .setSize(16))
+                .addDirectCounters(DirectCounter.newBuilder()
+                        .setPreamble(Preamble.newBuilder().setId(DIRECT_COUNTER_ID).setName("acl_counter"))
+                        .setSpec(CounterSpec.newBuilder().setUnit(CounterSpec.Unit.BOTH))
+                        .setDirectTableId(TABLE_ID))
+                .addMeters(Meter.newBuilder()
+                        .setPreamble(Preamble.newBuilder().setId(METER_ID).setName("port_meter"))
+                        .setSpec(MeterSpec.newBuilder().setUnit(MeterSpec.Unit.BYTES)
+                                .setType(MeterSpec.Type.COLOR_UNAWARE))
+                        .setSize(64))
+                .addDirectMeters(DirectMeter.newBuilder()
+                        .setPreamble(Preamble.newBuilder().setId(DIRECT_METER_ID).setName("acl_meter"))
+                        .setSpec(MeterSpec.newBuilder().setUnit(MeterSpec.Unit.PACKETS)
+                                .setType(MeterSpec.Type.COLOR_UNAWARE))
+                        .setDirectTableId(TABLE_ID))
+                .addControllerPacketMetadata(ControllerPacketMetadata.newBuilder()
+                        .setPreamble(Preamble.newBuilder().setId(67108865).setName("packet_out"))
+                        .addMetadata(ControllerPacketMetadata.Metadata.newBuilder()
+                                .setId(1).setName("egress_port").setBitwidth(9)))
+                .addControllerPacketMetadata(ControllerPacketMetadata.newBuilder()
+                        .setPreamble(Preamble.newBuilder().setId(67108866).setName("packet_in"))
+                        .addMetadata(ControllerPacketMetadata.Metadata.newBuilder()
+                                .setId(1).setName("ingress_port").setBitwidth(9)))
+                .build();
+    }
+
+    private static Update insert(int address) {
+        TableEntry entry = TableEntry.newBuilder()
+                .setTableId(TABLE_ID)
+                .addMatch(FieldMatch.newBuilder().setFieldId(1).setExact(FieldMatch.Exact.newBuilder()
+                        .setValue(ByteString.copyFrom(new byte[] {
+                            (byte) (address >> 24), (byte) (address >> 16), (byte) (address >> 8), (byte) address}))))
+                .setAction(TableAction.newBuilder().setAction(org.opendaylight.p4plugin.p4runtime.proto.Action
+                        .newBuilder().setActionId(ACTION_ID).addParams(org.opendaylight.p4plugin.p4runtime.proto
+                                .Action.Param.newBuilder().setParamId(1).setValue(ByteString.copyFrom(new byte[] {0, 1})))))
+                .build();
+        return Update.newBuilder().setType(Update.Type.INSERT)
+                .setEntity(Entity.newBuilder().setTableEntry(entry)).build();
+    }
+
+    @Before
+    public void before() throws Exception {
+        fakeSwitch = new FakeP4RuntimeSwitch("127.0.0.1:50051").start();
+        ChannelFactory.getInstance().setChannelBuilder((ip, port) -> InProcessChannelBuilder.forName(ip + ":" + port));
+        device = P4Device.newBuilder()
+                .setNodeId("zte")
+                .setDeviceId((long) 0)
+                .setIp("127.0.0.1")
+                .setPort(50051)
+                .setRuntimeInfo(createP4Info())
+                .setDeviceConfig(ByteString.copyFromUtf8("{}"))
+                .build();
+        device.setReconnectBackoff(10, 100);
+        Assert.assertTrue(device.connectToDevice().get(5, TimeUnit.SECONDS));
+        device.setPipelineConfig();
+    }
+
+    @After
+    public void after() {
+        PacketInDispatcher.getInstance().setListener(null);
+        NotificationPublisher.getInstance().setNotificationService(null);
+        device.shutdown();
+        fakeSwitch.close();
+        ChannelFactory.getInstance().setChannelBuilder(null);
+    }
+
+    @Test
+    public void testConnect() {
+        Assert.assertTrue(device.getConnectState());
+        Assert.assertTrue(device.isConfigured());
+        Assert.assertEquals(1, fakeSwitch.getSessionCount());
+        Assert.assertEquals(createP4Info(), fakeSwitch.getConfig().getP4Info());
+    }
+
+    @Test
+    public void testStreamChannelTimeout() throws Exception {
+        fakeSwitch.setWithholdArbitration(true);
+        RuntimeStub stub = new RuntimeStub("127.0.0.1", 50051, (long) 1, "silent");
+        try {
+            long start = System.currentTimeMillis();
+            Assert.assertFalse(stub.streamChannel(200).get(5, TimeUnit.SECONDS));
+            Assert.assertTrue(System.currentTimeMillis() - start >= 200);
+            Assert.assertEquals(Mastership.Role.UNKNOWN, stub.getMastership().getRole());
+        } finally {
+            stub.shutdown();
+        }
+    }
+
+    @Test
+    public void testStreamChannelErrorBeforeArbitration() throws Exception {
+        fakeSwitch.setWithholdArbitration(true);
+        RuntimeStub stub = new RuntimeStub("127.0.0.1", 50051, (long) 1, "failed");
+        try {
+            ListenableFuture<Boolean> connected = stub.streamChannel(RuntimeStub.DEFAULT_CONNECT_TIMEOUT_MS);
+            await(() -> fakeSwitch.getSessionCount() == 2);
+            fakeSwitch.failSessions(Status.Code.UNAVAILABLE);
+            /* Set by the stream error, well before the arbitration timeout. */
+            Assert.assertFalse(connected.get(RuntimeStub.DEFAULT_CONNECT_TIMEOUT_MS / 2, TimeUnit.MILLISECONDS));
+            Assert.assertFalse(stub.getConnectState());
+        } finally {
+            stub.shutdown();
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testReconnectRestoresConfigured() throws Exception {
+        fakeSwitch.dropSessions();
+        await(() -> device.getReconnectCount() == 1 && device.isConfigured());
+        Assert.assertEquals(1, device.getReconnectCount());
+        Assert.assertEquals(ConnectionSupervisor.State.CONNECTED, device.getConnectionState());
+        Assert.assertTrue(device.isConfigured());
+        Assert.assertTrue(device.getConnectState());
+        Assert.assertEquals(1, fakeSwitch.getSessionCount());
+    }
+
+    @Test
+    public void testReconnectWithoutPipeline() throws Exception {
+        fakeSwitch.clearConfig();
+        fakeSwitch.dropSessions();
+        await(() -> device.getReconnectCount() == 1);
+        Assert.assertEquals(ConnectionSupervisor.State.CONNECTED, device.getConnectionState());
+        Thread.sleep(100);
+        Assert.assertFalse(device.isConfigured());
+    }
+
+    @Test
+    public void testReplayAfterSetPipelineConfig() throws Exception {
+        List<Update> updates = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            updates.add(insert(i));
+        }
+        Assert.assertTrue(device.batchWrite(updates, 4).isEmpty());
+        Assert.assertEquals(10, device.getShadow().getTableEntryCount());
+
+        fakeSwitch.clearConfig();
+        device.setPipelineConfig();
+        await(() -> fakeSwitch.getTableEntryCount() == 10);
+        Assert.assertEquals(10, fakeSwitch.getTableEntryCount());
+    }
+
+    @Test
+    public void testReconcile() {
+        List<Update> updates = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            updates.add(insert(i));
+        }
+        Assert.assertTrue(device.batchWrite(updates, 0).isEmpty());
+        Assert.assertEquals(0, device.reconcile().getDeltaCount());
+
+        fakeSwitch.clearTables();
+        fakeSwitch.install(insert(100));
+        ReconcileResult result = device.reconcile();
+        Assert.assertEquals(11, result.getDeltaCount());
+        Assert.assertTrue(result.getErrors().isEmpty());
+        Assert.assertEquals(10, fakeSwitch.getTableEntryCount());
+        Assert.assertEquals(10, device.getShadow().getTableEntryCount());
+        Assert.assertEquals(0, device.reconcile().getDeltaCount());
+    }
+
+    @Test
+    public void testBackoff() {
+        for (int attempts = 0; attempts < 40; attempts++) {
+            long backoff = Math.min(1000, 10L << Math.min(attempts, 30));
+            long delay = ConnectionSupervisor.backoffMs(attempts, 10, 1000);
+            Assert.assertTrue(delay >= backoff / 2 && delay <= backoff);
+        }
+    }
+
+    @Test
+    public void testBatchWriteReportsDuplicates() {
+        List<Update> updates = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            updates.add(insert(i));
+        }
+        updates.add(insert(3));
+        List<WriteError> errors = device.batchWrite(updates, 4);
+        Assert.assertEquals(1, errors.size());
+        Assert.assertEquals(10, errors.get(0).getIndex());
+        Assert.assertEquals(Status.Code.ALREADY_EXISTS.value(), errors.get(0).getCode());
+        Assert.assertEquals(10, fakeSwitch.getTableEntryCount());
+        Assert.assertEquals(3, fakeSwitch.getWriteCount());
+    }
+
+    @Test
+    public void testPagedRead() {
+        List<Update> updates = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            updates.add(insert(i));
+        }
+        Assert.assertTrue(device.batchWrite(updates, 0).isEmpty());
+
+        int total = 0;
+        int pages = 0;
+        String token = null;
+        do {
+            ReadTableEntryPageOutput output = device.readTableEntryPage(new ReadTableEntryPageInputBuilder()
+                    .setNid("zte").setTableName("acl").setPageSize(100L).setContinuationToken(token).build());
+            total += output.getEntry().size();
+            token = output.getContinuationToken();
+            pages++;
+        } while (token != null);
+        Assert.assertEquals(250, total);
+        Assert.assertEquals(3, pages);
+        Assert.assertEquals(1, fakeSwitch.getReadCount());
+    }
+
+    @Test
+    public void testPagedReadMaxPageSize() {
+        List<Update> updates = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            updates.add(insert(i));
+        }
+        Assert.assertTrue(device.batchWrite(updates, 0).isEmpty());
+
+        ReadTableEntryPageOutput output = device.readTableEntryPage(new ReadTableEntryPageInputBuilder()
+                .setNid("zte").setTableName("acl").setPageSize(4294967295L).build());
+        Assert.assertEquals(10, output.getEntry().size());
+        Assert.assertNull(output.getContinuationToken());
+    }
+
+    @Test
+    public void testTransmitPacketsWithMetadata() throws Exception {
+        int count = 100;
+        fakeSwitch.setLoopback(true);
+        CountDownLatch received = new CountDownLatch(count);
+        List<PacketIn> packetIns = Collections.synchronizedList(new ArrayList<>());
+        PacketInDispatcher.getInstance().setListener((nodeId, packet) -> {
+            packetIns.add(packet);
+            received.countDown();
+        });
+
+        device.setPacketOutRate(10000, 10);
+        List<PacketOut> packets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            packets.add(device.toProtoPacket(new byte[] {(byte) i}, Collections.singletonList(new MetadataBuilder()
+                    .setMetadataName("egress_port").setMetadataValue(new Value("0x101")).build())));
+        }
+        Assert.assertEquals(Integer.valueOf(count), device.transmitPackets(packets).get(5, TimeUnit.SECONDS));
+        Assert.assertTrue(received.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(count, fakeSwitch.getPacketOutCount());
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals((byte) i, packetIns.get(i).getPayload().byteAt(0));
+            Assert.assertEquals(ByteString.copyFrom(new byte[] {1, 1}), packetIns.get(i).getMetadata(0).getValue());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownPacketMetadata() {
+        device.toProtoPacket(new byte[] {0}, Collections.singletonList(new MetadataBuilder()
+                .setMetadataName("ingress_port").setMetadataValue(new Value("1")).build()));
+    }
+
+    @Test
+    public void testReadCounter() {
+        fakeSwitch.setCounter(COUNTER_ID, 3, 300, 3);
+        fakeSwitch.setCounter(COUNTER_ID, 4, 400, 4);
+        ReadCounterOutput output = device.readCounter(new ReadCounterInputBuilder()
+                .setCounterName("port_counter").build());
+        Assert.assertEquals(2, output.getCell().size());
+
+        output = device.readCounter(new ReadCounterInputBuilder().setCounterName("port_counter").setIndex(4L).build());
+        Assert.assertEquals(1, output.getCell().size());
+        Assert.assertEquals(Long.valueOf(4), output.getCell().get(0).getIndex());
+        Assert.assertEquals(BigInteger.valueOf(400), output.getCell().get(0).getByteCount());
+
+        Update update = insert(1);
+        fakeSwitch.install(update);
+        fakeSwitch.setDirectCounter(update.getEntity().getTableEntry(), 10, 1);
+        output = device.readCounter(new ReadCounterInputBuilder().setCounterName("acl_counter").build());
+        Assert.assertEquals(1, output.getCell().size());
+        Assert.assertEquals("acl", output.getCell().get(0).getEntry().getTableName());
+        Assert.assertEquals(1, output.getCell().get(0).getEntry().getField().size());
+        Assert.assertEquals(BigInteger.valueOf(1), output.getCell().get(0).getPacketCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadCounterInvalidIndex() {
+        device.readCounter(new ReadCounterInputBuilder().setCounterName("port_counter").setIndex(16L).build());
+    }
+
+    @Test
+    public void testCounterPolling() throws Exception {
+        List<CounterChanged> notifications = new CopyOnWriteArrayList<>();
+        NotificationPublishService service = Mockito.mock(NotificationPublishService.class);
+        Mockito.doAnswer(invocation -> {
+            notifications.add((CounterChanged) invocation.getArguments()[0]);
+            return null;
+        }).when(service).offerNotification(Mockito.any());
+        NotificationPublisher.getInstance().setNotificationService(service);
+
+        fakeSwitch.setCounter(COUNTER_ID, 1, 100, 1);
+        fakeSwitch.setCounter(COUNTER_ID, 2, 200, 2);
+        long reads = fakeSwitch.getReadCount();
+        device.setCounterPolling("port_counter", 20);
+        await(() -> fakeSwitch.getReadCount() >= reads + 3);
+        Assert.assertTrue(notifications.isEmpty());
+
+        fakeSwitch.setCounter(COUNTER_ID, 2, 1200, 12);
+        await(() -> !notifications.isEmpty());
+        device.setCounterPolling("port_counter", 0);
+        Assert.assertFalse(device.getCounterPoller().isPolled(COUNTER_ID));
+
+        CounterChanged changed = notifications.get(0);
+        Assert.assertEquals("zte", changed.getNid());
+        Assert.assertEquals("port_counter", changed.getCounterName());
+        Assert.assertEquals(1, changed.getCell().size());
+        Assert.assertEquals(Long.valueOf(2), changed.getCell().get(0).getIndex());
+        Assert.assertEquals(BigInteger.valueOf(1200), changed.getCell().get(0).getByteCount());
+        Assert.assertEquals(BigInteger.valueOf(1000), changed.getCell().get(0).getByteDelta());
+        Assert.assertEquals(BigInteger.valueOf(10), changed.getCell().get(0).getPacketDelta());
+    }
+
+    private static MeterConfig meterConfig(long rate) {
+        return MeterConfig.newBuilder().setCir(rate).setCburst(rate / 10).setPir(2 * rate).setPburst(rate / 5).build();
+    }
+
+    @Test
+    public void testBatchWriteMeters() {
+        List<Update> updates = new ArrayList<>();
+        for (int i = 1; i <= 40; i++) {
+            updates.add(Update.newBuilder().setType(Update.Type.MODIFY)
+                    .setEntity(Entity.newBuilder().setMeterEntry(MeterEntry.newBuilder()
+                            .setMeterId(METER_ID).setIndex(i).setConfig(meterConfig(i * 1000L)))).build());
+        }
+        Assert.assertTrue(device.batchWrite(updates, 16).isEmpty());
+        Assert.assertEquals(3, fakeSwitch.getWriteCount());
+
+        ReadMeterOutput output = device.readMeter(new ReadMeterInputBuilder().setMeterName("port_meter").build());
+        Assert.assertEquals(40, output.getCell().size());
+        output = device.readMeter(new ReadMeterInputBuilder().setMeterName("port_meter").setIndex(7L).build());
+        Assert.assertEquals(1, output.getCell().size());
+        Assert.assertEquals(Long.valueOf(7), output.getCell().get(0).getIndex());
+        Assert.assertEquals(Long.valueOf(7000), output.getCell().get(0).getCir());
+        Assert.assertEquals(Long.valueOf(14000), output.getCell().get(0).getPir());
+    }
+
+    @Test
+    public void testWriteDirectMeter() {
+        Update insert = insert(1);
+        TableEntry entry = insert.getEntity().getTableEntry();
+        Update meter = Update.newBuilder().setType(Update.Type.MODIFY)
+                .setEntity(Entity.newBuilder().setDirectMeterEntry(DirectMeterEntry.newBuilder()
+                        .setMeterId(DIRECT_METER_ID).setTableEntry(entry).setConfig(meterConfig(500)))).build();
+        Assert.assertEquals(1, device.batchWrite(Collections.singletonList(meter), 0).size());
+        Assert.assertTrue(device.batchWrite(Arrays.asList(insert, meter), 0).isEmpty());
+
+        ReadMeterOutput output = device.readMeter(new ReadMeterInputBuilder().setMeterName("acl_meter").build());
+        Assert.assertEquals(1, output.getCell().size());
+        Assert.assertEquals("acl", output.getCell().get(0).getEntry().getTableName());
+        Assert.assertEquals(1, output.getCell().get(0).getEntry().getField().size());
+        Assert.assertEquals(Long.valueOf(500), output.getCell().get(0).getCir());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadMeterInvalidIndex() {
+        device.readMeter(new ReadMeterInputBuilder().setMeterName("port_meter").setIndex(64L).build());
+    }
+
+    @Test
+    public void testOverlappingElectionIdUpdates() throws Exception {
+        ElectionIdGenerator generator = ElectionIdGenerator.getInstance();
+        try {
+            Future<Void> first = generator.setElectionId(new ElectionId(0, 5));
+            Future<Void> second = generator.setElectionId(new ElectionId(0, 6));
+            first.get(RuntimeStub.DEFAULT_CONNECT_TIMEOUT_MS / 2, TimeUnit.MILLISECONDS);
+            second.get(RuntimeStub.DEFAULT_CONNECT_TIMEOUT_MS / 2, TimeUnit.MILLISECONDS);
+            Assert.assertEquals(new ElectionId(0, 6), device.getMastership().getMasterElectionId());
+        } finally {
+            generator.setElectionId(new ElectionId(0, 0)).get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testStandbyWritesShortCircuit() throws Exception {
+        List<MastershipChanged> notifications = new CopyOnWriteArrayList<>();
+        NotificationPublishService service = Mockito.mock(NotificationPublishService.class);
+        Mockito.doAnswer(invocation -> {
+            if (invocation.getArguments()[0] instanceof MastershipChanged) {
+                notifications.add((MastershipChanged) invocation.getArguments()[0]);
+            }
+            return null;
+        }).when(service).offerNotification(Mockito.any());
+        NotificationPublisher.getInstance().setNotificationService(service);
+
+        P4Device standby = P4Device.newBuilder()
+                .setNodeId("standby")
+                .setDeviceId((long) 0)
+                .setIp("127.0.0.1")
+                .setPort(50051)
+                .setRuntimeInfo(createP4Info())
+                .setDeviceConfig(ByteString.copyFromUtf8("{}"))
+                .build();
+        try {
+            Assert.assertTrue(standby.connectToDevice().get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(Mastership.Role.MASTER, device.getMastership().getRole());
+            Assert.assertEquals(Mastership.Role.STANDBY, standby.getMastership().getRole());
+            Assert.assertEquals(Mastership.Role.STANDBY, standby.getState().getMastership().getRole());
+
+            long writes = fakeSwitch.getWriteCount();
+            List<WriteError> errors = standby.batchWrite(Collections.singletonList(insert(1)), 0);
+            Assert.assertEquals(1, errors.size());
+            Assert.assertEquals(Status.Code.PERMISSION_DENIED.value(), errors.get(0).getCode());
+            Assert.assertEquals(writes, fakeSwitch.getWriteCount());
+            Assert.assertTrue(device.batchWrite(Collections.singletonList(insert(1)), 0).isEmpty());
+
+            await(() -> notifications.stream().anyMatch(n -> "standby".equals(n.getNid())));
+            MastershipChanged changed = notifications.stream()
+                    .filter(n -> "standby".equals(n.getNid())).findFirst().get();
+            Assert.assertFalse(changed.isIsMaster());
+            Assert.assertEquals(BigInteger.ZERO, changed.getMasterElectionIdHigh());
+        } finally {
+            standby.shutdown();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package device;
+
+import com.google.protobuf.Any;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.protobuf.StatusProto;
+import org.junit.Assert;
+import org.junit.Test;
+import org.opendaylight.p4plugin.runtime.impl.device.WriteError;
+
+import java.util.List;
+
+public class WriteErrorTest {
+    private static com.google.rpc.Status status(Status.Code code, String message) {
+        return com.google.rpc.Status.newBuilder().setCode(code.value()).setMessage(message).build();
+    }
+
+    @Test
+    public void testDecodePerUpdateDetails() {
+        com.google.rpc.Status status = status(Status.Code.UNKNOWN, "Write failure.").toBuilder()
+                .addDetails(Any.pack(status(Status.Code.OK, "")))
+                .addDetails(Any.pack(status(Status.Code.ALREADY_EXISTS, "Duplicate entry.")))
+                .addDetails(Any.pack(status(Status.Code.OK, "")))
+                .build();
+        StatusRuntimeException e = StatusProto.toStatusRuntimeException(status);
+        List<WriteError> errors = WriteError.decode(new RuntimeException(e), 10, 3);
+        Assert.assertEquals(1, errors.size());
+        Assert.assertEquals(11, errors.get(0).getIndex());
+        Assert.assertEquals(Status.Code.ALREADY_EXISTS.value(), errors.get(0).getCode());
+        Assert.assertEquals("Duplicate entry.", errors.get(0).getMessage());
+    }
+
+    @Test
+    public void testDecodeWithoutDetails() {
+        StatusRuntimeException e = Status.UNAVAILABLE.withDescription("Device down.").asRuntimeException();
+        List<WriteError> errors = WriteError.decode(e, 0, 2);
+        Assert.assertEquals(2, errors.size());
+        Assert.assertEquals(1, errors.get(1).getIndex());
+        Assert.assertEquals(Status.Code.UNAVAILABLE.value(), errors.get(1).getCode());
+    }
+}
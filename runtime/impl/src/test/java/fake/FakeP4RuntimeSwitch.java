@@ -0,0 +1,607 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package fake;
+
+import com.google.protobuf.Any;
+import com.google.protobuf.ByteString;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.protobuf.StatusProto;
+import io.grpc.stub.StreamObserver;
+import org.opendaylight.p4plugin.p4runtime.proto.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process P4Runtime target for tests and load runs. It keeps table
+ * entries, action profile members and groups, meter configs, answers master arbitration,
+ * counts packet-outs and can push packet-ins. Responses can be delayed by a
+ * fixed latency and writes can fail at a given rate.
+ */
+public class FakeP4RuntimeSwitch extends P4RuntimeGrpc.P4RuntimeImplBase implements AutoCloseable {
+    private static final int ENTITIES_PER_RESPONSE = 100;
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "fake-switch-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final String name;
+    private final Map<ByteString, TableEntry> tableEntries = new ConcurrentHashMap<>();
+    private final Map<Long, ActionProfileMember> members = new ConcurrentSkipListMap<>();
+    private final Map<Long, ActionProfileGroup> groups = new ConcurrentSkipListMap<>();
+    private final Map<Long, CounterData> counters = new ConcurrentSkipListMap<>();
+    private final Map<ByteString, CounterData> directCounters = new ConcurrentHashMap<>();
+    private final Map<Long, MeterConfig> meters = new ConcurrentSkipListMap<>();
+    private final Map<ByteString, MeterConfig> directMeters = new ConcurrentHashMap<>();
+    private final List<Session> sessions = new CopyOnWriteArrayList<>();
+    private final AtomicLong writeCount = new AtomicLong();
+    private final AtomicLong readCount = new AtomicLong();
+    private final AtomicLong packetOutCount = new AtomicLong();
+    private volatile ForwardingPipelineConfig config;
+    private volatile long latencyMicros;
+    private volatile double writeErrorRate;
+    private volatile Status.Code writeErrorCode = Status.Code.UNAVAILABLE;
+    private volatile boolean isLoopback;
+    private final Queue<Runnable> heldWrites = new ConcurrentLinkedQueue<>();
+    private volatile boolean isHoldingWrites;
+    private volatile boolean isWithholdingArbitration;
+    private Server server;
+
+    public FakeP4RuntimeSwitch(String name) {
+        this.name = name;
+    }
+
+    public FakeP4RuntimeSwitch start() throws IOException {
+        server = InProcessServerBuilder.forName(name).addService(this).build().start();
+        return this;
+    }
+
+    public ManagedChannelBuilder<?> channelBuilder() {
+        return InProcessChannelBuilder.forName(name);
+    }
+
+    @Override
+    public void close() {
+        heldWrites.clear();
+        sessions.forEach(session -> session.send(null));
+        if (server != null) {
+            server.shutdownNow();
+        }
+    }
+
+    /**
+     * Delay every response by a fixed latency.
+     */
+    public void setLatency(long latency, TimeUnit unit) {
+        this.latencyMicros = unit.toMicros(latency);
+    }
+
+    /**
+     * Fail a share of the Write RPCs with the given code, 0 disables error injection.
+     */
+    public void setWriteErrorRate(double rate, Status.Code code) {
+        this.writeErrorRate = rate;
+        this.writeErrorCode = code;
+    }
+
+    /**
+     * Apply writes but keep their responses until releaseWrites is called.
+     */
+    public void setHoldWrites(boolean isHoldingWrites) {
+        this.isHoldingWrites = isHoldingWrites;
+    }
+
+    /**
+     * Send the responses of the held writes.
+     * @return number of responses sent.
+     */
+    public int releaseWrites() {
+        int count = 0;
+        Runnable response;
+        while ((response = heldWrites.poll()) != null) {
+            try {
+                response.run();
+            } catch (RuntimeException e) {
+                /* The call was cancelled by the client meanwhile. */
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Send every packet-out back to its stream as a packet-in.
+     */
+    public void setLoopback(boolean isLoopback) {
+        this.isLoopback = isLoopback;
+    }
+
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    public long getReadCount() {
+        return readCount.get();
+    }
+
+    public long getPacketOutCount() {
+        return packetOutCount.get();
+    }
+
+    public int getTableEntryCount() {
+        return tableEntries.size();
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    public ForwardingPipelineConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Close every open stream channel from the switch side, as a switch
+     * restarting its agent would.
+     */
+    public void dropSessions() {
+        sessions.forEach(session -> {
+            sessions.remove(session);
+            session.send(null);
+        });
+    }
+
+    /**
+     * Fail every stream channel with the given code.
+     */
+    public void failSessions(Status.Code code) {
+        sessions.forEach(session -> {
+            sessions.remove(session);
+            session.fail(code.toStatus().withDescription("Injected error.").asRuntimeException());
+        });
+    }
+
+    /**
+     * Record master arbitrations but send no arbitration response.
+     */
+    public void setWithholdArbitration(boolean isWithholdingArbitration) {
+        this.isWithholdingArbitration = isWithholdingArbitration;
+    }
+
+    /**
+     * Forget the pipeline, as a switch rebooted without it would.
+     */
+    public void clearConfig() {
+        config = null;
+        tableEntries.clear();
+        members.clear();
+        groups.clear();
+    }
+
+    /**
+     * Forget the table entries but keep the pipeline, as a switch whose
+     * agent restarted without its state would.
+     */
+    public void clearTables() {
+        tableEntries.clear();
+        members.clear();
+        groups.clear();
+    }
+
+    /**
+     * Apply an update without the Write RPC, as another client would.
+     */
+    public void install(Update update) {
+        apply(update);
+    }
+
+    public void setCounter(int counterId, long index, long byteCount, long packetCount) {
+        counters.put(key(counterId, (int) index),
+                CounterData.newBuilder().setByteCount(byteCount).setPacketCount(packetCount).build());
+    }
+
+    /**
+     * Set the direct counter cell of a table entry, cells not set read as 0.
+     */
+    public void setDirectCounter(TableEntry entry, long byteCount, long packetCount) {
+        directCounters.put(tableKey(entry),
+                CounterData.newBuilder().setByteCount(byteCount).setPacketCount(packetCount).build());
+    }
+
+    /**
+     * Send a packet-in to every open stream channel.
+     */
+    public void sendPacketIn(PacketIn packet) {
+        StreamMessageResponse response = StreamMessageResponse.newBuilder().setPacket(packet).build();
+        sessions.forEach(session -> session.send(response));
+    }
+
+    private void respond(Runnable response) {
+        if (latencyMicros > 0) {
+            TIMER.schedule(response, latencyMicros, TimeUnit.MICROSECONDS);
+        } else {
+            response.run();
+        }
+    }
+
+    private void respondWrite(Runnable response) {
+        if (isHoldingWrites) {
+            heldWrites.add(response);
+        } else {
+            respond(response);
+        }
+    }
+
+    private static ByteString tableKey(TableEntry entry) {
+        return TableEntry.newBuilder()
+                .setTableId(entry.getTableId())
+                .addAllMatch(entry.getMatchList())
+                .setPriority(entry.getPriority())
+                .build()
+                .toByteString();
+    }
+
+    private static long key(int high, int low) {
+        return ((long) high << 32) | (low & 0xFFFFFFFFL);
+    }
+
+    private static com.google.rpc.Status status(Status.Code code, String message) {
+        return com.google.rpc.Status.newBuilder().setCode(code.value()).setMessage(message).build();
+    }
+
+    private <K, V> com.google.rpc.Status apply(Map<K, V> store, K key, V value, Update.Type type) {
+        switch (type) {
+            case INSERT:
+                return store.putIfAbsent(key, value) == null
+                        ? status(Status.Code.OK, "") : status(Status.Code.ALREADY_EXISTS, "Entity exists.");
+            case MODIFY:
+                return store.replace(key, value) != null
+                        ? status(Status.Code.OK, "") : status(Status.Code.NOT_FOUND, "Entity not found.");
+            case DELETE:
+                return store.remove(key) != null
+                        ? status(Status.Code.OK, "") : status(Status.Code.NOT_FOUND, "Entity not found.");
+            default:
+                return status(Status.Code.INVALID_ARGUMENT, "Invalid update type.");
+        }
+    }
+
+    /**
+     * Meter cells always exist, they are modified or reset to the default config.
+     */
+    private <K> com.google.rpc.Status applyMeter(Map<K, MeterConfig> store, K key, MeterConfig config,
+                                                 Update.Type type) {
+        switch (type) {
+            case MODIFY:
+                store.put(key, config);
+                return status(Status.Code.OK, "");
+            case DELETE:
+                store.remove(key);
+                return status(Status.Code.OK, "");
+            default:
+                return status(Status.Code.INVALID_ARGUMENT, "Invalid update type.");
+        }
+    }
+
+    private com.google.rpc.Status apply(Update update) {
+        Entity entity = update.getEntity();
+        switch (entity.getEntityCase()) {
+            case TABLE_ENTRY:
+                return apply(tableEntries, tableKey(entity.getTableEntry()), entity.getTableEntry(), update.getType());
+            case ACTION_PROFILE_MEMBER:
+                ActionProfileMember member = entity.getActionProfileMember();
+                return apply(members, key(member.getActionProfileId(), member.getMemberId()), member,
+                        update.getType());
+            case ACTION_PROFILE_GROUP:
+                ActionProfileGroup group = entity.getActionProfileGroup();
+                return apply(groups, key(group.getActionProfileId(), group.getGroupId()), group, update.getType());
+            case METER_ENTRY:
+                MeterEntry meter = entity.getMeterEntry();
+                return applyMeter(meters, key(meter.getMeterId(), (int) meter.getIndex()), meter.getConfig(),
+                        update.getType());
+            case DIRECT_METER_ENTRY:
+                DirectMeterEntry directMeter = entity.getDirectMeterEntry();
+                ByteString entryKey = tableKey(directMeter.getTableEntry());
+                if (!tableEntries.containsKey(entryKey)) {
+                    return status(Status.Code.NOT_FOUND, "Table entry not found.");
+                }
+                return applyMeter(directMeters, entryKey, directMeter.getConfig(), update.getType());
+            default:
+                return status(Status.Code.UNIMPLEMENTED, "Entity not supported.");
+        }
+    }
+
+    @Override
+    public void write(WriteRequest request, StreamObserver<WriteResponse> responseObserver) {
+        writeCount.incrementAndGet();
+        if (writeErrorRate > 0 && ThreadLocalRandom.current().nextDouble() < writeErrorRate) {
+            respondWrite(() -> responseObserver.onError(writeErrorCode.toStatus()
+                    .withDescription("Injected error.").asRuntimeException()));
+            return;
+        }
+
+        List<com.google.rpc.Status> statuses = new ArrayList<>(request.getUpdatesCount());
+        boolean isFailed = false;
+        for (Update update : request.getUpdatesList()) {
+            com.google.rpc.Status status = apply(update);
+            isFailed |= status.getCode() != Status.Code.OK.value();
+            statuses.add(status);
+        }
+
+        if (isFailed) {
+            com.google.rpc.Status.Builder status = status(Status.Code.UNKNOWN, "Write failure.").toBuilder();
+            statuses.forEach(s -> status.addDetails(Any.pack(s)));
+            respondWrite(() -> responseObserver.onError(StatusProto.toStatusRuntimeException(status.build())));
+        } else {
+            respondWrite(() -> {
+                responseObserver.onNext(WriteResponse.getDefaultInstance());
+                responseObserver.onCompleted();
+            });
+        }
+    }
+
+    @Override
+    public void read(ReadRequest request, StreamObserver<ReadResponse> responseObserver) {
+        readCount.incrementAndGet();
+        List<Entity> entities = new ArrayList<>();
+        for (Entity filter : request.getEntitiesList()) {
+            switch (filter.getEntityCase()) {
+                case TABLE_ENTRY:
+                    int tableId = filter.getTableEntry().getTableId();
+                    tableEntries.values().stream()
+                            .filter(entry -> tableId == 0 || entry.getTableId() == tableId)
+                            .forEach(entry -> entities.add(Entity.newBuilder().setTableEntry(entry).build()));
+                    break;
+                case ACTION_PROFILE_MEMBER:
+                    int memberProfileId = filter.getActionProfileMember().getActionProfileId();
+                    members.values().stream()
+                            .filter(member -> member.getActionProfileId() == memberProfileId)
+                            .forEach(member -> entities.add(Entity.newBuilder().setActionProfileMember(member).build()));
+                    break;
+                case ACTION_PROFILE_GROUP:
+                    int groupProfileId = filter.getActionProfileGroup().getActionProfileId();
+                    groups.values().stream()
+                            .filter(group -> group.getActionProfileId() == groupProfileId)
+                            .forEach(group -> entities.add(Entity.newBuilder().setActionProfileGroup(group).build()));
+                    break;
+                case COUNTER_ENTRY:
+                    CounterEntry counterFilter = filter.getCounterEntry();
+                    counters.forEach((key, data) -> {
+                        int counterId = (int) (key >>> 32);
+                        long index = key & 0xFFFFFFFFL;
+                        if ((counterFilter.getCounterId() == 0 || counterFilter.getCounterId() == counterId)
+                                && (counterFilter.getIndex() == 0 || counterFilter.getIndex() == index)) {
+                            entities.add(Entity.newBuilder().setCounterEntry(CounterEntry.newBuilder()
+                                    .setCounterId(counterId).setIndex(index).setData(data)).build());
+                        }
+                    });
+                    break;
+                case DIRECT_COUNTER_ENTRY:
+                    DirectCounterEntry directFilter = filter.getDirectCounterEntry();
+                    int directTableId = directFilter.getTableEntry().getTableId();
+                    tableEntries.forEach((key, entry) -> {
+                        if (entry.getTableId() == directTableId) {
+                            entities.add(Entity.newBuilder().setDirectCounterEntry(DirectCounterEntry.newBuilder()
+                                    .setCounterId(directFilter.getCounterId())
+                                    .setTableEntry(entry)
+                                    .setData(directCounters.getOrDefault(key, CounterData.getDefaultInstance())))
+                                    .build());
+                        }
+                    });
+                    break;
+                case METER_ENTRY:
+                    MeterEntry meterFilter = filter.getMeterEntry();
+                    meters.forEach((key, config) -> {
+                        int meterId = (int) (key >>> 32);
+                        long index = key & 0xFFFFFFFFL;
+                        if (meterFilter.getMeterId() == meterId
+                                && (meterFilter.getIndex() == 0 || meterFilter.getIndex() == index)) {
+                            entities.add(Entity.newBuilder().setMeterEntry(MeterEntry.newBuilder()
+                                    .setMeterId(meterId).setIndex(index).setConfig(config)).build());
+                        }
+                    });
+                    break;
+                case DIRECT_METER_ENTRY:
+                    DirectMeterEntry directMeterFilter = filter.getDirectMeterEntry();
+                    int meterTableId = directMeterFilter.getTableEntry().getTableId();
+                    tableEntries.forEach((key, entry) -> {
+                        if (entry.getTableId() == meterTableId) {
+                            entities.add(Entity.newBuilder().setDirectMeterEntry(DirectMeterEntry.newBuilder()
+                                    .setMeterId(directMeterFilter.getMeterId())
+                                    .setTableEntry(entry)
+                                    .setConfig(directMeters.getOrDefault(key, MeterConfig.getDefaultInstance())))
+                                    .build());
+                        }
+                    });
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        respond(() -> {
+            for (int i = 0; i < entities.size(); i += ENTITIES_PER_RESPONSE) {
+                int end = Math.min(entities.size(), i + ENTITIES_PER_RESPONSE);
+                responseObserver.onNext(ReadResponse.newBuilder()
+                        .addAllEntities(entities.subList(i, end))
+                        .setComplete(end == entities.size())
+                        .build());
+            }
+            if (entities.isEmpty()) {
+                responseObserver.onNext(ReadResponse.newBuilder().setComplete(true).build());
+            }
+            responseObserver.onCompleted();
+        });
+    }
+
+    @Override
+    public void setForwardingPipelineConfig(SetForwardingPipelineConfigRequest request,
+                                            StreamObserver<SetForwardingPipelineConfigResponse> responseObserver) {
+        config = request.getConfigs(0);
+        tableEntries.clear();
+        members.clear();
+        groups.clear();
+        respond(() -> {
+            responseObserver.onNext(SetForwardingPipelineConfigResponse.getDefaultInstance());
+            responseObserver.onCompleted();
+        });
+    }
+
+    @Override
+    public void getForwardingPipelineConfig(GetForwardingPipelineConfigRequest request,
+                                            StreamObserver<GetForwardingPipelineConfigResponse> responseObserver) {
+        GetForwardingPipelineConfigResponse.Builder response = GetForwardingPipelineConfigResponse.newBuilder();
+        if (config != null) {
+            response.addConfigs(config);
+        }
+        respond(() -> {
+            responseObserver.onNext(response.build());
+            responseObserver.onCompleted();
+        });
+    }
+
+    @Override
+    public StreamObserver<StreamMessageRequest> streamChannel(StreamObserver<StreamMessageResponse> responseObserver) {
+        Session session = new Session(responseObserver);
+        sessions.add(session);
+        return new StreamObserver<StreamMessageRequest>() {
+            @Override
+            public void onNext(StreamMessageRequest request) {
+                switch (request.getUpdateCase()) {
+                    case ARBITRATION:
+                        session.arbitration = request.getArbitration();
+                        respond(FakeP4RuntimeSwitch.this::sendArbitration);
+                        break;
+                    case PACKET:
+                        packetOutCount.incrementAndGet();
+                        if (isLoopback) {
+                            PacketOut packet = request.getPacket();
+                            session.send(StreamMessageResponse.newBuilder()
+                                    .setPacket(PacketIn.newBuilder()
+                                            .setPayload(packet.getPayload())
+                                            .addAllMetadata(packet.getMetadataList()))
+                                    .build());
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                sessions.remove(session);
+                respond(FakeP4RuntimeSwitch.this::sendArbitration);
+            }
+
+            @Override
+            public void onCompleted() {
+                sessions.remove(session);
+                session.send(null);
+                respond(FakeP4RuntimeSwitch.this::sendArbitration);
+            }
+        };
+    }
+
+    private static int compare(Uint128 a, Uint128 b) {
+        int result = Long.compareUnsigned(a.getHigh(), b.getHigh());
+        return result != 0 ? result : Long.compareUnsigned(a.getLow(), b.getLow());
+    }
+
+    /**
+     * Tell every arbitrated session whether it is the master of its device,
+     * the session with the highest election id for a device id is.
+     */
+    private synchronized void sendArbitration() {
+        if (isWithholdingArbitration) {
+            return;
+        }
+        Map<Long, Session> masters = new HashMap<>();
+        for (Session session : sessions) {
+            if (session.arbitration == null) {
+                continue;
+            }
+            Session master = masters.get(session.arbitration.getDeviceId());
+            if (master == null
+                    || compare(session.arbitration.getElectionId(), master.arbitration.getElectionId()) > 0) {
+                masters.put(session.arbitration.getDeviceId(), session);
+            }
+        }
+
+        for (Session session : sessions) {
+            if (session.arbitration == null) {
+                continue;
+            }
+            Session master = masters.get(session.arbitration.getDeviceId());
+            Status.Code code = session == master ? Status.Code.OK : Status.Code.ALREADY_EXISTS;
+            session.send(StreamMessageResponse.newBuilder()
+                    .setArbitration(MasterArbitrationUpdate.newBuilder()
+                            .setDeviceId(session.arbitration.getDeviceId())
+                            .setElectionId(master.arbitration.getElectionId())
+                            .setStatus(status(code, "")))
+                    .build());
+        }
+    }
+
+    private static class Session {
+        private final StreamObserver<StreamMessageResponse> observer;
+        private volatile MasterArbitrationUpdate arbitration;
+        private boolean isClosed;
+
+        Session(StreamObserver<StreamMessageResponse> observer) {
+            this.observer = observer;
+        }
+
+        synchronized void fail(Throwable t) {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+            try {
+                observer.onError(t);
+            } catch (RuntimeException e) {
+                /* Already cancelled by the client. */
+            }
+        }
+
+        /**
+         * Send a response, null completes the stream.
+         */
+        synchronized void send(StreamMessageResponse response) {
+            if (isClosed) {
+                return;
+            }
+            try {
+                if (response == null) {
+                    isClosed = true;
+                    observer.onCompleted();
+                } else {
+                    observer.onNext(response);
+                }
+            } catch (RuntimeException e) {
+                isClosed = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package packet;
+
+import com.google.protobuf.ByteString;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.opendaylight.p4plugin.p4runtime.proto.PacketIn;
+import org.opendaylight.p4plugin.runtime.impl.packet.PacketInDispatcher;
+import org.opendaylight.p4plugin.runtime.impl.packet.PacketInRing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class PacketInDispatcherTest {
+    private final PacketInDispatcher dispatcher = PacketInDispatcher.getInstance();
+
+    private static PacketIn packet(int i) {
+        return PacketIn.newBuilder().setPayload(ByteString.copyFrom(new byte[] {(byte) (i >> 8), (byte) i})).build();
+    }
+
+    @After
+    public void after() {
+        dispatcher.setListener(null);
+        dispatcher.setRingCapacity(PacketInDispatcher.DEFAULT_RING_CAPACITY);
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testRingDropsWhenFull() {
+        PacketInRing ring = new PacketInRing("zte", 3);
+        Assert.assertEquals(4, ring.getCapacity());
+        for (int i = 0; i < 6; i++) {
+            ring.offer(packet(i));
+        }
+        Assert.assertEquals(4, ring.size());
+        Assert.assertEquals(6, ring.getReceivedCount());
+        Assert.assertEquals(2, ring.getDroppedCount());
+
+        List<PacketIn> drained = new ArrayList<>();
+        Assert.assertEquals(3, ring.drain(drained::add, 3));
+        Assert.assertEquals(packet(0), drained.get(0));
+        Assert.assertEquals(packet(2), drained.get(2));
+        Assert.assertTrue(ring.offer(packet(6)));
+        Assert.assertEquals(2, ring.drain(drained::add, 10));
+        Assert.assertEquals(packet(6), drained.get(4));
+        Assert.assertTrue(ring.isEmpty());
+        Assert.assertEquals(5, ring.getPublishedCount());
+    }
+
+    @Test
+    public void testPublishInOrderPerDevice() throws Exception {
+        int count = 1000;
+        CountDownLatch done = new CountDownLatch(2 * count);
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        dispatcher.setListener((nodeId, packet) -> {
+            if (nodeId.equals("zte")) {
+                received.add(packet.getPayload().toStringUtf8());
+            }
+            done.countDown();
+        });
+        dispatcher.start(2);
+        PacketInRing zte = dispatcher.register("zte");
+        PacketInRing hw = dispatcher.register("hw");
+        for (int i = 0; i < count; i++) {
+            PacketIn packet = PacketIn.newBuilder().setPayload(ByteString.copyFromUtf8(String.valueOf(i))).build();
+            dispatcher.dispatch(zte, packet);
+            dispatcher.dispatch(hw, packet);
+        }
+
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(String.valueOf(i), received.get(i));
+        }
+        Assert.assertEquals(count, dispatcher.getPublishedCount("zte"));
+        Assert.assertEquals(0, dispatcher.getDroppedCount("hw"));
+        dispatcher.unregister(zte);
+        dispatcher.unregister(hw);
+    }
+
+    @Test
+    public void testSlowListenerDrops() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        dispatcher.setListener((nodeId, packet) -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        dispatcher.setRingCapacity(16);
+        PacketInRing ring = dispatcher.register("zte");
+        for (int i = 0; i < 100; i++) {
+            dispatcher.dispatch(ring, packet(i));
+        }
+        Assert.assertEquals(100, dispatcher.getReceivedCount("zte"));
+        Assert.assertTrue(dispatcher.getDroppedCount("zte") >= 100 - 16 - 1);
+        blocked.countDown();
+        dispatcher.unregister(ring);
+        Assert.assertEquals(0, dispatcher.getReceivedCount("zte"));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package packet;
+
+import com.google.protobuf.ByteString;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.p4plugin.p4info.proto.ControllerPacketMetadata;
+import org.opendaylight.p4plugin.p4info.proto.P4Info;
+import org.opendaylight.p4plugin.p4info.proto.Preamble;
+import org.opendaylight.p4plugin.p4runtime.proto.PacketIn;
+import org.opendaylight.p4plugin.p4runtime.proto.PacketMetadata;
+import org.opendaylight.p4plugin.runtime.impl.packet.PacketInFilter;
+import org.opendaylight.p4plugin.runtime.impl.packet.PacketInRouter;
+import org.opendaylight.p4plugin.runtime.impl.packet.PacketInSubscription;
+import org.opendaylight.p4plugin.runtime.impl.packet.ReceivedPacket;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.P4InfoCatalog;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.PacketMetadataCodec;
+
+public class PacketInRouterTest {
+    private static final int LLDP = 0x88CC;
+    private static final int ARP = 0x0806;
+    private static final int IPV4 = 0x0800;
+    private PacketInRouter router;
+    private PacketMetadataCodec codec;
+
+    private static PacketIn packet(int etherType, int ingressPort, int... tail) {
+        byte[] frame = new byte[14 + tail.length];
+        frame[12] = (byte) (etherType >> 8);
+        frame[13] = (byte) etherType;
+        for (int i = 0; i < tail.length; i++) {
+            frame[14 + i] = (byte) tail[i];
+        }
+        return PacketIn.newBuilder()
+                .setPayload(ByteString.copyFrom(frame))
+                .addMetadata(PacketMetadata.newBuilder().setMetadataId(1)
+                        .setValue(ByteString.copyFrom(new byte[] {(byte) (ingressPort >> 8), (byte) ingressPort})))
+                .build();
+    }
+
+    private PacketInSubscription subscribe(String name, PacketInFilter filter) {
+        return router.subscribe(name, filter, 4);
+    }
+
+    @Before
+    public void before() {
+        router = new PacketInRouter();
+        codec = PacketMetadataCodec.compile(P4InfoCatalog.of(P4Info.newBuilder()
+                .addControllerPacketMetadata(ControllerPacketMetadata.newBuilder()
+                        .setPreamble(Preamble.newBuilder().setId(67108866).setName("packet_in"))
+                        .addMetadata(ControllerPacketMetadata.Metadata.newBuilder()
+                                .setId(1).setName("ingress_port").setBitwidth(9)))
+                .build()));
+    }
+
+    @Test
+    public void testRouteByNodeAndEtherType() {
+        PacketInSubscription lldp = subscribe("lldp", PacketInFilter.newBuilder().setEtherType(LLDP).build());
+        PacketInSubscription arp = subscribe("arp", PacketInFilter.newBuilder()
+                .setNodeId("zte").setEtherType(ARP).build());
+        PacketInSubscription all = subscribe("all", PacketInFilter.newBuilder().setNodeId("zte").build());
+
+        Assert.assertEquals(2, router.route("zte", packet(LLDP, 1), codec));
+        Assert.assertEquals(1, router.route("hw", packet(LLDP, 1), codec));
+        Assert.assertEquals(2, router.route("zte", packet(ARP, 1), codec));
+        Assert.assertEquals(0, router.route("hw", packet(ARP, 1), codec));
+        Assert.assertEquals(1, router.route("zte", packet(IPV4, 1), codec));
+        Assert.assertEquals(2, lldp.size());
+        Assert.assertEquals(1, arp.size());
+        Assert.assertEquals(3, all.size());
+
+        ReceivedPacket received = lldp.poll();
+        Assert.assertEquals("zte", received.getNodeId());
+        Assert.assertEquals("ingress_port", received.getMetadata().get(0).getMetadataName());
+
+        all.close();
+        Assert.assertTrue(all.isClosed());
+        Assert.assertEquals(0, router.route("zte", packet(IPV4, 1), codec));
+        lldp.close();
+        arp.close();
+        Assert.assertTrue(router.isEmpty());
+    }
+
+    @Test
+    public void testRouteByIngressPortAndPayload() {
+        PacketInSubscription port = subscribe("port", PacketInFilter.newBuilder().setIngressPort(260).build());
+        PacketInSubscription dhcp = subscribe("dhcp", PacketInFilter.newBuilder()
+                .setEtherType(IPV4)
+                .setPayloadMatch(14 + 9, new byte[] {17}, null)
+                .build());
+        PacketInSubscription version = subscribe("version", PacketInFilter.newBuilder()
+                .setPayloadMatch(14, new byte[] {0x40}, new byte[] {(byte) 0xF0})
+                .build());
+
+        int[] udp = new int[10];
+        udp[0] = 0x45;
+        udp[9] = 17;
+        Assert.assertEquals(3, router.route("zte", packet(IPV4, 260, udp), codec));
+        Assert.assertEquals(1, router.route("zte", packet(IPV4, 1, 0x46), codec));
+        Assert.assertEquals(0, router.route("zte", packet(ARP, 1), codec));
+        Assert.assertEquals(2, router.route("zte", packet(IPV4, 260, udp), null));
+        Assert.assertEquals(1, port.size());
+        Assert.assertEquals(2, dhcp.size());
+        Assert.assertEquals(3, version.size());
+    }
+
+    @Test
+    public void testSlowSubscriberDrops() {
+        PacketInSubscription slow = subscribe("slow", PacketInFilter.newBuilder().build());
+        for (int i = 0; i < 10; i++) {
+            router.route("zte", packet(LLDP, 1), codec);
+        }
+        Assert.assertEquals(4, slow.size());
+        Assert.assertEquals(4, slow.getDeliveredCount());
+        Assert.assertEquals(6, slow.getDroppedCount());
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package pipeline;
+
+import com.google.protobuf.ByteString;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.p4plugin.p4info.proto.*;
+import org.opendaylight.p4plugin.p4runtime.proto.FieldMatch;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.EntryTranslator;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.P4InfoCatalog;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.AddTableEntryInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.action.ActionParamBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.Field;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.FieldBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.field.match.type.EXACTBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.field.match.type.LPM;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.match.field.field.match.type.LPMBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.read.table.entry.page.output.Entry;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.table.entry.action.type.DIRECTACTION;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.runtime.rev170808.table.entry.action.type.DIRECTACTIONBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.types.rev170808.Value;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class EntryTranslatorTest {
+    private EntryTranslator translator;
+
+    @Before
+    public void before() {
+        P4Info p4Info = P4Info.newBuilder()
+                .addTables(Table.newBuilder()
+                        .setPreamble(Preamble.newBuilder().setId(33554433).setName("ipv4_lpm"))
+                        .addMatchFields(MatchField.newBuilder()
+                                .setId(1)
+                                .setName("hdr.ipv4.dstAddr")
+                                .setBitwidth(32)
+                                .setMatchType(MatchField.MatchType.LPM)))
+                .addActions(Action.newBuilder()
+                        .setPreamble(Preamble.newBuilder().setId(16777217).setName("ipv4_forward"))
+                        .addParams(Action.Param.newBuilder().setId(1).setName("dstAddr").setBitwidth(48))
+                        .addParams(Action.Param.newBuilder().setId(2).setName("port").setBitwidth(9)))
+                .build();
+        translator = EntryTranslator.compile(P4InfoCatalog.of(p4Info));
+    }
+
+    private static AddTableEntryInputBuilder entry() {
+        return new AddTableEntryInputBuilder()
+                .setTableName("ipv4_lpm")
+                .setField(Collections.singletonList(new FieldBuilder()
+                        .setFieldName("hdr.ipv4.dstAddr")
+                        .setMatchType(new LPMBuilder().setLpmValue(new Value("10.0.0.1")).setPrefixLen(24L).build())
+                        .build()))
+                .setActionType(new DIRECTACTIONBuilder()
+                        .setActionName("ipv4_forward")
+                        .setActionParam(Arrays.asList(
+                                new ActionParamBuilder().setParamName("dstAddr").setParamValue("00:00:00:00:01:01").build(),
+                                new ActionParamBuilder().setParamName("port").setParamValue("1").build()))
+                        .build())
+                .setPriority(10)
+                .setControllerMetadata(BigInteger.valueOf(5));
+    }
+
+    @Test
+    public void testToProtoEntry() {
+        org.opendaylight.p4plugin.p4runtime.proto.TableEntry entry = translator.toProtoEntry(entry().build());
+        Assert.assertEquals(33554433, entry.getTableId());
+        Assert.assertEquals(10, entry.getPriority());
+        Assert.assertEquals(5, entry.getControllerMetadata());
+
+        FieldMatch match = entry.getMatch(0);
+        Assert.assertEquals(1, match.getFieldId());
+        Assert.assertEquals(24, match.getLpm().getPrefixLen());
+        Assert.assertEquals(ByteString.copyFrom(new byte[] {10, 0, 0, 0}), match.getLpm().getValue());
+
+        org.opendaylight.p4plugin.p4runtime.proto.Action action = entry.getAction().getAction();
+        Assert.assertEquals(16777217, action.getActionId());
+        Assert.assertEquals(2, action.getParams(1).getParamId());
+        Assert.assertEquals(ByteString.copyFrom(new byte[] {0, 1}), action.getParams(1).getValue());
+        Assert.assertEquals(6, action.getParams(0).getValue().size());
+    }
+
+    @Test
+    public void testToYangEntry() {
+        Entry entry = translator.toYangEntry(translator.toProtoEntry(entry().build()));
+        Assert.assertEquals("ipv4_lpm", entry.getTableName());
+        Assert.assertEquals(Integer.valueOf(10), entry.getPriority());
+        Assert.assertEquals(BigInteger.valueOf(5), entry.getControllerMetadata());
+
+        Field field = entry.getField().get(0);
+        Assert.assertEquals("hdr.ipv4.dstAddr", field.getFieldName());
+        LPM lpm = (LPM) field.getMatchType();
+        Assert.assertEquals("0x0a000000", lpm.getLpmValue().getValue());
+        Assert.assertEquals(Long.valueOf(24), lpm.getPrefixLen());
+
+        DIRECTACTION action = (DIRECTACTION) entry.getActionType();
+        Assert.assertEquals("ipv4_forward", action.getActionName());
+        Assert.assertEquals("dstAddr", action.getActionParam().get(0).getParamName());
+        Assert.assertEquals("0x000000000101", action.getActionParam().get(0).getParamValue());
+        Assert.assertEquals("0x0001", action.getActionParam().get(1).getParamValue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMatchKindMismatch() {
+        translator.toProtoEntry(entry()
+                .setField(Collections.singletonList(new FieldBuilder()
+                        .setFieldName("hdr.ipv4.dstAddr")
+                        .setMatchType(new EXACTBuilder().setExactValue(new Value("10.0.0.1")).build())
+                        .build()))
+                .build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidFieldName() {
+        translator.toProtoEntry(entry()
+                .setField(Collections.singletonList(new FieldBuilder()
+                        .setFieldName("hdr.ipv4.srcAddr")
+                        .setMatchType(new LPMBuilder().setLpmValue(new Value("10.0.0.1")).setPrefixLen(24L).build())
+                        .build()))
+                .build());
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package pipeline;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.p4plugin.p4info.proto.*;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.P4InfoCatalog;
+
+public class P4InfoCatalogTest {
+    private P4InfoCatalog catalog;
+
+    @Before
+    public void before() {
+        P4Info p4Info = P4Info.newBuilder()
+                .addTables(Table.newBuilder()
+                        .setPreamble(Preamble.newBuilder().setId(33554433).setName("ipv4_lpm"))
+                        .addMatchFields(MatchField.newBuilder()
+                                .setId(1)
+                                .setName("hdr.ipv4.dstAddr")
+                                .setBitwidth(32)
+                                .setMatchType(MatchField.MatchType.LPM))
+                        .addMatchFields(MatchField.newBuilder()
+                                .setId(2)
+                                .setName("standard_metadata.ingress_port")
+                                .setBitwidth(9)
+                                .setMatchType(MatchField.MatchType.EXACT)))
+                .addActions(Action.newBuilder()
+                        .setPreamble(Preamble.newBuilder().setId(16777217).setName("ipv4_forward"))
+                        .addParams(Action.Param.newBuilder().setId(1).setName("dstAddr").setBitwidth(48))
+                        .addParams(Action.Param.newBuilder().setId(2).setName("port").setBitwidth(9)))
+                .addActionProfiles(ActionProfile.newBuilder()
+                        .setPreamble(Preamble.newBuilder().setId(285212673).setName("ecmp_selector")))
+                .build();
+        catalog = P4InfoCatalog.of(p4Info);
+    }
+
+    @Test
+    public void testTableLookup() {
+        Assert.assertEquals(33554433, catalog.getTableId("ipv4_lpm"));
+        Assert.assertEquals("ipv4_lpm", catalog.getTableName(33554433));
+        Assert.assertEquals(2, catalog.getMatchFieldId("ipv4_lpm", "standard_metadata.ingress_port"));
+        Assert.assertEquals("hdr.ipv4.dstAddr", catalog.getMatchFieldName(33554433, 1));
+        Assert.assertEquals(4, catalog.getMatchFieldWidth("ipv4_lpm", "hdr.ipv4.dstAddr"));
+        Assert.assertEquals(2, catalog.getMatchFieldWidth("ipv4_lpm", "standard_metadata.ingress_port"));
+    }
+
+    @Test
+    public void testActionLookup() {
+        Assert.assertEquals(16777217, catalog.getActionId("ipv4_forward"));
+        Assert.assertEquals("ipv4_forward", catalog.getActionName(16777217));
+        Assert.assertEquals(1, catalog.getParamId("ipv4_forward", "dstAddr"));
+        Assert.assertEquals("port", catalog.getParamName(16777217, 2));
+        Assert.assertEquals(6, catalog.getParamWidth("ipv4_forward", "dstAddr"));
+        Assert.assertEquals(2, catalog.getParamWidth("ipv4_forward", "port"));
+    }
+
+    @Test
+    public void testActionProfileLookup() {
+        Assert.assertEquals(285212673, catalog.getActionProfileId("ecmp_selector"));
+        Assert.assertEquals("ecmp_selector", catalog.getActionProfileName(285212673));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidTableName() {
+        catalog.getTableId("acl");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidParamId() {
+        catalog.getParamName(16777217, 3);
+    }
+}
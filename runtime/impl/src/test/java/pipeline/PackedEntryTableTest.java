@@ -0,0 +1,140 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package pipeline;
+
+import com.google.protobuf.ByteString;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.p4plugin.p4info.proto.Action;
+import org.opendaylight.p4plugin.p4info.proto.ActionRef;
+import org.opendaylight.p4plugin.p4info.proto.MatchField;
+import org.opendaylight.p4plugin.p4info.proto.P4Info;
+import org.opendaylight.p4plugin.p4info.proto.Preamble;
+import org.opendaylight.p4plugin.p4info.proto.Table;
+import org.opendaylight.p4plugin.p4runtime.proto.FieldMatch;
+import org.opendaylight.p4plugin.p4runtime.proto.TableAction;
+import org.opendaylight.p4plugin.p4runtime.proto.TableEntry;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.EntryLayout;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.P4InfoCatalog;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.PackedEntryTable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PackedEntryTableTest {
+    private static final int TABLE_ID = 33554433;
+    private static final int ACTION_ID = 16777217;
+    private EntryLayout layout;
+
+    @Before
+    public void before() {
+        P4Info p4Info = P4Info.newBuilder()
+                .addTables(Table.newBuilder()
+                        .setPreamble(Preamble.newBuilder().setId(TABLE_ID).setName("ipv4_lpm"))
+                        .addMatchFields(MatchField.newBuilder().setId(1).setName("hdr.ethernet.etherType")
+                                .setBitwidth(16).setMatchType(MatchField.MatchType.EXACT))
+                        .addMatchFields(MatchField.newBuilder().setId(2).setName("hdr.ipv4.dstAddr")
+                                .setBitwidth(32).setMatchType(MatchField.MatchType.LPM))
+                        .addActionRefs(ActionRef.newBuilder().setId(ACTION_ID)))
+                .addActions(Action.newBuilder()
+                        .setPreamble(Preamble.newBuilder().setId(ACTION_ID).setName("ipv4_forward"))
+                        .addParams(Action.Param.newBuilder().setId(1).setName("dstAddr").setBitwidth(48))
+                        .addParams(Action.Param.newBuilder().setId(2).setName("port").setBitwidth(9)))
+                .build();
+        P4InfoCatalog catalog = P4InfoCatalog.of(p4Info);
+        layout = EntryLayout.of(catalog, catalog.getTable(TABLE_ID));
+    }
+
+    private static TableEntry entry(int address, int port) {
+        return TableEntry.newBuilder()
+                .setTableId(TABLE_ID)
+                .addMatch(FieldMatch.newBuilder().setFieldId(1)
+                        .setExact(FieldMatch.Exact.newBuilder().setValue(ByteString.copyFrom(new byte[] {8, 0}))))
+                .addMatch(FieldMatch.newBuilder().setFieldId(2)
+                        .setLpm(FieldMatch.LPM.newBuilder().setPrefixLen(24).setValue(ByteString.copyFrom(
+                                new byte[] {10, (byte) (address >> 16), (byte) (address >> 8), (byte) address}))))
+                .setAction(TableAction.newBuilder().setAction(
+                        org.opendaylight.p4plugin.p4runtime.proto.Action.newBuilder()
+                                .setActionId(ACTION_ID)
+                                .addParams(org.opendaylight.p4plugin.p4runtime.proto.Action.Param.newBuilder()
+                                        .setParamId(1).setValue(ByteString.copyFrom(new byte[] {0, 0, 0, 0, 1, 1})))
+                                .addParams(org.opendaylight.p4plugin.p4runtime.proto.Action.Param.newBuilder()
+                                        .setParamId(2).setValue(ByteString.copyFrom(
+                                                new byte[] {(byte) (port >> 8), (byte) port})))))
+                .setControllerMetadata(7)
+                .build();
+    }
+
+    @Test
+    public void testLayout() {
+        Assert.assertEquals(1 + 4 + 2 + 6, layout.getKeySize());
+        Assert.assertEquals(1 + 4 + 8 + 6 + 2, layout.getValueSize());
+        Assert.assertEquals(layout.getKeySize() + layout.getValueSize(), layout.getRecordSize());
+    }
+
+    @Test
+    public void testPutAndGet() {
+        PackedEntryTable table = new PackedEntryTable(layout, false);
+        TableEntry entry = entry(1, 1);
+        Assert.assertTrue(table.put(entry));
+        Assert.assertEquals(1, table.size());
+        int slot = table.find(entry);
+        Assert.assertEquals(0, slot);
+        Assert.assertEquals(entry, table.get(slot));
+        Assert.assertTrue(table.valueEquals(slot, entry));
+
+        TableEntry modified = entry(1, 2);
+        Assert.assertFalse(table.valueEquals(slot, modified));
+        Assert.assertTrue(table.put(modified));
+        Assert.assertEquals(1, table.size());
+        Assert.assertEquals(modified, table.get(table.find(entry)));
+    }
+
+    @Test
+    public void testGrowAndRemove() {
+        PackedEntryTable table = new PackedEntryTable(layout, true);
+        for (int i = 0; i < 5000; i++) {
+            Assert.assertTrue(table.put(entry(i, i & 0x1FF)));
+        }
+        Assert.assertTrue(table.isDirect());
+        Assert.assertEquals(5000, table.size());
+
+        for (int i = 0; i < 5000; i += 2) {
+            Assert.assertTrue(table.remove(entry(i, 0)));
+        }
+        Assert.assertFalse(table.remove(entry(0, 0)));
+        Assert.assertEquals(2500, table.size());
+        for (int i = 0; i < 5000; i++) {
+            int slot = table.find(entry(i, 0));
+            if (i % 2 == 0) {
+                Assert.assertEquals(-1, slot);
+            } else {
+                Assert.assertEquals(entry(i, i & 0x1FF), table.get(slot));
+            }
+        }
+
+        List<TableEntry> entries = new ArrayList<>();
+        table.forEach(entries::add);
+        Assert.assertEquals(2500, entries.size());
+        table.clear();
+        Assert.assertEquals(0, table.size());
+        Assert.assertEquals(-1, table.find(entry(1, 0)));
+    }
+
+    @Test
+    public void testEntryNotFitting() {
+        PackedEntryTable table = new PackedEntryTable(layout, false);
+        TableEntry wide = entry(1, 1).toBuilder()
+                .setMatch(0, FieldMatch.newBuilder().setFieldId(1)
+                        .setExact(FieldMatch.Exact.newBuilder().setValue(ByteString.copyFrom(new byte[] {8}))))
+                .build();
+        Assert.assertFalse(table.put(wide));
+        Assert.assertEquals(0, table.size());
+    }
+}
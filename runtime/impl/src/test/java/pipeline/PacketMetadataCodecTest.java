@@ -0,0 +1,91 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package pipeline;
+
+import com.google.protobuf.ByteString;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.p4plugin.p4info.proto.ControllerPacketMetadata;
+import org.opendaylight.p4plugin.p4info.proto.P4Info;
+import org.opendaylight.p4plugin.p4info.proto.Preamble;
+import org.opendaylight.p4plugin.p4runtime.proto.PacketIn;
+import org.opendaylight.p4plugin.p4runtime.proto.PacketMetadata;
+import org.opendaylight.p4plugin.p4runtime.proto.PacketOut;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.P4InfoCatalog;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.PacketMetadataCodec;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.packet.rev170808.packet.metadata.Metadata;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.packet.rev170808.packet.metadata.MetadataBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.p4plugin.types.rev170808.Value;
+
+import java.util.Collections;
+import java.util.List;
+
+public class PacketMetadataCodecTest {
+    private PacketMetadataCodec codec;
+
+    private static ControllerPacketMetadata.Metadata field(int id, String name, int bitWidth) {
+        return ControllerPacketMetadata.Metadata.newBuilder().setId(id).setName(name).setBitwidth(bitWidth).build();
+    }
+
+    @Before
+    public void before() {
+        P4Info p4Info = P4Info.newBuilder()
+                .addControllerPacketMetadata(ControllerPacketMetadata.newBuilder()
+                        .setPreamble(Preamble.newBuilder().setId(67108865).setName("packet_out"))
+                        .addMetadata(field(1, "egress_port", 9)))
+                .addControllerPacketMetadata(ControllerPacketMetadata.newBuilder()
+                        .setPreamble(Preamble.newBuilder().setId(67108866).setName("packet_in"))
+                        .addMetadata(field(1, "ingress_port", 9))
+                        .addMetadata(field(2, "reason", 16)))
+                .build();
+        codec = PacketMetadataCodec.compile(P4InfoCatalog.of(p4Info));
+    }
+
+    @Test
+    public void testEncodePacketOut() {
+        byte[] payload = {1, 2, 3};
+        PacketOut packet = codec.toProtoPacket(payload, Collections.singletonList(new MetadataBuilder()
+                .setMetadataName("egress_port").setMetadataValue(new Value("260")).build()));
+        Assert.assertEquals(ByteString.copyFrom(payload), packet.getPayload());
+        Assert.assertEquals(1, packet.getMetadataCount());
+        Assert.assertEquals(1, packet.getMetadata(0).getMetadataId());
+        Assert.assertEquals(ByteString.copyFrom(new byte[] {1, 4}), packet.getMetadata(0).getValue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEncodeUnknownMetadata() {
+        codec.toProtoPacket(new byte[0], Collections.singletonList(new MetadataBuilder()
+                .setMetadataName("reason").setMetadataValue(new Value("1")).build()));
+    }
+
+    @Test
+    public void testDecodePacketIn() {
+        PacketIn packet = PacketIn.newBuilder()
+                .setPayload(ByteString.copyFromUtf8("payload"))
+                .addMetadata(PacketMetadata.newBuilder().setMetadataId(2)
+                        .setValue(ByteString.copyFrom(new byte[] {0, 5})))
+                .addMetadata(PacketMetadata.newBuilder().setMetadataId(9)
+                        .setValue(ByteString.copyFrom(new byte[] {7})))
+                .addMetadata(PacketMetadata.newBuilder().setMetadataId(1)
+                        .setValue(ByteString.copyFrom(new byte[] {1, (byte) 0xff})))
+                .build();
+        List<Metadata> metadata = codec.toYangMetadata(packet);
+        Assert.assertEquals(2, metadata.size());
+        Assert.assertEquals("reason", metadata.get(0).getMetadataName());
+        Assert.assertEquals("0x0005", metadata.get(0).getMetadataValue().getValue());
+        Assert.assertEquals("ingress_port", metadata.get(1).getMetadataName());
+        Assert.assertEquals("0x01ff", metadata.get(1).getMetadataValue().getValue());
+
+        int ingressPort = codec.getPacketInMetadata("ingress_port").getId();
+        Assert.assertEquals(ByteString.copyFrom(new byte[] {1, (byte) 0xff}),
+                PacketMetadataCodec.getMetadataValue(packet, ingressPort));
+        Assert.assertNull(PacketMetadataCodec.getMetadataValue(PacketIn.getDefaultInstance(), ingressPort));
+        Assert.assertTrue(codec.toYangMetadata(PacketIn.getDefaultInstance()).isEmpty());
+    }
+}
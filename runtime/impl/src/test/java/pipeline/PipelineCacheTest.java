@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package pipeline;
+
+import com.google.protobuf.ByteString;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opendaylight.p4plugin.p4info.proto.MatchField;
+import org.opendaylight.p4plugin.p4info.proto.P4Info;
+import org.opendaylight.p4plugin.p4info.proto.Preamble;
+import org.opendaylight.p4plugin.p4info.proto.Table;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.Pipeline;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.PipelineCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+public class PipelineCacheTest {
+    private static final P4Info P4INFO = P4Info.newBuilder()
+            .addTables(Table.newBuilder()
+                    .setPreamble(Preamble.newBuilder().setId(33554433).setName("ipv4_lpm"))
+                    .addMatchFields(MatchField.newBuilder().setId(1).setName("hdr.ipv4.dstAddr")
+                            .setBitwidth(32).setMatchType(MatchField.MatchType.LPM)))
+            .build();
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private Path cacheDirectory;
+    private String runtimeFile;
+    private String configFile;
+
+    private String write(String name, String content) throws IOException {
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file.getPath();
+    }
+
+    @Before
+    public void before() throws IOException {
+        cacheDirectory = folder.newFolder("cache").toPath();
+        runtimeFile = write("simple_router.proto.txt", P4INFO.toString());
+        configFile = write("simple_router.json", "{\"program\" : \"simple_router.p4\"}");
+    }
+
+    @Test
+    public void testShareParsedPipeline() throws IOException {
+        PipelineCache cache = new PipelineCache(cacheDirectory);
+        Pipeline pipeline = cache.load(runtimeFile, configFile);
+        Assert.assertEquals(P4INFO, pipeline.getRuntimeInfo());
+        Assert.assertEquals(ByteString.copyFromUtf8("{\"program\" : \"simple_router.p4\"}"),
+                pipeline.getDeviceConfig());
+        Assert.assertEquals(33554433, pipeline.getCatalog().getTableId("ipv4_lpm"));
+
+        String copy = write("copy.proto.txt", P4INFO.toString());
+        Assert.assertSame(pipeline, cache.load(runtimeFile, configFile));
+        Assert.assertSame(pipeline, cache.load(copy, configFile));
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(1, cache.getParsedCount());
+    }
+
+    @Test
+    public void testMapAfterRestart() throws IOException {
+        Pipeline parsed = new PipelineCache(cacheDirectory).load(runtimeFile, configFile);
+        try (Stream<Path> files = Files.list(cacheDirectory)) {
+            Assert.assertEquals(1, files.count());
+        }
+
+        PipelineCache cache = new PipelineCache(cacheDirectory);
+        Pipeline mapped = cache.load(runtimeFile, configFile);
+        Assert.assertEquals(0, cache.getParsedCount());
+        Assert.assertEquals(1, cache.getMappedCount());
+        Assert.assertEquals(parsed.getKey(), mapped.getKey());
+        Assert.assertEquals(parsed.getRuntimeInfo(), mapped.getRuntimeInfo());
+        Assert.assertEquals(parsed.getDeviceConfig(), mapped.getDeviceConfig());
+    }
+
+    @Test
+    public void testCorruptCacheFile() throws IOException {
+        String key = new PipelineCache(cacheDirectory).load(runtimeFile, configFile).getKey();
+        Files.write(cacheDirectory.resolve(key + ".pipeline"), new byte[] {1, 2, 3});
+
+        PipelineCache cache = new PipelineCache(cacheDirectory);
+        Assert.assertEquals(P4INFO, cache.load(runtimeFile, configFile).getRuntimeInfo());
+        Assert.assertEquals(1, cache.getParsedCount());
+        Assert.assertEquals(0, cache.getMappedCount());
+    }
+
+    @Test
+    public void testChangedFile() throws IOException {
+        PipelineCache cache = new PipelineCache(cacheDirectory);
+        Pipeline pipeline = cache.load(runtimeFile, configFile);
+        String otherConfig = write("other.json", "{}");
+        Assert.assertNotEquals(pipeline.getKey(), cache.load(runtimeFile, otherConfig).getKey());
+        Assert.assertEquals(2, cache.getParsedCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingFile() throws IOException {
+        new PipelineCache(cacheDirectory).load(runtimeFile, "config-file-path");
+    }
+}
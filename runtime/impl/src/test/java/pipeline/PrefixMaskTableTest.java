@@ -0,0 +1,83 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package pipeline;
+
+import com.google.protobuf.ByteString;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.p4plugin.p4info.proto.*;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.P4InfoCatalog;
+import org.opendaylight.p4plugin.runtime.impl.pipeline.PrefixMaskTable;
+
+public class PrefixMaskTableTest {
+    private PrefixMaskTable prefixMasks;
+
+    private static ByteString bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte) values[i];
+        }
+        return ByteString.copyFrom(result);
+    }
+
+    @Before
+    public void before() {
+        P4Info p4Info = P4Info.newBuilder()
+                .addTables(Table.newBuilder()
+                        .setPreamble(Preamble.newBuilder().setId(33554433).setName("acl"))
+                        .addMatchFields(MatchField.newBuilder()
+                                .setId(1)
+                                .setName("hdr.ipv4.dstAddr")
+                                .setBitwidth(32)
+                                .setMatchType(MatchField.MatchType.LPM))
+                        .addMatchFields(MatchField.newBuilder()
+                                .setId(2)
+                                .setName("standard_metadata.ingress_port")
+                                .setBitwidth(9)
+                                .setMatchType(MatchField.MatchType.TERNARY))
+                        .addMatchFields(MatchField.newBuilder()
+                                .setId(3)
+                                .setName("hdr.ethernet.etherType")
+                                .setBitwidth(16)
+                                .setMatchType(MatchField.MatchType.EXACT)))
+                .build();
+        prefixMasks = P4InfoCatalog.of(p4Info).getPrefixMasks();
+    }
+
+    @Test
+    public void testMask() {
+        Assert.assertEquals(bytes(0, 0, 0, 0), prefixMasks.getMask(32, 0));
+        Assert.assertEquals(bytes(0xFF, 0xFF, 0xFF, 0), prefixMasks.getMask(32, 24));
+        Assert.assertEquals(bytes(0xFF, 0xFF, 0xFF, 0xFF), prefixMasks.getMask(32, 32));
+        Assert.assertEquals(bytes(0x01, 0xC0), prefixMasks.getMask(9, 3));
+        Assert.assertEquals(bytes(0x01, 0xFF), prefixMasks.getMask(9, 9));
+        Assert.assertSame(prefixMasks.getMask(32, 8), prefixMasks.getMask(32, 8));
+    }
+
+    @Test
+    public void testEncodeZerosHostBits() {
+        Assert.assertEquals(bytes(10, 1, 2, 0), prefixMasks.encode("10.1.2.3", 32, 24));
+        Assert.assertEquals(bytes(0x01, 0x80), prefixMasks.encode("0x1ff", 9, 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPrefixExceedsWidth() {
+        prefixMasks.getMask(9, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testValueExceedsWidth() {
+        prefixMasks.encode("512", 9, 9);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExactFieldWidthIsNotPrecomputed() {
+        prefixMasks.getMask(16, 8);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package stub;
+
+import io.grpc.ManagedChannel;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.p4plugin.runtime.impl.stub.ChannelFactory;
+
+public class ChannelFactoryTest {
+    private ChannelFactory factory = ChannelFactory.getInstance();
+
+    @Before
+    public void before() {
+        factory.setChannelBuilder((ip, port) -> InProcessChannelBuilder.forName(ip + ":" + port));
+    }
+
+    @Test
+    public void testChannelSharedPerServer() {
+        ManagedChannel channel1 = factory.acquire("127.0.0.1", 50061);
+        ManagedChannel channel2 = factory.acquire("127.0.0.1", 50061);
+        ManagedChannel channel3 = factory.acquire("127.0.0.1", 50062);
+        Assert.assertSame(channel1, channel2);
+        Assert.assertNotSame(channel1, channel3);
+        Assert.assertEquals(2, factory.getReferenceCount("127.0.0.1", 50061));
+
+        factory.release(channel1);
+        Assert.assertFalse(channel1.isShutdown());
+        factory.release(channel2);
+        Assert.assertTrue(channel1.isShutdown());
+        Assert.assertEquals(0, factory.getReferenceCount("127.0.0.1", 50061));
+
+        ManagedChannel channel4 = factory.acquire("127.0.0.1", 50061);
+        Assert.assertNotSame(channel1, channel4);
+        factory.release(channel4);
+        factory.release(channel3);
+        Assert.assertTrue(channel3.isShutdown());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxInboundMessageSize() {
+        factory.setMaxInboundMessageSize(0);
+    }
+
+    @After
+    public void after() {
+        factory.setChannelBuilder(null);
+    }
+}
@@ -21,6 +21,7 @@ import org.mockito.MockitoAnnotations;
 import org.opendaylight.p4plugin.p4runtime.proto.*;
 import org.opendaylight.p4plugin.runtime.impl.cluster.ElectionId;
 import org.opendaylight.p4plugin.runtime.impl.cluster.ElectionIdGenerator;
+import org.opendaylight.p4plugin.runtime.impl.stub.PacketOutPipeline;
 import org.opendaylight.p4plugin.runtime.impl.stub.RuntimeStub;
 
 public class RuntimeStubTest {
@@ -33,6 +34,9 @@ public class RuntimeStubTest {
     @Mock
     private StreamObserver<StreamMessageRequest> requestStreamObserver;
 
+    @Mock
+    private PacketOutPipeline packetOutPipeline;
+
     @Before
     public void before() {
         MockitoAnnotations.initMocks(this);
@@ -72,9 +76,9 @@ public class RuntimeStubTest {
 
     @Test
     public void testSendMasterArbitration() {
-        Mockito.doNothing().when(requestStreamObserver).onNext(Mockito.any());
+        Mockito.doReturn(true).when(packetOutPipeline).send(Mockito.any());
         runtimeStub.sendMasterArbitration(ElectionIdGenerator.getInstance().getElectionId());
-        Mockito.verify(requestStreamObserver).onNext(Mockito.any());
+        Mockito.verify(packetOutPipeline).send(Mockito.any());
     }
 
     @Test(expected = RuntimeException.class)
@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package stub;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import fake.FakeP4RuntimeSwitch;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.p4plugin.p4runtime.proto.P4RuntimeGrpc;
+import org.opendaylight.p4plugin.p4runtime.proto.WriteRequest;
+import org.opendaylight.p4plugin.p4runtime.proto.WriteResponse;
+import org.opendaylight.p4plugin.runtime.impl.stub.WritePipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+public class WritePipelineTest {
+    private static final int MAX_IN_FLIGHT = 2;
+    /* Pending queue of the pipeline, 64 writes per in flight slot. */
+    private static final int MAX_PENDING = MAX_IN_FLIGHT * 64;
+    private FakeP4RuntimeSwitch fakeSwitch;
+    private ManagedChannel channel;
+    private P4RuntimeGrpc.P4RuntimeStub asyncStub;
+
+    @Before
+    public void before() throws Exception {
+        fakeSwitch = new FakeP4RuntimeSwitch("write-pipeline").start();
+        fakeSwitch.setHoldWrites(true);
+        channel = fakeSwitch.channelBuilder().build();
+        asyncStub = P4RuntimeGrpc.newStub(channel);
+    }
+
+    @Test
+    public void testMaxInFlight() throws Exception {
+        WritePipeline pipeline = new WritePipeline(asyncStub, "zte", MAX_IN_FLIGHT);
+        List<ListenableFuture<WriteResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(pipeline.write(WriteRequest.getDefaultInstance()));
+        }
+        await(() -> fakeSwitch.getWriteCount() == MAX_IN_FLIGHT);
+        Assert.assertEquals(MAX_IN_FLIGHT, pipeline.getInFlight());
+        Assert.assertEquals(3, pipeline.getPending());
+        Assert.assertFalse(futures.get(0).isDone());
+
+        /* Every completed write sends the next pending one from its callback. */
+        await(() -> {
+            fakeSwitch.releaseWrites();
+            return futures.stream().allMatch(ListenableFuture::isDone);
+        });
+        for (ListenableFuture<WriteResponse> future : futures) {
+            Assert.assertNotNull(future.get());
+        }
+        Assert.assertEquals(5, fakeSwitch.getWriteCount());
+        Assert.assertEquals(0, pipeline.getInFlight());
+        Assert.assertEquals(0, pipeline.getPending());
+    }
+
+    @Test
+    public void testRejectWhenQueueIsFull() throws Exception {
+        WritePipeline pipeline = new WritePipeline(asyncStub, "zte", MAX_IN_FLIGHT);
+        for (int i = 0; i < MAX_IN_FLIGHT + MAX_PENDING; i++) {
+            pipeline.write(WriteRequest.getDefaultInstance());
+        }
+        Assert.assertEquals(MAX_PENDING, pipeline.getPending());
+
+        ListenableFuture<WriteResponse> rejected = pipeline.write(WriteRequest.getDefaultInstance());
+        Assert.assertTrue(rejected.isDone());
+        try {
+            rejected.get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertEquals(Status.Code.RESOURCE_EXHAUSTED, Status.fromThrowable(e.getCause()).getCode());
+        }
+        Assert.assertEquals(1, pipeline.getRejected());
+        Assert.assertEquals(MAX_PENDING, pipeline.getPending());
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        WritePipeline pipeline = new WritePipeline(asyncStub, "zte", 1, 200);
+        ListenableFuture<WriteResponse> hung = pipeline.write(WriteRequest.getDefaultInstance());
+        ListenableFuture<WriteResponse> next = pipeline.write(WriteRequest.getDefaultInstance());
+        try {
+            hung.get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertEquals(Status.Code.DEADLINE_EXCEEDED, Status.fromThrowable(e.getCause()).getCode());
+        }
+        /* The slot of the hung write is given to the next one. */
+        await(() -> fakeSwitch.getWriteCount() == 2);
+        fakeSwitch.setHoldWrites(false);
+        fakeSwitch.releaseWrites();
+        Assert.assertNotNull(next.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDeadline() {
+        new WritePipeline(asyncStub, "zte", 1, 0);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(condition.getAsBoolean());
+    }
+
+    @After
+    public void after() {
+        channel.shutdownNow();
+        fakeSwitch.close();
+    }
+}
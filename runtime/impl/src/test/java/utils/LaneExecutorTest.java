@@ -0,0 +1,118 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package utils;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import com.google.common.util.concurrent.SettableFuture;
+import org.opendaylight.p4plugin.runtime.impl.utils.LaneExecutor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class LaneExecutorTest {
+    private LaneExecutor executor;
+
+    @Before
+    public void before() {
+        executor = new LaneExecutor("test", 4, 2);
+    }
+
+    @Test
+    public void testFifoPerLane() throws Exception {
+        executor.shutdown();
+        executor = new LaneExecutor("test", 4, 1000);
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            int value = i;
+            futures.add(executor.submit("zte", () -> {
+                order.add(value);
+                return value;
+            }));
+        }
+        for (Future<Integer> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        for (int i = 0; i < 500; i++) {
+            Assert.assertEquals(Integer.valueOf(i), order.get(i));
+        }
+    }
+
+    @Test
+    public void testBlockedLaneDoesNotBlockOthers() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        Future<Boolean> blocked = executor.submit("zte", () -> latch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals("hw", executor.submit("hw", () -> "hw").get(10, TimeUnit.SECONDS));
+        Assert.assertFalse(blocked.isDone());
+        latch.countDown();
+        Assert.assertTrue(blocked.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testAsyncTaskHoldsLane() throws Exception {
+        SettableFuture<String> write = SettableFuture.create();
+        Future<String> first = executor.submitAsync("zte", () -> write);
+        Future<String> second = executor.submit("zte", () -> "second");
+        Assert.assertEquals("hw", executor.submit("hw", () -> "hw").get(10, TimeUnit.SECONDS));
+        Assert.assertFalse(first.isDone());
+        Assert.assertFalse(second.isDone());
+        write.set("first");
+        Assert.assertEquals("first", first.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals("second", second.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testIdleLaneIsRemoved() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals("zte", executor.submit("zte-" + i, () -> "zte").get(10, TimeUnit.SECONDS));
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (executor.getLaneCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, executor.getLaneCount());
+        Assert.assertEquals("zte", executor.submit("zte-0", () -> "zte").get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRejectWhenLaneIsFull() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch latch = new CountDownLatch(1);
+        executor.submit("zte", () -> {
+            started.countDown();
+            return latch.await(10, TimeUnit.SECONDS);
+        });
+        started.await(10, TimeUnit.SECONDS);
+        executor.submit("zte", () -> true);
+        executor.submit("zte", () -> true);
+        Future<Boolean> rejected = executor.submit("zte", () -> true);
+        try {
+            rejected.get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        Assert.assertEquals(1, executor.getRejectedCount());
+        Assert.assertEquals(2, executor.getQueueDepth("zte"));
+        latch.countDown();
+    }
+
+    @After
+    public void after() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opendaylight.p4plugin.runtime.impl.utils.TokenBucket;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TokenBucketTest {
+    @Test
+    public void testUnlimited() {
+        TokenBucket bucket = TokenBucket.unlimited();
+        Assert.assertTrue(bucket.isUnlimited());
+        Assert.assertEquals(1000000, bucket.tryAcquire(1000000));
+        Assert.assertEquals(0, bucket.nanosToNextToken());
+    }
+
+    @Test
+    public void testBurstThenRate() {
+        AtomicLong now = new AtomicLong();
+        TokenBucket bucket = new TokenBucket(100, 10, now::get);
+        Assert.assertEquals(10, bucket.tryAcquire(15));
+        Assert.assertFalse(bucket.tryAcquire());
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(10), bucket.nanosToNextToken());
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(50));
+        Assert.assertEquals(5, bucket.tryAcquire(15));
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        Assert.assertEquals(10, bucket.tryAcquire(15));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeRate() {
+        new TokenBucket(-1, 1);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2017 zte and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package utils;
+
+import com.google.protobuf.ByteString;
+import org.junit.Assert;
+import org.junit.Test;
+import org.opendaylight.p4plugin.runtime.impl.utils.ValueEncoder;
+
+import java.math.BigInteger;
+
+public class ValueEncoderTest {
+    private static String hex(ByteString value) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : value.toByteArray()) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void testIpv4() {
+        Assert.assertEquals("0a000001", hex(ValueEncoder.encode("10.0.0.1", 4)));
+        Assert.assertEquals("ffffffff", hex(ValueEncoder.encode("255.255.255.255", 4)));
+        Assert.assertEquals("00000a000001", hex(ValueEncoder.encode("10.0.0.1", 6)));
+    }
+
+    @Test
+    public void testMac() {
+        Assert.assertEquals("aabbccddeeff", hex(ValueEncoder.encode("aa:bb:cc:dd:ee:ff", 6)));
+        Assert.assertEquals("010203040506", hex(ValueEncoder.encode("1:2:3:4:5:6", 6)));
+    }
+
+    @Test
+    public void testIpv6() {
+        Assert.assertEquals("00000000000000000000000000000000", hex(ValueEncoder.encode("::", 16)));
+        Assert.assertEquals("00000000000000000000000000000001", hex(ValueEncoder.encode("::1", 16)));
+        Assert.assertEquals("00010000000000000000000000000000", hex(ValueEncoder.encode("1::", 16)));
+        Assert.assertEquals("20010db8000000000000ff0000428329",
+                hex(ValueEncoder.encode("2001:db8::ff00:42:8329", 16)));
+        Assert.assertEquals("00010002000300040005000600070008",
+                hex(ValueEncoder.encode("1:2:3:4:5:6:7:8", 16)));
+        Assert.assertEquals("00000000000000000000ffff01020304", hex(ValueEncoder.encode("::ffff:1.2.3.4", 16)));
+    }
+
+    @Test
+    public void testNumber() {
+        Assert.assertEquals("01ff", hex(ValueEncoder.encode("511", 2)));
+        Assert.assertEquals("0abc", hex(ValueEncoder.encode("0xabc", 2)));
+        Assert.assertEquals("ff", hex(ValueEncoder.encode("0x0000ff", 1)));
+        Assert.assertEquals("000000018ee90ff6c373e0ee4e3f0ad2",
+                hex(ValueEncoder.encode("123456789012345678901234567890", 16)));
+        Assert.assertEquals("00000000ffffffffff", hex(ValueEncoder.encode(new BigInteger("1099511627775"), 9)));
+    }
+
+    @Test
+    public void testToHexString() {
+        Assert.assertEquals("0x00ff", ValueEncoder.toHexString(ValueEncoder.encode("255", 2)));
+        Assert.assertEquals("0x0", ValueEncoder.toHexString(ByteString.EMPTY));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testValueExceedsWidth() {
+        ValueEncoder.encode("65536", 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidIpv4() {
+        ValueEncoder.encode("256.1.1.1", 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidIpv6() {
+        ValueEncoder.encode("1::2::3", 16);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidNumber() {
+        ValueEncoder.encode("12a", 2);
+    }
+}